@@ -22,6 +22,7 @@ import java.util.concurrent.atomic.LongAdder
 
 import io.netty.util.internal.ConcurrentSet
 import org.apache.spark._
+import org.apache.spark.memory.UnifiedMemoryManager
 import org.apache.spark.shuffle._
 import org.apache.spark.shuffle.sort.SortShuffleManager
 import org.apache.spark.util.Utils
@@ -50,6 +51,12 @@ class RssShuffleManager(conf: SparkConf) extends ShuffleManager with Logging {
 
   private lazy val fallbackPolicyRunner = new RssShuffleFallbackPolicyRunner(conf)
 
+  private lazy val writerSelector = {
+    val selector = new ShuffleWriterSelector(rssConf)
+    SparkEnv.get.metricsSystem.registerSource(selector)
+    selector
+  }
+
   private def initializeLifecycleManager(appId: String): Unit = {
     // Only create LifecycleManager singleton in Driver. When register shuffle multiple times, we
     // need to ensure that LifecycleManager will only be created once. Parallelism needs to be
@@ -100,14 +107,22 @@ class RssShuffleManager(conf: SparkConf) extends ShuffleManager with Logging {
     handle match {
       case h: RssShuffleHandle[K@unchecked, V@unchecked, _] =>
         val client = ShuffleClient.get(h.rssMetaServiceHost, h.rssMetaServicePort, rssConf)
-        if (RssConf.shuffleWriterMode(rssConf) == "sort") {
+        val autoSelected = RssConf.shuffleWriterMode(rssConf) == "auto"
+        val useSortWriter = RssConf.shuffleWriterMode(rssConf) match {
+          case "sort" => true
+          case "hash" => false
+          case "auto" =>
+            writerSelector.select(h.shuffleId, h.dependency.partitioner.numPartitions,
+              RssShuffleManager.taskExecutionMemory(conf)) == ShuffleWriterSelector.WriterType.SORT
+          case mode =>
+            throw new UnsupportedOperationException(s"Unrecognized shuffle write mode! $mode")
+        }
+        if (useSortWriter) {
           new SortBasedShuffleWriter(h.dependency, h.newAppId, h.numMaps, context,
             rssConf, client)
-        } else if (RssConf.shuffleWriterMode(rssConf) == "hash") {
-          new HashBasedShuffleWriter(h, mapId, context, rssConf, client)
         } else {
-          throw new UnsupportedOperationException(
-            s"Unrecognized shuffle write mode! ${RssConf.shuffleWriterMode(rssConf)}")
+          new HashBasedShuffleWriter(h, mapId, context, rssConf, client,
+            if (autoSelected) writerSelector else null)
         }
       case _ => sortShuffleManager.getWriter(handle, mapId, context)
     }
@@ -161,6 +176,10 @@ class RssShuffleManager(conf: SparkConf) extends ShuffleManager with Logging {
   }
 
   override def unregisterShuffle(shuffleId: Int): Boolean = {
+    // the selector is only created, and its metrics source registered, in auto mode
+    if (RssConf.shuffleWriterMode(rssConf) == "auto") {
+      writerSelector.removeShuffle(shuffleId)
+    }
     if (sortShuffleIds.contains(shuffleId)) {
       sortShuffleManager.unregisterShuffle(shuffleId)
     } else {
@@ -200,6 +219,24 @@ object RssShuffleManager {
     tmpRssConf
   }
 
+  /**
+   * Memory a single task may use for execution when every core of the executor runs a task,
+   * out of the most the on-heap execution pool can grow to by evicting cached blocks.
+   */
+  def taskExecutionMemory(conf: SparkConf): Long = {
+    val maxExecutionMemory = SparkEnv.get.memoryManager match {
+      case m: UnifiedMemoryManager =>
+        val storageRegionSize =
+          (m.maxHeapMemory * conf.getDouble("spark.memory.storageFraction", 0.5)).toLong
+        m.maxHeapMemory - math.min(m.onHeapStorageMemoryUsed, storageRegionSize)
+      // the static memory manager of the legacy mode
+      case _ =>
+        (Runtime.getRuntime.maxMemory * conf.getDouble("spark.shuffle.memoryFraction", 0.2) *
+          conf.getDouble("spark.shuffle.safetyFraction", 0.8)).toLong
+    }
+    maxExecutionMemory / conf.getInt("spark.executor.cores", 1)
+  }
+
   def genNewAppId(context: SparkContext): String = {
     context.applicationAttemptId match {
       case Some(id) => s"${context.applicationId}_$id"
@@ -213,11 +213,47 @@ public class RssShuffleWriterSuiteJ {
     check(2<<30, conf, serializer,false);
   }
 
+  @Test
+  public void testSwitchToSortInAutoMode() throws Exception {
+    final KryoSerializer serializer = new KryoSerializer(sparkConf);
+    checkSwitchToSort(serializer);
+  }
+
+  @Test
+  public void testSwitchToSortInAutoModeWithFastWrite() throws Exception {
+    final UnsafeRowSerializer serializer = new UnsafeRowSerializer(2, null);
+    checkSwitchToSort(serializer);
+  }
+
+  private void checkSwitchToSort(final Serializer serializer) throws Exception {
+    final RssConf conf = new RssConf()
+      .set("rss.shuffle.writer.mode", "auto")
+      .set("rss.push.data.buffer.size", "4k")
+      .set("rss.push.data.buffer.page.size", "256")
+      .set("rss.sort.push.data.threshold", "8k");
+    final ShuffleWriterSelector selector = new ShuffleWriterSelector(conf);
+    // a page per partition fits in the threshold, the full buffers of all partitions don't
+    assertEquals(ShuffleWriterSelector.WriterType.HASH,
+      selector.select(shuffleId, numPartitions, Long.MAX_VALUE));
+
+    check(100000, conf, serializer, true, selector);
+    assertEquals(1, selector.getNumTasksSwitchedToSort());
+  }
+
   private void check(
       final int approximateSize,
       final RssConf conf,
       final Serializer serializer,
       final boolean hashWriter) throws Exception {
+    check(approximateSize, conf, serializer, hashWriter, null);
+  }
+
+  private void check(
+      final int approximateSize,
+      final RssConf conf,
+      final Serializer serializer,
+      final boolean hashWriter,
+      final ShuffleWriterSelector selector) throws Exception {
     final boolean useUnsafe = serializer instanceof UnsafeRowSerializer;
 
     final Partitioner partitioner =
@@ -232,7 +268,7 @@ public class RssShuffleWriterSuiteJ {
 
     if (hashWriter) {
       final HashBasedShuffleWriter<Integer, String, String> writer = new HashBasedShuffleWriter<>(
-          handle, mapId, taskContext, conf, client);
+          handle, mapId, taskContext, conf, client, selector);
 
       AtomicInteger total = new AtomicInteger(0);
       Iterator iterator = getIterator(approximateSize, total, useUnsafe, false);
@@ -243,6 +279,7 @@ public class RssShuffleWriterSuiteJ {
       }
 
       writer.write(iterator);
+      assertEquals(selector != null, writer.isSwitchedToSort());
       Option<MapStatus> status = writer.stop(true);
       client.shutDown();
 
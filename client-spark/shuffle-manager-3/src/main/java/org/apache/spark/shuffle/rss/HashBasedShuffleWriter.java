@@ -20,6 +20,7 @@ package org.apache.spark.shuffle.rss;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 import scala.Option;
@@ -71,7 +72,6 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
 
   @Nullable
   private MapStatus mapStatus;
-  private long peakMemoryUsedBytes = 0;
 
   /**
    * Subclass of ByteArrayOutputStream that exposes `buf` directly.
@@ -89,8 +89,7 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
   private final MyByteArrayOutputStream serBuffer;
   private final SerializationStream serOutputStream;
 
-  private byte[][] sendBuffers;
-  private int[] sendOffsets;
+  private final PagedPartitionBuffers sendBuffers;
 
   private final LongAdder[] mapStatusLengths;
   private final long[] tmpRecords;
@@ -104,6 +103,15 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
 
   private final DataPusher dataPusher;
 
+  private final RssConf conf;
+  // shared by the data pushers of both paths, which synchronize on it
+  private final Consumer<Integer> afterPush;
+  // only set when the writer is picked automatically, allowing to switch to sort based pushing
+  @Nullable
+  private final ShuffleWriterSelector writerSelector;
+  // takes the records once the send buffers reached the sort push threshold
+  private SortBasedPusher sortBasedPusher;
+
   // In order to facilitate the writing of unit test code, ShuffleClient needs to be passed in as
   // parameters. By the way, simplify the passed parameters.
   public HashBasedShuffleWriter(
@@ -112,6 +120,17 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
       RssConf conf,
       ShuffleClient client,
       ShuffleWriteMetricsReporter metrics
+  ) throws IOException {
+    this(handle, taskContext, conf, client, metrics, null);
+  }
+
+  public HashBasedShuffleWriter(
+      RssShuffleHandle<K, V, C> handle,
+      TaskContext taskContext,
+      RssConf conf,
+      ShuffleClient client,
+      ShuffleWriteMetricsReporter metrics,
+      @Nullable ShuffleWriterSelector writerSelector
   ) throws IOException {
     this.mapId = taskContext.partitionId();
     this.dep = handle.dependency();
@@ -135,9 +154,16 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
     tmpRecords = new long[numPartitions];
 
     SEND_BUFFER_SIZE = RssConf.pushDataBufferSize(conf);
+    this.conf = conf;
+    this.afterPush = writeMetrics::incBytesWritten;
+    this.writerSelector = writerSelector;
 
-    sendBuffers = new byte[numPartitions][];
-    sendOffsets = new int[numPartitions];
+    // when picked automatically, don't let the buffers grow past what the sort based writer uses
+    long maxBufferMemory = writerSelector != null ?
+        RssConf.sortPushThreshold(conf) : Long.MAX_VALUE;
+    sendBuffers = new PagedPartitionBuffers(taskContext.taskMemoryManager(), numPartitions,
+        SEND_BUFFER_SIZE, RssConf.pushDataBufferPageSize(conf), maxBufferMemory,
+        this::flushSendBuffer);
 
     dataPusher = new DataPusher(
         appId,
@@ -149,7 +175,7 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
         numPartitions,
         conf,
         rssShuffleClient,
-        writeMetrics::incBytesWritten,
+        afterPush,
         mapStatusLengths);
   }
 
@@ -192,13 +218,6 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
         dataSize.add(rowSize);
       }
 
-      byte[] buffer = sendBuffers[partitionId];
-      if (buffer == null) {
-        buffer = new byte[SEND_BUFFER_SIZE];
-        sendBuffers[partitionId] = buffer;
-        peakMemoryUsedBytes += SEND_BUFFER_SIZE;
-      }
-
       if (serializedRecordSize > SEND_BUFFER_SIZE) {
         byte[] giantBuffer = new byte[serializedRecordSize];
         Platform.putInt(giantBuffer, Platform.BYTE_ARRAY_OFFSET, Integer.reverseBytes(rowSize));
@@ -206,11 +225,7 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
             giantBuffer, Platform.BYTE_ARRAY_OFFSET + 4, rowSize);
         pushGiantRecord(partitionId, giantBuffer, serializedRecordSize);
       } else {
-        int offset = getOrUpdateOffset(partitionId, buffer, serializedRecordSize);
-        Platform.putInt(buffer, Platform.BYTE_ARRAY_OFFSET + offset, Integer.reverseBytes(rowSize));
-        Platform.copyMemory(row.getBaseObject(), row.getBaseOffset(),
-            buffer, Platform.BYTE_ARRAY_OFFSET + offset + 4, rowSize);
-        sendOffsets[partitionId] = offset + serializedRecordSize;
+        insertRecord(partitionId, row.getBaseObject(), row.getBaseOffset(), rowSize, true);
       }
       tmpRecords[partitionId] += 1;
     }
@@ -231,27 +246,62 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
       final int serializedRecordSize = serBuffer.size();
       assert (serializedRecordSize > 0);
 
-      byte[] buffer = getOrCreateBuffer(partitionId);
-
       if (serializedRecordSize > SEND_BUFFER_SIZE) {
         pushGiantRecord(partitionId, serBuffer.getBuf(), serializedRecordSize);
       } else {
-        int offset = getOrUpdateOffset(partitionId, buffer, serializedRecordSize);
-        System.arraycopy(serBuffer.getBuf(), 0, buffer, offset, serializedRecordSize);
-        sendOffsets[partitionId] = offset + serializedRecordSize;
+        insertRecord(partitionId, serBuffer.getBuf(), Platform.BYTE_ARRAY_OFFSET,
+            serializedRecordSize, false);
       }
       tmpRecords[partitionId] += 1;
     }
   }
 
-  private byte[] getOrCreateBuffer(int partitionId) {
-    byte[] buffer = sendBuffers[partitionId];
-    if (buffer == null) {
-      buffer = new byte[SEND_BUFFER_SIZE];
-      sendBuffers[partitionId] = buffer;
-      peakMemoryUsedBytes += SEND_BUFFER_SIZE;
+  private void insertRecord(
+      int partitionId,
+      Object recordBase,
+      long recordOffset,
+      int recordSize,
+      boolean writeSize) throws IOException {
+    if (sortBasedPusher != null) {
+      sortBasedPusher.insertRecord(recordBase, recordOffset, recordSize, partitionId, writeSize);
+      return;
+    }
+    sendBuffers.insertRecord(partitionId, recordBase, recordOffset, recordSize, writeSize);
+    if (sendBuffers.isMaxMemoryReached()) {
+      switchToSortBasedPusher();
     }
-    return buffer;
+  }
+
+  /**
+   * Pushes what the send buffers hold and sorts the remaining records of the task by partition
+   * before pushing them, as the sort based writer does, so that a task with more data than its
+   * shuffle was picked for still pushes full buffers rather than many small ones.
+   */
+  private void switchToSortBasedPusher() throws IOException {
+    logger.info("Send buffers of shuffle {} map {} reached {} bytes, switch to sort based " +
+        "pushing.", shuffleId, mapId, sendBuffers.getUsed());
+    long pushStartTime = System.nanoTime();
+    sendBuffers.flushAll();
+    writeMetrics.incWriteTime(System.nanoTime() - pushStartTime);
+    sortBasedPusher = new SortBasedPusher(
+        taskContext.taskMemoryManager(),
+        rssShuffleClient,
+        appId,
+        shuffleId,
+        mapId,
+        taskContext.attemptNumber(),
+        taskContext.taskAttemptId(),
+        numMappers,
+        numPartitions,
+        conf,
+        afterPush,
+        mapStatusLengths);
+    writerSelector.onTaskSwitchedToSort();
+  }
+
+  @VisibleForTesting
+  boolean isSwitchedToSort() {
+    return sortBasedPusher != null;
   }
 
   private void pushGiantRecord(int partitionId, byte[] buffer, int numBytes) throws IOException {
@@ -274,60 +324,51 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
     writeMetrics.incWriteTime(System.nanoTime() - pushStartTime);
   }
 
-  private int getOrUpdateOffset(
-      int partitionId, byte[] buffer, int serializedRecordSize) throws IOException {
-    int offset = sendOffsets[partitionId];
-    if ((SEND_BUFFER_SIZE - offset) < serializedRecordSize) {
-      flushSendBuffer(partitionId, buffer, offset);
-      updateMapStatus();
-      offset = 0;
-    }
-    return offset;
-  }
-
-  private void flushSendBuffer(int partitionId, byte[] buffer, int size) throws IOException {
+  private void flushSendBuffer(int partitionId, byte[][] pages, int pageSize, int size)
+      throws IOException {
     long pushStartTime = System.nanoTime();
     logger.debug("Flush buffer, size {}.", size);
-    dataPusher.addTask(partitionId, buffer, size);
+    dataPusher.addTask(partitionId, pages, pageSize, size);
     writeMetrics.incWriteTime(System.nanoTime() - pushStartTime);
+    updateMapStatus();
+  }
+
+  private void mergeResidualData(int partitionId, byte[] buffer, int size) throws IOException {
+    int bytesWritten = rssShuffleClient.mergeData(
+        appId,
+        shuffleId,
+        mapId,
+        taskContext.attemptNumber(),
+        partitionId,
+        buffer,
+        0,
+        size,
+        numMappers,
+        numPartitions
+    );
+    mapStatusLengths[partitionId].add(bytesWritten);
+    writeMetrics.incBytesWritten(bytesWritten);
   }
 
   private void close() throws IOException {
     // here we wait for all the in-flight batches to return which sent by dataPusher thread
     dataPusher.waitOnTermination();
+    if (sortBasedPusher != null) {
+      long pushStartTime = System.nanoTime();
+      sortBasedPusher.pushData();
+      sortBasedPusher.close();
+      writeMetrics.incWriteTime(System.nanoTime() - pushStartTime);
+    }
     rssShuffleClient.prepareForMergeData(shuffleId, mapId, taskContext.attemptNumber());
 
     // merge and push residual data to reduce network traffic
     // NB: since dataPusher thread have no in-flight data at this point,
     //     we now push merged data by task thread will not introduce any contention
-    for (int i = 0; i < sendBuffers.length; i++) {
-      final int size = sendOffsets[i];
-      if (size > 0) {
-        int bytesWritten = rssShuffleClient.mergeData(
-            appId,
-            shuffleId,
-            mapId,
-            taskContext.attemptNumber(),
-            i,
-            sendBuffers[i],
-            0,
-            size,
-            numMappers,
-            numPartitions
-        );
-        // free buffer
-        sendBuffers[i] = null;
-        mapStatusLengths[i].add(bytesWritten);
-        writeMetrics.incBytesWritten(bytesWritten);
-      }
-    }
+    sendBuffers.drain(this::mergeResidualData);
     rssShuffleClient.pushMergedData(appId, shuffleId, mapId, taskContext.attemptNumber());
 
     updateMapStatus();
 
-    sendBuffers = null;
-    sendOffsets = null;
-
     long waitStartTime = System.nanoTime();
     rssShuffleClient.mapperEnd(appId, shuffleId, mapId, taskContext
         .attemptNumber(), numMappers);
@@ -350,7 +391,7 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
   @Override
   public Option<MapStatus> stop(boolean success) {
     try {
-      taskContext.taskMetrics().incPeakExecutionMemory(peakMemoryUsedBytes);
+      taskContext.taskMetrics().incPeakExecutionMemory(sendBuffers.getPeakMemoryUsedBytes());
 
       if (stopping) {
         return Option.apply(null);
@@ -366,6 +407,10 @@ public class HashBasedShuffleWriter<K, V, C> extends ShuffleWriter<K, V> {
         }
       }
     } finally {
+      sendBuffers.free();
+      if (sortBasedPusher != null) {
+        sortBasedPusher.cleanupResources();
+      }
       rssShuffleClient.cleanup(appId, shuffleId, mapId, taskContext.attemptNumber());
     }
   }
@@ -19,6 +19,7 @@ package org.apache.spark.shuffle.rss
 
 import io.netty.util.internal.ConcurrentSet
 import org.apache.spark._
+import org.apache.spark.memory.UnifiedMemoryManager
 import org.apache.spark.shuffle.{ShuffleReadMetricsReporter, _}
 import org.apache.spark.shuffle.sort.SortShuffleManager
 import org.apache.spark.util.Utils
@@ -47,6 +48,12 @@ class RssShuffleManager(conf: SparkConf) extends ShuffleManager with Logging {
 
   private lazy val fallbackPolicyRunner = new RssShuffleFallbackPolicyRunner(conf)
 
+  private lazy val writerSelector = {
+    val selector = new ShuffleWriterSelector(rssConf)
+    SparkEnv.get.metricsSystem.registerSource(selector)
+    selector
+  }
+
   private def initializeLifecycleManager(appId: String): Unit = {
     // Only create LifecycleManager singleton in Driver. When register shuffle multiple times, we
     // need to ensure that LifecycleManager will only be created once. Parallelism needs to be
@@ -89,6 +96,10 @@ class RssShuffleManager(conf: SparkConf) extends ShuffleManager with Logging {
   }
 
   override def unregisterShuffle(shuffleId: Int): Boolean = {
+    // the selector is only created, and its metrics source registered, in auto mode
+    if (RssConf.shuffleWriterMode(rssConf) == "auto") {
+      writerSelector.removeShuffle(shuffleId)
+    }
     if (sortShuffleIds.contains(shuffleId)) {
       sortShuffleManager.unregisterShuffle(shuffleId)
     } else {
@@ -119,14 +130,22 @@ class RssShuffleManager(conf: SparkConf) extends ShuffleManager with Logging {
     handle match {
       case h: RssShuffleHandle[K@unchecked, V@unchecked, _] =>
         val client = ShuffleClient.get(h.essMetaServiceHost, h.essMetaServicePort, rssConf)
-        if (RssConf.shuffleWriterMode(rssConf) == "sort") {
+        val autoSelected = RssConf.shuffleWriterMode(rssConf) == "auto"
+        val useSortWriter = RssConf.shuffleWriterMode(rssConf) match {
+          case "sort" => true
+          case "hash" => false
+          case "auto" =>
+            writerSelector.select(h.shuffleId, h.dependency.partitioner.numPartitions,
+              RssShuffleManager.taskExecutionMemory(conf)) == ShuffleWriterSelector.WriterType.SORT
+          case mode =>
+            throw new UnsupportedOperationException(s"Unrecognized shuffle write mode! $mode")
+        }
+        if (useSortWriter) {
           new SortBasedShuffleWriter(h.dependency, h.newAppId, h.numMappers,
             context, rssConf, client, metrics)
-        } else if (RssConf.shuffleWriterMode(rssConf) == "hash") {
-          new HashBasedShuffleWriter(h, context, rssConf, client, metrics)
         } else {
-          throw new UnsupportedOperationException(
-            s"Unrecognized shuffle write mode! ${RssConf.shuffleWriterMode(rssConf)}")
+          new HashBasedShuffleWriter(h, context, rssConf, client, metrics,
+            if (autoSelected) writerSelector else null)
         }
       case _ => sortShuffleManager.getWriter(handle, mapId, context, metrics)
     }
@@ -238,6 +257,23 @@ object RssShuffleManager {
     tmpRssConf
   }
 
+  /**
+   * Memory a single task may use for execution when every core of the executor runs a task,
+   * out of the most the on-heap execution pool can grow to by evicting cached blocks.
+   */
+  def taskExecutionMemory(conf: SparkConf): Long = {
+    SparkEnv.get.memoryManager match {
+      case m: UnifiedMemoryManager =>
+        val storageRegionSize =
+          (m.maxHeapMemory * conf.getDouble("spark.memory.storageFraction", 0.5)).toLong
+        val maxExecutionMemory =
+          m.maxHeapMemory - math.min(m.onHeapStorageMemoryUsed, storageRegionSize)
+        maxExecutionMemory / conf.getInt("spark.executor.cores", 1)
+      // a memory manager of unknown layout does not bound the selection
+      case _ => Long.MaxValue
+    }
+  }
+
   def genNewAppId(context: SparkContext): String = {
     context.applicationAttemptId match {
       case Some(id) => s"${context.applicationId}_$id"
@@ -40,6 +40,8 @@ import org.apache.spark.SparkEnv;
 import org.apache.spark.TaskContext;
 import org.apache.spark.executor.ShuffleWriteMetrics;
 import org.apache.spark.executor.TaskMetrics;
+import org.apache.spark.memory.TaskMemoryManager;
+import org.apache.spark.memory.UnifiedMemoryManager;
 import org.apache.spark.scheduler.MapStatus;
 import org.apache.spark.serializer.KryoSerializer;
 import org.apache.spark.serializer.Serializer;
@@ -92,6 +94,9 @@ public class RssShuffleWriterSuiteJ {
   private final SparkConf sparkConf = new SparkConf(false);
   private final BlockManagerId bmId = BlockManagerId.apply("execId", "host", 1, None$.empty());
 
+  private final UnifiedMemoryManager memoryManager = UnifiedMemoryManager.apply(sparkConf, 1);
+  private final TaskMemoryManager taskMemoryManager = new TaskMemoryManager(memoryManager, 0);
+
   @Mock(answer = Answers.RETURNS_SMART_NULLS)
   private TaskContext taskContext = null;
 
@@ -133,6 +138,7 @@ public class RssShuffleWriterSuiteJ {
     Mockito.doReturn(bmId).when(blockManager).shuffleServerId();
     Mockito.doReturn(blockManager).when(env).blockManager();
     Mockito.doReturn(sparkConf).when(env).conf();
+    Mockito.doReturn(taskMemoryManager).when(taskContext).taskMemoryManager();
     SparkEnv.set(env);
   }
 
@@ -192,10 +198,45 @@ public class RssShuffleWriterSuiteJ {
     check(2<<30, conf, serializer);
   }
 
+  @Test
+  public void testSwitchToSortInAutoMode() throws Exception {
+    final KryoSerializer serializer = new KryoSerializer(sparkConf);
+    checkSwitchToSort(serializer);
+  }
+
+  @Test
+  public void testSwitchToSortInAutoModeWithFastWrite() throws Exception {
+    final UnsafeRowSerializer serializer = new UnsafeRowSerializer(2, null);
+    checkSwitchToSort(serializer);
+  }
+
+  private void checkSwitchToSort(final Serializer serializer) throws Exception {
+    final RssConf conf = new RssConf()
+      .set("rss.shuffle.writer.mode", "auto")
+      .set("rss.push.data.buffer.size", "4k")
+      .set("rss.push.data.buffer.page.size", "256")
+      .set("rss.sort.push.data.threshold", "8k");
+    final ShuffleWriterSelector selector = new ShuffleWriterSelector(conf);
+    // a page per partition fits in the threshold, the full buffers of all partitions don't
+    assertEquals(ShuffleWriterSelector.WriterType.HASH,
+      selector.select(shuffleId, numPartitions, Long.MAX_VALUE));
+
+    check(100000, conf, serializer, selector);
+    assertEquals(1, selector.getNumTasksSwitchedToSort());
+  }
+
   private void check(
       final int approximateSize,
       final RssConf conf,
       final Serializer serializer) throws Exception {
+    check(approximateSize, conf, serializer, null);
+  }
+
+  private void check(
+      final int approximateSize,
+      final RssConf conf,
+      final Serializer serializer,
+      final ShuffleWriterSelector selector) throws Exception {
     final boolean useUnsafe = serializer instanceof UnsafeRowSerializer;
 
     final Partitioner partitioner =
@@ -209,7 +250,7 @@ public class RssShuffleWriterSuiteJ {
     final ShuffleClient client = new DummyShuffleClient(tempFile);
 
     final HashBasedShuffleWriter<Integer, String, String> writer = new HashBasedShuffleWriter<>(
-      handle, taskContext, conf, client, metrics.shuffleWriteMetrics());
+      handle, taskContext, conf, client, metrics.shuffleWriteMetrics(), selector);
     assertEquals(useUnsafe, writer.canUseFastWrite());
 
     AtomicInteger total = new AtomicInteger(0);
@@ -221,6 +262,7 @@ public class RssShuffleWriterSuiteJ {
     }
 
     writer.write(iterator);
+    assertEquals(selector != null, writer.isSwitchedToSort());
     Option<MapStatus> status = writer.stop(true);
     client.shutDown();
 
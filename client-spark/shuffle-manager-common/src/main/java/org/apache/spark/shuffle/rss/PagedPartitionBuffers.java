@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.spark.shuffle.rss;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.spark.memory.MemoryConsumer;
+import org.apache.spark.memory.MemoryMode;
+import org.apache.spark.memory.SparkOutOfMemoryError;
+import org.apache.spark.memory.TaskMemoryManager;
+import org.apache.spark.unsafe.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Send buffers of the hash based writer, one per partition, grown in small pages whose memory
+ * is acquired from the task memory manager. A partition is flushed once its buffer would exceed
+ * the push buffer size, and under memory pressure the largest partitions are flushed early so
+ * that their pages can be given back. The same happens once the buffers reach maxMemory, which
+ * a writer picked automatically takes as the sign to switch to sort based pushing.
+ */
+public class PagedPartitionBuffers extends MemoryConsumer {
+  private static final Logger logger = LoggerFactory.getLogger(PagedPartitionBuffers.class);
+
+  public interface Flusher {
+    void flush(int partitionId, byte[] buffer, int size) throws IOException;
+  }
+
+  /**
+   * Takes the data of a partition straight from its pages, the data being the first size bytes
+   * of pages filled up to pageSize bytes each. The pages are reused once it returns.
+   */
+  public interface PageFlusher {
+    void flush(int partitionId, byte[][] pages, int pageSize, int size) throws IOException;
+  }
+
+  private final int bufferSize;
+  private final int pageSize;
+  private final long maxMemory;
+  private final PageFlusher flusher;
+
+  // pages of every partition in the order they are filled, allocated on first use
+  private final byte[][][] pages;
+  private final int[] numPages;
+  private final int[] sizes;
+  // pages of flushed partitions, kept for reuse until memory is needed elsewhere
+  private final ArrayDeque<byte[]> freePages = new ArrayDeque<>();
+
+  // partitions of more than one page are copied here when drained, allocated on first use
+  private byte[] drainBuffer;
+  private final byte[] sizeBuffer = new byte[4];
+  private long peakMemoryUsedBytes = 0;
+  private boolean maxMemoryReached = false;
+
+  public PagedPartitionBuffers(
+      TaskMemoryManager memoryManager,
+      int numPartitions,
+      int bufferSize,
+      int pageSize,
+      long maxMemory,
+      PageFlusher flusher) {
+    super(memoryManager, Math.min(pageSize, bufferSize), MemoryMode.ON_HEAP);
+    this.bufferSize = bufferSize;
+    this.pageSize = Math.min(pageSize, bufferSize);
+    this.maxMemory = maxMemory;
+    this.flusher = flusher;
+    this.pages = new byte[numPartitions][][];
+    this.numPages = new int[numPartitions];
+    this.sizes = new int[numPartitions];
+  }
+
+  /**
+   * Appends a record of at most the buffer size to the buffer of partitionId, preceded by its
+   * size in big-endian order if writeSize is set.
+   */
+  public void insertRecord(
+      int partitionId,
+      Object recordBase,
+      long recordOffset,
+      int recordSize,
+      boolean writeSize) throws IOException {
+    int required = writeSize ? recordSize + 4 : recordSize;
+    if (sizes[partitionId] + required > bufferSize) {
+      flushPartition(partitionId, flusher, false);
+    }
+    ensureCapacity(partitionId, required);
+    if (writeSize) {
+      Platform.putInt(sizeBuffer, Platform.BYTE_ARRAY_OFFSET, Integer.reverseBytes(recordSize));
+      write(partitionId, sizeBuffer, Platform.BYTE_ARRAY_OFFSET, 4);
+    }
+    write(partitionId, recordBase, recordOffset, recordSize);
+  }
+
+  private void ensureCapacity(int partitionId, int required) throws IOException {
+    // acquiring a page may spill this partition as well, so the capacity is checked again
+    while ((long) numPages[partitionId] * pageSize < sizes[partitionId] + required) {
+      byte[] page = acquirePage();
+      if (pages[partitionId] == null) {
+        pages[partitionId] = new byte[(bufferSize + pageSize - 1) / pageSize][];
+      }
+      pages[partitionId][numPages[partitionId]++] = page;
+    }
+  }
+
+  private byte[] acquirePage() throws IOException {
+    byte[] page = freePages.pollFirst();
+    if (page != null) {
+      return page;
+    }
+    if (getUsed() + pageSize > maxMemory) {
+      if (!maxMemoryReached) {
+        logger.info("Push buffers reached {} bytes of {} bytes allowed.", getUsed(), maxMemory);
+        maxMemoryReached = true;
+      }
+      spill(getUsed() + pageSize - maxMemory, this);
+    }
+    // spills other consumers and then this one if memory is short
+    long granted = acquireMemory(pageSize);
+    if (granted < pageSize) {
+      freeMemory(granted);
+      throw new SparkOutOfMemoryError("Unable to acquire " + pageSize +
+        " bytes of memory for the push buffers, got " + granted);
+    }
+    peakMemoryUsedBytes = Math.max(peakMemoryUsedBytes, getUsed());
+    return new byte[pageSize];
+  }
+
+  private void write(int partitionId, Object base, long offset, int length) {
+    byte[][] partitionPages = pages[partitionId];
+    int size = sizes[partitionId];
+    while (length > 0) {
+      int offsetInPage = size % pageSize;
+      int toCopy = Math.min(length, pageSize - offsetInPage);
+      Platform.copyMemory(base, offset, partitionPages[size / pageSize],
+        Platform.BYTE_ARRAY_OFFSET + offsetInPage, toCopy);
+      offset += toCopy;
+      length -= toCopy;
+      size += toCopy;
+    }
+    sizes[partitionId] = size;
+  }
+
+  /**
+   * @return bytes of memory freed, if the pages are released rather than kept for reuse.
+   */
+  private long flushPartition(int partitionId, PageFlusher target, boolean release)
+      throws IOException {
+    int size = sizes[partitionId];
+    if (size > 0) {
+      // the pages are no longer part of this buffer once the data has been handed over
+      sizes[partitionId] = 0;
+      target.flush(partitionId, pages[partitionId], pageSize, size);
+    }
+    long freed = 0;
+    for (int i = 0; i < numPages[partitionId]; i++) {
+      if (release) {
+        freed += pageSize;
+      } else {
+        freePages.addLast(pages[partitionId][i]);
+      }
+      pages[partitionId][i] = null;
+    }
+    numPages[partitionId] = 0;
+    if (freed > 0) {
+      freeMemory(freed);
+    }
+    return freed;
+  }
+
+  private long releaseFreePages() {
+    long freed = (long) freePages.size() * pageSize;
+    freePages.clear();
+    if (freed > 0) {
+      freeMemory(freed);
+    }
+    return freed;
+  }
+
+  @Override
+  public long spill(long size, MemoryConsumer trigger) throws IOException {
+    long freed = releaseFreePages();
+    if (freed >= size) {
+      return freed;
+    }
+    List<Integer> partitions = new ArrayList<>();
+    for (int i = 0; i < sizes.length; i++) {
+      if (numPages[i] > 0) {
+        partitions.add(i);
+      }
+    }
+    partitions.sort((a, b) -> Integer.compare(sizes[b], sizes[a]));
+    int numFlushed = 0;
+    for (int partitionId : partitions) {
+      if (freed >= size) {
+        break;
+      }
+      freed += flushPartition(partitionId, flusher, true);
+      numFlushed++;
+    }
+    logger.info("Pushed {} largest partitions to free {} bytes of memory, {} requested.",
+      numFlushed, freed, size);
+    return freed;
+  }
+
+  /**
+   * Hands the data still buffered for every partition to target and gives back all memory.
+   */
+  public void drain(Flusher target) throws IOException {
+    flushAll((partitionId, partitionPages, partitionPageSize, size) ->
+      target.flush(partitionId, toContiguous(partitionPages, size), size));
+    drainBuffer = null;
+  }
+
+  /**
+   * Hands the data still buffered for every partition to the flusher and gives back all memory.
+   */
+  public void flushAll() throws IOException {
+    flushAll(flusher);
+  }
+
+  private void flushAll(PageFlusher target) throws IOException {
+    for (int i = 0; i < sizes.length; i++) {
+      if (numPages[i] > 0) {
+        flushPartition(i, target, true);
+      }
+    }
+    releaseFreePages();
+  }
+
+  private byte[] toContiguous(byte[][] partitionPages, int size) {
+    if (size <= pageSize) {
+      return partitionPages[0];
+    }
+    if (drainBuffer == null) {
+      drainBuffer = new byte[bufferSize];
+    }
+    for (int copied = 0, i = 0; copied < size; i++) {
+      int toCopy = Math.min(pageSize, size - copied);
+      System.arraycopy(partitionPages[i], 0, drainBuffer, copied, toCopy);
+      copied += toCopy;
+    }
+    return drainBuffer;
+  }
+
+  /**
+   * Drops all buffered data and gives back all memory.
+   */
+  public void free() {
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = 0;
+      numPages[i] = 0;
+      pages[i] = null;
+    }
+    freePages.clear();
+    if (getUsed() > 0) {
+      freeMemory(getUsed());
+    }
+  }
+
+  public boolean isMaxMemoryReached() {
+    return maxMemoryReached;
+  }
+
+  public long getPeakMemoryUsedBytes() {
+    return peakMemoryUsedBytes;
+  }
+}
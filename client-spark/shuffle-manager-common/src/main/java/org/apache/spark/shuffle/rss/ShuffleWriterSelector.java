@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.spark.shuffle.rss;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.spark.metrics.source.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.emr.rss.common.RssConf;
+
+/**
+ * Picks the writer of every shuffle when rss.shuffle.writer.mode is auto. A shuffle is written
+ * hash based if a page of send buffer for each of its partitions fits in the memory a task may
+ * spend on them, that is the sort push threshold or the task's share of execution memory if
+ * smaller, and sort based otherwise. A hash based task whose buffers grow to the sort push
+ * threshold switches to sort based pushing for the rest of its records.
+ *
+ * It is also the metrics source counting the shuffles and tasks of the executor on each path.
+ */
+public class ShuffleWriterSelector implements Source {
+  private static final Logger logger = LoggerFactory.getLogger(ShuffleWriterSelector.class);
+
+  public enum WriterType { HASH, SORT }
+
+  private final long pageSize;
+  private final long sortPushThreshold;
+
+  private final ConcurrentHashMap<Integer, WriterType> selectedWriters =
+    new ConcurrentHashMap<>();
+  private final LongAdder numHashShuffles = new LongAdder();
+  private final LongAdder numSortShuffles = new LongAdder();
+  private final LongAdder numTasksSwitchedToSort = new LongAdder();
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  public ShuffleWriterSelector(RssConf conf) {
+    this.pageSize = Math.min(RssConf.pushDataBufferPageSize(conf),
+      RssConf.pushDataBufferSize(conf));
+    this.sortPushThreshold = RssConf.sortPushThreshold(conf);
+    metricRegistry.register("NumHashShuffles", (Gauge<Long>) numHashShuffles::sum);
+    metricRegistry.register("NumSortShuffles", (Gauge<Long>) numSortShuffles::sum);
+    metricRegistry.register("NumTasksSwitchedToSort", (Gauge<Long>) numTasksSwitchedToSort::sum);
+  }
+
+  /**
+   * @param taskMemory execution memory available to a single task of this executor.
+   */
+  public WriterType select(int shuffleId, int numPartitions, long taskMemory) {
+    return selectedWriters.computeIfAbsent(shuffleId, id -> {
+      long hashMemory = numPartitions * pageSize;
+      long budget = Math.min(sortPushThreshold, taskMemory);
+      WriterType writerType = hashMemory <= budget ? WriterType.HASH : WriterType.SORT;
+      if (writerType == WriterType.HASH) {
+        numHashShuffles.increment();
+      } else {
+        numSortShuffles.increment();
+      }
+      logger.info("Shuffle {} with {} partitions uses the {} based writer, send buffers need " +
+        "at least {} bytes of {} bytes available.", shuffleId, numPartitions,
+        writerType.name().toLowerCase(), hashMemory, budget);
+      return writerType;
+    });
+  }
+
+  /**
+   * Records that a hash based task switched to sort based pushing.
+   */
+  public void onTaskSwitchedToSort() {
+    numTasksSwitchedToSort.increment();
+  }
+
+  public WriterType getSelectedWriter(int shuffleId) {
+    return selectedWriters.get(shuffleId);
+  }
+
+  public void removeShuffle(int shuffleId) {
+    selectedWriters.remove(shuffleId);
+  }
+
+  public long getNumHashShuffles() {
+    return numHashShuffles.sum();
+  }
+
+  public long getNumSortShuffles() {
+    return numSortShuffles.sum();
+  }
+
+  public long getNumTasksSwitchedToSort() {
+    return numTasksSwitchedToSort.sum();
+  }
+
+  @Override
+  public String sourceName() {
+    return "RssShuffleWriter";
+  }
+
+  @Override
+  public MetricRegistry metricRegistry() {
+    return metricRegistry;
+  }
+}
@@ -179,7 +179,8 @@ public class SortBasedPusher extends MemoryConsumer {
                            int partitionId, boolean copySize)
     throws IOException {
 
-    if (getUsed() > PushThreshold &&
+    // the pointer array alone may exceed a low threshold, with no page to push yet
+    if (getUsed() > PushThreshold && currentPage != null &&
         pageCursor + Utils.byteStringAsBytes("8k") >
           currentPage.getBaseOffset() + currentPage.size()) {
       logger.info("Memory Used across threshold, trigger push. Memory: " + getUsed() +
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.spark.shuffle.rss;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.memory.TaskMemoryManager;
+import org.apache.spark.memory.TestMemoryManager;
+import org.apache.spark.unsafe.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PagedPartitionBuffersSuiteJ {
+
+  final TestMemoryManager memoryManager =
+    new TestMemoryManager(new SparkConf().set("spark.memory.offHeap.enabled", "false"));
+  final TaskMemoryManager taskMemoryManager = new TaskMemoryManager(memoryManager, 0);
+
+  private final ByteArrayOutputStream[] flushed = new ByteArrayOutputStream[4];
+  private final int[] numFlushes = new int[4];
+
+  private void flush(int partitionId, byte[] buffer, int size) {
+    if (flushed[partitionId] == null) {
+      flushed[partitionId] = new ByteArrayOutputStream();
+    }
+    flushed[partitionId].write(buffer, 0, size);
+    numFlushes[partitionId]++;
+  }
+
+  private void flushPages(int partitionId, byte[][] pages, int pageSize, int size) {
+    byte[] buffer = new byte[size];
+    for (int copied = 0, i = 0; copied < size; i++) {
+      int toCopy = Math.min(pageSize, size - copied);
+      System.arraycopy(pages[i], 0, buffer, copied, toCopy);
+      copied += toCopy;
+    }
+    flush(partitionId, buffer, size);
+  }
+
+  private byte[] flushedData(int partitionId) {
+    return flushed[partitionId] == null ? new byte[0] : flushed[partitionId].toByteArray();
+  }
+
+  @Test
+  public void testRecordsAcrossPages() throws Exception {
+    PagedPartitionBuffers buffers = new PagedPartitionBuffers(taskMemoryManager, 4, 64, 16,
+      Long.MAX_VALUE, this::flushPages);
+    byte[] record = new byte[30];
+    new Random().nextBytes(record);
+
+    buffers.insertRecord(1, record, Platform.BYTE_ARRAY_OFFSET, 30, true);
+    Assert.assertEquals(48, buffers.getUsed());
+    buffers.insertRecord(1, record, Platform.BYTE_ARRAY_OFFSET, 30, false);
+    Assert.assertEquals(0, numFlushes[1]);
+    Assert.assertEquals(64, buffers.getUsed());
+    // exceeds the buffer size, the first two records are flushed and their pages reused
+    buffers.insertRecord(1, record, Platform.BYTE_ARRAY_OFFSET, 30, false);
+    Assert.assertEquals(1, numFlushes[1]);
+    Assert.assertEquals(64, buffers.getUsed());
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    byte[] size = new byte[4];
+    Platform.putInt(size, Platform.BYTE_ARRAY_OFFSET, Integer.reverseBytes(30));
+    expected.write(size);
+    expected.write(record);
+    expected.write(record);
+    Assert.assertArrayEquals(expected.toByteArray(), flushedData(1));
+
+    buffers.drain(this::flush);
+    expected.write(record);
+    Assert.assertArrayEquals(expected.toByteArray(), flushedData(1));
+    Assert.assertEquals(0, buffers.getUsed());
+    Assert.assertEquals(64, buffers.getPeakMemoryUsedBytes());
+  }
+
+  @Test
+  public void testSpillLargestPartitions() throws Exception {
+    memoryManager.limit(64);
+    PagedPartitionBuffers buffers = new PagedPartitionBuffers(taskMemoryManager, 4, 64, 16,
+      Long.MAX_VALUE, this::flushPages);
+    ByteArrayOutputStream[] expected = new ByteArrayOutputStream[4];
+    Random random = new Random();
+    for (int i = 0; i < 200; i++) {
+      int partitionId = random.nextInt(4);
+      byte[] record = new byte[1 + random.nextInt(20)];
+      random.nextBytes(record);
+      if (expected[partitionId] == null) {
+        expected[partitionId] = new ByteArrayOutputStream();
+      }
+      expected[partitionId].write(record);
+      buffers.insertRecord(partitionId, record, Platform.BYTE_ARRAY_OFFSET, record.length,
+        false);
+      Assert.assertTrue(buffers.getUsed() <= 64);
+    }
+    buffers.drain(this::flush);
+    for (int i = 0; i < 4; i++) {
+      byte[] expectedData = expected[i] == null ? new byte[0] : expected[i].toByteArray();
+      Assert.assertArrayEquals(expectedData, flushedData(i));
+    }
+    Assert.assertEquals(0, buffers.getUsed());
+    Assert.assertEquals(0, taskMemoryManager.getMemoryConsumptionForThisTask());
+  }
+
+  @Test
+  public void testMaxMemory() throws Exception {
+    PagedPartitionBuffers buffers = new PagedPartitionBuffers(taskMemoryManager, 4, 64, 16, 32,
+      this::flushPages);
+    byte[] record = new byte[16];
+    new Random().nextBytes(record);
+    buffers.insertRecord(0, record, Platform.BYTE_ARRAY_OFFSET, 16, false);
+    buffers.insertRecord(0, record, Platform.BYTE_ARRAY_OFFSET, 16, false);
+    Assert.assertFalse(buffers.isMaxMemoryReached());
+
+    // partition 0 is pushed to make room for partition 1
+    buffers.insertRecord(1, record, Platform.BYTE_ARRAY_OFFSET, 16, false);
+    Assert.assertTrue(buffers.isMaxMemoryReached());
+    Assert.assertEquals(1, numFlushes[0]);
+    Assert.assertEquals(32, flushedData(0).length);
+    Assert.assertEquals(16, buffers.getUsed());
+    buffers.free();
+    Assert.assertEquals(0, taskMemoryManager.getMemoryConsumptionForThisTask());
+  }
+}
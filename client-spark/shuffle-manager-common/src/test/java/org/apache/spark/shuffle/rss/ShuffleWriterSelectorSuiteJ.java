@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.spark.shuffle.rss;
+
+import org.apache.spark.shuffle.rss.ShuffleWriterSelector.WriterType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.common.RssConf;
+
+public class ShuffleWriterSelectorSuiteJ {
+
+  @Test
+  public void testSelectByBufferFootprint() {
+    RssConf conf = new RssConf();
+    conf.set("rss.push.data.buffer.size", "64k");
+    conf.set("rss.push.data.buffer.page.size", "4k");
+    conf.set("rss.sort.push.data.threshold", "64m");
+    ShuffleWriterSelector selector = new ShuffleWriterSelector(conf);
+    long taskMemory = 1024L * 1024 * 1024;
+
+    Assert.assertEquals(WriterType.HASH, selector.select(0, 16384, taskMemory));
+    Assert.assertEquals(WriterType.SORT, selector.select(1, 16385, taskMemory));
+    // little memory per task
+    Assert.assertEquals(WriterType.SORT,
+      selector.select(2, 300, 1024 * 1024));
+    // the choice of a shuffle is kept for all its tasks
+    Assert.assertEquals(WriterType.SORT, selector.select(2, 300, taskMemory));
+    Assert.assertEquals(1, selector.getNumHashShuffles());
+    Assert.assertEquals(2, selector.getNumSortShuffles());
+    Assert.assertEquals(2L,
+      selector.metricRegistry().getGauges().get("NumSortShuffles").getValue());
+
+    selector.removeShuffle(2);
+    Assert.assertNull(selector.getSelectedWriter(2));
+    Assert.assertEquals(WriterType.HASH, selector.select(2, 300, taskMemory));
+
+    selector.onTaskSwitchedToSort();
+    Assert.assertEquals(1L,
+      selector.metricRegistry().getGauges().get("NumTasksSwitchedToSort").getValue());
+  }
+}
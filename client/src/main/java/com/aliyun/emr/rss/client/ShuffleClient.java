@@ -106,6 +106,14 @@ public abstract class ShuffleClient implements Cloneable {
       int numMappers,
       int numPartitions) throws IOException;
 
+  /**
+   * @return host and push port of the worker that data of the reduce partition is pushed to, or
+   * null if the partition has no location yet.
+   */
+  public String getPushTarget(int shuffleId, int reduceId) {
+    return null;
+  }
+
   public abstract void prepareForMergeData(
       int shuffleId,
       int mapId,
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -35,19 +36,23 @@ import scala.reflect.ClassTag;
 import scala.reflect.ClassTag$;
 
 import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.util.internal.ConcurrentSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.aliyun.emr.rss.client.compress.RssLz4Compressor;
+import com.aliyun.emr.rss.client.compress.Compressor;
 import com.aliyun.emr.rss.client.read.RssInputStream;
 import com.aliyun.emr.rss.client.write.DataBatches;
+import com.aliyun.emr.rss.client.write.PushCoalescer;
 import com.aliyun.emr.rss.client.write.PushState;
 import com.aliyun.emr.rss.common.RssConf;
 import com.aliyun.emr.rss.common.network.TransportContext;
+import com.aliyun.emr.rss.common.network.buffer.BorrowedNettyManagedBuffer;
 import com.aliyun.emr.rss.common.network.buffer.NettyManagedBuffer;
 import com.aliyun.emr.rss.common.network.client.RpcResponseCallback;
 import com.aliyun.emr.rss.common.network.client.TransportClient;
@@ -56,6 +61,7 @@ import com.aliyun.emr.rss.common.network.client.TransportClientFactory;
 import com.aliyun.emr.rss.common.network.protocol.PushData;
 import com.aliyun.emr.rss.common.network.protocol.PushMergedData;
 import com.aliyun.emr.rss.common.network.server.NoOpRpcHandler;
+import com.aliyun.emr.rss.common.network.util.NettyUtils;
 import com.aliyun.emr.rss.common.network.util.TransportConf;
 import com.aliyun.emr.rss.common.protocol.PartitionLocation;
 import com.aliyun.emr.rss.common.protocol.RpcNameConstants;
@@ -66,7 +72,6 @@ import com.aliyun.emr.rss.common.protocol.message.StatusCode;
 import com.aliyun.emr.rss.common.rpc.RpcAddress;
 import com.aliyun.emr.rss.common.rpc.RpcEndpointRef;
 import com.aliyun.emr.rss.common.rpc.RpcEnv;
-import com.aliyun.emr.rss.common.unsafe.Platform;
 import com.aliyun.emr.rss.common.util.ThreadUtils;
 import com.aliyun.emr.rss.common.util.Utils;
 
@@ -77,10 +82,17 @@ public class ShuffleClientImpl extends ShuffleClient {
 
   private static final Random rand = new Random();
 
+  private static final int BATCH_HEADER_SIZE = 4 * 4;
+
+  // batch headers are read back with Platform.getInt, i.e. in native byte order
+  private static final boolean LITTLE_ENDIAN =
+      ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
   private final RssConf conf;
   private final int registerShuffleMaxRetries;
   private final long registerShuffleRetryWait;
   private final int maxInFlight;
+  private final long maxBytesInFlight;
   private final int pushBufferSize;
 
   private final RpcEnv rpcEnv;
@@ -89,6 +101,12 @@ public class ShuffleClientImpl extends ShuffleClient {
 
   protected TransportClientFactory dataClientFactory;
 
+  // batch bodies, each released once its push has finally succeeded or failed
+  private final PooledByteBufAllocator pushBufferAllocator;
+
+  // null unless batches of all map tasks are coalesced into merged pushes
+  private final PushCoalescer pushCoalescer;
+
   private InetAddress ia = null;
 
   // key: shuffleId, value: (reduceId, PartitionLocation)
@@ -106,11 +124,10 @@ public class ShuffleClientImpl extends ShuffleClient {
   private final ExecutorService partitionSplitPool;
   private final Map<Integer, Set<Integer>> splitting = new ConcurrentHashMap<>();
 
-  ThreadLocal<RssLz4Compressor> lz4CompressorThreadLocal = new ThreadLocal<RssLz4Compressor>() {
+  ThreadLocal<Compressor> compressorThreadLocal = new ThreadLocal<Compressor>() {
     @Override
-    protected RssLz4Compressor initialValue() {
-      int blockSize = RssConf.pushDataBufferSize(conf);
-      return new RssLz4Compressor(blockSize);
+    protected Compressor initialValue() {
+      return Compressor.getCompressor(conf);
     }
   };
 
@@ -132,6 +149,7 @@ public class ShuffleClientImpl extends ShuffleClient {
     registerShuffleMaxRetries = RssConf.registerShuffleMaxRetry(conf);
     registerShuffleRetryWait = RssConf.registerShuffleRetryWait(conf);
     maxInFlight = RssConf.pushDataMaxReqsInFlight(conf);
+    maxBytesInFlight = RssConf.pushDataMaxBytesInFlight(conf);
     pushBufferSize = RssConf.pushDataBufferSize(conf);
 
     // init rpc env and master endpointRef
@@ -148,12 +166,21 @@ public class ShuffleClientImpl extends ShuffleClient {
         new TransportContext(dataTransportConf, new NoOpRpcHandler(), true);
     List<TransportClientBootstrap> bootstraps = Lists.newArrayList();
     dataClientFactory = context.createClientFactory(bootstraps);
+    // bodies are allocated by task threads but released by netty threads, so no thread cache
+    pushBufferAllocator = NettyUtils.createPooledByteBufAllocator(
+        dataTransportConf.preferDirectBufs(), false, 0);
 
     int retryThreadNum = RssConf.pushDataRetryThreadNum(conf);
     pushDataRetryPool = ThreadUtils.newDaemonCachedThreadPool("Retry-Sender", retryThreadNum, 60);
 
     int splitPoolSize = RssConf.clientSplitPoolSize(conf);
     partitionSplitPool = ThreadUtils.newDaemonCachedThreadPool("Shuffle-Split", splitPoolSize, 60);
+
+    if (RssConf.pushDataCoalesceEnabled(conf)) {
+      pushCoalescer = new PushCoalescer(conf, this::doPushCoalescedData);
+    } else {
+      pushCoalescer = null;
+    }
   }
 
   private void submitRetryPushData(
@@ -161,7 +188,7 @@ public class ShuffleClientImpl extends ShuffleClient {
       int shuffleId,
       int mapId,
       int attemptId,
-      byte[] body,
+      ByteBuf body,
       int batchId,
       PartitionLocation loc,
       RpcResponseCallback callback,
@@ -174,15 +201,15 @@ public class ShuffleClientImpl extends ShuffleClient {
     } else if (mapperEnded(shuffleId, mapId, attemptId)) {
       logger.debug(
           "Retrying push data, but the mapper(map {} attempt {}) has ended.", mapId, attemptId);
-      pushState.inFlightBatches.remove(batchId);
+      pushState.removeInFlightBatch(batchId);
+      body.release();
     } else {
       PartitionLocation newLoc = reducePartitionMap.get(shuffleId).get(reduceId);
       logger.info("Revive success, new location for reduce {} is {}.", reduceId, newLoc);
       try {
         TransportClient client = dataClientFactory.createClient(
             newLoc.getHost(), newLoc.getPushPort(), reduceId);
-        NettyManagedBuffer newBuffer =
-            new NettyManagedBuffer(Unpooled.wrappedBuffer(body));
+        NettyManagedBuffer newBuffer = new BorrowedNettyManagedBuffer(body);
         String shuffleKey = Utils.makeShuffleKey(applicationId, shuffleId);
 
         PushData newPushData =
@@ -207,16 +234,20 @@ public class ShuffleClientImpl extends ShuffleClient {
       boolean revived,
       StatusCode cause) {
     HashMap<String, DataBatches> newDataBatchesMap = new HashMap<>();
-    for (DataBatches.DataBatch batch : batches) {
+    for (int i = 0; i < batches.size(); i++) {
+      DataBatches.DataBatch batch = batches.get(i);
       int reduceId = batch.loc.getReduceId();
       if (!revive(applicationId, shuffleId, mapId, attemptId,
           reduceId, batch.loc.getEpoch(), batch.loc, cause)) {
-        pushState.exception.compareAndSet(null,
+        pushState.setException(
             new IOException("Revive Failed in retry push merged data for location: " + batch.loc));
+        newDataBatchesMap.values().forEach(DataBatches::releaseBatches);
+        releaseBatches(batches.subList(i, batches.size()));
         return;
       } else if (mapperEnded(shuffleId, mapId, attemptId)) {
         logger.debug(
             "Retrying push data, but the mapper(map {} attempt {}) has ended.", mapId, attemptId);
+        batch.body.release();
       } else {
         PartitionLocation newLoc = reducePartitionMap.get(shuffleId).get(reduceId);
         logger.info("Revive success, new location for reduce {} is {}.", reduceId, newLoc);
@@ -235,6 +266,20 @@ public class ShuffleClientImpl extends ShuffleClient {
     }
   }
 
+  private static void releaseBatches(List<DataBatches.DataBatch> batches) {
+    for (DataBatches.DataBatch batch : batches) {
+      batch.body.release();
+    }
+  }
+
+  private static void writeBatchHeaderInt(ByteBuf buf, int value) {
+    if (LITTLE_ENDIAN) {
+      buf.writeIntLE(value);
+    } else {
+      buf.writeInt(value);
+    }
+  }
+
   private String genAddressPair(PartitionLocation loc) {
     String addressPair;
     if (loc.getPeer() != null) {
@@ -281,34 +326,24 @@ public class ShuffleClientImpl extends ShuffleClient {
   }
 
   private void limitMaxInFlight(
-      String mapKey, PushState pushState, int limit) throws IOException {
+      String mapKey, PushState pushState, int limit, long limitBytes) throws IOException {
     if (pushState.exception.get() != null) {
       throw pushState.exception.get();
     }
 
-    ConcurrentSet<Integer> inFlightBatches = pushState.inFlightBatches;
     long timeoutMs = RssConf.limitInFlightTimeoutMs(conf);
-    long delta = RssConf.limitInFlightSleepDeltaMs(conf);
-    long times = timeoutMs / delta;
+    boolean withinLimit = true;
     try {
-      while (times > 0) {
-        if (inFlightBatches.size() <= limit) {
-          break;
-        }
-        if (pushState.exception.get() != null) {
-          throw pushState.exception.get();
-        }
-        Thread.sleep(delta);
-        times--;
-      }
+      withinLimit = pushState.waitInFlight(limit, limitBytes, timeoutMs);
     } catch (InterruptedException e) {
-      pushState.exception.set(new IOException(e));
+      pushState.setException(new IOException(e));
     }
 
-    if (times <= 0) {
-      logger.error("After waiting for {} ms, there are still {} batches in flight for map {}, " +
-        "which exceeds the limit {}.", timeoutMs, inFlightBatches.size(), mapKey, limit);
-      logger.error("Map: {} in flight batches: {}", mapKey, inFlightBatches);
+    if (!withinLimit) {
+      logger.error("After waiting for {} ms, there are still {} batches of {} bytes in flight " +
+        "for map {}, which exceeds the limit of {} batches and {} bytes.", timeoutMs,
+        pushState.numInFlightBatches(), pushState.getInFlightBytes(), mapKey, limit, limitBytes);
+      logger.error("Map: {} in flight batches: {}", mapKey, pushState.getInFlightBatchIds());
       throw new IOException("wait timeout for task " + mapKey, pushState.exception.get());
     }
     if (pushState.exception.get() != null) {
@@ -445,38 +480,50 @@ public class ShuffleClientImpl extends ShuffleClient {
     // increment batchId
     final int nextBatchId = pushState.batchId.addAndGet(1);
 
+    if (doPush || pushCoalescer != null) {
+      // check limit before the body is allocated
+      limitMaxInFlight(mapKey, pushState, maxInFlight, maxBytesInFlight);
+    }
+
     // compress data
-    final RssLz4Compressor compressor = lz4CompressorThreadLocal.get();
+    final Compressor compressor = compressorThreadLocal.get();
     compressor.compress(data, offset, length);
 
+    // the body is written once into a pooled buffer which, when direct, is also what gets
+    // written to the socket
     final int compressedTotalSize = compressor.getCompressedTotalSize();
-    final int BATCH_HEADER_SIZE = 4 * 4;
-    final byte[] body = new byte[BATCH_HEADER_SIZE + compressedTotalSize];
-    Platform.putInt(body, Platform.BYTE_ARRAY_OFFSET, mapId);
-    Platform.putInt(body, Platform.BYTE_ARRAY_OFFSET + 4, attemptId);
-    Platform.putInt(body, Platform.BYTE_ARRAY_OFFSET + 8, nextBatchId);
-    Platform.putInt(body, Platform.BYTE_ARRAY_OFFSET + 12, compressedTotalSize);
-    System.arraycopy(compressor.getCompressedBuffer(), 0, body, BATCH_HEADER_SIZE,
-        compressedTotalSize);
-
-    if (doPush) {
+    final ByteBuf body = pushBufferAllocator.buffer(BATCH_HEADER_SIZE + compressedTotalSize);
+    writeBatchHeaderInt(body, mapId);
+    writeBatchHeaderInt(body, attemptId);
+    writeBatchHeaderInt(body, nextBatchId);
+    writeBatchHeaderInt(body, compressedTotalSize);
+    body.writeBytes(compressor.getCompressedBuffer(), 0, compressedTotalSize);
+    final int bodySize = body.readableBytes();
+
+    if (pushCoalescer != null) {
+      logger.debug("Coalesce batch {} of map {} attempt {} reduce {}.",
+          nextBatchId, mapId, attemptId, reduceId);
+      pushState.addInFlightBatch(nextBatchId, bodySize);
+      pushCoalescer.add(genAddressPair(loc), shuffleKey, new PushCoalescer.CoalescedBatch(
+          applicationId, shuffleId, mapId, attemptId, pushState,
+          new DataBatches.DataBatch(loc, nextBatchId, body)));
+    } else if (doPush) {
       logger.debug("Do push data for app {} shuffle {} map {} attempt {} reduce {} batch {}.",
           applicationId, shuffleId, mapId, attemptId, reduceId, nextBatchId);
-      // check limit
-      limitMaxInFlight(mapKey, pushState, maxInFlight);
 
       // add inFlight requests
-      pushState.inFlightBatches.add(nextBatchId);
+      pushState.addInFlightBatch(nextBatchId, bodySize);
 
       // build PushData request
-      NettyManagedBuffer buffer = new NettyManagedBuffer(Unpooled.wrappedBuffer(body));
+      NettyManagedBuffer buffer = new BorrowedNettyManagedBuffer(body);
       PushData pushData = new PushData(MASTER_MODE, shuffleKey, loc.getUniqueId(), buffer);
 
       // build callback
       RpcResponseCallback callback = new RpcResponseCallback() {
         @Override
         public void onSuccess(ByteBuffer response) {
-          pushState.inFlightBatches.remove(nextBatchId);
+          body.release();
+          pushState.removeInFlightBatch(nextBatchId);
           if (response.remaining() > 0 && response.get() == StatusCode.StageEnded.getValue()) {
             mapperEndMap.computeIfAbsent(shuffleId, (id) -> new ConcurrentSet<>())
               .add(mapKey);
@@ -488,8 +535,8 @@ public class ShuffleClientImpl extends ShuffleClient {
 
         @Override
         public void onFailure(Throwable e) {
-          pushState.exception.compareAndSet(null,
-              new IOException("Revived PushData failed!", e));
+          body.release();
+          pushState.setException(new IOException("Revived PushData failed!", e));
           pushState.removeFuture(nextBatchId);
           logger.debug("Push data failed for map {} attempt {} batch {}.",
               mapId, attemptId, nextBatchId);
@@ -523,6 +570,7 @@ public class ShuffleClientImpl extends ShuffleClient {
         @Override
         public void onFailure(Throwable e) {
           if (pushState.exception.get() != null) {
+            body.release();
             return;
           }
           // async retry push data
@@ -531,7 +579,8 @@ public class ShuffleClientImpl extends ShuffleClient {
                 submitRetryPushData(applicationId, shuffleId, mapId, attemptId, body,
                     nextBatchId, loc, callback, pushState, getPushDataFailCause(e.getMessage())));
           } else {
-            pushState.inFlightBatches.remove(nextBatchId);
+            pushState.removeInFlightBatch(nextBatchId);
+            body.release();
             logger.info("Mapper shuffleId:{} mapId:{} attempt:{} already ended," +
                           " remove batchId:{} .",
               shuffleId, mapId, attemptId, nextBatchId);
@@ -556,7 +605,7 @@ public class ShuffleClientImpl extends ShuffleClient {
       String addressPair = genAddressPair(loc);
       boolean shoudPush = pushState.addBatchData(addressPair, loc, nextBatchId, body);
       if (shoudPush) {
-        limitMaxInFlight(mapKey, pushState, maxInFlight);
+        limitMaxInFlight(mapKey, pushState, maxInFlight, maxBytesInFlight);
         DataBatches dataBatches = pushState.takeDataBaches(addressPair);
         doPushMergedData(
           addressPair.split("-")[0],
@@ -570,7 +619,7 @@ public class ShuffleClientImpl extends ShuffleClient {
       }
     }
 
-    return body.length;
+    return bodySize;
   }
 
   private void splitPartition(int shuffleId, int reduceId, String applicationId,
@@ -614,12 +663,22 @@ public class ShuffleClientImpl extends ShuffleClient {
         data, offset, length, numMappers, numPartitions, true);
   }
 
+  @Override
+  public String getPushTarget(int shuffleId, int reduceId) {
+    ConcurrentHashMap<Integer, PartitionLocation> map = reducePartitionMap.get(shuffleId);
+    PartitionLocation loc = map == null ? null : map.get(reduceId);
+    return loc == null ? null : loc.hostAndPushPort();
+  }
+
   @Override
   public void prepareForMergeData(int shuffleId, int mapId, int attemptId) throws IOException {
     final String mapKey = Utils.makeMapKey(shuffleId, mapId, attemptId);
     PushState pushState = pushStates.get(mapKey);
     if (pushState != null) {
-      limitMaxInFlight(mapKey, pushState, 0);
+      if (pushCoalescer != null) {
+        pushCoalescer.flush(pushState);
+      }
+      limitMaxInFlight(mapKey, pushState, 0, 0);
     }
   }
 
@@ -646,10 +705,13 @@ public class ShuffleClientImpl extends ShuffleClient {
     if (pushState == null) {
       return;
     }
+    if (pushCoalescer != null) {
+      pushCoalescer.flush(pushState);
+    }
     ArrayList<Map.Entry<String, DataBatches>> batchesArr =
         new ArrayList<>(pushState.batchesMap.entrySet());
     while (!batchesArr.isEmpty()) {
-      limitMaxInFlight(mapKey, pushState, maxInFlight);
+      limitMaxInFlight(mapKey, pushState, maxInFlight, maxBytesInFlight);
       Map.Entry<String, DataBatches> entry = batchesArr.get(rand.nextInt(batchesArr.size()));
       ArrayList<DataBatches.DataBatch> batches =
           entry.getValue().requireBatches(pushBufferSize);
@@ -676,23 +738,26 @@ public class ShuffleClientImpl extends ShuffleClient {
     final int port = Integer.parseInt(splits[1]);
 
     int groupedBatchId = pushState.batchId.addAndGet(1);
-    pushState.inFlightBatches.add(groupedBatchId);
 
     final int numBatches = batches.size();
     final String[] partitionUniqueIds = new String[numBatches];
     final int[] offsets = new int[numBatches];
     final int[] batchIds = new int[numBatches];
     int currentSize = 0;
-    CompositeByteBuf byteBuf = Unpooled.compositeBuffer();
+    // one component per batch, so that they are never consolidated into a copy
+    CompositeByteBuf byteBuf = Unpooled.compositeBuffer(numBatches);
     for (int i = 0; i < numBatches; i++) {
       DataBatches.DataBatch batch = batches.get(i);
       partitionUniqueIds[i] = batch.loc.getUniqueId();
       offsets[i] = currentSize;
       batchIds[i] = batch.batchId;
-      currentSize += batch.body.length;
-      byteBuf.addComponent(true, Unpooled.wrappedBuffer(batch.body));
+      currentSize += batch.body.readableBytes();
+      byteBuf.addComponent(true, batch.body.retainedDuplicate());
     }
-    NettyManagedBuffer buffer = new NettyManagedBuffer(byteBuf);
+    // the composite is released once this push completes, while the batches stay alive
+    // until they are finally pushed or given up
+    NettyManagedBuffer buffer = new BorrowedNettyManagedBuffer(byteBuf);
+    pushState.addInFlightBatch(groupedBatchId, currentSize);
     String shuffleKey = Utils.makeShuffleKey(applicationId, shuffleId);
     PushMergedData mergedData = new PushMergedData(
       MASTER_MODE, shuffleKey, partitionUniqueIds, offsets, buffer);
@@ -702,7 +767,8 @@ public class ShuffleClientImpl extends ShuffleClient {
       public void onSuccess(ByteBuffer response) {
         logger.debug("Push data success for map {} attempt {} grouped batch {}.",
           mapId, attemptId, groupedBatchId);
-        pushState.inFlightBatches.remove(groupedBatchId);
+        releaseBatches(batches);
+        pushState.removeInFlightBatch(groupedBatchId);
         if (response.remaining() > 0 &&
               response.get() == StatusCode.StageEnded.getValue()) {
           mapperEndMap.computeIfAbsent(shuffleId, (id) -> new ConcurrentSet<>())
@@ -712,8 +778,9 @@ public class ShuffleClientImpl extends ShuffleClient {
 
       @Override
       public void onFailure(Throwable e) {
+        releaseBatches(batches);
         String errorMsg = (revived ? "Revived push" : "Push") + " merged data failed!";
-        pushState.exception.compareAndSet(null, new IOException(errorMsg, e));
+        pushState.setException(new IOException(errorMsg, e));
         if (logger.isDebugEnabled()) {
           for (int batchId: batchIds) {
             logger.debug("Push data failed for map {} attempt {} batch {}.",
@@ -726,23 +793,28 @@ public class ShuffleClientImpl extends ShuffleClient {
     RpcResponseCallback wrappedCallback = new RpcResponseCallback() {
       @Override
       public void onSuccess(ByteBuffer response) {
+        byteBuf.release();
         callback.onSuccess(response);
       }
 
       @Override
       public void onFailure(Throwable e) {
+        byteBuf.release();
         if (pushState.exception.get() != null) {
+          releaseBatches(batches);
           return;
         }
         if (revived) {
           callback.onFailure(e);
           return;
         }
-        pushState.inFlightBatches.remove(groupedBatchId);
+        pushState.removeInFlightBatch(groupedBatchId);
         if (!mapperEnded(shuffleId, mapId, attemptId)) {
           pushDataRetryPool.submit(() ->
               submitRetryPushMergedData(pushState, applicationId, shuffleId, mapId,
                 attemptId, batches, true, getPushDataFailCause(e.getMessage())));
+        } else {
+          releaseBatches(batches);
         }
       }
     };
@@ -759,6 +831,88 @@ public class ShuffleClientImpl extends ShuffleClient {
     }
   }
 
+  private void doPushCoalescedData(
+      String hostPort,
+      String shuffleKey,
+      ArrayList<PushCoalescer.CoalescedBatch> batches) {
+    final String[] splits = hostPort.split(":");
+    final String host = splits[0];
+    final int port = Integer.parseInt(splits[1]);
+
+    final int numBatches = batches.size();
+    final String[] partitionUniqueIds = new String[numBatches];
+    final int[] offsets = new int[numBatches];
+    int currentSize = 0;
+    CompositeByteBuf byteBuf = Unpooled.compositeBuffer(numBatches);
+    for (int i = 0; i < numBatches; i++) {
+      DataBatches.DataBatch batch = batches.get(i).batch;
+      partitionUniqueIds[i] = batch.loc.getUniqueId();
+      offsets[i] = currentSize;
+      currentSize += batch.body.readableBytes();
+      byteBuf.addComponent(true, batch.body.retainedDuplicate());
+    }
+    NettyManagedBuffer buffer = new BorrowedNettyManagedBuffer(byteBuf);
+    PushMergedData mergedData = new PushMergedData(
+      MASTER_MODE, shuffleKey, partitionUniqueIds, offsets, buffer);
+
+    // every batch stays accounted in flight for its own map until it is acknowledged, or
+    // until its map has retried it as a merged push of its own
+    RpcResponseCallback callback = new RpcResponseCallback() {
+      @Override
+      public void onSuccess(ByteBuffer response) {
+        byteBuf.release();
+        boolean stageEnded = response.remaining() > 0 &&
+            response.get() == StatusCode.StageEnded.getValue();
+        for (PushCoalescer.CoalescedBatch batch : batches) {
+          batch.batch.body.release();
+          batch.pushState.removeInFlightBatch(batch.batch.batchId);
+          if (stageEnded) {
+            mapperEndMap.computeIfAbsent(batch.shuffleId, (id) -> new ConcurrentSet<>())
+              .add(Utils.makeMapKey(batch.shuffleId, batch.mapId, batch.attemptId));
+          }
+        }
+        logger.debug("Push {} coalesced batches to {} success.", numBatches, hostPort);
+      }
+
+      @Override
+      public void onFailure(Throwable e) {
+        byteBuf.release();
+        StatusCode cause = getPushDataFailCause(e.getMessage());
+        Map<PushState, ArrayList<PushCoalescer.CoalescedBatch>> batchesByMap = new HashMap<>();
+        for (PushCoalescer.CoalescedBatch batch : batches) {
+          batchesByMap.computeIfAbsent(batch.pushState, (s) -> new ArrayList<>()).add(batch);
+        }
+        for (ArrayList<PushCoalescer.CoalescedBatch> mapBatches : batchesByMap.values()) {
+          PushCoalescer.CoalescedBatch first = mapBatches.get(0);
+          PushState pushState = first.pushState;
+          ArrayList<DataBatches.DataBatch> dataBatches = new ArrayList<>(mapBatches.size());
+          for (PushCoalescer.CoalescedBatch batch : mapBatches) {
+            dataBatches.add(batch.batch);
+          }
+          if (pushState.exception.get() != null ||
+              mapperEnded(first.shuffleId, first.mapId, first.attemptId)) {
+            releaseBatches(dataBatches);
+            dataBatches.forEach(batch -> pushState.removeInFlightBatch(batch.batchId));
+          } else {
+            pushDataRetryPool.submit(() -> {
+              submitRetryPushMergedData(pushState, first.applicationId, first.shuffleId,
+                  first.mapId, first.attemptId, dataBatches, true, cause);
+              dataBatches.forEach(batch -> pushState.removeInFlightBatch(batch.batchId));
+            });
+          }
+        }
+      }
+    };
+
+    try {
+      TransportClient client = dataClientFactory.createClient(host, port);
+      client.pushMergedData(mergedData, callback);
+    } catch (Exception e) {
+      logger.warn("PushCoalescedData failed", e);
+      callback.onFailure(new Exception(getPushDataFailCause(e.getMessage()).toString(), e));
+    }
+  }
+
   @Override
   public void mapperEnd(
       String applicationId,
@@ -770,7 +924,10 @@ public class ShuffleClientImpl extends ShuffleClient {
     PushState pushState = pushStates.computeIfAbsent(mapKey, (s) -> new PushState(conf));
 
     try {
-      limitMaxInFlight(mapKey, pushState, 0);
+      if (pushCoalescer != null) {
+        pushCoalescer.flush(pushState);
+      }
+      limitMaxInFlight(mapKey, pushState, 0, 0);
 
       MapperEndResponse response = driverRssMetaService.<MapperEndResponse>askSync(
           new MapperEnd(applicationId, shuffleId, mapId, attemptId, numMappers),
@@ -789,8 +946,9 @@ public class ShuffleClientImpl extends ShuffleClient {
     final String mapKey = Utils.makeMapKey(shuffleId, mapId, attemptId);
     PushState pushState = pushStates.remove(mapKey);
     if (pushState != null) {
-      pushState.exception.compareAndSet(null, new IOException("Cleaned Up"));
+      pushState.setException(new IOException("Cleaned Up"));
       pushState.cancelFutures();
+      pushState.batchesMap.values().forEach(DataBatches::releaseBatches);
     }
   }
 
@@ -812,6 +970,9 @@ public class ShuffleClientImpl extends ShuffleClient {
     reduceFileGroupsMap.remove(shuffleId);
     mapperEndMap.remove(shuffleId);
     splitting.remove(shuffleId);
+    if (pushCoalescer != null) {
+      pushCoalescer.removeShuffle(Utils.makeShuffleKey(applicationId, shuffleId));
+    }
 
     logger.info("Unregistered shuffle {}.", shuffleId);
     return true;
@@ -870,6 +1031,9 @@ public class ShuffleClientImpl extends ShuffleClient {
     if (null != rpcEnv) {
       rpcEnv.shutdown();
     }
+    if (null != pushCoalescer) {
+      pushCoalescer.close();
+    }
     if (null != dataClientFactory) {
       dataClientFactory.close();
     }
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.compress;
+
+import com.aliyun.emr.rss.common.RssConf;
+
+/**
+ * Compresses one batch at a time into a block laid out as described by {@link RssLz4Trait}.
+ * Blocks of every codec can be read by {@link Decompressor}.
+ */
+public abstract class Compressor extends RssLz4Trait {
+  private byte[] compressedBuffer = new byte[0];
+  private int compressedTotalSize;
+
+  public static Compressor getCompressor(RssConf conf) {
+    int blockSize = RssConf.pushDataBufferSize(conf);
+    switch (CompressionCodec.fromString(RssConf.compressionCodec(conf))) {
+      case ZSTD:
+        return new RssZstdCompressor(blockSize, RssConf.compressionZstdLevel(conf));
+      case NONE:
+        return new NoneCompressor(blockSize);
+      default:
+        return new RssLz4Compressor(blockSize);
+    }
+  }
+
+  public abstract void compress(byte[] data, int offset, int length);
+
+  /**
+   * @return the max size of length bytes once compressed, not including the header.
+   */
+  protected abstract int maxCompressedLength(int length);
+
+  public int getCompressedTotalSize() {
+    return compressedTotalSize;
+  }
+
+  public byte[] getCompressedBuffer() {
+    return compressedBuffer;
+  }
+
+  /**
+   * @return the buffer to compress length bytes into, starting at HEADER_LENGTH.
+   */
+  protected byte[] ensureCapacity(int length) {
+    int compressedBlockSize = HEADER_LENGTH + maxCompressedLength(length);
+    if (compressedBuffer.length < compressedBlockSize) {
+      compressedBuffer = new byte[compressedBlockSize];
+      System.arraycopy(MAGIC, 0, compressedBuffer, 0, MAGIC_LENGTH);
+    }
+    return compressedBuffer;
+  }
+
+  protected void writeHeader(int token, int compressedLength, int originalLength, int check) {
+    compressedBuffer[MAGIC_LENGTH] = (byte) token;
+    writeIntLE(compressedLength, compressedBuffer, MAGIC_LENGTH + 1);
+    writeIntLE(originalLength, compressedBuffer, MAGIC_LENGTH + 5);
+    writeIntLE(check, compressedBuffer, MAGIC_LENGTH + 9);
+    compressedTotalSize = HEADER_LENGTH + compressedLength;
+  }
+
+  private static void writeIntLE(int i, byte[] buf, int off) {
+    buf[off++] = (byte) i;
+    buf[off++] = (byte) (i >>> 8);
+    buf[off++] = (byte) (i >>> 16);
+    buf[off++] = (byte) (i >>> 24);
+  }
+}
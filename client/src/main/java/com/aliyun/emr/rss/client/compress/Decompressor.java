@@ -19,18 +19,22 @@ package com.aliyun.emr.rss.client.compress;
 
 import java.util.zip.Checksum;
 
+import com.github.luben.zstd.Zstd;
 import net.jpountz.lz4.LZ4Factory;
 import net.jpountz.lz4.LZ4FastDecompressor;
 import net.jpountz.xxhash.XXHashFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class RssLz4Decompressor extends RssLz4Trait {
-  private static final Logger logger = LoggerFactory.getLogger(RssLz4Decompressor.class);
+/**
+ * Decompresses blocks written by any {@link Compressor}, the codec is read from the block header.
+ */
+public class Decompressor extends RssLz4Trait {
+  private static final Logger logger = LoggerFactory.getLogger(Decompressor.class);
   private final LZ4FastDecompressor decompressor;
   private final Checksum checksum;
 
-  public RssLz4Decompressor() {
+  public Decompressor() {
     decompressor = LZ4Factory.fastestInstance().fastDecompressor();
     checksum = XXHashFactory.fastestInstance().newStreamingHash32(DEFAULT_SEED).asChecksum();
   }
@@ -42,12 +46,14 @@ public class RssLz4Decompressor extends RssLz4Trait {
   public int decompress(byte[] src, byte[] dst, int dstOff) {
     int token = src[MAGIC_LENGTH] & 0xFF;
     int compressionMethod = token & 0xF0;
-    int compressionLevel = COMPRESSION_LEVEL_BASE + (token & 0x0F);
     int compressedLen = readIntLE(src, MAGIC_LENGTH + 1);
     int originalLen = readIntLE(src, MAGIC_LENGTH + 5);
     int check = readIntLE(src, MAGIC_LENGTH + 9);
 
     switch (compressionMethod) {
+      case COMPRESSION_METHOD_NONE:
+        System.arraycopy(src, HEADER_LENGTH, dst, dstOff, originalLen);
+        return originalLen;
       case COMPRESSION_METHOD_RAW:
         System.arraycopy(src, HEADER_LENGTH, dst, dstOff, originalLen);
         break;
@@ -59,6 +65,19 @@ public class RssLz4Decompressor extends RssLz4Trait {
               compressedLen, compressedLen2);
           return -1;
         }
+        break;
+      case COMPRESSION_METHOD_ZSTD:
+        long decompressedLen = Zstd.decompressByteArray(dst, dstOff, originalLen,
+            src, HEADER_LENGTH, compressedLen);
+        if (Zstd.isError(decompressedLen) || decompressedLen != originalLen) {
+          logger.error("Decompressed length corrupted! need {}, but {}.", originalLen,
+              Zstd.isError(decompressedLen) ? Zstd.getErrorName(decompressedLen) : decompressedLen);
+          return -1;
+        }
+        break;
+      default:
+        logger.error("Unknown compression method {}.", compressionMethod);
+        return -1;
     }
 
     checksum.reset();
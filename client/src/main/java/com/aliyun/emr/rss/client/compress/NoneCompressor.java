@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.compress;
+
+/**
+ * Stores batches as they are, without computing a checksum.
+ */
+public class NoneCompressor extends Compressor {
+
+  public NoneCompressor(int blockSize) {
+    ensureCapacity(blockSize);
+  }
+
+  @Override
+  protected int maxCompressedLength(int length) {
+    return length;
+  }
+
+  @Override
+  public void compress(byte[] data, int offset, int length) {
+    byte[] compressedBuffer = ensureCapacity(length);
+    System.arraycopy(data, offset, compressedBuffer, HEADER_LENGTH, length);
+    writeHeader(COMPRESSION_METHOD_NONE, length, length, 0);
+  }
+}
@@ -23,12 +23,10 @@ import net.jpountz.lz4.LZ4Compressor;
 import net.jpountz.lz4.LZ4Factory;
 import net.jpountz.xxhash.XXHashFactory;
 
-public class RssLz4Compressor extends RssLz4Trait {
+public class RssLz4Compressor extends Compressor {
   private final int compressionLevel;
   private final LZ4Compressor compressor;
   private final Checksum checksum;
-  private byte[] compressedBuffer;
-  private int compressedTotalSize;
 
   public RssLz4Compressor() {
     this(256 * 1024);
@@ -39,22 +37,20 @@ public class RssLz4Compressor extends RssLz4Trait {
     this.compressionLevel = Math.max(0, level);
     this.compressor = LZ4Factory.fastestInstance().fastCompressor();
     checksum = XXHashFactory.fastestInstance().newStreamingHash32(DEFAULT_SEED).asChecksum();
-    initCompressBuffer(blockSize);
+    ensureCapacity(blockSize);
   }
 
-  private void initCompressBuffer(int size) {
-    int compressedBlockSize = HEADER_LENGTH + compressor.maxCompressedLength(size);
-    compressedBuffer = new byte[compressedBlockSize];
-    System.arraycopy(MAGIC, 0, compressedBuffer, 0, MAGIC_LENGTH);
+  @Override
+  protected int maxCompressedLength(int length) {
+    return compressor.maxCompressedLength(length);
   }
 
+  @Override
   public void compress(byte[] data, int offset, int length) {
     checksum.reset();
     checksum.update(data, offset, length);
     final int check = (int) checksum.getValue();
-    if (compressedBuffer.length - HEADER_LENGTH < length) {
-      initCompressBuffer(length);
-    }
+    byte[] compressedBuffer = ensureCapacity(length);
     int compressedLength = compressor.compress(
         data, offset, length, compressedBuffer, HEADER_LENGTH);
     final int compressMethod;
@@ -66,26 +62,6 @@ public class RssLz4Compressor extends RssLz4Trait {
       compressMethod = COMPRESSION_METHOD_LZ4;
     }
 
-    compressedBuffer[MAGIC_LENGTH] = (byte) (compressMethod | compressionLevel);
-    writeIntLE(compressedLength, compressedBuffer, MAGIC_LENGTH + 1);
-    writeIntLE(length, compressedBuffer, MAGIC_LENGTH + 5);
-    writeIntLE(check, compressedBuffer, MAGIC_LENGTH + 9);
-
-    compressedTotalSize = HEADER_LENGTH + compressedLength;
-  }
-
-  public int getCompressedTotalSize() {
-    return compressedTotalSize;
-  }
-
-  public byte[] getCompressedBuffer() {
-    return compressedBuffer;
-  }
-
-  private static void writeIntLE(int i, byte[] buf, int off) {
-    buf[off++] = (byte) i;
-    buf[off++] = (byte) (i >>> 8);
-    buf[off++] = (byte) (i >>> 16);
-    buf[off++] = (byte) (i >>> 24);
+    writeHeader(compressMethod | compressionLevel, compressedLength, length, check);
   }
 }
@@ -17,6 +17,10 @@
 
 package com.aliyun.emr.rss.client.compress;
 
+/**
+ * Layout of a compressed block, shared by all codecs. The high bits of the token name the
+ * compression method, so that a reader can decompress blocks of any codec.
+ */
 public abstract class RssLz4Trait {
   protected static final byte[] MAGIC = new byte[] { 'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k' };
   protected static final int MAGIC_LENGTH = MAGIC.length;
@@ -32,6 +36,9 @@ public abstract class RssLz4Trait {
 
   protected static final int COMPRESSION_METHOD_RAW = 0x10;
   protected static final int COMPRESSION_METHOD_LZ4 = 0x20;
+  protected static final int COMPRESSION_METHOD_ZSTD = 0x30;
+  // stored as is, without checksum
+  protected static final int COMPRESSION_METHOD_NONE = 0x40;
 
   protected static final int DEFAULT_SEED = 0x9747b28c;
 }
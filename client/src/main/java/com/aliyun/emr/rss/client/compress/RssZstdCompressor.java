@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.compress;
+
+import java.util.zip.Checksum;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.xxhash.XXHashFactory;
+
+public class RssZstdCompressor extends Compressor {
+  private final int level;
+  private final Checksum checksum;
+
+  public RssZstdCompressor(int blockSize, int level) {
+    this.level = level;
+    checksum = XXHashFactory.fastestInstance().newStreamingHash32(DEFAULT_SEED).asChecksum();
+    ensureCapacity(blockSize);
+  }
+
+  @Override
+  protected int maxCompressedLength(int length) {
+    return (int) Zstd.compressBound(length);
+  }
+
+  @Override
+  public void compress(byte[] data, int offset, int length) {
+    checksum.reset();
+    checksum.update(data, offset, length);
+    final int check = (int) checksum.getValue();
+    byte[] compressedBuffer = ensureCapacity(length);
+    long compressedLength = Zstd.compressByteArray(compressedBuffer, HEADER_LENGTH,
+      compressedBuffer.length - HEADER_LENGTH, data, offset, length, level);
+    if (Zstd.isError(compressedLength) || compressedLength >= length) {
+      System.arraycopy(data, offset, compressedBuffer, HEADER_LENGTH, length);
+      writeHeader(COMPRESSION_METHOD_RAW, length, length, check);
+    } else {
+      writeHeader(COMPRESSION_METHOD_ZSTD, (int) compressedLength, length, check);
+    }
+  }
+}
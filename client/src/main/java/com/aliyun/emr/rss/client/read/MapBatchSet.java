@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.read;
+
+import java.util.Arrays;
+
+/**
+ * The batches read so far, one growable bitset of batch ids per mapId. Batch ids of a map are
+ * handed out from a counter, so they are small and dense, and a bit per id is both smaller and
+ * cheaper to update than a set of boxed ids.
+ */
+final class MapBatchSet {
+  private static final long[] EMPTY = new long[0];
+
+  private final long[][] words;
+
+  MapBatchSet(int numMaps) {
+    words = new long[numMaps][];
+    Arrays.fill(words, EMPTY);
+  }
+
+  /**
+   * @return true if batchId of mapId had not been added before.
+   */
+  boolean add(int mapId, int batchId) {
+    long[] mapWords = words[mapId];
+    int index = batchId >>> 6;
+    if (index >= mapWords.length) {
+      mapWords = Arrays.copyOf(mapWords, Math.max(index + 1, mapWords.length * 2));
+      words[mapId] = mapWords;
+    }
+    long mask = 1L << batchId;
+    if ((mapWords[index] & mask) != 0) {
+      return false;
+    }
+    mapWords[index] |= mask;
+    return true;
+  }
+
+  boolean contains(int mapId, int batchId) {
+    long[] mapWords = words[mapId];
+    int index = batchId >>> 6;
+    return index < mapWords.length && (mapWords[index] & (1L << batchId)) != 0;
+  }
+}
@@ -170,6 +170,42 @@ public class RetryingChunkClient {
     }
   }
 
+  /**
+   * Fetch numChunks consecutive chunks starting at startChunkIndex. They are requested at once if
+   * the current replica supports batch fetch, otherwise one by one. A chunk that fails is retried
+   * on its own, in the same way as {@link #fetchChunk(int)}.
+   */
+  public void fetchChunks(int startChunkIndex, int numChunks) {
+    if (numChunks == 1) {
+      fetchChunk(startChunkIndex);
+      return;
+    }
+    Replica replica;
+    RetryingChunkReceiveCallback callback;
+    synchronized (this) {
+      replica = getCurrentReplica();
+      callback = new RetryingChunkReceiveCallback(numTries);
+    }
+    try {
+      TransportClient client = replica.getOrOpenStream();
+      if (replica.isBatchFetchSupported()) {
+        client.fetchChunks(replica.getStreamId(), startChunkIndex, numChunks, callback);
+      } else {
+        for (int i = 0; i < numChunks; i++) {
+          client.fetchChunk(replica.getStreamId(), startChunkIndex + i, callback);
+        }
+      }
+    } catch (Exception e) {
+      logger.error("Exception raised while beginning fetch chunks {} to {} {}.",
+          startChunkIndex, startChunkIndex + numChunks - 1,
+          numTries > 0 ? "(after " + numTries + " retries)" : "", e);
+
+      for (int i = 0; i < numChunks; i++) {
+        callback.onFailure(startChunkIndex + i, e);
+      }
+    }
+  }
+
   @VisibleForTesting
   Replica getCurrentReplica() {
     int currentReplicaIndex = numTries % replicas.size();
@@ -240,6 +276,7 @@ class Replica {
 
   private long streamId;
   private int numChunks;
+  private boolean batchFetchSupported;
   private TransportClient client;
   private int startMapIndex;
   private int endMapIndex;
@@ -276,6 +313,7 @@ class Replica {
       ByteBuffer response = client.sendRpcSync(openMessage, timeoutMs);
       streamId = response.getLong();
       numChunks = response.getInt();
+      batchFetchSupported = response.hasRemaining() && response.get() == 1;
     }
     return client;
   }
@@ -288,6 +326,10 @@ class Replica {
     return numChunks;
   }
 
+  public boolean isBatchFetchSupported() {
+    return batchFetchSupported;
+  }
+
   @Override
   public String toString() {
     return location.getHost() + ":" + location.getFetchPort();
@@ -23,30 +23,68 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.google.common.annotations.VisibleForTesting;
 import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.aliyun.emr.rss.client.compress.RssLz4Decompressor;
+import com.aliyun.emr.rss.client.compress.Decompressor;
 import com.aliyun.emr.rss.client.compress.RssLz4Trait;
 import com.aliyun.emr.rss.common.RssConf;
 import com.aliyun.emr.rss.common.network.buffer.ManagedBuffer;
 import com.aliyun.emr.rss.common.network.buffer.NettyManagedBuffer;
 import com.aliyun.emr.rss.common.network.client.ChunkReceivedCallback;
 import com.aliyun.emr.rss.common.network.client.TransportClientFactory;
+import com.aliyun.emr.rss.common.network.util.NettyUtils;
 import com.aliyun.emr.rss.common.protocol.PartitionLocation;
 import com.aliyun.emr.rss.common.unsafe.Platform;
 
 public abstract class RssInputStream extends InputStream {
   private static final Logger logger = LoggerFactory.getLogger(RssInputStream.class);
+  private static final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(
+      NettyUtils.createThreadFactory("Partition Reader Prefetch"));
+  private static final ExecutorService decompressExecutor = Executors.newCachedThreadPool(
+      NettyUtils.createThreadFactory("Batch Decompression"));
+  // bytes of fetched chunks not yet consumed, plus those reserved by prefetched chunks still in
+  // flight, shared by all the streams of this JVM
+  private static final AtomicLong bufferedChunkBytes = new AtomicLong();
+
+  @VisibleForTesting
+  static long getBufferedChunkBytes() {
+    return bufferedChunkBytes.get();
+  }
+
+  /**
+   * Reserves bytes for a prefetched chunk unless that takes the buffered chunks beyond max.
+   */
+  private static boolean tryReserveChunk(long bytes, long max) {
+    while (true) {
+      long current = bufferedChunkBytes.get();
+      if (current + bytes > max) {
+        return false;
+      }
+      if (bufferedChunkBytes.compareAndSet(current, current + bytes)) {
+        return true;
+      }
+    }
+  }
 
   public static RssInputStream create(
       RssConf conf,
@@ -98,12 +136,21 @@ public abstract class RssInputStream extends InputStream {
     private final int endMapIndex;
 
     private final int maxInFlight;
+    private final int fetchBatchSize;
+    private final int prefetchPartitions;
+    private final long prefetchMaxMemory;
+    // reserved for every prefetched chunk until it arrives, as chunk sizes are not known before
+    private final long prefetchChunkSize;
+
+    // readers of the next locations, opened in the background
+    private final Map<Integer, CompletableFuture<PartitionReader>> prefetchedReaders =
+      new HashMap<>();
 
-    private final Map<Integer, Set<Integer>> batchesRead = new HashMap<>();
+    private final MapBatchSet batchesRead;
 
     private byte[] compressedBuf;
     private byte[] decompressedBuf;
-    private final RssLz4Decompressor decompressor;
+    private final Decompressor decompressor;
 
     private ByteBuf currentChunk;
     private PartitionReader currentReader;
@@ -113,6 +160,10 @@ public abstract class RssInputStream extends InputStream {
 
     private MetricsCallback callback;
 
+    // decompresses batches in the background when rss.fetch.decompress.async.enabled is set
+    private DecompressionPipeline pipeline;
+    private DecompressedBatch currentBatch;
+
     // mapId, attempId, batchId, size
     private final int BATCH_HEADER_SIZE = 4 * 4;
     private final byte[] sizeBuf = new byte[BATCH_HEADER_SIZE];
@@ -138,19 +189,29 @@ public abstract class RssInputStream extends InputStream {
       this.locations = shuffledLocations.toArray(new PartitionLocation[locations.length]);
 
       this.attempts = attempts;
+      this.batchesRead = new MapBatchSet(attempts.length);
       this.attemptNumber = attemptNumber;
       this.startMapIndex = startMapIndex;
       this.endMapIndex = endMapIndex;
 
       maxInFlight = RssConf.fetchChunkMaxReqsInFlight(conf);
+      fetchBatchSize = Math.max(1, RssConf.fetchChunkBatchSize(conf));
+      prefetchPartitions = RssConf.fetchPrefetchPartitions(conf);
+      prefetchMaxMemory = RssConf.fetchPrefetchMaxMemory(conf);
+      prefetchChunkSize = RssConf.workerFetchChunkSize(conf);
 
       int blockSize = RssConf.pushDataBufferSize(conf) + RssLz4Trait.HEADER_LENGTH;
       compressedBuf = new byte[blockSize];
       decompressedBuf = new byte[blockSize];
 
-      decompressor = new RssLz4Decompressor();
+      decompressor = new Decompressor();
 
       moveToNextReader();
+
+      if (RssConf.fetchDecompressAsyncEnabled(conf) && currentChunk != null) {
+        pipeline = new DecompressionPipeline(
+          Math.max(1, RssConf.fetchDecompressAsyncBuffers(conf)), blockSize);
+      }
     }
 
     private void moveToNextReader() throws IOException {
@@ -158,14 +219,14 @@ public abstract class RssInputStream extends InputStream {
         currentReader.close();
       }
 
-      currentReader = createReader(locations[fileIndex]);
+      currentReader = openReader(fileIndex);
       logger.info("Moved to next partition {},startMapIndex {} endMapIndex {} , {}/{} read , " +
                     "get chunks size {}", locations[fileIndex], startMapIndex, endMapIndex,
         fileIndex, locations.length, currentReader.numChunks);
       while (currentReader.numChunks < 1 && fileIndex < locations.length - 1) {
         fileIndex++;
         currentReader.close();
-        currentReader = createReader(locations[fileIndex]);
+        currentReader = openReader(fileIndex);
         logger.info("Moved to next partition {},startMapIndex {} endMapIndex {} , {}/{} read , " +
                       "get chunks size {}", locations[fileIndex], startMapIndex, endMapIndex,
           fileIndex, locations.length, currentReader.numChunks);
@@ -179,6 +240,42 @@ public abstract class RssInputStream extends InputStream {
       }
     }
 
+    /**
+     * Returns the reader of locations[index], opened in the background if it has been prefetched,
+     * and starts opening the readers of the following prefetchPartitions locations.
+     */
+    private PartitionReader openReader(int index) throws IOException {
+      CompletableFuture<PartitionReader> future = prefetchedReaders.remove(index);
+      for (int i = index + 1; i <= index + prefetchPartitions && i < locations.length; i++) {
+        if (!prefetchedReaders.containsKey(i)) {
+          PartitionLocation location = locations[i];
+          prefetchedReaders.put(i, CompletableFuture.supplyAsync(() -> {
+            try {
+              PartitionReader reader = createReader(location);
+              reader.prefetch();
+              return reader;
+            } catch (IOException e) {
+              throw new CompletionException(e);
+            }
+          }, prefetchExecutor));
+        }
+      }
+      if (future == null) {
+        return createReader(locations[index]);
+      }
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+
     private PartitionReader createReader(PartitionLocation location) throws IOException {
       if (location.getPeer() == null) {
         logger.debug("Partition {} has only one partition replica.", location);
@@ -246,6 +343,11 @@ public abstract class RssInputStream extends InputStream {
 
     @Override
     public void close() {
+      if (pipeline != null) {
+        // the pipeline reads the chunks until it stops
+        pipeline.stop();
+        pipeline = null;
+      }
       if (currentChunk != null) {
         logger.debug("Release chunk {}!", currentChunk);
         currentChunk.release();
@@ -256,6 +358,8 @@ public abstract class RssInputStream extends InputStream {
         currentReader.close();
         currentReader = null;
       }
+      prefetchedReaders.values().forEach(future -> future.thenAccept(PartitionReader::close));
+      prefetchedReaders.clear();
     }
 
     private boolean moveToNextChunk() throws IOException {
@@ -275,6 +379,9 @@ public abstract class RssInputStream extends InputStream {
     }
 
     private boolean fillBuffer() throws IOException {
+      if (pipeline != null) {
+        return fillBufferFromPipeline();
+      }
       if (currentChunk == null) {
         return false;
       }
@@ -282,6 +389,61 @@ public abstract class RssInputStream extends InputStream {
       long startTime = System.currentTimeMillis();
 
       boolean hasData = false;
+      int size = readNextBatch();
+      if (size >= 0) {
+        if (callback != null) {
+          callback.incBytesRead(BATCH_HEADER_SIZE + size);
+        }
+        // decompress data
+        int originalLength = decompressor.getOriginalLen(compressedBuf);
+        if (decompressedBuf.length < originalLength) {
+          decompressedBuf = new byte[originalLength];
+        }
+        limit = decompressor.decompress(compressedBuf, decompressedBuf, 0);
+        position = 0;
+        hasData = true;
+      }
+
+      if (callback != null) {
+        callback.incReadTime(System.currentTimeMillis() - startTime);
+      }
+      return hasData;
+    }
+
+    private boolean fillBufferFromPipeline() throws IOException {
+      long startTime = System.currentTimeMillis();
+
+      if (currentBatch != null) {
+        pipeline.recycle(currentBatch);
+        currentBatch = null;
+      }
+      DecompressedBatch batch = pipeline.take();
+      boolean hasData = batch.length >= 0;
+      if (hasData) {
+        if (callback != null) {
+          callback.incBytesRead(BATCH_HEADER_SIZE + batch.compressedSize);
+        }
+        currentBatch = batch;
+        decompressedBuf = batch.data;
+        limit = batch.length;
+        position = 0;
+      }
+
+      if (callback != null) {
+        callback.incReadTime(System.currentTimeMillis() - startTime);
+      }
+      return hasData;
+    }
+
+    /**
+     * Reads the next batch that has not been read before into compressedBuf.
+     *
+     * @return the compressed size of the batch, or -1 if all the batches have been read.
+     */
+    private int readNextBatch() throws IOException {
+      if (currentChunk == null) {
+        return -1;
+      }
       while (currentChunk.isReadable() || moveToNextChunk()) {
         currentChunk.readBytes(sizeBuf);
         int mapId = Platform.getInt(sizeBuf, Platform.BYTE_ARRAY_OFFSET);
@@ -296,36 +458,126 @@ public abstract class RssInputStream extends InputStream {
 
         // de-duplicate
         if (attemptId == attempts[mapId]) {
-          if (!batchesRead.containsKey(mapId)) {
-            Set<Integer> batchSet = new HashSet<>();
-            batchesRead.put(mapId, batchSet);
-          }
-          Set<Integer> batchSet = batchesRead.get(mapId);
-          if (!batchSet.contains(batchId)) {
-            batchSet.add(batchId);
-            if (callback != null) {
-              callback.incBytesRead(BATCH_HEADER_SIZE + size);
-            }
-            // decompress data
-            int originalLength = decompressor.getOriginalLen(compressedBuf);
-            if (decompressedBuf.length < originalLength) {
-              decompressedBuf = new byte[originalLength];
-            }
-            limit = decompressor.decompress(compressedBuf, decompressedBuf, 0);
-            position = 0;
-            hasData = true;
-            break;
+          if (batchesRead.add(mapId, batchId)) {
+            return size;
           } else {
             logger.debug("Skip duplicated batch: mapId {}, attemptId {}," +
                 " batchId {}.", mapId, attemptId, batchId);
           }
         }
       }
+      return -1;
+    }
 
-      if (callback != null) {
-        callback.incReadTime(System.currentTimeMillis() - startTime);
+    private final class DecompressedBatch {
+      byte[] data;
+      // -1 marks the end of the stream
+      int length;
+      int compressedSize;
+      IOException exception;
+
+      DecompressedBatch(int capacity) {
+        data = new byte[capacity];
+      }
+    }
+
+    /**
+     * Reads and decompresses the upcoming batches on a background thread, into a fixed ring of
+     * buffers that are handed to the task thread one at a time and recycled once it is done with
+     * them. Until it stops, the pipeline is the only one reading chunks.
+     */
+    private final class DecompressionPipeline implements Runnable {
+      private final BlockingQueue<DecompressedBatch> free;
+      private final BlockingQueue<DecompressedBatch> ready;
+      // set by the first of run() and stop(), so that stop() does not wait for a task that
+      // never runs
+      private final AtomicBoolean started = new AtomicBoolean();
+      private final CountDownLatch finished = new CountDownLatch(1);
+      private final Future<?> future;
+      // the end of the stream or the failure, returned by every later take()
+      private DecompressedBatch last;
+
+      DecompressionPipeline(int numBuffers, int bufferSize) {
+        free = new ArrayBlockingQueue<>(numBuffers);
+        ready = new ArrayBlockingQueue<>(numBuffers);
+        for (int i = 0; i < numBuffers; i++) {
+          free.add(new DecompressedBatch(bufferSize));
+        }
+        future = decompressExecutor.submit(this);
+      }
+
+      @Override
+      public void run() {
+        if (!started.compareAndSet(false, true)) {
+          return;
+        }
+        try {
+          while (true) {
+            DecompressedBatch batch = free.take();
+            try {
+              int size = readNextBatch();
+              if (size < 0) {
+                batch.length = -1;
+              } else {
+                int originalLength = decompressor.getOriginalLen(compressedBuf);
+                if (batch.data.length < originalLength) {
+                  batch.data = new byte[originalLength];
+                }
+                batch.length = decompressor.decompress(compressedBuf, batch.data, 0);
+                batch.compressedSize = size;
+              }
+            } catch (Exception e) {
+              batch.length = -1;
+              batch.exception = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            ready.put(batch);
+            if (batch.length < 0) {
+              return;
+            }
+          }
+        } catch (InterruptedException e) {
+          // stopped
+        } finally {
+          finished.countDown();
+        }
+      }
+
+      DecompressedBatch take() throws IOException {
+        if (last == null) {
+          try {
+            DecompressedBatch batch = ready.take();
+            if (batch.length >= 0) {
+              return batch;
+            }
+            last = batch;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+          }
+        }
+        if (last.exception != null) {
+          throw last.exception;
+        }
+        return last;
+      }
+
+      void recycle(DecompressedBatch batch) {
+        free.add(batch);
+      }
+
+      void stop() {
+        if (started.compareAndSet(false, true)) {
+          // has not run and will not
+          future.cancel(false);
+          return;
+        }
+        future.cancel(true);
+        try {
+          finished.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
       }
-      return hasData;
     }
 
     private final class PartitionReader {
@@ -341,6 +593,8 @@ public abstract class RssInputStream extends InputStream {
       private final AtomicReference<IOException> exception = new AtomicReference<>();
 
       private boolean closed = false;
+      // prefetched chunks in flight, each holding prefetchChunkSize bytes of bufferedChunkBytes
+      private int reservedChunks;
 
       PartitionReader(PartitionLocation location) throws IOException {
         results = new LinkedBlockingQueue<>();
@@ -349,9 +603,11 @@ public abstract class RssInputStream extends InputStream {
           public void onSuccess(int chunkIndex, ManagedBuffer buffer) {
             // only add the buffer to results queue if this reader is not closed.
             synchronized(PartitionReader.this) {
+              releaseReservedChunk();
               ByteBuf buf = ((NettyManagedBuffer) buffer).getBuf();
               if (!closed) {
                 buf.retain();
+                bufferedChunkBytes.addAndGet(buf.readableBytes());
                 results.add(buf);
               }
             }
@@ -359,6 +615,9 @@ public abstract class RssInputStream extends InputStream {
 
           @Override
           public void onFailure(int chunkIndex, Throwable e) {
+            synchronized(PartitionReader.this) {
+              releaseReservedChunk();
+            }
             String errorMsg = "Fetch chunk " + chunkIndex + " failed.";
             logger.error(errorMsg, e);
             exception.set(new IOException(errorMsg, e));
@@ -390,16 +649,45 @@ public abstract class RssInputStream extends InputStream {
           exception.set(ioe);
           throw ioe;
         }
+        bufferedChunkBytes.addAndGet(-chunk.readableBytes());
         returnedChunks++;
         return chunk;
       }
 
+      /**
+       * Starts fetching the first chunks ahead of time, as many as can be reserved before the
+       * chunks fetched by all the streams would take up more than prefetchMaxMemory.
+       */
+      void prefetch() {
+        int toFetch = Math.min(maxInFlight + 1, numChunks - chunkIndex);
+        int reserved = 0;
+        while (reserved < toFetch && tryReserveChunk(prefetchChunkSize, prefetchMaxMemory)) {
+          reserved++;
+        }
+        synchronized(this) {
+          reservedChunks += reserved;
+        }
+        fetchChunks(reserved);
+      }
+
+      private void releaseReservedChunk() {
+        if (reservedChunks > 0) {
+          reservedChunks--;
+          bufferedChunkBytes.addAndGet(-prefetchChunkSize);
+        }
+      }
+
       void close() {
         synchronized(this) {
           closed = true;
+          bufferedChunkBytes.addAndGet(-reservedChunks * prefetchChunkSize);
+          reservedChunks = 0;
         }
         if (results.size() > 0) {
-          results.forEach(res -> res.release());
+          results.forEach(res -> {
+            bufferedChunkBytes.addAndGet(-res.readableBytes());
+            res.release();
+          });
         }
         results.clear();
       }
@@ -407,10 +695,16 @@ public abstract class RssInputStream extends InputStream {
       private void fetchChunks() {
         final int inFlight = chunkIndex - returnedChunks;
         if (inFlight < maxInFlight) {
-          final int toFetch = Math.min(maxInFlight - inFlight + 1, numChunks - chunkIndex);
-          for (int i = 0; i < toFetch; i++) {
-            client.fetchChunk(chunkIndex++);
-          }
+          fetchChunks(Math.min(maxInFlight - inFlight + 1, numChunks - chunkIndex));
+        }
+      }
+
+      private void fetchChunks(int toFetch) {
+        while (toFetch > 0) {
+          int batch = Math.min(toFetch, fetchBatchSize);
+          client.fetchChunks(chunkIndex, batch);
+          chunkIndex += batch;
+          toFetch -= batch;
         }
       }
 
@@ -19,6 +19,8 @@ package com.aliyun.emr.rss.client.write;
 
 import java.util.ArrayList;
 
+import io.netty.buffer.ByteBuf;
+
 import com.aliyun.emr.rss.common.protocol.PartitionLocation;
 
 public class DataBatches {
@@ -28,19 +30,19 @@ public class DataBatches {
   public static class DataBatch {
     public final PartitionLocation loc;
     public final int batchId;
-    public final byte[] body;
+    public final ByteBuf body;
 
-    public DataBatch(PartitionLocation loc, int batchId, byte[] body) {
+    public DataBatch(PartitionLocation loc, int batchId, ByteBuf body) {
       this.loc = loc;
       this.batchId = batchId;
       this.body = body;
     }
   }
 
-  public synchronized void addDataBatch(PartitionLocation loc, int batchId, byte[] body) {
+  public synchronized void addDataBatch(PartitionLocation loc, int batchId, ByteBuf body) {
     DataBatch dataBatch = new DataBatch(loc, batchId, body);
     batches.add(dataBatch);
-    totalSize += body.length;
+    totalSize += body.readableBytes();
   }
 
   public int getTotalSize() {
@@ -57,17 +59,32 @@ public class DataBatches {
   public ArrayList<DataBatch> requireBatches(int requestSize) {
     if (requestSize >= totalSize) {
       totalSize = 0;
-      return batches;
+      ArrayList<DataBatch> allBatches = batches;
+      batches = new ArrayList<>();
+      return allBatches;
     }
     ArrayList<DataBatch> retBatches = new ArrayList<>();
     int currentSize = 0;
     while (currentSize < requestSize) {
       DataBatch elem = batches.remove(0);
       retBatches.add(elem);
-      currentSize += elem.body.length;
-      totalSize -= elem.body.length;
+      currentSize += elem.body.readableBytes();
+      totalSize -= elem.body.readableBytes();
     }
     return retBatches;
   }
+
+  /**
+   * Releases the bodies of the batches that have not been taken for pushing.
+   */
+  public synchronized void releaseBatches() {
+    if (batches != null) {
+      for (DataBatch batch : batches) {
+        batch.body.release();
+      }
+      batches.clear();
+    }
+    totalSize = 0;
+  }
 }
 
@@ -18,6 +18,7 @@
 package com.aliyun.emr.rss.client.write;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -29,11 +30,22 @@ import java.util.function.Consumer;
 import com.aliyun.emr.rss.client.ShuffleClient;
 import com.aliyun.emr.rss.common.RssConf;
 
+/**
+ * Pushes the buffers handed over by a writer from background threads. With more than one
+ * thread, every thread has its own queue and the buffers of a partition are queued for the
+ * thread that serves the worker the partition is pushed to, so that buffers are compressed in
+ * parallel and a worker that is slow to accept pushes only holds up one of the threads. A
+ * partition keeps the thread it is first queued for, so its buffers are pushed in order even
+ * when its location becomes known or changes later.
+ */
 public class DataPusher {
   private final long WAIT_TIME_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
 
   private final LinkedBlockingQueue<PushTask> idleQueue;
-  private final LinkedBlockingQueue<PushTask> workingQueue;
+  private final LinkedBlockingQueue<PushTask>[] workingQueues;
+  // index of the working queue of each partition, -1 until its first buffer is queued. Only
+  // accessed by the thread that adds tasks.
+  private final int[] partitionQueues;
 
   private final ReentrantLock idleLock = new ReentrantLock();
   private final Condition idleFull = idleLock.newCondition();
@@ -52,6 +64,7 @@ public class DataPusher {
   private volatile boolean terminated;
   private LongAdder[] mapStatusLengths;
 
+  @SuppressWarnings("unchecked")
   public DataPusher(
       String appId,
       int shuffleId,
@@ -66,9 +79,15 @@ public class DataPusher {
       LongAdder[] mapStatusLengths) throws IOException {
     final int capacity = RssConf.pushDataQueueCapacity(conf);
     final int bufferSize = RssConf.pushDataBufferSize(conf);
+    final int numThreads = RssConf.pushDataPusherThreads(conf);
 
     idleQueue = new LinkedBlockingQueue<>(capacity);
-    workingQueue = new LinkedBlockingQueue<>(capacity);
+    workingQueues = new LinkedBlockingQueue[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      workingQueues[i] = new LinkedBlockingQueue<>(capacity);
+    }
+    partitionQueues = new int[numPartitions];
+    Arrays.fill(partitionQueues, -1);
 
     for (int i = 0; i < capacity; i++) {
       try {
@@ -89,7 +108,15 @@ public class DataPusher {
     this.afterPush = afterPush;
     this.mapStatusLengths = mapStatusLengths;
 
-    new Thread("DataPusher-" + taskId) {
+    for (int i = 0; i < numThreads; i++) {
+      String threadName = numThreads == 1 ? "DataPusher-" + taskId :
+        "DataPusher-" + taskId + "-" + i;
+      startPushThread(threadName, workingQueues[i]);
+    }
+  }
+
+  private void startPushThread(String name, LinkedBlockingQueue<PushTask> workingQueue) {
+    new Thread(name) {
       private void reclaimTask(PushTask task) throws InterruptedException {
         idleLock.lockInterruptibly();
         try {
@@ -126,6 +153,15 @@ public class DataPusher {
   }
 
   public void addTask(int partitionId, byte[] buffer, int size) throws IOException {
+    addTask(partitionId, new byte[][] {buffer}, size, size);
+  }
+
+  /**
+   * Queues the first size bytes of pages, filled up to pageSize bytes each, to be pushed as one
+   * buffer. They are copied right away, so the pages can be reused once it returns.
+   */
+  public void addTask(int partitionId, byte[][] pages, int pageSize, int size)
+      throws IOException {
     try {
       PushTask task = null;
       while (task == null) {
@@ -134,7 +170,12 @@ public class DataPusher {
       }
       task.setSize(size);
       task.setPartitionId(partitionId);
-      System.arraycopy(buffer, 0, task.getBuffer(), 0, size);
+      for (int copied = 0, i = 0; copied < size; i++) {
+        int toCopy = Math.min(pageSize, size - copied);
+        System.arraycopy(pages[i], 0, task.getBuffer(), copied, toCopy);
+        copied += toCopy;
+      }
+      LinkedBlockingQueue<PushTask> workingQueue = getWorkingQueue(partitionId);
       while (!workingQueue.offer(task, WAIT_TIME_NANOS, TimeUnit.NANOSECONDS)) {
         checkException();
       }
@@ -146,6 +187,19 @@ public class DataPusher {
     }
   }
 
+  private LinkedBlockingQueue<PushTask> getWorkingQueue(int partitionId) {
+    if (workingQueues.length == 1) {
+      return workingQueues[0];
+    }
+    if (partitionQueues[partitionId] < 0) {
+      // partitions whose location is not known yet are spread over all threads
+      String target = client.getPushTarget(shuffleId, partitionId);
+      int hash = target == null ? partitionId : target.hashCode();
+      partitionQueues[partitionId] = (hash & Integer.MAX_VALUE) % workingQueues.length;
+    }
+    return workingQueues[partitionQueues[partitionId]];
+  }
+
   public void waitOnTermination() throws IOException {
     try {
       idleLock.lockInterruptibly();
@@ -157,7 +211,9 @@ public class DataPusher {
 
     terminated = true;
     idleQueue.clear();
-    workingQueue.clear();
+    for (LinkedBlockingQueue<PushTask> workingQueue : workingQueues) {
+      workingQueue.clear();
+    }
     checkException();
   }
 
@@ -180,7 +236,10 @@ public class DataPusher {
         numMappers,
         numPartitions
     );
-    afterPush.accept(bytesWritten);
+    // write metrics are not thread-safe
+    synchronized (afterPush) {
+      afterPush.accept(bytesWritten);
+    }
     mapStatusLengths[task.getPartitionId()].add(bytesWritten);
   }
 
@@ -30,7 +30,8 @@ import com.aliyun.emr.rss.common.rpc.netty.{NettyRpcEndpointRef, NettyRpcEnv}
 import com.aliyun.emr.rss.common.util.{ThreadUtils, Utils}
 import io.netty.util.internal.ConcurrentSet
 import java.util
-import java.util.concurrent.{ConcurrentHashMap, ScheduledFuture, TimeUnit}
+import java.util.concurrent.{ConcurrentHashMap, ScheduledFuture, ThreadPoolExecutor, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
 
 import scala.collection.JavaConverters._
 import scala.collection.mutable.{HashMap, ListBuffer}
@@ -51,6 +52,8 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
 
   private val registeredShuffle = new ConcurrentSet[Int]()
   private val shuffleMapperAttempts = new ConcurrentHashMap[Int, Array[Int]]()
+  // number of mappers of every shuffle that have not ended yet
+  private val shuffleUnendedMappers = new ConcurrentHashMap[Int, AtomicInteger]()
   private val reducerFileGroupsMap =
     new ConcurrentHashMap[Int, Array[Array[PartitionLocation]]]()
   private val dataLostShuffleSet = new ConcurrentSet[Int]()
@@ -85,6 +88,10 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
   private var appHeartbeat: ScheduledFuture[_] = _
   private val responseCheckerThread = ThreadUtils.
     newDaemonSingleThreadScheduledExecutor("rss-master-resp-checker")
+  // Revive and split requests are answered from here once new slots are reserved, so that the
+  // dispatcher threads are not held by the reservations while thousands of mappers revive.
+  private val relocateThreadPool: ThreadPoolExecutor =
+    ThreadUtils.newDaemonCachedThreadPool("lifecycle-relocate", RssConf.driverRelocateThreads(conf))
 
   // init driver rss meta rpc service
   override val rpcEnv: RpcEnv = RpcEnv.create(
@@ -148,6 +155,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     ThreadUtils.shutdown(heartbeatThread, 800.millis)
 
     ThreadUtils.shutdown(responseCheckerThread, 800.millis)
+    ThreadUtils.shutdown(relocateThreadPool, 800.millis)
 
     rssHARetryClient.close()
     if (rpcEnv != null) {
@@ -335,15 +343,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     // register shuffle success, update status
     registeredShuffle.add(shuffleId)
     val locations = slots.asScala.flatMap(_._2._1.asScala).toList
-    shuffleMapperAttempts.synchronized {
-      if (!shuffleMapperAttempts.containsKey(shuffleId)) {
-        val attempts = new Array[Int](numMappers)
-        0 until numMappers foreach (idx => attempts(idx) = -1)
-        shuffleMapperAttempts.synchronized {
-          shuffleMapperAttempts.put(shuffleId, attempts)
-        }
-      }
-    }
+    getOrCreateMapperAttempts(shuffleId, numMappers)
 
     reducerFileGroupsMap.put(shuffleId, new Array[Array[PartitionLocation]](numPartitions))
 
@@ -419,8 +419,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     logWarning(s"Do Revive for shuffle ${
       Utils.makeShuffleKey(applicationId, shuffleId)}, oldPartition: $oldPartition, cause: $cause")
     blacklistPartition(oldPartition, cause)
-    handleChangePartitionLocation(shuffleReviving, applicationId, shuffleId, reduceId,
-      oldPartition)
+    relocatePartition(shuffleReviving, applicationId, shuffleId, reduceId, oldPartition)
   }
 
   private val rpcContextRegisterFunc =
@@ -429,6 +428,33 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
         new ConcurrentHashMap()
     }
 
+  private def relocatePartition(
+    contexts: ConcurrentHashMap[Integer, util.Set[RpcCallContext]],
+    applicationId: String, shuffleId: Int, reduceId: Int, oldPartition: PartitionLocation): Unit = {
+    relocateThreadPool.submit(new Runnable {
+      override def run(): Unit = {
+        try {
+          handleChangePartitionLocation(contexts, applicationId, shuffleId, reduceId, oldPartition)
+        } catch {
+          case t: Throwable =>
+            logError(s"Relocate partition $reduceId of shuffle $shuffleId failed.", t)
+            removeWaitingContexts(contexts, reduceId).asScala.foreach(_.sendFailure(t))
+        }
+      }
+    })
+  }
+
+  /**
+   * Removes the contexts waiting for the relocation of reduceId under the lock revives and splits
+   * register under, so that none is added once they are replied. Replies are sent outside it.
+   */
+  private def removeWaitingContexts(
+    contexts: ConcurrentHashMap[Integer, util.Set[RpcCallContext]],
+    reduceId: Int): util.Set[RpcCallContext] = contexts.synchronized {
+    val waiting = contexts.remove(reduceId)
+    if (waiting == null) util.Collections.emptySet() else waiting
+  }
+
   private def handleChangePartitionLocation(
     contexts: ConcurrentHashMap[Integer, util.Set[RpcCallContext]],
     applicationId: String, shuffleId: Int, reduceId: Int, oldPartition: PartitionLocation): Unit = {
@@ -437,7 +463,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
       List(oldPartition), candidates)
     if (slots == null) {
       logError("[Update partition] failed for slot not available.")
-      contexts.remove(reduceId).asScala.foreach(
+      removeWaitingContexts(contexts, reduceId).asScala.foreach(
         _.reply(ChangeLocationResponse(StatusCode.SlotNotAvailable, null)))
       return
     }
@@ -445,7 +471,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     val reserveSlotsSuccess = reserveSlotsWithRetry(applicationId, shuffleId, candidates, slots)
     if (!reserveSlotsSuccess) {
       logError(s"[Update partition] failed for $shuffleId.")
-      contexts.remove(reduceId).asScala.foreach(
+      removeWaitingContexts(contexts, reduceId).asScala.foreach(
         _.reply(ChangeLocationResponse(StatusCode.ReserveSlotFailed, null)))
       return
     }
@@ -463,7 +489,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     }
 
     logInfo(s"[Update partition] success for $shuffleId $location.")
-    contexts.remove(reduceId).asScala.foreach(
+    removeWaitingContexts(contexts, reduceId).asScala.foreach(
       _.reply(ChangeLocationResponse(StatusCode.Success, location)))
     logInfo(s"Renew $shuffleId $reduceId partition success.")
   }
@@ -511,8 +537,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     logInfo(s"Relocate partition for shuffle split  ${Utils.makeShuffleKey(applicationId,
       shuffleId)}, oldPartition: $oldPartition")
 
-    handleChangePartitionLocation(shuffleSplitting, applicationId, shuffleId, reduceId,
-      oldPartition)
+    relocatePartition(shuffleSplitting, applicationId, shuffleId, reduceId, oldPartition)
   }
 
   private def handleMapperEnd(
@@ -523,17 +548,10 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     attemptId: Int,
     numMappers: Int): Unit = {
     var askStageEnd: Boolean = false
-    // update max attemptId
-    shuffleMapperAttempts.synchronized {
-      var attempts = shuffleMapperAttempts.get(shuffleId)
-      // it would happen when task with no shuffle data called MapperEnd first
-      if (attempts == null) {
-        logInfo(s"[handleMapperEnd] $shuffleId not registered, create one.")
-        attempts = new Array[Int](numMappers)
-        0 until numMappers foreach (ind => attempts(ind) = -1)
-        shuffleMapperAttempts.put(shuffleId, attempts)
-      }
-
+    // it would happen when task with no shuffle data called MapperEnd first
+    val attempts = getOrCreateMapperAttempts(shuffleId, numMappers)
+    // update max attemptId, mappers of different shuffles don't contend
+    attempts.synchronized {
       if (attempts(mapId) < 0) {
         attempts(mapId) = attemptId
       } else {
@@ -542,7 +560,9 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
         return
       }
 
-      if (!attempts.exists(_ < 0)) {
+      val unendedMappers = shuffleUnendedMappers.get(shuffleId)
+      // null if the shuffle has been unregistered meanwhile
+      if (unendedMappers != null && unendedMappers.decrementAndGet() == 0) {
         askStageEnd = true
       }
     }
@@ -558,6 +578,15 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
     context.reply(MapperEndResponse(StatusCode.Success))
   }
 
+  private def getOrCreateMapperAttempts(shuffleId: Int, numMappers: Int): Array[Int] = {
+    shuffleMapperAttempts.computeIfAbsent(shuffleId, new util.function.Function[Int, Array[Int]] {
+      override def apply(id: Int): Array[Int] = {
+        shuffleUnendedMappers.put(shuffleId, new AtomicInteger(numMappers))
+        Array.fill(numMappers)(-1)
+      }
+    })
+  }
+
   private def handleGetReducerFileGroup(
     context: RpcCallContext,
     shuffleId: Int): Unit = {
@@ -1043,6 +1072,7 @@ class LifecycleManager(appId: String, val conf: RssConf) extends RpcEndpoint wit
         reducerFileGroupsMap.remove(key)
         dataLostShuffleSet.remove(key)
         shuffleMapperAttempts.remove(key)
+        shuffleUnendedMappers.remove(key)
         stageEndShuffleSet.remove(key)
         reviving.remove(key)
         splitting.remove(key)
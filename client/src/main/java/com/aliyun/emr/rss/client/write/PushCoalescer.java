@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.write;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.util.ThreadUtils;
+
+/**
+ * Coalesces the batches pushed by all map tasks of an executor. Batches of the same shuffle
+ * that go to the same pair of workers are sent together in one merged push, once they add up to
+ * the coalesce size or the first of them has waited for the coalesce delay.
+ */
+public class PushCoalescer {
+  private static final Logger logger = LoggerFactory.getLogger(PushCoalescer.class);
+
+  /**
+   * A batch waiting to be pushed, with the map attempt it belongs to.
+   */
+  public static class CoalescedBatch {
+    public final String applicationId;
+    public final int shuffleId;
+    public final int mapId;
+    public final int attemptId;
+    public final PushState pushState;
+    public final DataBatches.DataBatch batch;
+
+    public CoalescedBatch(
+        String applicationId,
+        int shuffleId,
+        int mapId,
+        int attemptId,
+        PushState pushState,
+        DataBatches.DataBatch batch) {
+      this.applicationId = applicationId;
+      this.shuffleId = shuffleId;
+      this.mapId = mapId;
+      this.attemptId = attemptId;
+      this.pushState = pushState;
+      this.batch = batch;
+    }
+  }
+
+  public interface Sender {
+    /**
+     * Pushes batches of one shuffle to the master worker at hostPort. It takes over the batches
+     * and is responsible for their in-flight accounting, retries and release.
+     */
+    void send(String hostPort, String shuffleKey, ArrayList<CoalescedBatch> batches);
+  }
+
+  private class PendingBatches {
+    final String hostPort;
+    final String shuffleKey;
+    ArrayList<CoalescedBatch> batches = new ArrayList<>();
+    // map attempts that have batches waiting here
+    Set<PushState> pushStates = Collections.newSetFromMap(new IdentityHashMap<>());
+    long size = 0;
+
+    PendingBatches(String hostPort, String shuffleKey) {
+      this.hostPort = hostPort;
+      this.shuffleKey = shuffleKey;
+    }
+
+    void flush() {
+      ArrayList<CoalescedBatch> toSend;
+      synchronized (this) {
+        if (batches.isEmpty()) {
+          return;
+        }
+        toSend = batches;
+        batches = new ArrayList<>();
+        pushStates.clear();
+        size = 0;
+      }
+      try {
+        sender.send(hostPort, shuffleKey, toSend);
+      } catch (Exception e) {
+        logger.error("Push {} coalesced batches to {} failed.", toSend.size(), hostPort, e);
+      }
+    }
+
+    synchronized boolean hasBatchesOf(PushState pushState) {
+      return pushStates.contains(pushState);
+    }
+  }
+
+  private final long coalesceSize;
+  private final long coalesceDelayMs;
+  private final Sender sender;
+  private final ScheduledExecutorService flusher;
+  // pushes the batches that waited for the coalesce delay, as creating clients may block
+  private final ExecutorService delayedSender;
+
+  // key: ${shuffleKey}/${master addr}-${slave addr}
+  private final ConcurrentHashMap<String, PendingBatches> pending = new ConcurrentHashMap<>();
+
+  public PushCoalescer(RssConf conf, Sender sender) {
+    this.coalesceSize = RssConf.pushDataCoalesceSize(conf);
+    this.coalesceDelayMs = RssConf.pushDataCoalesceDelayMs(conf);
+    this.sender = sender;
+    this.flusher = ThreadUtils.newDaemonSingleThreadScheduledExecutor("Push-Coalescer");
+    this.delayedSender = ThreadUtils.newDaemonCachedThreadPool("Push-Coalescer-Sender");
+  }
+
+  /**
+   * Adds a batch, pushing it together with the batches already waiting for the same workers if
+   * they are large enough.
+   */
+  public void add(String addressPair, String shuffleKey, CoalescedBatch batch) {
+    String key = shuffleKey + "/" + addressPair;
+    PendingBatches batches = pending.get(key);
+    if (batches == null) {
+      batches = pending.computeIfAbsent(key,
+        k -> new PendingBatches(addressPair.split("-")[0], shuffleKey));
+    }
+    boolean full;
+    boolean first;
+    synchronized (batches) {
+      first = batches.batches.isEmpty();
+      batches.batches.add(batch);
+      batches.pushStates.add(batch.pushState);
+      batches.size += batch.batch.body.readableBytes();
+      full = batches.size >= coalesceSize;
+    }
+    if (full) {
+      batches.flush();
+    } else if (first) {
+      PendingBatches toFlush = batches;
+      flusher.schedule(() -> delayedSender.execute(toFlush::flush), coalesceDelayMs,
+        TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Pushes the waiting batches that go to the same workers as those of a map attempt, e.g.
+   * before it waits for its batches to be acknowledged. Batches of other attempts bound to other
+   * workers keep waiting to be coalesced.
+   */
+  public void flush(PushState pushState) {
+    pending.values().forEach(batches -> {
+      if (batches.hasBatchesOf(pushState)) {
+        batches.flush();
+      }
+    });
+  }
+
+  /**
+   * Pushes all waiting batches.
+   */
+  public void flushAll() {
+    pending.values().forEach(PendingBatches::flush);
+  }
+
+  /**
+   * Stops coalescing batches of shuffleKey, pushing the batches still waiting.
+   */
+  public void removeShuffle(String shuffleKey) {
+    pending.entrySet().removeIf(entry -> {
+      if (entry.getKey().startsWith(shuffleKey + "/")) {
+        entry.getValue().flush();
+        return true;
+      }
+      return false;
+    });
+  }
+
+  public void close() {
+    flusher.shutdownNow();
+    flushAll();
+    delayedSender.shutdown();
+  }
+}
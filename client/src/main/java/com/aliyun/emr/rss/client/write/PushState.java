@@ -18,14 +18,17 @@
 package com.aliyun.emr.rss.client.write;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFuture;
-import io.netty.util.internal.ConcurrentSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,14 +41,88 @@ public class PushState {
   private int pushBufferSize;
 
   public final AtomicInteger batchId = new AtomicInteger();
-  public final ConcurrentSet<Integer> inFlightBatches = new ConcurrentSet<>();
   public final ConcurrentHashMap<Integer, ChannelFuture> futures = new ConcurrentHashMap<>();
   public AtomicReference<IOException> exception = new AtomicReference<>();
 
+  // key: batchId value: size of the batch, for the batches pushed but not yet acknowledged
+  private final Map<Integer, Integer> inFlightBatches = new HashMap<>();
+  private long inFlightBytes = 0;
+  private final Object inFlightLock = new Object();
+
   public PushState(RssConf conf) {
     pushBufferSize = RssConf.pushDataBufferSize(conf);
   }
 
+  public void addInFlightBatch(int batchId, int size) {
+    synchronized (inFlightLock) {
+      if (inFlightBatches.put(batchId, size) == null) {
+        inFlightBytes += size;
+      }
+    }
+  }
+
+  public void removeInFlightBatch(int batchId) {
+    synchronized (inFlightLock) {
+      Integer size = inFlightBatches.remove(batchId);
+      if (size != null) {
+        inFlightBytes -= size;
+        inFlightLock.notifyAll();
+      }
+    }
+  }
+
+  public int numInFlightBatches() {
+    synchronized (inFlightLock) {
+      return inFlightBatches.size();
+    }
+  }
+
+  public long getInFlightBytes() {
+    synchronized (inFlightLock) {
+      return inFlightBytes;
+    }
+  }
+
+  public Set<Integer> getInFlightBatchIds() {
+    synchronized (inFlightLock) {
+      return new HashSet<>(inFlightBatches.keySet());
+    }
+  }
+
+  /**
+   * Blocks until at most maxBatches batches of at most maxBytes in total are in flight, waking
+   * up as soon as a batch is acknowledged or the push fails.
+   * @return false if the in-flight batches still exceed the limits after timeoutMs.
+   */
+  public boolean waitInFlight(int maxBatches, long maxBytes, long timeoutMs)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    synchronized (inFlightLock) {
+      while (inFlightBatches.size() > maxBatches || inFlightBytes > maxBytes) {
+        if (exception.get() != null) {
+          return true;
+        }
+        long remainingNs = deadline - System.nanoTime();
+        if (remainingNs <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(inFlightLock, remainingNs);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Records the first failure of this push and wakes up the writer waiting for in-flight
+   * batches.
+   */
+  public void setException(IOException e) {
+    exception.compareAndSet(null, e);
+    synchronized (inFlightLock) {
+      inFlightLock.notifyAll();
+    }
+  }
+
   public void addFuture(int batchId, ChannelFuture future) {
     futures.put(batchId, future);
   }
@@ -78,7 +155,8 @@ public class PushState {
    * @param body
    * @return
    */
-  public boolean addBatchData(String addressPair, PartitionLocation loc, int batchId, byte[] body) {
+  public boolean addBatchData(
+      String addressPair, PartitionLocation loc, int batchId, ByteBuf body) {
     DataBatches batches = batchesMap.computeIfAbsent(addressPair, (s) -> new DataBatches());
     batches.addDataBatch(loc, batchId, body);
     return batches.getTotalSize() > pushBufferSize;
@@ -20,6 +20,7 @@ package com.aliyun.emr.rss.client;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
@@ -28,20 +29,29 @@ import java.util.concurrent.TimeoutException;
 
 import scala.reflect.ClassTag$;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.aliyun.emr.rss.client.compress.RssLz4Compressor;
 import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.network.buffer.ManagedBuffer;
+import com.aliyun.emr.rss.common.network.buffer.NettyManagedBuffer;
+import com.aliyun.emr.rss.common.network.client.RpcResponseCallback;
 import com.aliyun.emr.rss.common.network.client.TransportClient;
 import com.aliyun.emr.rss.common.network.client.TransportClientFactory;
+import com.aliyun.emr.rss.common.network.protocol.PushData;
+import com.aliyun.emr.rss.common.network.protocol.PushMergedData;
 import com.aliyun.emr.rss.common.protocol.PartitionLocation;
 import com.aliyun.emr.rss.common.protocol.message.ControlMessages;
 import com.aliyun.emr.rss.common.protocol.message.StatusCode;
@@ -124,6 +134,42 @@ public class ShuffleClientSuiteJ {
     assert (largeMergeSize == compressedTotalSize1 + BATCH_HEADER_SIZE);
   }
 
+  @Test
+  public void testPushBodiesReleasedOnCompletion() throws IOException, InterruptedException {
+    setupEnv();
+
+    shuffleClient.pushData(TEST_APPLICATION_ID, TEST_SHUFFLE_ID, TEST_ATTEMPT_ID,
+      TEST_ATTEMPT_ID, TEST_REDUCRE_ID, TEST_BUF1, 0, TEST_BUF1.length, 1, 1);
+    ArgumentCaptor<PushData> pushData = ArgumentCaptor.forClass(PushData.class);
+    ArgumentCaptor<RpcResponseCallback> callback =
+      ArgumentCaptor.forClass(RpcResponseCallback.class);
+    verify(client).pushData(pushData.capture(), callback.capture());
+    ByteBuf body = ((NettyManagedBuffer) pushData.getValue().body()).getBuf();
+    Assert.assertEquals(1, body.refCnt());
+
+    // the transport releases its own reference and the message body once written
+    ManagedBuffer managedBuffer = pushData.getValue().body();
+    ByteBuf written = (ByteBuf) managedBuffer.convertToNetty();
+    Assert.assertEquals(2, body.refCnt());
+    written.release();
+    managedBuffer.release();
+    Assert.assertEquals(1, body.refCnt());
+
+    callback.getValue().onSuccess(ByteBuffer.allocate(0));
+    Assert.assertEquals(0, body.refCnt());
+
+    byte[] buf4k = RandomStringUtils.random(4000).getBytes(StandardCharsets.UTF_8);
+    shuffleClient.mergeData(TEST_APPLICATION_ID, TEST_SHUFFLE_ID, TEST_ATTEMPT_ID,
+      TEST_ATTEMPT_ID, TEST_REDUCRE_ID, buf4k, 0, buf4k.length, 1, 1);
+    ArgumentCaptor<PushMergedData> mergedData = ArgumentCaptor.forClass(PushMergedData.class);
+    verify(client).pushMergedData(mergedData.capture(), callback.capture());
+    ByteBuf mergedBody = ((NettyManagedBuffer) mergedData.getValue().body()).getBuf();
+    Assert.assertEquals(1, mergedBody.refCnt());
+
+    callback.getValue().onSuccess(ByteBuffer.allocate(0));
+    Assert.assertEquals(0, mergedBody.refCnt());
+  }
+
   private synchronized String getLocalHost() {
     InetAddress ia = null;
     if (ia == null) {
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.compress;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.aliyun.emr.rss.common.RssConf;
+
+/**
+ * Measures compression ratio and throughput of every codec on push batch sized blocks of
+ * row-like data, which repeats keys and small numbers, and of random data, which stands for
+ * columnar data that is compressed already.
+ *
+ * Run with: java -cp ... com.aliyun.emr.rss.client.compress.CompressionCodecBenchmark
+ *   [blockSize] [numBlocks] [zstdLevel]
+ */
+public class CompressionCodecBenchmark {
+
+  public static void main(String[] args) {
+    int blockSize = args.length > 0 ? Integer.parseInt(args[0]) : 64 * 1024;
+    int numBlocks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    String zstdLevel = args.length > 2 ? args[2] : "1";
+
+    byte[][] inputs = new byte[][] {rows(blockSize), random(blockSize)};
+    String[] inputNames = new String[] {"rows", "random"};
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < inputs.length; i++) {
+        for (String codec : new String[] {"lz4", "zstd", "none"}) {
+          RssConf conf = new RssConf();
+          conf.set("rss.client.compression.codec", codec);
+          conf.set("rss.client.compression.zstd.level", zstdLevel);
+          conf.set("rss.push.data.buffer.size", String.valueOf(blockSize));
+          run(inputNames[i], codec, Compressor.getCompressor(conf), inputs[i], numBlocks);
+        }
+      }
+    }
+  }
+
+  private static byte[] rows(int size) {
+    Random random = new Random(0);
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    while (buf.remaining() >= 32) {
+      buf.putLong(random.nextInt(100000));
+      buf.put(("user_" + random.nextInt(1000) + "\t").getBytes());
+      buf.putInt(random.nextInt(100));
+      buf.putDouble(random.nextInt(10000) / 100.0);
+    }
+    return buf.array();
+  }
+
+  private static byte[] random(int size) {
+    byte[] data = new byte[size];
+    new Random(0).nextBytes(data);
+    return data;
+  }
+
+  private static void run(String input, String codec, Compressor compressor, byte[] data,
+      int numBlocks) {
+    Decompressor decompressor = new Decompressor();
+    byte[] decompressed = new byte[data.length];
+    long compressedBytes = 0;
+
+    long start = System.nanoTime();
+    for (int i = 0; i < numBlocks; i++) {
+      compressor.compress(data, 0, data.length);
+      compressedBytes += compressor.getCompressedTotalSize();
+    }
+    long compressNs = System.nanoTime() - start;
+
+    byte[] block = Arrays.copyOf(compressor.getCompressedBuffer(),
+      compressor.getCompressedTotalSize());
+    start = System.nanoTime();
+    for (int i = 0; i < numBlocks; i++) {
+      if (decompressor.decompress(block, decompressed, 0) != data.length) {
+        throw new IllegalStateException("Failed to decompress " + codec);
+      }
+    }
+    long decompressNs = System.nanoTime() - start;
+
+    double mb = (double) data.length * numBlocks / 1024 / 1024;
+    System.out.printf("%-7s %-5s ratio %6.2f, compress %8.1f MB/s, decompress %8.1f MB/s%n",
+      input, codec, (double) data.length * numBlocks / compressedBytes,
+      mb / (compressNs / 1e9), mb / (decompressNs / 1e9));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.compress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.common.RssConf;
+
+public class CompressorSuiteJ {
+  private final byte[] text = new String(new char[2000]).replace("\0", "shuffle data ")
+    .getBytes(StandardCharsets.UTF_8);
+  private final byte[] random = new byte[20000];
+
+  public CompressorSuiteJ() {
+    new Random(42).nextBytes(random);
+  }
+
+  private Compressor getCompressor(String codec) {
+    RssConf conf = new RssConf();
+    conf.set("rss.client.compression.codec", codec);
+    conf.set("rss.push.data.buffer.size", "16k");
+    return Compressor.getCompressor(conf);
+  }
+
+  private byte[] roundTrip(Compressor compressor, byte[] data, int offset, int length) {
+    compressor.compress(data, offset, length);
+    byte[] block = Arrays.copyOf(compressor.getCompressedBuffer(),
+      compressor.getCompressedTotalSize());
+    Decompressor decompressor = new Decompressor();
+    byte[] decompressed = new byte[decompressor.getOriginalLen(block)];
+    Assert.assertEquals(length, decompressor.decompress(block, decompressed, 0));
+    return decompressed;
+  }
+
+  @Test
+  public void testRoundTrip() {
+    for (String codec : new String[] {"lz4", "zstd", "none", "ZSTD"}) {
+      Compressor compressor = getCompressor(codec);
+      Assert.assertArrayEquals(Arrays.copyOfRange(text, 100, 10100),
+        roundTrip(compressor, text, 100, 10000));
+      // larger than the block size and incompressible
+      Assert.assertArrayEquals(random, roundTrip(compressor, random, 0, random.length));
+      Assert.assertArrayEquals(new byte[0], roundTrip(compressor, text, 0, 0));
+    }
+  }
+
+  @Test
+  public void testCompressedSize() {
+    Compressor lz4 = getCompressor("lz4");
+    lz4.compress(text, 0, text.length);
+    Assert.assertTrue(lz4.getCompressedTotalSize() < text.length / 10);
+
+    Compressor zstd = getCompressor("zstd");
+    zstd.compress(text, 0, text.length);
+    Assert.assertTrue(zstd.getCompressedTotalSize() < text.length / 10);
+    // stored raw when compression does not help
+    zstd.compress(random, 0, random.length);
+    Assert.assertEquals(RssLz4Trait.HEADER_LENGTH + random.length,
+      zstd.getCompressedTotalSize());
+
+    Compressor none = getCompressor("none");
+    none.compress(text, 0, text.length);
+    Assert.assertEquals(RssLz4Trait.HEADER_LENGTH + text.length,
+      none.getCompressedTotalSize());
+  }
+
+  @Test
+  public void testCorruptedBlock() {
+    Compressor compressor = getCompressor("zstd");
+    compressor.compress(text, 0, text.length);
+    byte[] block = Arrays.copyOf(compressor.getCompressedBuffer(),
+      compressor.getCompressedTotalSize());
+    block[block.length - 1] ^= 1;
+    Assert.assertEquals(-1, new Decompressor().decompress(block, new byte[text.length], 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownCodec() {
+    getCompressor("snappy");
+  }
+}
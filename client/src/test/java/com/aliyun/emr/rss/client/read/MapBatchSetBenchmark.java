@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.read;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the per batch cost of de-duplicating with boxed sets of batch ids against
+ * {@link MapBatchSet}. Every batch is offered twice, as when both replicas of a location are
+ * read, and batches of all maps are interleaved, as in a merged partition file.
+ *
+ * Run with: java -cp ... com.aliyun.emr.rss.client.read.MapBatchSetBenchmark
+ *   [numMaps] [numBatchesPerMap]
+ */
+public class MapBatchSetBenchmark {
+
+  public static void main(String[] args) {
+    int numMaps = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int numBatches = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+    for (int i = 0; i < 3; i++) {
+      run("boxed sets", numMaps, numBatches, () -> {
+        Map<Integer, Set<Integer>> batchesRead = new HashMap<>();
+        return (mapId, batchId) ->
+          batchesRead.computeIfAbsent(mapId, id -> new HashSet<>()).add(batchId);
+      });
+      run("bitsets", numMaps, numBatches, () -> {
+        MapBatchSet batchesRead = new MapBatchSet(numMaps);
+        return batchesRead::add;
+      });
+    }
+  }
+
+  private interface Dedup {
+    boolean add(int mapId, int batchId);
+  }
+
+  private interface DedupFactory {
+    Dedup create();
+  }
+
+  private static void run(String name, int numMaps, int numBatches, DedupFactory factory) {
+    com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+
+    Dedup dedup = factory.create();
+    long added = 0;
+    for (int copy = 0; copy < 2; copy++) {
+      for (int batchId = 1; batchId <= numBatches; batchId++) {
+        for (int mapId = 0; mapId < numMaps; mapId++) {
+          if (dedup.add(mapId, batchId)) {
+            added++;
+          }
+        }
+      }
+    }
+
+    long elapsedNs = System.nanoTime() - start;
+    long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    long offered = 2L * numMaps * numBatches;
+    if (added != offered / 2) {
+      throw new IllegalStateException("Added " + added + " of " + offered / 2 + " batches");
+    }
+    System.out.printf("%-10s %8.1f ns/batch, %8.1f allocated bytes/batch%n",
+      name, (double) elapsedNs / offered, (double) allocated / offered);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.read;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MapBatchSetSuiteJ {
+
+  @Test
+  public void testAdd() {
+    MapBatchSet batches = new MapBatchSet(3);
+    Assert.assertTrue(batches.add(0, 1));
+    Assert.assertFalse(batches.add(0, 1));
+    Assert.assertTrue(batches.add(1, 1));
+    Assert.assertTrue(batches.add(0, 63));
+    Assert.assertTrue(batches.add(0, 64));
+    Assert.assertTrue(batches.add(2, 100000));
+    Assert.assertFalse(batches.add(2, 100000));
+
+    Assert.assertTrue(batches.contains(0, 1));
+    Assert.assertTrue(batches.contains(0, 63));
+    Assert.assertTrue(batches.contains(0, 64));
+    Assert.assertFalse(batches.contains(0, 65));
+    Assert.assertFalse(batches.contains(1, 63));
+    Assert.assertFalse(batches.contains(1, 1000));
+    Assert.assertFalse(batches.contains(2, 99999));
+  }
+}
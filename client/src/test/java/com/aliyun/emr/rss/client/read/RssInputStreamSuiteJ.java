@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.read;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import com.aliyun.emr.rss.client.compress.Compressor;
+import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.network.buffer.NettyManagedBuffer;
+import com.aliyun.emr.rss.common.network.client.ChunkReceivedCallback;
+import com.aliyun.emr.rss.common.network.client.TransportClient;
+import com.aliyun.emr.rss.common.network.client.TransportClientFactory;
+import com.aliyun.emr.rss.common.network.client.TransportResponseHandler;
+import com.aliyun.emr.rss.common.protocol.PartitionLocation;
+import com.aliyun.emr.rss.common.unsafe.Platform;
+
+public class RssInputStreamSuiteJ {
+  private static final int NUM_LOCATIONS = 5;
+  private static final int NUM_CHUNKS = 4;
+  // bytes of every batch once decompressed, the first 8 of which are its location and chunk
+  private static final int RECORD_SIZE = 1024;
+
+  private final Map<Integer, FakeTransportClient> clients = new ConcurrentHashMap<>();
+  private final List<ByteBuf> sentChunks = new CopyOnWriteArrayList<>();
+  // replies in the order of the requests, after a while so that fetches are in flight together
+  private final ScheduledExecutorService fetchExecutor =
+    Executors.newSingleThreadScheduledExecutor();
+  private TransportClientFactory clientFactory;
+  private PartitionLocation[] locations;
+  // chunks of every location, each holding a single batch
+  private byte[][][] chunks;
+  private int maxChunkSize;
+
+  @Before
+  public void setUp() throws Exception {
+    Compressor compressor = Compressor.getCompressor(new RssConf());
+    Random random = new Random(42);
+    locations = new PartitionLocation[NUM_LOCATIONS];
+    chunks = new byte[NUM_LOCATIONS][NUM_CHUNKS][];
+    for (int i = 0; i < NUM_LOCATIONS; i++) {
+      locations[i] = new PartitionLocation(0, i, "localhost", 10000 + i, 20000 + i, 30000 + i,
+        40000 + i, PartitionLocation.Mode.Master);
+      for (int c = 0; c < NUM_CHUNKS; c++) {
+        byte[] record = new byte[RECORD_SIZE];
+        random.nextBytes(record);
+        Platform.putInt(record, Platform.BYTE_ARRAY_OFFSET, i);
+        Platform.putInt(record, Platform.BYTE_ARRAY_OFFSET + 4, c);
+        compressor.compress(record, 0, RECORD_SIZE);
+        int size = compressor.getCompressedTotalSize();
+        byte[] chunk = new byte[16 + size];
+        // mapId, attemptId, batchId, size
+        Platform.putInt(chunk, Platform.BYTE_ARRAY_OFFSET, i);
+        Platform.putInt(chunk, Platform.BYTE_ARRAY_OFFSET + 4, 0);
+        Platform.putInt(chunk, Platform.BYTE_ARRAY_OFFSET + 8, c);
+        Platform.putInt(chunk, Platform.BYTE_ARRAY_OFFSET + 12, size);
+        System.arraycopy(compressor.getCompressedBuffer(), 0, chunk, 16, size);
+        chunks[i][c] = chunk;
+        maxChunkSize = Math.max(maxChunkSize, chunk.length);
+      }
+    }
+
+    clientFactory = mock(TransportClientFactory.class);
+    doAnswer(invocation -> {
+      int fetchPort = (Integer) invocation.getArguments()[1];
+      return clients.computeIfAbsent(fetchPort, port -> new FakeTransportClient(port - 30000));
+    }).when(clientFactory).createClient(anyString(), anyInt());
+  }
+
+  @After
+  public void tearDown() {
+    fetchExecutor.shutdownNow();
+  }
+
+  private RssConf newConf(int prefetchPartitions, long prefetchMaxMemory) {
+    RssConf conf = new RssConf();
+    conf.set("rss.fetch.prefetch.partitions", String.valueOf(prefetchPartitions));
+    conf.set("rss.fetch.prefetch.maxMemory", String.valueOf(prefetchMaxMemory));
+    conf.set("rss.worker.fetch.chunk.size", String.valueOf(maxChunkSize));
+    return conf;
+  }
+
+  private RssInputStream createStream(RssConf conf) throws IOException {
+    return RssInputStream.create(conf, clientFactory, "shuffle-1", locations,
+      new int[NUM_LOCATIONS], 0, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return location and chunk of every record read, in the order they were read.
+   */
+  private List<int[]> readAll(RssInputStream stream) throws IOException {
+    List<int[]> records = new ArrayList<>();
+    byte[] record = new byte[RECORD_SIZE];
+    while (true) {
+      int read = 0;
+      while (read < RECORD_SIZE) {
+        int n = stream.read(record, read, RECORD_SIZE - read);
+        if (n < 0) {
+          assertEquals(0, read);
+          return records;
+        }
+        read += n;
+      }
+      records.add(new int[] {Platform.getInt(record, Platform.BYTE_ARRAY_OFFSET),
+        Platform.getInt(record, Platform.BYTE_ARRAY_OFFSET + 4)});
+    }
+  }
+
+  private int totalFetchedChunks() {
+    return clients.values().stream().mapToInt(client -> client.fetchedChunks.get()).sum();
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private void assertAllChunksReleased() throws InterruptedException {
+    waitFor(() -> sentChunks.stream().allMatch(chunk -> chunk.refCnt() == 0));
+    assertEquals(0, RssInputStream.getBufferedChunkBytes());
+  }
+
+  @Test
+  public void testPrefetchedPartitionsAreReadInOrder() throws Exception {
+    RssInputStream stream = createStream(newConf(2, 64 * 1024 * 1024));
+    List<int[]> records = readAll(stream);
+    stream.close();
+
+    // every location is read as a whole, its chunks in order, before the next one
+    assertEquals(NUM_LOCATIONS * NUM_CHUNKS, records.size());
+    boolean[] locationsRead = new boolean[NUM_LOCATIONS];
+    for (int i = 0; i < NUM_LOCATIONS; i++) {
+      int location = records.get(i * NUM_CHUNKS)[0];
+      assertTrue(!locationsRead[location]);
+      locationsRead[location] = true;
+      for (int c = 0; c < NUM_CHUNKS; c++) {
+        assertEquals(location, records.get(i * NUM_CHUNKS + c)[0]);
+        assertEquals(c, records.get(i * NUM_CHUNKS + c)[1]);
+      }
+    }
+    assertEquals(NUM_LOCATIONS * NUM_CHUNKS, totalFetchedChunks());
+    assertAllChunksReleased();
+  }
+
+  @Test
+  public void testPrefetchStaysWithinMaxMemory() throws Exception {
+    RssConf conf = newConf(NUM_LOCATIONS - 1, 2L * maxChunkSize);
+    conf.set("rss.fetch.chunk.maxReqsInFlight", "1");
+    RssInputStream stream = createStream(conf);
+    waitFor(() -> clients.size() == NUM_LOCATIONS);
+    Thread.sleep(500);
+
+    // the location being read fetches 2 chunks, the others only what fits in 2 chunks
+    assertTrue("Fetched " + totalFetchedChunks(), totalFetchedChunks() <= 4);
+    assertTrue(RssInputStream.getBufferedChunkBytes() <= 4L * maxChunkSize);
+
+    assertEquals(NUM_LOCATIONS * NUM_CHUNKS, readAll(stream).size());
+    stream.close();
+    assertAllChunksReleased();
+  }
+
+  @Test
+  public void testCloseReleasesPrefetchedReaders() throws Exception {
+    RssInputStream stream = createStream(newConf(NUM_LOCATIONS - 1, 64 * 1024 * 1024));
+    waitFor(() -> clients.size() == NUM_LOCATIONS);
+    // the readers of the other locations fetch their first chunks in the background
+    waitFor(() -> totalFetchedChunks() == NUM_LOCATIONS * NUM_CHUNKS);
+    assertTrue(RssInputStream.getBufferedChunkBytes() > 0);
+
+    stream.close();
+    assertAllChunksReleased();
+  }
+
+  private class FakeTransportClient extends TransportClient {
+    private final int location;
+    private final AtomicInteger fetchedChunks = new AtomicInteger();
+
+    FakeTransportClient(int location) {
+      super(mock(Channel.class), mock(TransportResponseHandler.class));
+      this.location = location;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public ByteBuffer sendRpcSync(ByteBuffer message, long timeoutMs) {
+      ByteBuffer buffer = ByteBuffer.allocate(8 + 4);
+      buffer.putLong(location);
+      buffer.putInt(NUM_CHUNKS);
+      buffer.flip();
+      return buffer;
+    }
+
+    @Override
+    public void fetchChunk(long streamId, int chunkIndex, ChunkReceivedCallback callback) {
+      fetchedChunks.incrementAndGet();
+      fetchExecutor.schedule(() -> {
+        ByteBuf chunk = Unpooled.wrappedBuffer(chunks[location][chunkIndex]);
+        sentChunks.add(chunk);
+        callback.onSuccess(chunkIndex, new NettyManagedBuffer(chunk));
+        // released by the transport once the callback returns
+        chunk.release();
+      }, 100, TimeUnit.MILLISECONDS);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.write;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.client.DummyShuffleClient;
+import com.aliyun.emr.rss.common.RssConf;
+
+public class DataPusherSuiteJ {
+
+  // partitions of even ids are pushed to a worker that does not accept pushes until released
+  private static class SlowWorkerClient extends DummyShuffleClient {
+    final CountDownLatch slowWorkerReleased = new CountDownLatch(1);
+    final AtomicInteger fastWorkerPushes = new AtomicInteger();
+
+    SlowWorkerClient(File file) throws Exception {
+      super(file);
+    }
+
+    @Override
+    public String getPushTarget(int shuffleId, int reduceId) {
+      return "worker" + (reduceId % 2) + ":9092";
+    }
+
+    @Override
+    public int pushData(String applicationId, int shuffleId, int mapId, int attemptId,
+        int reduceId, byte[] data, int offset, int length, int numMappers, int numPartitions)
+        throws IOException {
+      if (reduceId % 2 == 0) {
+        try {
+          slowWorkerReleased.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      } else {
+        fastWorkerPushes.incrementAndGet();
+      }
+      return super.pushData(applicationId, shuffleId, mapId, attemptId, reduceId, data, offset,
+        length, numMappers, numPartitions);
+    }
+  }
+
+  @Test
+  public void testSlowWorkerHoldsUpOneThread() throws Exception {
+    File file = File.createTempFile("DataPusherSuiteJ", "data");
+    file.deleteOnExit();
+    SlowWorkerClient client = new SlowWorkerClient(file);
+    RssConf conf = new RssConf();
+    conf.set("rss.push.data.pusher.threads", "2");
+    conf.set("rss.push.data.buffer.size", "16");
+    LongAdder bytesWritten = new LongAdder();
+    LongAdder[] mapStatusLengths = new LongAdder[4];
+    for (int i = 0; i < 4; i++) {
+      mapStatusLengths[i] = new LongAdder();
+    }
+    DataPusher pusher = new DataPusher("app", 0, 0, 0, 0, 1, 4, conf, client,
+      bytesWritten::add, mapStatusLengths);
+
+    byte[] data = new byte[16];
+    for (int i = 0; i < 8; i++) {
+      pusher.addTask(i % 4, data, 16);
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (client.fastWorkerPushes.get() < 4 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(4, client.fastWorkerPushes.get());
+    Assert.assertEquals(0, mapStatusLengths[0].sum());
+
+    client.slowWorkerReleased.countDown();
+    pusher.waitOnTermination();
+    Assert.assertEquals(128, bytesWritten.sum());
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(32, mapStatusLengths[i].sum());
+    }
+  }
+
+  // locations become known after the first buffers of every partition are queued
+  private static class LocatingClient extends DummyShuffleClient {
+    volatile boolean located = false;
+    final ConcurrentHashMap<Integer, Set<String>> pushThreads = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<Integer, List<Byte>> pushedSeqs = new ConcurrentHashMap<>();
+
+    LocatingClient(File file) throws Exception {
+      super(file);
+    }
+
+    @Override
+    public String getPushTarget(int shuffleId, int reduceId) {
+      return located ? "worker" + (reduceId * 7) + ":9092" : null;
+    }
+
+    @Override
+    public int pushData(String applicationId, int shuffleId, int mapId, int attemptId,
+        int reduceId, byte[] data, int offset, int length, int numMappers, int numPartitions)
+        throws IOException {
+      pushThreads.computeIfAbsent(reduceId, k -> ConcurrentHashMap.newKeySet())
+        .add(Thread.currentThread().getName());
+      pushedSeqs.computeIfAbsent(reduceId, k -> new CopyOnWriteArrayList<>()).add(data[offset]);
+      return super.pushData(applicationId, shuffleId, mapId, attemptId, reduceId, data, offset,
+        length, numMappers, numPartitions);
+    }
+  }
+
+  @Test
+  public void testPartitionKeepsItsThread() throws Exception {
+    File file = File.createTempFile("DataPusherSuiteJ", "data");
+    file.deleteOnExit();
+    LocatingClient client = new LocatingClient(file);
+    RssConf conf = new RssConf();
+    conf.set("rss.push.data.pusher.threads", "4");
+    conf.set("rss.push.data.buffer.size", "16");
+    int numPartitions = 8;
+    LongAdder[] mapStatusLengths = new LongAdder[numPartitions];
+    for (int i = 0; i < numPartitions; i++) {
+      mapStatusLengths[i] = new LongAdder();
+    }
+    DataPusher pusher = new DataPusher("app", 0, 0, 0, 0, 1, numPartitions, conf, client,
+      new LongAdder()::add, mapStatusLengths);
+
+    byte[] data = new byte[16];
+    for (byte seq = 0; seq < 10; seq++) {
+      client.located = seq > 0;
+      data[0] = seq;
+      for (int partitionId = 0; partitionId < numPartitions; partitionId++) {
+        pusher.addTask(partitionId, data, 16);
+      }
+    }
+    pusher.waitOnTermination();
+
+    for (int partitionId = 0; partitionId < numPartitions; partitionId++) {
+      Assert.assertEquals(new HashSet<>(client.pushThreads.get(partitionId)).toString(), 1,
+        client.pushThreads.get(partitionId).size());
+      List<Byte> expected = new ArrayList<>();
+      for (byte seq = 0; seq < 10; seq++) {
+        expected.add(seq);
+      }
+      Assert.assertEquals(expected, client.pushedSeqs.get(partitionId));
+    }
+  }
+}
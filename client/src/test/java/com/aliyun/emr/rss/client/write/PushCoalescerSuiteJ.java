@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.write;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.protocol.PartitionLocation;
+
+public class PushCoalescerSuiteJ {
+  private static final PartitionLocation location = new PartitionLocation(
+    0, 1, "localhost", 1, 2, 3, 4, PartitionLocation.Mode.Master);
+
+  private static class Sent {
+    final String hostPort;
+    final String shuffleKey;
+    final ArrayList<PushCoalescer.CoalescedBatch> batches;
+    final String threadName = Thread.currentThread().getName();
+
+    Sent(String hostPort, String shuffleKey, ArrayList<PushCoalescer.CoalescedBatch> batches) {
+      this.hostPort = hostPort;
+      this.shuffleKey = shuffleKey;
+      this.batches = batches;
+    }
+  }
+
+  private final List<Sent> sent = new CopyOnWriteArrayList<>();
+
+  private PushCoalescer createCoalescer(String size, String delay) {
+    RssConf conf = new RssConf();
+    conf.set("rss.push.data.coalesce.size", size);
+    conf.set("rss.push.data.coalesce.delay", delay);
+    return new PushCoalescer(conf,
+      (hostPort, shuffleKey, batches) -> sent.add(new Sent(hostPort, shuffleKey, batches)));
+  }
+
+  private PushCoalescer.CoalescedBatch batch(int mapId, int batchId, int size) {
+    return batch(mapId, batchId, size, new PushState(new RssConf()));
+  }
+
+  private PushCoalescer.CoalescedBatch batch(
+      int mapId, int batchId, int size, PushState pushState) {
+    return new PushCoalescer.CoalescedBatch("app", 1, mapId, 0, pushState,
+      new DataBatches.DataBatch(location, batchId, Unpooled.wrappedBuffer(new byte[size])));
+  }
+
+  @Test
+  public void testCoalesceUpToSize() {
+    PushCoalescer coalescer = createCoalescer("1k", "1h");
+    coalescer.add("host1:1-host2:2", "app-1", batch(0, 1, 400));
+    coalescer.add("host1:1-host2:2", "app-1", batch(1, 1, 400));
+    // another pair of workers and another shuffle are coalesced separately
+    coalescer.add("host1:1-host3:3", "app-1", batch(2, 1, 400));
+    coalescer.add("host1:1-host2:2", "app-2", batch(3, 1, 400));
+    Assert.assertTrue(sent.isEmpty());
+
+    coalescer.add("host1:1-host2:2", "app-1", batch(0, 2, 400));
+    Assert.assertEquals(1, sent.size());
+    Assert.assertEquals("host1:1", sent.get(0).hostPort);
+    Assert.assertEquals("app-1", sent.get(0).shuffleKey);
+    Assert.assertEquals(3, sent.get(0).batches.size());
+    Assert.assertEquals(0, sent.get(0).batches.get(0).mapId);
+    Assert.assertEquals(1, sent.get(0).batches.get(1).mapId);
+    Assert.assertEquals(2, sent.get(0).batches.get(2).batch.batchId);
+
+    coalescer.removeShuffle("app-2");
+    Assert.assertEquals(2, sent.size());
+    Assert.assertEquals("app-2", sent.get(1).shuffleKey);
+
+    coalescer.flushAll();
+    Assert.assertEquals(3, sent.size());
+    Assert.assertEquals(2, sent.get(2).batches.get(0).mapId);
+    coalescer.flushAll();
+    Assert.assertEquals(3, sent.size());
+    coalescer.close();
+  }
+
+  @Test
+  public void testCoalesceUpToDelay() throws InterruptedException {
+    PushCoalescer coalescer = createCoalescer("1m", "200ms");
+    PushCoalescer.CoalescedBatch batch1 = batch(0, 1, 400);
+    PushCoalescer.CoalescedBatch batch2 = batch(1, 1, 400);
+    coalescer.add("host1:1-host2:2", "app-1", batch1);
+    coalescer.add("host1:1-host2:2", "app-1", batch2);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (sent.isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(1, sent.size());
+    Assert.assertEquals(2, sent.get(0).batches.size());
+    // the timer thread only hands the batches over, pushing them may block on creating clients
+    Assert.assertTrue(sent.get(0).threadName, sent.get(0).threadName.startsWith(
+      "Push-Coalescer-Sender"));
+    coalescer.close();
+  }
+
+  @Test
+  public void testFlushOnlyBatchesOfMapAttempt() {
+    PushCoalescer coalescer = createCoalescer("1m", "1h");
+    PushState task0 = new PushState(new RssConf());
+    PushState task1 = new PushState(new RssConf());
+    PushState task2 = new PushState(new RssConf());
+    coalescer.add("host1:1-host2:2", "app-1", batch(0, 1, 400, task0));
+    coalescer.add("host1:1-host2:2", "app-1", batch(1, 1, 400, task1));
+    coalescer.add("host1:1-host3:3", "app-1", batch(1, 2, 400, task1));
+    coalescer.add("host1:1-host4:4", "app-1", batch(2, 1, 400, task2));
+
+    // the workers task 0 pushed to are flushed with the batches of the other tasks for them
+    coalescer.flush(task0);
+    Assert.assertEquals(1, sent.size());
+    Assert.assertEquals(2, sent.get(0).batches.size());
+    coalescer.flush(task0);
+    Assert.assertEquals(1, sent.size());
+
+    coalescer.flush(task1);
+    Assert.assertEquals(2, sent.size());
+    Assert.assertEquals(1, sent.get(1).batches.size());
+    Assert.assertEquals(2, sent.get(1).batches.get(0).batch.batchId);
+
+    // task 2's batches are still waiting to be coalesced
+    coalescer.close();
+    Assert.assertEquals(3, sent.size());
+    Assert.assertEquals(2, sent.get(2).batches.get(0).mapId);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.client.write;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.common.RssConf;
+
+public class PushStateSuiteJ {
+
+  @Test
+  public void testWaitInFlightWakesOnAck() throws Exception {
+    PushState pushState = new PushState(new RssConf());
+    pushState.addInFlightBatch(1, 100);
+    pushState.addInFlightBatch(2, 100);
+    Assert.assertEquals(2, pushState.numInFlightBatches());
+    Assert.assertEquals(200, pushState.getInFlightBytes());
+
+    Assert.assertTrue(pushState.waitInFlight(2, 200, 0));
+    Assert.assertFalse(pushState.waitInFlight(1, 200, 10));
+    Assert.assertFalse(pushState.waitInFlight(2, 150, 10));
+
+    CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+      try {
+        return pushState.waitInFlight(1, 100, 60000);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    Thread.sleep(50);
+    Assert.assertFalse(waiter.isDone());
+    pushState.removeInFlightBatch(1);
+    Assert.assertTrue(waiter.get(10, TimeUnit.SECONDS));
+    Assert.assertEquals(100, pushState.getInFlightBytes());
+
+    // removing a batch twice does not free its bytes twice
+    pushState.removeInFlightBatch(1);
+    Assert.assertEquals(100, pushState.getInFlightBytes());
+  }
+
+  @Test
+  public void testWaitInFlightWakesOnFailure() throws Exception {
+    PushState pushState = new PushState(new RssConf());
+    pushState.addInFlightBatch(1, 100);
+
+    CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+      try {
+        return pushState.waitInFlight(0, 0, 60000);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    Thread.sleep(50);
+    Assert.assertFalse(waiter.isDone());
+    IOException failure = new IOException("push failed");
+    pushState.setException(failure);
+    Assert.assertTrue(waiter.get(10, TimeUnit.SECONDS));
+    pushState.setException(new IOException("later failure"));
+    Assert.assertSame(failure, pushState.exception.get());
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.buffer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A {@link NettyManagedBuffer} over a {@link ByteBuf} that stays owned by the caller, so it can
+ * be sent several times. Retaining and releasing this buffer does not touch the caller's
+ * reference; the transport only holds its own reference while the bytes are being written.
+ */
+public class BorrowedNettyManagedBuffer extends NettyManagedBuffer {
+
+  public BorrowedNettyManagedBuffer(ByteBuf buf) {
+    super(buf);
+  }
+
+  @Override
+  public ManagedBuffer retain() {
+    return this;
+  }
+
+  @Override
+  public ManagedBuffer release() {
+    return this;
+  }
+}
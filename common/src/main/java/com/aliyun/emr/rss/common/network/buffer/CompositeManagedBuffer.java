@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCountUtil;
+
+import com.aliyun.emr.rss.common.network.util.AbstractFileRegion;
+import com.aliyun.emr.rss.common.network.util.JavaUtils;
+
+/**
+ * A {@link ManagedBuffer} that concatenates several buffers, so that they can be sent as the body
+ * of a single message. It owns the references to the given buffers.
+ */
+public final class CompositeManagedBuffer extends ManagedBuffer {
+  private final ManagedBuffer[] buffers;
+  private final long size;
+
+  public CompositeManagedBuffer(ManagedBuffer[] buffers) {
+    this.buffers = buffers;
+    long totalSize = 0;
+    for (ManagedBuffer buffer : buffers) {
+      totalSize += buffer.size();
+    }
+    this.size = totalSize;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public ByteBuffer nioByteBuffer() throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate((int) size);
+    for (ManagedBuffer buffer : buffers) {
+      buf.put(buffer.nioByteBuffer());
+    }
+    buf.flip();
+    return buf;
+  }
+
+  @Override
+  public InputStream createInputStream() throws IOException {
+    List<InputStream> streams = new ArrayList<>(buffers.length);
+    try {
+      for (ManagedBuffer buffer : buffers) {
+        streams.add(buffer.createInputStream());
+      }
+    } catch (IOException e) {
+      streams.forEach(JavaUtils::closeQuietly);
+      throw e;
+    }
+    return new SequenceInputStream(Collections.enumeration(streams));
+  }
+
+  @Override
+  public ManagedBuffer retain() {
+    for (ManagedBuffer buffer : buffers) {
+      buffer.retain();
+    }
+    return this;
+  }
+
+  @Override
+  public ManagedBuffer release() {
+    for (ManagedBuffer buffer : buffers) {
+      buffer.release();
+    }
+    return this;
+  }
+
+  /**
+   * @return a composite ByteBuf if every buffer converts to a ByteBuf, otherwise a FileRegion
+   *         that transfers the buffers one after another, keeping file segments zero copy.
+   */
+  @Override
+  public Object convertToNetty() throws IOException {
+    Object[] parts = new Object[buffers.length];
+    boolean allByteBufs = true;
+    try {
+      for (int i = 0; i < buffers.length; i++) {
+        parts[i] = buffers[i].convertToNetty();
+        allByteBufs &= parts[i] instanceof ByteBuf;
+      }
+    } catch (IOException | RuntimeException e) {
+      for (Object part : parts) {
+        ReferenceCountUtil.release(part);
+      }
+      throw e;
+    }
+    if (allByteBufs) {
+      ByteBuf[] bufs = new ByteBuf[parts.length];
+      System.arraycopy(parts, 0, bufs, 0, parts.length);
+      return Unpooled.wrappedBuffer(bufs.length, bufs);
+    }
+    return new CompositeFileRegion(parts);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("numBuffers", buffers.length)
+      .add("size", size)
+      .toString();
+  }
+
+  /**
+   * Transfers ByteBuf and FileRegion parts one at a time.
+   */
+  private final class CompositeFileRegion extends AbstractFileRegion {
+    private final Object[] parts;
+    private int part;
+    private long transferred;
+
+    CompositeFileRegion(Object[] parts) {
+      this.parts = parts;
+    }
+
+    @Override
+    public long position() {
+      return 0;
+    }
+
+    @Override
+    public long count() {
+      return size;
+    }
+
+    @Override
+    public long transferred() {
+      return transferred;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+      if (position != transferred) {
+        throw new IllegalArgumentException("Invalid position " + position + ", transferred " +
+          transferred);
+      }
+      long written = 0;
+      while (part < parts.length) {
+        boolean complete;
+        if (parts[part] instanceof FileRegion) {
+          FileRegion region = (FileRegion) parts[part];
+          written += region.transferTo(target, region.transferred());
+          complete = region.transferred() == region.count();
+        } else {
+          ByteBuf buf = (ByteBuf) parts[part];
+          written += copyByteBuf(buf, target);
+          complete = !buf.isReadable();
+        }
+        if (!complete) {
+          // target cannot take more for now
+          break;
+        }
+        part++;
+      }
+      transferred += written;
+      return written;
+    }
+
+    private int copyByteBuf(ByteBuf buf, WritableByteChannel target) throws IOException {
+      int written = 0;
+      for (ByteBuffer buffer : buf.nioBuffers()) {
+        int remaining = buffer.remaining();
+        int w = target.write(buffer);
+        written += w;
+        if (w < remaining) {
+          break;
+        }
+      }
+      buf.skipBytes(written);
+      return written;
+    }
+
+    @Override
+    protected void deallocate() {
+      for (Object part : parts) {
+        ReferenceCountUtil.release(part);
+      }
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Objects;
+
+import com.aliyun.emr.rss.common.network.util.AbstractFileRegion;
+import com.aliyun.emr.rss.common.network.util.JavaUtils;
+import com.aliyun.emr.rss.common.network.util.TransportConf;
+
+/**
+ * A {@link ManagedBuffer} backed by several segments of a file, sent one after another.
+ */
+public final class FileSegmentsManagedBuffer extends ManagedBuffer {
+  private final TransportConf conf;
+  private final File file;
+  private final long[] offsets;
+  private final long[] lengths;
+  private final long size;
+
+  public FileSegmentsManagedBuffer(TransportConf conf, File file, long[] offsets,
+      long[] lengths) {
+    this.conf = conf;
+    this.file = file;
+    this.offsets = offsets;
+    this.lengths = lengths;
+    long totalLength = 0;
+    for (long length : lengths) {
+      totalLength += length;
+    }
+    this.size = totalLength;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public ByteBuffer nioByteBuffer() throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate((int) size);
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      for (int i = 0; i < offsets.length; i++) {
+        long position = offsets[i];
+        buf.limit(buf.position() + (int) lengths[i]);
+        while (buf.hasRemaining()) {
+          int read = channel.read(buf, position);
+          if (read == -1) {
+            throw new IOException("Reached EOF before filling buffer, file=" +
+              file.getAbsolutePath() + " offset=" + position);
+          }
+          position += read;
+        }
+      }
+    } catch (IOException e) {
+      throw new IOException("Error in reading " + this, e);
+    }
+    buf.flip();
+    return buf;
+  }
+
+  @Override
+  public InputStream createInputStream() throws IOException {
+    List<InputStream> streams = new ArrayList<>(offsets.length);
+    try {
+      for (int i = 0; i < offsets.length; i++) {
+        streams.add(
+          new FileSegmentManagedBuffer(conf, file, offsets[i], lengths[i]).createInputStream());
+      }
+    } catch (IOException e) {
+      streams.forEach(JavaUtils::closeQuietly);
+      throw e;
+    }
+    return new SequenceInputStream(Collections.enumeration(streams));
+  }
+
+  @Override
+  public ManagedBuffer retain() {
+    return this;
+  }
+
+  @Override
+  public ManagedBuffer release() {
+    return this;
+  }
+
+  @Override
+  public Object convertToNetty() throws IOException {
+    return new SegmentsFileRegion();
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("file", file)
+      .add("numSegments", offsets.length)
+      .add("size", size)
+      .toString();
+  }
+
+  /**
+   * Transfers the segments with zero copy, one segment at a time.
+   */
+  private final class SegmentsFileRegion extends AbstractFileRegion {
+    private FileChannel channel;
+    private int segment;
+    private long segmentTransferred;
+    private long transferred;
+
+    @Override
+    public long position() {
+      return 0;
+    }
+
+    @Override
+    public long count() {
+      return size;
+    }
+
+    @Override
+    public long transferred() {
+      return transferred;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+      if (position != transferred) {
+        throw new IllegalArgumentException("Invalid position " + position + ", transferred " +
+          transferred);
+      }
+      if (channel == null) {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      }
+      long written = 0;
+      while (segment < offsets.length) {
+        long remaining = lengths[segment] - segmentTransferred;
+        long n = channel.transferTo(offsets[segment] + segmentTransferred, remaining, target);
+        written += n;
+        segmentTransferred += n;
+        if (n < remaining) {
+          // target cannot take more for now
+          break;
+        }
+        segment++;
+        segmentTransferred = 0;
+      }
+      transferred += written;
+      return written;
+    }
+
+    @Override
+    protected void deallocate() {
+      JavaUtils.closeQuietly(channel);
+    }
+  }
+}
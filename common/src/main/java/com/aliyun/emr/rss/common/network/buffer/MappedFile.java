@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * A read-only memory mapping of a whole file, shared by the buffers served from it. The file
+ * is unmapped when the last reference is released, so every buffer that exposes the mapping
+ * holds a reference until it has been sent.
+ */
+public final class MappedFile extends AbstractReferenceCounted {
+  // files larger than this are mapped in several regions
+  static final long REGION_SIZE = 1L << 30;
+
+  private final File file;
+  private final long length;
+  private final long regionSize;
+  private final MappedByteBuffer[] regions;
+
+  private MappedFile(File file, long length, long regionSize, MappedByteBuffer[] regions) {
+    this.file = file;
+    this.length = length;
+    this.regionSize = regionSize;
+    this.regions = regions;
+  }
+
+  public static MappedFile map(File file) throws IOException {
+    return map(file, REGION_SIZE);
+  }
+
+  static MappedFile map(File file, long regionSize) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long length = channel.size();
+      MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((length + regionSize - 1) /
+        regionSize)];
+      try {
+        for (int i = 0; i < regions.length; i++) {
+          long position = i * regionSize;
+          regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(regionSize, length - position));
+        }
+      } catch (IOException e) {
+        unmap(regions);
+        throw e;
+      }
+      return new MappedFile(file, length, regionSize, regions);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long length() {
+    return length;
+  }
+
+  /**
+   * @return false if the file has already been unmapped, otherwise retains it.
+   */
+  public boolean tryRetain() {
+    try {
+      retain();
+      return true;
+    } catch (IllegalReferenceCountException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return read-only views of [offset, offset + len), one for each region the range spans.
+   */
+  ByteBuffer[] slices(long offset, long len) {
+    if (offset < 0 || len < 0 || offset + len > length) {
+      throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + len) +
+        ") out of " + file + " of length " + length);
+    }
+    if (len == 0) {
+      return new ByteBuffer[0];
+    }
+    int first = (int) (offset / regionSize);
+    int last = (int) ((offset + len - 1) / regionSize);
+    ByteBuffer[] slices = new ByteBuffer[last - first + 1];
+    long position = offset;
+    long remaining = len;
+    for (int i = first; i <= last; i++) {
+      int start = (int) (position - i * regionSize);
+      int sliceLength = (int) Math.min(remaining, regions[i].capacity() - start);
+      ByteBuffer slice = regions[i].duplicate();
+      slice.position(start);
+      slice.limit(start + sliceLength);
+      slices[i - first] = slice.slice();
+      position += sliceLength;
+      remaining -= sliceLength;
+    }
+    return slices;
+  }
+
+  @Override
+  public MappedFile touch(Object hint) {
+    return this;
+  }
+
+  @Override
+  protected void deallocate() {
+    unmap(regions);
+  }
+
+  private static void unmap(MappedByteBuffer[] regions) {
+    for (MappedByteBuffer region : regions) {
+      if (region != null) {
+        PlatformDependent.freeDirectBuffer(region);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedFile{file=" + file + ", length=" + length + ", refCnt=" + refCnt() + "}";
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
+/**
+ * A {@link ManagedBuffer} backed by segments of a {@link MappedFile}. It owns one reference to
+ * the mapped file, which is given up when the buffer is released after it has been sent.
+ */
+public final class MappedFileSegmentsManagedBuffer extends ManagedBuffer {
+  private final MappedFile mappedFile;
+  private final ByteBuffer[] buffers;
+  private final long size;
+
+  /**
+   * The caller must have retained mappedFile for this buffer.
+   */
+  public MappedFileSegmentsManagedBuffer(MappedFile mappedFile, long[] offsets,
+      long[] lengths) {
+    this.mappedFile = mappedFile;
+    List<ByteBuffer> slices = new ArrayList<>(offsets.length);
+    long totalLength = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      Collections.addAll(slices, mappedFile.slices(offsets[i], lengths[i]));
+      totalLength += lengths[i];
+    }
+    this.buffers = slices.toArray(new ByteBuffer[0]);
+    this.size = totalLength;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public ByteBuffer nioByteBuffer() throws IOException {
+    // copied, since the mapping must not be used after this buffer is released
+    ByteBuffer buf = ByteBuffer.allocate((int) size);
+    for (ByteBuffer buffer : buffers) {
+      buf.put(buffer.duplicate());
+    }
+    buf.flip();
+    return buf;
+  }
+
+  @Override
+  public InputStream createInputStream() throws IOException {
+    return new ByteBufInputStream(Unpooled.wrappedBuffer(nioByteBuffer()));
+  }
+
+  @Override
+  public ManagedBuffer retain() {
+    mappedFile.retain();
+    return this;
+  }
+
+  @Override
+  public ManagedBuffer release() {
+    mappedFile.release();
+    return this;
+  }
+
+  @Override
+  public Object convertToNetty() throws IOException {
+    ByteBuffer[] duplicates = new ByteBuffer[buffers.length];
+    for (int i = 0; i < buffers.length; i++) {
+      duplicates[i] = buffers[i].duplicate();
+    }
+    return Unpooled.wrappedBuffer(duplicates);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("file", mappedFile.getFile())
+      .add("numSegments", buffers.length)
+      .add("size", size)
+      .toString();
+  }
+}
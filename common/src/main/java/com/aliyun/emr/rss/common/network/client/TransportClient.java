@@ -152,6 +152,43 @@ public class TransportClient implements Closeable {
     channel.writeAndFlush(new ChunkFetchRequest(streamChunkId)).addListener(listener);
   }
 
+  /**
+   * Requests numChunks consecutive chunks from the remote side with a single request, starting at
+   * startChunkIndex. The callback is invoked once for every chunk, in chunk order, and every chunk
+   * is failed if any of them cannot be fetched. Only servers that announced batch fetch support
+   * for the stream can serve this request.
+   *
+   * @param streamId Identifier that refers to a stream in the remote StreamManager.
+   * @param startChunkIndex 0-based index of the first chunk to fetch
+   * @param numChunks number of chunks to fetch
+   * @param callback Callback invoked upon successful receipt of each chunk, or upon any failure.
+   */
+  public void fetchChunks(
+      long streamId,
+      int startChunkIndex,
+      int numChunks,
+      ChunkReceivedCallback callback) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("Sending fetch chunks request {} to {} to {}.", startChunkIndex,
+        startChunkIndex + numChunks - 1, NettyUtils.getRemoteAddress(channel));
+    }
+
+    StreamChunkId streamChunkId = new StreamChunkId(streamId, startChunkIndex);
+    StdChannelListener listener = new StdChannelListener(streamChunkId) {
+      @Override
+      protected void handleFailure(String errorMsg, Throwable cause) {
+        handler.removeBatchFetchRequest(streamChunkId);
+        for (int i = 0; i < numChunks; i++) {
+          callback.onFailure(startChunkIndex + i, new IOException(errorMsg, cause));
+        }
+      }
+    };
+    handler.addBatchFetchRequest(streamChunkId, numChunks, callback);
+
+    channel.writeAndFlush(new ChunkBatchFetchRequest(streamChunkId, numChunks))
+      .addListener(listener);
+  }
+
   /**
    * Request to stream the data with the given stream ID from the remote end.
    *
@@ -25,12 +25,15 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.aliyun.emr.rss.common.network.buffer.ManagedBuffer;
+import com.aliyun.emr.rss.common.network.buffer.NettyManagedBuffer;
 import com.aliyun.emr.rss.common.network.protocol.*;
 import com.aliyun.emr.rss.common.network.server.MessageHandler;
 import com.aliyun.emr.rss.common.network.util.NettyUtils;
@@ -49,6 +52,9 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
 
   private final Map<StreamChunkId, ChunkReceivedCallback> outstandingFetches;
 
+  /** Batch fetches keyed by their first chunk, with the number of chunks requested. */
+  private final Map<StreamChunkId, Pair<Integer, ChunkReceivedCallback>> outstandingBatchFetches;
+
   private final Map<Long, RpcResponseCallback> outstandingRpcs;
 
   private final Queue<Pair<String, StreamCallback>> streamCallbacks;
@@ -60,6 +66,7 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
   public TransportResponseHandler(Channel channel) {
     this.channel = channel;
     this.outstandingFetches = new ConcurrentHashMap<>();
+    this.outstandingBatchFetches = new ConcurrentHashMap<>();
     this.outstandingRpcs = new ConcurrentHashMap<>();
     this.streamCallbacks = new ConcurrentLinkedQueue<>();
     this.timeOfLastRequestNs = new AtomicLong(0);
@@ -74,6 +81,16 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
     outstandingFetches.remove(streamChunkId);
   }
 
+  public void addBatchFetchRequest(StreamChunkId streamChunkId, int numChunks,
+      ChunkReceivedCallback callback) {
+    updateTimeOfLastRequest();
+    outstandingBatchFetches.put(streamChunkId, ImmutablePair.of(numChunks, callback));
+  }
+
+  public void removeBatchFetchRequest(StreamChunkId streamChunkId) {
+    outstandingBatchFetches.remove(streamChunkId);
+  }
+
   public void addRpcRequest(long requestId, RpcResponseCallback callback) {
     updateTimeOfLastRequest();
     outstandingRpcs.put(requestId, callback);
@@ -105,6 +122,16 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
         logger.warn("ChunkReceivedCallback.onFailure throws exception", e);
       }
     }
+    for (Map.Entry<StreamChunkId, Pair<Integer, ChunkReceivedCallback>> entry :
+        outstandingBatchFetches.entrySet()) {
+      for (int i = 0; i < entry.getValue().getLeft(); i++) {
+        try {
+          entry.getValue().getRight().onFailure(entry.getKey().chunkIndex + i, cause);
+        } catch (Exception e) {
+          logger.warn("ChunkReceivedCallback.onFailure throws exception", e);
+        }
+      }
+    }
     for (Map.Entry<Long, RpcResponseCallback> entry : outstandingRpcs.entrySet()) {
       try {
         entry.getValue().onFailure(cause);
@@ -122,6 +149,7 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
 
     // It's OK if new fetches appear, as they will fail immediately.
     outstandingFetches.clear();
+    outstandingBatchFetches.clear();
     outstandingRpcs.clear();
     streamCallbacks.clear();
   }
@@ -150,6 +178,55 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
     }
   }
 
+  /**
+   * Passes every chunk of the batch to the callback. Once the callback throws, or if the
+   * response holds fewer chunks than requested, the chunks left are failed, so that none of them
+   * is waited for until the fetch times out.
+   */
+  private void handleBatchFetchSuccess(
+      ChunkBatchFetchSuccess resp,
+      int numChunks,
+      ChunkReceivedCallback callback) {
+    ByteBuf buf = ((NettyManagedBuffer) resp.body()).getBuf();
+    int offset = buf.readerIndex();
+    int i = 0;
+    try {
+      for (; i < resp.chunkSizes.length; i++) {
+        ManagedBuffer chunk =
+          new NettyManagedBuffer(buf.retainedSlice(offset, resp.chunkSizes[i]));
+        offset += resp.chunkSizes[i];
+        try {
+          callback.onSuccess(resp.streamChunkId.chunkIndex + i, chunk);
+        } finally {
+          chunk.release();
+        }
+      }
+    } catch (Throwable e) {
+      failBatchChunks(resp.streamChunkId, i + 1, numChunks, callback, e);
+      throw e;
+    }
+    if (resp.chunkSizes.length < numChunks) {
+      failBatchChunks(resp.streamChunkId, resp.chunkSizes.length, numChunks, callback,
+        new ChunkFetchFailureException("Only " + resp.chunkSizes.length + " of " + numChunks +
+          " blocks from " + resp.streamChunkId + " were returned"));
+    }
+  }
+
+  private void failBatchChunks(
+      StreamChunkId streamChunkId,
+      int from,
+      int until,
+      ChunkReceivedCallback callback,
+      Throwable cause) {
+    for (int i = from; i < until; i++) {
+      try {
+        callback.onFailure(streamChunkId.chunkIndex + i, cause);
+      } catch (Exception e) {
+        logger.warn("Error in failure callback of block {} of {}", i, streamChunkId, e);
+      }
+    }
+  }
+
   @Override
   public void handle(ResponseMessage message) throws Exception {
     if (message instanceof ChunkFetchSuccess) {
@@ -175,6 +252,36 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
         listener.onFailure(resp.streamChunkId.chunkIndex, new ChunkFetchFailureException(
           "Failure while fetching " + resp.streamChunkId + ": " + resp.errorString));
       }
+    } else if (message instanceof ChunkBatchFetchSuccess) {
+      ChunkBatchFetchSuccess resp = (ChunkBatchFetchSuccess) message;
+      Pair<Integer, ChunkReceivedCallback> entry =
+        outstandingBatchFetches.remove(resp.streamChunkId);
+      try {
+        if (entry == null) {
+          logger.warn("Ignoring response for {} blocks from {} from {} since it is not " +
+            "outstanding", resp.chunkSizes.length, resp.streamChunkId,
+            NettyUtils.getRemoteAddress(channel));
+        } else {
+          handleBatchFetchSuccess(resp, entry.getLeft(), entry.getRight());
+        }
+      } finally {
+        resp.body().release();
+      }
+    } else if (message instanceof ChunkBatchFetchFailure) {
+      ChunkBatchFetchFailure resp = (ChunkBatchFetchFailure) message;
+      Pair<Integer, ChunkReceivedCallback> entry =
+        outstandingBatchFetches.remove(resp.streamChunkId);
+      if (entry == null) {
+        logger.warn("Ignoring response for {} blocks from {} from {} ({}) since it is not " +
+          "outstanding", resp.numChunks, resp.streamChunkId,
+          NettyUtils.getRemoteAddress(channel), resp.errorString);
+      } else {
+        for (int i = 0; i < entry.getLeft(); i++) {
+          entry.getRight().onFailure(resp.streamChunkId.chunkIndex + i,
+            new ChunkFetchFailureException("Failure while fetching " + resp.numChunks +
+              " blocks from " + resp.streamChunkId + ": " + resp.errorString));
+        }
+      }
     } else if (message instanceof RpcResponse) {
       RpcResponse resp = (RpcResponse) message;
       RpcResponseCallback listener = outstandingRpcs.get(resp.requestId);
@@ -246,8 +353,8 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
 
   /** Returns total number of outstanding requests (fetch requests + rpcs) */
   public int numOutstandingRequests() {
-    return outstandingFetches.size() + outstandingRpcs.size() + streamCallbacks.size() +
-      (streamActive ? 1 : 0);
+    return outstandingFetches.size() + outstandingBatchFetches.size() + outstandingRpcs.size() +
+      streamCallbacks.size() + (streamActive ? 1 : 0);
   }
 
   /** Returns the time in nanoseconds of when the last request was sent out. */
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.protocol;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Response to {@link ChunkBatchFetchRequest} when there is an error fetching any of the chunks.
+ */
+public final class ChunkBatchFetchFailure extends AbstractMessage implements ResponseMessage {
+  public final StreamChunkId streamChunkId;
+  public final int numChunks;
+  public final String errorString;
+
+  public ChunkBatchFetchFailure(StreamChunkId streamChunkId, int numChunks, String errorString) {
+    this.streamChunkId = streamChunkId;
+    this.numChunks = numChunks;
+    this.errorString = errorString;
+  }
+
+  @Override
+  public Type type() { return Type.ChunkBatchFetchFailure; }
+
+  @Override
+  public int encodedLength() {
+    return streamChunkId.encodedLength() + 4 + Encoders.Strings.encodedLength(errorString);
+  }
+
+  @Override
+  public void encode(ByteBuf buf) {
+    streamChunkId.encode(buf);
+    buf.writeInt(numChunks);
+    Encoders.Strings.encode(buf, errorString);
+  }
+
+  public static ChunkBatchFetchFailure decode(ByteBuf buf) {
+    StreamChunkId streamChunkId = StreamChunkId.decode(buf);
+    int numChunks = buf.readInt();
+    String errorString = Encoders.Strings.decode(buf);
+    return new ChunkBatchFetchFailure(streamChunkId, numChunks, errorString);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(streamChunkId, numChunks, errorString);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof ChunkBatchFetchFailure) {
+      ChunkBatchFetchFailure o = (ChunkBatchFetchFailure) other;
+      return streamChunkId.equals(o.streamChunkId) && numChunks == o.numChunks &&
+        errorString.equals(o.errorString);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("streamChunkId", streamChunkId)
+      .add("numChunks", numChunks)
+      .add("errorString", errorString)
+      .toString();
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.protocol;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Request to fetch numChunks consecutive chunks of a stream, starting at the chunk identified by
+ * streamChunkId. This will correspond to a single {@link ResponseMessage} (either success or
+ * failure) covering all of the chunks.
+ */
+public final class ChunkBatchFetchRequest extends AbstractMessage implements RequestMessage {
+  public final StreamChunkId streamChunkId;
+  public final int numChunks;
+
+  public ChunkBatchFetchRequest(StreamChunkId streamChunkId, int numChunks) {
+    this.streamChunkId = streamChunkId;
+    this.numChunks = numChunks;
+  }
+
+  @Override
+  public Type type() { return Type.ChunkBatchFetchRequest; }
+
+  @Override
+  public int encodedLength() {
+    return streamChunkId.encodedLength() + 4;
+  }
+
+  @Override
+  public void encode(ByteBuf buf) {
+    streamChunkId.encode(buf);
+    buf.writeInt(numChunks);
+  }
+
+  public static ChunkBatchFetchRequest decode(ByteBuf buf) {
+    StreamChunkId streamChunkId = StreamChunkId.decode(buf);
+    int numChunks = buf.readInt();
+    return new ChunkBatchFetchRequest(streamChunkId, numChunks);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(streamChunkId, numChunks);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof ChunkBatchFetchRequest) {
+      ChunkBatchFetchRequest o = (ChunkBatchFetchRequest) other;
+      return streamChunkId.equals(o.streamChunkId) && numChunks == o.numChunks;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("streamChunkId", streamChunkId)
+      .add("numChunks", numChunks)
+      .toString();
+  }
+}
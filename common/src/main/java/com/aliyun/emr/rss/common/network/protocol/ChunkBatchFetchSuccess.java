@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.protocol;
+
+import java.util.Arrays;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBuf;
+
+import com.aliyun.emr.rss.common.network.buffer.ManagedBuffer;
+import com.aliyun.emr.rss.common.network.buffer.NettyManagedBuffer;
+
+/**
+ * Response to {@link ChunkBatchFetchRequest} when all of the chunks have been successfully
+ * fetched. The body is the concatenation of the chunks, whose sizes are given by chunkSizes.
+ *
+ * As with {@link ChunkFetchSuccess}, the server-side encoding does NOT include the buffer itself,
+ * and the client-side decoding will reuse the Netty ByteBuf as the buffer.
+ */
+public final class ChunkBatchFetchSuccess extends AbstractResponseMessage {
+  public final StreamChunkId streamChunkId;
+  public final int[] chunkSizes;
+
+  public ChunkBatchFetchSuccess(StreamChunkId streamChunkId, int[] chunkSizes,
+      ManagedBuffer buffer) {
+    super(buffer, true);
+    this.streamChunkId = streamChunkId;
+    this.chunkSizes = chunkSizes;
+  }
+
+  @Override
+  public Type type() { return Type.ChunkBatchFetchSuccess; }
+
+  @Override
+  public int encodedLength() {
+    return streamChunkId.encodedLength() + Encoders.IntArrays.encodedLength(chunkSizes);
+  }
+
+  /** Encoding does NOT include 'buffer' itself. See {@link MessageEncoder}. */
+  @Override
+  public void encode(ByteBuf buf) {
+    streamChunkId.encode(buf);
+    Encoders.IntArrays.encode(buf, chunkSizes);
+  }
+
+  @Override
+  public ResponseMessage createFailureResponse(String error) {
+    return new ChunkBatchFetchFailure(streamChunkId, chunkSizes.length, error);
+  }
+
+  /** Decoding uses the given ByteBuf as our data, and will retain() it. */
+  public static ChunkBatchFetchSuccess decode(ByteBuf buf) {
+    StreamChunkId streamChunkId = StreamChunkId.decode(buf);
+    int[] chunkSizes = Encoders.IntArrays.decode(buf);
+    buf.retain();
+    NettyManagedBuffer managedBuf = new NettyManagedBuffer(buf.duplicate());
+    return new ChunkBatchFetchSuccess(streamChunkId, chunkSizes, managedBuf);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(streamChunkId, Arrays.hashCode(chunkSizes), body());
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof ChunkBatchFetchSuccess) {
+      ChunkBatchFetchSuccess o = (ChunkBatchFetchSuccess) other;
+      return streamChunkId.equals(o.streamChunkId) && Arrays.equals(chunkSizes, o.chunkSizes) &&
+        super.equals(o);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("streamChunkId", streamChunkId)
+      .add("numChunks", chunkSizes.length)
+      .add("buffer", body())
+      .toString();
+  }
+}
@@ -37,7 +37,8 @@ public interface Message extends Encodable {
     ChunkFetchRequest(0), ChunkFetchSuccess(1), ChunkFetchFailure(2),
     RpcRequest(3), RpcResponse(4), RpcFailure(5),
     StreamRequest(6), StreamResponse(7), StreamFailure(8),
-    OneWayMessage(9), UploadStream(10), PushData(11), PushMergedData(12), User(-1);
+    OneWayMessage(9), UploadStream(10), PushData(11), PushMergedData(12),
+    ChunkBatchFetchRequest(13), ChunkBatchFetchSuccess(14), ChunkBatchFetchFailure(15), User(-1);
 
     private final byte id;
 
@@ -68,6 +69,9 @@ public interface Message extends Encodable {
         case 10: return UploadStream;
         case 11: return PushData;
         case 12: return PushMergedData;
+        case 13: return ChunkBatchFetchRequest;
+        case 14: return ChunkBatchFetchSuccess;
+        case 15: return ChunkBatchFetchFailure;
         case -1: throw new IllegalArgumentException("User type messages cannot be decoded.");
         default: throw new IllegalArgumentException("Unknown message type: " + id);
       }
@@ -89,6 +89,15 @@ public final class MessageDecoder extends MessageToMessageDecoder<ByteBuf> {
       case PushMergedData:
         return PushMergedData.decode(in);
 
+      case ChunkBatchFetchRequest:
+        return ChunkBatchFetchRequest.decode(in);
+
+      case ChunkBatchFetchSuccess:
+        return ChunkBatchFetchSuccess.decode(in);
+
+      case ChunkBatchFetchFailure:
+        return ChunkBatchFetchFailure.decode(in);
+
       default:
         throw new IllegalArgumentException("Unexpected message type: " + msgType);
     }
@@ -26,6 +26,12 @@ public class FileInfo {
   public final File file;
   public final ArrayList<Long> chunkOffsets;
   public final int numChunks;
+  // Set when chunks are made of segments that are not adjacent in the file: chunk i consists
+  // of segments chunkSegments[i] until chunkSegments[i + 1]. Null when every chunk is the range
+  // between two consecutive chunkOffsets.
+  public final long[] segmentOffsets;
+  public final long[] segmentLengths;
+  public final int[] chunkSegments;
 
   public FileInfo(File file, ArrayList<Long> chunkOffsets) {
     this.file = file;
@@ -35,10 +41,33 @@ public class FileInfo {
     } else {
       this.numChunks = 0;
     }
+    this.segmentOffsets = null;
+    this.segmentLengths = null;
+    this.chunkSegments = null;
+  }
+
+  public FileInfo(File file, long[] segmentOffsets, long[] segmentLengths, int[] chunkSegments) {
+    this.file = file;
+    this.chunkOffsets = new ArrayList<>();
+    this.numChunks = Math.max(chunkSegments.length - 1, 0);
+    this.segmentOffsets = segmentOffsets;
+    this.segmentLengths = segmentLengths;
+    this.chunkSegments = chunkSegments;
+  }
+
+  public boolean isSegmented() {
+    return chunkSegments != null;
   }
 
   @Override
   public String toString() {
+    if (isSegmented()) {
+      return "FileInfo{" +
+               "file=" + file.getAbsolutePath() +
+               ", numSegments=" + segmentOffsets.length +
+               ", numChunks=" + numChunks +
+               '}';
+    }
     return "FileInfo{" +
              "file=" + file.getAbsolutePath() +
              ", chunkOffsets=" + StringUtils.join(this.chunkOffsets, ",") +
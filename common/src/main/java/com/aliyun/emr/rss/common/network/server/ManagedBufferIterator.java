@@ -19,27 +19,43 @@ package com.aliyun.emr.rss.common.network.server;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Iterator;
 
 import com.aliyun.emr.rss.common.network.buffer.FileSegmentManagedBuffer;
+import com.aliyun.emr.rss.common.network.buffer.FileSegmentsManagedBuffer;
 import com.aliyun.emr.rss.common.network.buffer.ManagedBuffer;
+import com.aliyun.emr.rss.common.network.buffer.MappedFile;
+import com.aliyun.emr.rss.common.network.buffer.MappedFileSegmentsManagedBuffer;
 import com.aliyun.emr.rss.common.network.util.TransportConf;
 
 public class ManagedBufferIterator implements Iterator<ManagedBuffer> {
   private final File file;
   private final long[] offsets;
+  private final FileInfo fileInfo;
   private final int numChunks;
 
   private final BitSet chunkTracker;
   private final TransportConf conf;
+  // chunks are served from this mapping of the file while it is mapped, may be null
+  private final MappedFile mappedFile;
 
   private int index = 0;
 
   public ManagedBufferIterator(FileInfo fileInfo, TransportConf conf) throws IOException {
+    this(fileInfo, conf, null);
+  }
+
+  public ManagedBufferIterator(FileInfo fileInfo, TransportConf conf, MappedFile mappedFile)
+    throws IOException {
+    this.fileInfo = fileInfo;
+    this.mappedFile = mappedFile;
     file = fileInfo.file;
     numChunks = fileInfo.numChunks;
-    if (numChunks > 0) {
+    if (fileInfo.isSegmented()) {
+      offsets = null;
+    } else if (numChunks > 0) {
       offsets = new long[numChunks + 1];
       for (int i = 0; i <= numChunks; i++) {
         offsets[i] = fileInfo.chunkOffsets.get(i);
@@ -81,8 +97,47 @@ public class ManagedBufferIterator implements Iterator<ManagedBuffer> {
     synchronized (chunkTracker) {
       chunkTracker.set(chunkIndex, true);
     }
+    if (fileInfo.isSegmented()) {
+      int start = fileInfo.chunkSegments[chunkIndex];
+      int end = fileInfo.chunkSegments[chunkIndex + 1];
+      ManagedBuffer mapped = mappedChunk(
+        Arrays.copyOfRange(fileInfo.segmentOffsets, start, end),
+        Arrays.copyOfRange(fileInfo.segmentLengths, start, end));
+      if (mapped != null) {
+        return mapped;
+      }
+      if (end - start == 1) {
+        return new FileSegmentManagedBuffer(conf, file, fileInfo.segmentOffsets[start],
+          fileInfo.segmentLengths[start]);
+      }
+      return new FileSegmentsManagedBuffer(conf, file,
+        Arrays.copyOfRange(fileInfo.segmentOffsets, start, end),
+        Arrays.copyOfRange(fileInfo.segmentLengths, start, end));
+    }
     final long offset = offsets[chunkIndex];
     final long length = offsets[chunkIndex + 1] - offset;
+    ManagedBuffer mapped = mappedChunk(new long[] {offset}, new long[] {length});
+    if (mapped != null) {
+      return mapped;
+    }
     return new FileSegmentManagedBuffer(conf, file, offset, length);
   }
+
+  /**
+   * @return the chunk served from the mapped file, or null if the file is not mapped (any
+   * more) or the chunk reaches past the mapped length.
+   */
+  private ManagedBuffer mappedChunk(long[] chunkOffsets, long[] chunkLengths) {
+    if (mappedFile == null) {
+      return null;
+    }
+    int last = chunkOffsets.length - 1;
+    if (last >= 0 && chunkOffsets[last] + chunkLengths[last] > mappedFile.length()) {
+      return null;
+    }
+    if (!mappedFile.tryRetain()) {
+      return null;
+    }
+    return new MappedFileSegmentsManagedBuffer(mappedFile, chunkOffsets, chunkLengths);
+  }
 }
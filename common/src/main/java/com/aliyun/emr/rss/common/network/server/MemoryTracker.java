@@ -60,7 +60,7 @@ public class MemoryTracker {
   private final AtomicLong diskBufferCounter = new AtomicLong(0);
   private final LongAdder pausePushDataCounter = new LongAdder();
   private final LongAdder pausePushDataAndReplicateCounter = new LongAdder();
-  private MemoryTrackerStat memoryTrackerStat = MemoryTrackerStat.resumeAll;
+  private volatile MemoryTrackerStat memoryTrackerStat = MemoryTrackerStat.resumeAll;
   private boolean underPressure;
   private int trimCount = 0;
 
@@ -153,6 +153,12 @@ public class MemoryTracker {
             }
           }
         }
+        if (memoryTrackerStat == MemoryTrackerStat.resumeAll) {
+          // netty memory may have been released, wake up sorts waiting for memory
+          synchronized (this) {
+            notifyAll();
+          }
+        }
       } catch (Exception e) {
         logger.error("Memory tracker check error", e);
       }
@@ -239,6 +245,18 @@ public class MemoryTracker {
              sortMemoryCounter.get() < maxSortMemory;
   }
 
+  /**
+   * Blocks until {@link #sortMemoryReady()}. Waiters are woken up when sort memory is released
+   * and on every memory check that finds no memory pressure.
+   */
+  public void awaitSortMemoryReady() throws InterruptedException {
+    synchronized (this) {
+      while (!sortMemoryReady()) {
+        wait();
+      }
+    }
+  }
+
   public void releaseSortMemory(long size) {
     synchronized (this) {
       if (sortMemoryCounter.get() - size < 0) {
@@ -246,6 +264,7 @@ public class MemoryTracker {
       } else {
         sortMemoryCounter.addAndGet(-1L * size);
       }
+      notifyAll();
     }
   }
 
@@ -269,6 +288,18 @@ public class MemoryTracker {
     return diskBufferCounter;
   }
 
+  public long getDirectMemoryUsed() {
+    return nettyMemoryCounter.get() + sortMemoryCounter.get();
+  }
+
+  public long getMaxDirectMemory() {
+    return maxDirectorMemory;
+  }
+
+  public boolean isPushDataPaused() {
+    return memoryTrackerStat != MemoryTrackerStat.resumeAll;
+  }
+
   public long getPausePushDataCounter() {
     return pausePushDataCounter.sum();
   }
@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import com.aliyun.emr.rss.common.metrics.source.AbstractSource;
 import com.aliyun.emr.rss.common.metrics.source.NetWorkSource;
+import com.aliyun.emr.rss.common.network.buffer.CompositeManagedBuffer;
 import com.aliyun.emr.rss.common.network.buffer.ManagedBuffer;
 import com.aliyun.emr.rss.common.network.buffer.NioManagedBuffer;
 import com.aliyun.emr.rss.common.network.client.RpcResponseCallback;
@@ -66,6 +67,9 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
   /** The max number of chunks being transferred and not finished yet. */
   private final long maxChunksBeingTransferred;
 
+  /** The max number of chunks of a single batch fetch request. */
+  private final int maxChunksPerBatchFetch;
+
   private AbstractSource source = null;
 
   public TransportRequestHandler(
@@ -73,8 +77,9 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
       TransportClient reverseClient,
       RpcHandler rpcHandler,
       Long maxChunksBeingTransferred,
+      int maxChunksPerBatchFetch,
       AbstractSource source){
-    this(channel, reverseClient, rpcHandler, maxChunksBeingTransferred);
+    this(channel, reverseClient, rpcHandler, maxChunksBeingTransferred, maxChunksPerBatchFetch);
     this.source = source;
   }
 
@@ -83,11 +88,21 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
       TransportClient reverseClient,
       RpcHandler rpcHandler,
       Long maxChunksBeingTransferred) {
+    this(channel, reverseClient, rpcHandler, maxChunksBeingTransferred, 64);
+  }
+
+  public TransportRequestHandler(
+      Channel channel,
+      TransportClient reverseClient,
+      RpcHandler rpcHandler,
+      Long maxChunksBeingTransferred,
+      int maxChunksPerBatchFetch) {
     this.channel = channel;
     this.reverseClient = reverseClient;
     this.rpcHandler = rpcHandler;
     this.streamManager = rpcHandler.getStreamManager();
     this.maxChunksBeingTransferred = maxChunksBeingTransferred;
+    this.maxChunksPerBatchFetch = maxChunksPerBatchFetch;
   }
 
   @Override
@@ -118,6 +133,10 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
       if (checkRegistered(request)) {
         processFetchRequest((ChunkFetchRequest) request);
       }
+    } else if (request instanceof ChunkBatchFetchRequest) {
+      if (checkRegistered(request)) {
+        processBatchFetchRequest((ChunkBatchFetchRequest) request);
+      }
     } else if (request instanceof RpcRequest) {
       if (checkRegistered(request)) {
         processRpcRequest((RpcRequest) request);
@@ -151,6 +170,10 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
       } else if (req instanceof ChunkFetchRequest) {
         respond(new ChunkFetchFailure(((ChunkFetchRequest)req).streamChunkId,
             Throwables.getStackTraceAsString(e)));
+      } else if (req instanceof ChunkBatchFetchRequest) {
+        ChunkBatchFetchRequest batchReq = (ChunkBatchFetchRequest) req;
+        respond(new ChunkBatchFetchFailure(batchReq.streamChunkId, batchReq.numChunks,
+            Throwables.getStackTraceAsString(e)));
       } else if (req instanceof OneWayMessage) {
         logger.warn("Ignore OneWayMessage since worker is not registered!");
       }
@@ -200,6 +223,82 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
     });
   }
 
+  private void processBatchFetchRequest(final ChunkBatchFetchRequest req) {
+    if (source != null) {
+      source.startTimer(NetWorkSource.FetchChunkTime(), req.toString());
+    }
+    if (logger.isTraceEnabled()) {
+      logger.trace("Received req from {} to fetch {} blocks from {}",
+        NettyUtils.getRemoteAddress(channel), req.numChunks, req.streamChunkId);
+    }
+    long streamId = req.streamChunkId.streamId;
+    if (req.numChunks <= 0 || req.numChunks > maxChunksPerBatchFetch) {
+      String error = String.format("Invalid number of chunks %d requested from %s, should be " +
+        "between 1 and %d.", req.numChunks, req.streamChunkId, maxChunksPerBatchFetch);
+      logger.warn(error);
+      respond(new ChunkBatchFetchFailure(req.streamChunkId, req.numChunks, error));
+      if (source != null) {
+        source.stopTimer(NetWorkSource.FetchChunkTime(), req.toString());
+      }
+      return;
+    }
+    long chunksBeingTransferred = streamManager.chunksBeingTransferred();
+    if (chunksBeingTransferred + req.numChunks > maxChunksBeingTransferred) {
+      logger.warn("The number of chunks being transferred {} and {} requested is above {}, " +
+        "close the connection.", chunksBeingTransferred, req.numChunks,
+        maxChunksBeingTransferred);
+      channel.close();
+      if (source != null) {
+        source.stopTimer(NetWorkSource.FetchChunkTime(), req.toString());
+      }
+      return;
+    }
+    ManagedBuffer[] bufs = new ManagedBuffer[req.numChunks];
+    int[] chunkSizes = new int[req.numChunks];
+    try {
+      streamManager.checkAuthorization(reverseClient, streamId);
+      long totalSize = 0;
+      for (int i = 0; i < req.numChunks; i++) {
+        bufs[i] = streamManager.getChunk(streamId, req.streamChunkId.chunkIndex + i);
+        totalSize += bufs[i].size();
+        // the chunks are sent in one frame, whose body size is an int
+        if (totalSize > Integer.MAX_VALUE) {
+          throw new IOException(String.format("Chunks %s to %d are %d bytes and more, above " +
+            "the max frame size.", req.streamChunkId, req.streamChunkId.chunkIndex + i,
+            totalSize));
+        }
+        chunkSizes[i] = (int) bufs[i].size();
+      }
+    } catch (Exception e) {
+      logger.error(String.format("Error opening %s blocks from %s for request from %s",
+        req.numChunks, req.streamChunkId, NettyUtils.getRemoteAddress(channel)), e);
+      for (ManagedBuffer buf : bufs) {
+        if (buf != null) {
+          buf.release();
+        }
+      }
+      respond(new ChunkBatchFetchFailure(req.streamChunkId, req.numChunks,
+        Throwables.getStackTraceAsString(e)));
+      if (source != null) {
+        source.stopTimer(NetWorkSource.FetchChunkTime(), req.toString());
+      }
+      return;
+    }
+
+    for (int i = 0; i < req.numChunks; i++) {
+      streamManager.chunkBeingSent(streamId);
+    }
+    respond(new ChunkBatchFetchSuccess(req.streamChunkId, chunkSizes,
+      new CompositeManagedBuffer(bufs))).addListener(future -> {
+        for (int i = 0; i < req.numChunks; i++) {
+          streamManager.chunkSent(streamId);
+        }
+        if (source != null) {
+          source.stopTimer(NetWorkSource.FetchChunkTime(), req.toString());
+        }
+      });
+  }
+
   private void processStreamRequest(final StreamRequest req) {
     if (logger.isTraceEnabled()) {
       logger.trace("Received req from {} to fetch stream {}", NettyUtils.getRemoteAddress(channel),
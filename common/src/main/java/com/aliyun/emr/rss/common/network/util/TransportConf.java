@@ -292,4 +292,12 @@ public class TransportConf {
   public long maxChunksBeingTransferred() {
     return conf.getLong("rss.shuffle.maxChunksBeingTransferred", Long.MAX_VALUE);
   }
+
+  /**
+   * The max number of chunks a single batch fetch request may ask for. Requests for more are
+   * failed without opening any chunk.
+   */
+  public int maxChunksPerBatchFetch() {
+    return conf.getInt("rss.shuffle.maxChunksPerBatchFetch", 64);
+  }
 }
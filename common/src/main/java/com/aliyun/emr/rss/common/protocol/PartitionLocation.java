@@ -52,6 +52,8 @@ public class PartitionLocation implements Serializable {
   private int replicatePort;
   private Mode mode;
   private PartitionLocation peer;
+  // working dir of the worker the master assigned the partition to, empty if it is up to the worker
+  private String disk = "";
 
   public PartitionLocation(PartitionLocation loc) {
     this.reduceId = loc.reduceId;
@@ -63,6 +65,7 @@ public class PartitionLocation implements Serializable {
     this.replicatePort = loc.replicatePort;
     this.mode = loc.mode;
     this.peer = loc.peer;
+    this.disk = loc.disk;
   }
 
   public PartitionLocation(
@@ -164,6 +167,14 @@ public class PartitionLocation implements Serializable {
     this.peer = peer;
   }
 
+  public String getDisk() {
+    return disk;
+  }
+
+  public void setDisk(String disk) {
+    this.disk = disk;
+  }
+
   public String getUniqueId() {
     return reduceId + "-" + epoch;
   }
@@ -215,7 +226,7 @@ public class PartitionLocation implements Serializable {
     }
     return "PartitionLocation[" + reduceId + "-" + epoch + " " + host + ":" + rpcPort + ":" +
              pushPort + ":" + fetchPort + ":"+ replicatePort + " Mode: " + mode +
-             " peer: " + peerAddr + "]";
+             " peer: " + peerAddr + " disk: " + disk + "]";
   }
 
   public WorkerInfo getWorker() {
@@ -237,6 +248,7 @@ public class PartitionLocation implements Serializable {
       pbPartitionLocation.getFetchPort(),
       pbPartitionLocation.getReplicatePort(),
       mode);
+    partitionLocation.setDisk(pbPartitionLocation.getDisk());
 
     if (pbPartitionLocation.hasPeer()) {
       TransportMessages.PbPartitionLocation peerPb = pbPartitionLocation.getPeer();
@@ -247,6 +259,7 @@ public class PartitionLocation implements Serializable {
       PartitionLocation peerLocation = new PartitionLocation(peerPb.getReduceId(),
         peerPb.getEpoch(), peerPb.getHost(), peerPb.getRpcPort(), peerPb.getPushPort(),
         peerPb.getFetchPort(), peerPb.getReplicatePort(), peerMode, partitionLocation);
+      peerLocation.setDisk(peerPb.getDisk());
       partitionLocation.setPeer(peerLocation);
     }
 
@@ -269,6 +282,7 @@ public class PartitionLocation implements Serializable {
     pbPartitionLocationBuilder.setPushPort(partitionLocation.getPushPort());
     pbPartitionLocationBuilder.setFetchPort(partitionLocation.getFetchPort());
     pbPartitionLocationBuilder.setReplicatePort(partitionLocation.getReplicatePort());
+    pbPartitionLocationBuilder.setDisk(partitionLocation.getDisk());
 
     if (partitionLocation.getPeer() != null) {
       TransportMessages.PbPartitionLocation.Builder peerPbPartionLocationBuilder = TransportMessages
@@ -285,6 +299,7 @@ public class PartitionLocation implements Serializable {
       peerPbPartionLocationBuilder.setPushPort(partitionLocation.getPeer().getPushPort());
       peerPbPartionLocationBuilder.setFetchPort(partitionLocation.getPeer().getFetchPort());
       peerPbPartionLocationBuilder.setReplicatePort(partitionLocation.getPeer().getReplicatePort());
+      peerPbPartionLocationBuilder.setDisk(partitionLocation.getPeer().getDisk());
       pbPartitionLocationBuilder.setPeer(peerPbPartionLocationBuilder.build());
     }
 
@@ -418,14 +418,72 @@ object RssConf extends Logging {
     conf.getSizeAsBytes("rss.push.data.buffer.size", "64k").toInt
   }
 
+  /**
+   * Hash based writers grow the buffer of a partition in pages of this size, acquired from the
+   * task memory manager.
+   */
+  def pushDataBufferPageSize(conf: RssConf): Int = {
+    conf.getSizeAsBytes("rss.push.data.buffer.page.size", "4k").toInt
+  }
+
   def pushDataQueueCapacity(conf: RssConf): Int = {
     conf.getInt("rss.push.data.queue.capacity", 512)
   }
 
+  /**
+   * Threads pushing the buffers of a hash based writer, each serving its own share of workers.
+   */
+  def pushDataPusherThreads(conf: RssConf): Int = {
+    conf.getInt("rss.push.data.pusher.threads", 1)
+  }
+
   def pushDataMaxReqsInFlight(conf: RssConf): Int = {
     conf.getInt("rss.push.data.maxReqsInFlight", 32)
   }
 
+  /**
+   * Bytes of pushed batches a map task may have unacknowledged before it waits, so that
+   * large batches are not let in flight as freely as small ones.
+   */
+  def pushDataMaxBytesInFlight(conf: RssConf): Long = {
+    conf.getSizeAsBytes("rss.push.data.maxBytesInFlight", "4m")
+  }
+
+  /**
+   * Whether the batches pushed by all map tasks of an executor are coalesced into merged
+   * pushes per shuffle and pair of workers, instead of being pushed one request per batch.
+   */
+  def pushDataCoalesceEnabled(conf: RssConf): Boolean = {
+    conf.getBoolean("rss.push.data.coalesce.enabled", false)
+  }
+
+  /**
+   * Size at which coalesced batches are pushed right away.
+   */
+  def pushDataCoalesceSize(conf: RssConf): Long = {
+    conf.getSizeAsBytes("rss.push.data.coalesce.size", "1m")
+  }
+
+  /**
+   * Longest time a batch waits for other batches to be coalesced with.
+   */
+  def pushDataCoalesceDelayMs(conf: RssConf): Long = {
+    conf.getTimeAsMs("rss.push.data.coalesce.delay", "2ms")
+  }
+
+  /**
+   * Codec that batches are compressed with before they are pushed, one of lz4, zstd and none.
+   * It applies to every shuffle of an application. Readers find the codec of every batch in
+   * its header.
+   */
+  def compressionCodec(conf: RssConf): String = {
+    conf.get("rss.client.compression.codec", "lz4")
+  }
+
+  def compressionZstdLevel(conf: RssConf): Int = {
+    conf.getInt("rss.client.compression.zstd.level", 1)
+  }
+
   def fetchChunkTimeoutMs(conf: RssConf): Long = {
     conf.getTimeAsMs("rss.fetch.chunk.timeout", "120s")
   }
@@ -434,6 +492,47 @@ object RssConf extends Logging {
     conf.getInt("rss.fetch.chunk.maxReqsInFlight", 3)
   }
 
+  /**
+   * Max number of consecutive chunks requested with a single fetch request, when the worker
+   * supports batch fetch. 1 requests every chunk on its own.
+   */
+  def fetchChunkBatchSize(conf: RssConf): Int = {
+    conf.getInt("rss.fetch.chunk.batch.size", 4)
+  }
+
+  /**
+   * Number of partition locations after the one being read whose streams are opened, and whose
+   * first chunks are fetched, in the background. 0 opens every location only when it is read.
+   */
+  def fetchPrefetchPartitions(conf: RssConf): Int = {
+    conf.getInt("rss.fetch.prefetch.partitions", 2)
+  }
+
+  /**
+   * Bound of the chunks fetched but not yet read by all the reducers of a JVM, beyond which no
+   * background fetch is started. Each background fetch reserves `rss.worker.fetch.chunk.size`
+   * bytes before it is sent, so fetches in flight count as well.
+   */
+  def fetchPrefetchMaxMemory(conf: RssConf): Long = {
+    conf.getSizeAsBytes("rss.fetch.prefetch.maxMemory", "64m")
+  }
+
+  /**
+   * Whether reducers decompress the upcoming batches on a background thread while the task
+   * deserializes the current one.
+   */
+  def fetchDecompressAsyncEnabled(conf: RssConf): Boolean = {
+    conf.getBoolean("rss.fetch.decompress.async.enabled", false)
+  }
+
+  /**
+   * Number of buffers the background decompression of a reducer works ahead with, each holding
+   * one decompressed batch.
+   */
+  def fetchDecompressAsyncBuffers(conf: RssConf): Int = {
+    conf.getInt("rss.fetch.decompress.async.buffers", 4)
+  }
+
   def replicate(conf: RssConf): Boolean = {
     conf.getBoolean("rss.push.data.replicate", true)
   }
@@ -487,10 +586,62 @@ object RssConf extends Logging {
     conf.getInt("rss.worker.flush.queue.capacity", 512)
   }
 
+  /**
+   * When enabled, each DiskFlusher carves its flush buffers out of one off-heap arena of
+   * `rss.worker.flush.buffer.size` * `rss.worker.flush.queue.capacity` bytes and push data is
+   * copied into them, so the netty buffers can be released as soon as the data is appended.
+   */
+  def workerFlushOffHeapEnabled(conf: RssConf): Boolean = {
+    conf.getBoolean("rss.worker.flush.offheap.enabled", false)
+  }
+
+  /**
+   * Number of flush threads per working directory on a rotational disk. Concurrent writers
+   * only add seeks on a HDD, so a single thread is usually the best choice.
+   */
+  def workerFlushThreadCountHdd(conf: RssConf): Int = {
+    conf.getInt("rss.worker.flush.thread.count.hdd", 1)
+  }
+
+  /**
+   * Number of flush threads per working directory on a non-rotational disk. An SSD usually
+   * needs several outstanding writes to reach its full bandwidth, e.g. 4 to 8 threads, but the
+   * default keeps the single flush thread of earlier versions.
+   */
+  def workerFlushThreadCountSsd(conf: RssConf): Int = {
+    conf.getInt("rss.worker.flush.thread.count.ssd", 1)
+  }
+
+  /**
+   * When enabled, FileWriter records the mapId, offset and length of every batch it writes,
+   * so that sorting a partition file for a map range read needs no extra pass to find them.
+   */
+  def workerBatchIndexEnabled(conf: RssConf): Boolean = {
+    conf.getBoolean("rss.worker.batch.index.enabled", false)
+  }
+
+  /**
+   * When enabled, a map range read of a partition file with a batch index is served directly
+   * from the segments of the unsorted file that hold the requested maps, so it never waits
+   * for the file to be sorted.
+   */
+  def workerRangeReadBatchIndexEnabled(conf: RssConf): Boolean = {
+    conf.getBoolean("rss.worker.rangeRead.batchIndex.enabled", false)
+  }
+
   def workerFetchChunkSize(conf: RssConf): Long = {
     conf.getSizeAsBytes("rss.worker.fetch.chunk.size", "8m")
   }
 
+  /**
+   * When enabled, a committed file is memory mapped when it is first read and its chunks are
+   * sent from the mapping, which is shared by all streams of the file until the shuffle
+   * expires.
+   */
+  def workerFetchMmapEnabled(conf: RssConf): Boolean = {
+    conf.getBoolean("rss.worker.fetch.mmap.enabled", false)
+  }
+
   def workerNumSlots(conf: RssConf, numDisks: Int): Int = {
     val userNumSlots = conf.getInt("rss.worker.numSlots", -1)
     if (userNumSlots > 0) {
@@ -559,10 +710,6 @@ object RssConf extends Logging {
     conf.getTimeAsMs("rss.limit.inflight.timeout", "240s")
   }
 
-  def limitInFlightSleepDeltaMs(conf: RssConf): Long = {
-    conf.getTimeAsMs("rss.limit.inflight.sleep.delta", "50ms")
-  }
-
   def pushServerPort(conf: RssConf): Int = {
     conf.getInt("rss.pushserver.port", 0)
   }
@@ -625,6 +772,23 @@ object RssConf extends Logging {
     conf.getInt("rss.offer.slots.extra.size", 2)
   }
 
+  /**
+   * How the master places partition locations on workers, roundrobin or loadaware. loadaware
+   * prefers workers with shorter flush queues and less direct memory in use, as reported with
+   * their heartbeats.
+   */
+  def slotPlacementStrategy(conf: RssConf): String = {
+    conf.get("rss.slots.placement.strategy", "roundrobin")
+  }
+
+  /**
+   * Flush backlog of a worker's busiest disk that halves its share of slots under loadaware
+   * placement.
+   */
+  def slotPlacementFlushBacklogMs(conf: RssConf): Long = {
+    conf.getTimeAsMs("rss.slots.placement.flush.backlog", "1s")
+  }
+
   def shuffleWriterMode(conf: RssConf): String = {
     conf.get("rss.shuffle.writer.mode", "hash")
   }
@@ -633,6 +797,13 @@ object RssConf extends Logging {
     conf.getSizeAsBytes("rss.sort.push.data.threshold", "64m")
   }
 
+  /**
+   * Threads of the driver reserving new slots for revived and split partitions.
+   */
+  def driverRelocateThreads(conf: RssConf): Int = {
+    conf.getInt("rss.driver.relocate.threads", 64)
+  }
+
   def driverMetaServicePort(conf: RssConf): Int = {
     val port = conf.getInt("rss.driver.metaService.port", 0)
     if (port != 0) {
@@ -718,6 +889,27 @@ object RssConf extends Logging {
     conf.get(HA_RATIS_STORAGE_DIR, HA_RATIS_STORAGE_DIR_DEFAULT)
   }
 
+  /**
+   * @return max number of meta updates the leader submits to raft as one log entry.
+   */
+  def haSubmitBatchSize(conf: RssConf): Int = {
+    conf.getInt("rss.ha.submit.batch.size", 512)
+  }
+
+  /**
+   * @return max number of raft log entries the leader has submitted but not yet applied.
+   */
+  def haSubmitMaxInflight(conf: RssConf): Int = {
+    conf.getInt("rss.ha.submit.max.inflight", 8)
+  }
+
+  /**
+   * @return whether snapshots between full ones only hold the shuffles changed since.
+   */
+  def haSnapshotIncrementalEnabled(conf: RssConf): Boolean = {
+    conf.getBoolean("rss.ha.ratis.snapshot.incremental.enabled", false)
+  }
+
   def clusterSlotsUsageLimitPercent(conf: RssConf): Double = {
     conf.getDouble("rss.slots.usage.overload.percent", 0.95)
   }
@@ -768,6 +960,23 @@ object RssConf extends Logging {
     conf.getSizeAsBytes("rss.worker.reserveForSingleSort.memory", "1mb")
   }
 
+  /**
+   * Heap bytes the worker may spend on cached indexes of sorted partition files. The least
+   * recently used indexes are evicted beyond this and read again from their index files.
+   */
+  def workerSortedFileIndexCacheSize(conf: RssConf): Long = {
+    conf.getSizeAsBytes("rss.worker.sortedFileIndex.cache.size", "256m")
+  }
+
+  /**
+   * Heap bytes the worker may spend on cached batch indexes of unsorted partition files, which
+   * serve map range reads when `rss.worker.rangeRead.batchIndex.enabled` is true. The least
+   * recently used indexes are evicted beyond this and read again from their batch index files.
+   */
+  def workerBatchIndexCacheSize(conf: RssConf): Long = {
+    conf.getSizeAsBytes("rss.worker.batchIndex.cache.size", "256m")
+  }
+
   def workerDirectMemoryPressureCheckIntervalMs(conf: RssConf): Int = {
     conf.getInt("rss.worker.memory.check.interval", 10)
   }
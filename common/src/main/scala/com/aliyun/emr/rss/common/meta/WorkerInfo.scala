@@ -20,6 +20,8 @@ package com.aliyun.emr.rss.common.meta
 import java.util
 import java.util.Objects
 
+import scala.collection.JavaConverters._
+
 import com.aliyun.emr.rss.common.internal.Logging
 import com.aliyun.emr.rss.common.protocol.TransportMessages.PbWorkerInfo
 import com.aliyun.emr.rss.common.rpc.RpcEndpointRef
@@ -36,6 +38,10 @@ class WorkerInfo(
 
   private var slotsUsed: Int = 0
   var lastHeartbeat: Long = 0
+  // reported with heartbeats, only known to the master that received them
+  @volatile var load: WorkerLoad = WorkerLoad.EMPTY
+  // partitions on every disk as last reported, plus those offered since
+  private val diskSlotsUsed = new util.HashMap[String, Int]()
 
   // key: shuffleKey   value: slots allocated for the shuffle
   lazy val shuffleSlots = new util.HashMap[String, Int]()
@@ -88,6 +94,46 @@ class WorkerInfo(
     allocated
   }
 
+  def updateLoad(load: WorkerLoad): Unit = this.synchronized {
+    this.load = load
+    diskSlotsUsed.clear()
+    load.disks.asScala.foreach(disk => diskSlotsUsed.put(disk.workingDir, disk.usedSlots))
+  }
+
+  /**
+   * Picks the disk of the worker the next partition is placed on: the one with the smallest
+   * share of its slots in use, the one with more space left if several have the same share.
+   * A disk whose flushes queue up only counts the share of its slots it can flush as fast as
+   * the fastest disk of the worker, so slower disks that are already behind get fewer partitions.
+   *
+   * @return working dir of the disk, or an empty string if the worker did not report its disks.
+   */
+  def allocateDisk(): String = this.synchronized {
+    val peakThroughput = load.disks.asScala.map(_.flushThroughput).foldLeft(0L)(Math.max)
+    var selected: DiskLoad = null
+    var selectedUsage = 0.0
+    load.disks.asScala.foreach { disk =>
+      val effectiveSlots = if (disk.flushQueueDepth > 0 && peakThroughput > 0) {
+        Math.max(1.0, disk.numSlots.toDouble * disk.flushThroughput / peakThroughput)
+      } else {
+        Math.max(1.0, disk.numSlots.toDouble)
+      }
+      val usage = diskSlotsUsed.getOrDefault(disk.workingDir, 0).toDouble / effectiveSlots
+      if (selected == null || usage < selectedUsage ||
+        (usage == selectedUsage && disk.usableSpace > selected.usableSpace)) {
+        selected = disk
+        selectedUsage = usage
+      }
+    }
+    if (selected == null) {
+      ""
+    } else {
+      diskSlotsUsed.put(selected.workingDir,
+        diskSlotsUsed.getOrDefault(selected.workingDir, 0) + 1)
+      selected.workingDir
+    }
+  }
+
   def clearAll(): Unit = this.synchronized {
     slotsUsed = 0
   }
@@ -155,7 +201,6 @@ object WorkerInfo {
 
   def decodeFromPbMessage(pbStrList: util.List[String]): util.HashMap[WorkerInfo, Integer] = {
     val map = new util.HashMap[WorkerInfo, Integer]()
-    import scala.collection.JavaConverters._
     pbStrList.asScala.foreach { str =>
       val splits = str.split(SPLIT)
       map.put(new WorkerInfo(splits(0), splits(1).toInt, splits(2).toInt,
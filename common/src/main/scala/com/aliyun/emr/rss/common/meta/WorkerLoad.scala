@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.meta
+
+import java.util
+
+import scala.collection.JavaConverters._
+
+import com.aliyun.emr.rss.common.protocol.TransportMessages.{PbDiskLoad, PbWorkerLoad}
+
+/**
+ * Capacity and flush pressure of one working dir of a worker.
+ *
+ * @param numSlots partitions the dir takes
+ * @param usedSlots partitions being written to the dir
+ * @param usableSpace bytes left on the dir's device
+ * @param flushThroughput bytes per second flushed to the dir since the previous report
+ * @param flushQueueDepth flush tasks waiting in the dir's flusher queues
+ * @param flushLatencyMs average time of the flushes done since the previous report, or the age
+ *                       of the oldest flush in progress if longer
+ */
+case class DiskLoad(
+    workingDir: String,
+    numSlots: Int,
+    usedSlots: Int,
+    usableSpace: Long,
+    flushThroughput: Long,
+    flushQueueDepth: Int,
+    flushLatencyMs: Double) {
+
+  /**
+   * @return estimated time to drain the flush queues of the dir.
+   */
+  def flushBacklogMs: Double = flushQueueDepth * flushLatencyMs
+}
+
+/**
+ * Load a worker reports with its heartbeat. The master keeps it as soft state to place slots,
+ * it is neither replicated nor persisted.
+ */
+case class WorkerLoad(
+    disks: util.List[DiskLoad],
+    directMemoryUsed: Long,
+    maxDirectMemory: Long,
+    paused: Boolean) {
+
+  def flushBacklogMs: Double = {
+    if (disks.isEmpty) 0 else disks.asScala.map(_.flushBacklogMs).max
+  }
+
+  def directMemoryRatio: Double = {
+    if (maxDirectMemory <= 0) 0 else Math.min(1.0, directMemoryUsed.toDouble / maxDirectMemory)
+  }
+}
+
+object WorkerLoad {
+  val EMPTY: WorkerLoad = WorkerLoad(new util.ArrayList[DiskLoad](), 0, 0, paused = false)
+
+  def toPbWorkerLoad(load: WorkerLoad): PbWorkerLoad = {
+    val builder = PbWorkerLoad.newBuilder()
+      .setDirectMemoryUsed(load.directMemoryUsed)
+      .setMaxDirectMemory(load.maxDirectMemory)
+      .setPaused(load.paused)
+    load.disks.asScala.foreach { disk =>
+      builder.addDisks(PbDiskLoad.newBuilder()
+        .setWorkingDir(disk.workingDir)
+        .setNumSlots(disk.numSlots)
+        .setUsedSlots(disk.usedSlots)
+        .setUsableSpace(disk.usableSpace)
+        .setFlushThroughput(disk.flushThroughput)
+        .setFlushQueueDepth(disk.flushQueueDepth)
+        .setFlushLatencyMs(disk.flushLatencyMs))
+    }
+    builder.build()
+  }
+
+  def fromPbWorkerLoad(pbLoad: PbWorkerLoad): WorkerLoad = {
+    val disks = new util.ArrayList[DiskLoad]()
+    pbLoad.getDisksList.asScala.foreach { disk =>
+      disks.add(DiskLoad(disk.getWorkingDir, disk.getNumSlots, disk.getUsedSlots,
+        disk.getUsableSpace, disk.getFlushThroughput, disk.getFlushQueueDepth,
+        disk.getFlushLatencyMs))
+    }
+    WorkerLoad(disks, pbLoad.getDirectMemoryUsed, pbLoad.getMaxDirectMemory, pbLoad.getPaused)
+  }
+}
@@ -23,7 +23,7 @@ import java.util.UUID
 import scala.collection.JavaConverters._
 
 import com.aliyun.emr.rss.common.internal.Logging
-import com.aliyun.emr.rss.common.meta.WorkerInfo
+import com.aliyun.emr.rss.common.meta.{WorkerInfo, WorkerLoad}
 import com.aliyun.emr.rss.common.network.protocol.TransportMessage
 import com.aliyun.emr.rss.common.protocol.{PartitionLocation, PartitionSplitMode, TransportMessages}
 import com.aliyun.emr.rss.common.protocol.TransportMessages._
@@ -56,7 +56,7 @@ sealed trait Message extends Serializable{
         new TransportMessage(TransportMessages.MessageType.REGISTER_WORKER, payload)
 
       case HeartbeatFromWorker(host, rpcPort, pushPort, fetchPort, replicatePort, numSlots,
-      shuffleKeys, requestId) =>
+      shuffleKeys, load, requestId) =>
         val payload = TransportMessages.PbHeartbeatFromWorker.newBuilder()
           .setHost(host)
           .setRpcPort(rpcPort)
@@ -65,6 +65,7 @@ sealed trait Message extends Serializable{
           .setNumSlots(numSlots)
           .setReplicatePort(replicatePort)
           .addAllShuffleKeys(shuffleKeys)
+          .setLoad(WorkerLoad.toPbWorkerLoad(load))
           .setRequestId(requestId)
           .build().toByteArray
         new TransportMessage(TransportMessages.MessageType.HEARTBEAT_FROM_WORKER, payload)
@@ -460,6 +461,7 @@ object ControlMessages extends Logging{
       replicatePort : Int,
       numSlots: Int,
       shuffleKeys: util.HashSet[String],
+      load: WorkerLoad = WorkerLoad.EMPTY,
     override var requestId: String = ZERO_UUID) extends MasterRequestMessage
 
   case class HeartbeatResponse(expiredShuffleKeys: util.HashSet[String]) extends MasterMessage
@@ -670,6 +672,7 @@ object ControlMessages extends Logging{
         HeartbeatFromWorker(pbHeartbeatFromWorker.getHost, pbHeartbeatFromWorker.getRpcPort,
           pbHeartbeatFromWorker.getPushPort, pbHeartbeatFromWorker.getFetchPort,
           pbHeartbeatFromWorker.getReplicatePort, pbHeartbeatFromWorker.getNumSlots, shuffleKeys,
+          WorkerLoad.fromPbWorkerLoad(pbHeartbeatFromWorker.getLoad),
           pbHeartbeatFromWorker.getRequestId)
 
       case HEARTBEAT_RESPONSE =>
@@ -136,6 +136,13 @@ public class ChunkFetchIntegrationSuiteJ {
   }
 
   private FetchResult fetchChunks(List<Integer> chunkIndices) throws Exception {
+    return fetchChunks(chunkIndices, false);
+  }
+
+  /**
+   * @param batch whether to fetch the chunks, which must be consecutive, with a single request.
+   */
+  private FetchResult fetchChunks(List<Integer> chunkIndices, boolean batch) throws Exception {
     TransportClient client = clientFactory.createClient(TestUtils.getLocalHost(), server.getPort());
     final Semaphore sem = new Semaphore(0);
 
@@ -160,8 +167,12 @@ public class ChunkFetchIntegrationSuiteJ {
       }
     };
 
-    for (int chunkIndex : chunkIndices) {
-      client.fetchChunk(STREAM_ID, chunkIndex, callback);
+    if (batch) {
+      client.fetchChunks(STREAM_ID, chunkIndices.get(0), chunkIndices.size(), callback);
+    } else {
+      for (int chunkIndex : chunkIndices) {
+        client.fetchChunk(STREAM_ID, chunkIndex, callback);
+      }
     }
     if (!sem.tryAcquire(chunkIndices.size(), 5, TimeUnit.SECONDS)) {
       fail("Timeout getting response from the server");
@@ -214,6 +225,23 @@ public class ChunkFetchIntegrationSuiteJ {
     res.releaseBuffers();
   }
 
+  @Test
+  public void fetchBothChunksInBatch() throws Exception {
+    FetchResult res = fetchChunks(Arrays.asList(BUFFER_CHUNK_INDEX, FILE_CHUNK_INDEX), true);
+    assertEquals(Sets.newHashSet(BUFFER_CHUNK_INDEX, FILE_CHUNK_INDEX), res.successChunks);
+    assertTrue(res.failedChunks.isEmpty());
+    assertBufferListsEqual(Arrays.asList(bufferChunk, fileChunk), res.buffers);
+    res.releaseBuffers();
+  }
+
+  @Test
+  public void fetchBatchWithNonExistentChunk() throws Exception {
+    FetchResult res = fetchChunks(Arrays.asList(FILE_CHUNK_INDEX, FILE_CHUNK_INDEX + 1), true);
+    assertTrue(res.successChunks.isEmpty());
+    assertEquals(Sets.newHashSet(FILE_CHUNK_INDEX, FILE_CHUNK_INDEX + 1), res.failedChunks);
+    assertTrue(res.buffers.isEmpty());
+  }
+
   private static void assertBufferListsEqual(List<ManagedBuffer> list0, List<ManagedBuffer> list1)
       throws Exception {
     assertEquals(list0.size(), list1.size());
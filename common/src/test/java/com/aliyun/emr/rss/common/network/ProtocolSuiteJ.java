@@ -68,6 +68,7 @@ public class ProtocolSuiteJ {
   @Test
   public void requests() {
     testClientToServer(new ChunkFetchRequest(new StreamChunkId(1, 2)));
+    testClientToServer(new ChunkBatchFetchRequest(new StreamChunkId(1, 2), 3));
     testClientToServer(new RpcRequest(12345, new TestManagedBuffer(0)));
     testClientToServer(new RpcRequest(12345, new TestManagedBuffer(10)));
     testClientToServer(new StreamRequest("abcde"));
@@ -80,6 +81,9 @@ public class ProtocolSuiteJ {
     testServerToClient(new ChunkFetchSuccess(new StreamChunkId(1, 2), new TestManagedBuffer(0)));
     testServerToClient(new ChunkFetchFailure(new StreamChunkId(1, 2), "this is an error"));
     testServerToClient(new ChunkFetchFailure(new StreamChunkId(1, 2), ""));
+    testServerToClient(new ChunkBatchFetchSuccess(new StreamChunkId(1, 2), new int[] {4, 6},
+      new TestManagedBuffer(10)));
+    testServerToClient(new ChunkBatchFetchFailure(new StreamChunkId(1, 2), 2, "this is an error"));
     testServerToClient(new RpcResponse(12345, new TestManagedBuffer(0)));
     testServerToClient(new RpcResponse(12345, new TestManagedBuffer(100)));
     testServerToClient(new RpcFailure(0, "this is an error"));
@@ -115,6 +115,70 @@ public class TransportRequestHandlerSuiteJ {
     assert streamManager.numStreamStates() == 0;
   }
 
+  @Test
+  public void rejectInvalidBatchFetchRequests() throws Exception {
+    RpcHandler rpcHandler = new NoOpRpcHandler();
+    OneForOneStreamManager streamManager = (OneForOneStreamManager) (rpcHandler.getStreamManager());
+    Channel channel = Mockito.mock(Channel.class);
+    List<Object> responses = new ArrayList<>();
+    Mockito.when(channel.writeAndFlush(Mockito.any()))
+      .thenAnswer(invocationOnMock0 -> {
+        responses.add(invocationOnMock0.getArguments()[0]);
+        return new ExtendedChannelPromise(channel);
+      });
+
+    ManagedBufferIterator iterator = Mockito.mock(ManagedBufferIterator.class);
+    Mockito.when(iterator.hasNext()).thenReturn(true);
+    Mockito.when(iterator.chunk(Mockito.anyInt())).thenReturn(new TestManagedBuffer(10));
+    long streamId = streamManager.registerStream("test-app", iterator, channel);
+    TransportRequestHandler requestHandler = new TransportRequestHandler(channel,
+      Mockito.mock(TransportClient.class), rpcHandler, 6L, 4);
+
+    // negative and above the max chunks of a batch
+    for (int numChunks : new int[] {-1, 0, 5, Integer.MAX_VALUE}) {
+      requestHandler.handle(new ChunkBatchFetchRequest(new StreamChunkId(streamId, 0),
+        numChunks));
+      Object response = responses.get(responses.size() - 1);
+      assert response instanceof ChunkBatchFetchFailure : response;
+    }
+    Mockito.verify(iterator, Mockito.never()).chunk(Mockito.anyInt());
+
+    // 4 chunks are being sent, so 3 more are above the max of 6
+    requestHandler.handle(new ChunkBatchFetchRequest(new StreamChunkId(streamId, 0), 4));
+    assert responses.get(responses.size() - 1) instanceof ChunkBatchFetchSuccess;
+    requestHandler.handle(new ChunkBatchFetchRequest(new StreamChunkId(streamId, 4), 3));
+    Mockito.verify(channel, Mockito.times(1)).close();
+    assert responses.size() == 5;
+  }
+
+  @Test
+  public void rejectBatchFetchAboveMaxFrameSize() throws Exception {
+    RpcHandler rpcHandler = new NoOpRpcHandler();
+    OneForOneStreamManager streamManager = (OneForOneStreamManager) (rpcHandler.getStreamManager());
+    Channel channel = Mockito.mock(Channel.class);
+    List<Object> responses = new ArrayList<>();
+    Mockito.when(channel.writeAndFlush(Mockito.any()))
+      .thenAnswer(invocationOnMock0 -> {
+        responses.add(invocationOnMock0.getArguments()[0]);
+        return new ExtendedChannelPromise(channel);
+      });
+
+    ManagedBuffer largeChunk = Mockito.mock(ManagedBuffer.class);
+    Mockito.when(largeChunk.size()).thenReturn(1L << 30);
+    ManagedBufferIterator iterator = Mockito.mock(ManagedBufferIterator.class);
+    Mockito.when(iterator.hasNext()).thenReturn(true);
+    Mockito.when(iterator.chunk(Mockito.anyInt())).thenReturn(largeChunk);
+    long streamId = streamManager.registerStream("test-app", iterator, channel);
+    TransportRequestHandler requestHandler = new TransportRequestHandler(channel,
+      Mockito.mock(TransportClient.class), rpcHandler, Long.MAX_VALUE, 4);
+
+    requestHandler.handle(new ChunkBatchFetchRequest(new StreamChunkId(streamId, 0), 3));
+    assert responses.size() == 1;
+    assert responses.get(0) instanceof ChunkBatchFetchFailure : responses.get(0);
+    // every chunk opened is released
+    Mockito.verify(largeChunk, Mockito.times(2)).release();
+  }
+
   private class ExtendedChannelPromise extends DefaultChannelPromise {
 
     private List<GenericFutureListener<Future<Void>>> listeners = new ArrayList<>();
@@ -19,19 +19,28 @@ package com.aliyun.emr.rss.common.network;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.local.LocalChannel;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
+import com.aliyun.emr.rss.common.network.buffer.ManagedBuffer;
+import com.aliyun.emr.rss.common.network.buffer.NettyManagedBuffer;
 import com.aliyun.emr.rss.common.network.buffer.NioManagedBuffer;
 import com.aliyun.emr.rss.common.network.client.ChunkReceivedCallback;
 import com.aliyun.emr.rss.common.network.client.RpcResponseCallback;
 import com.aliyun.emr.rss.common.network.client.StreamCallback;
 import com.aliyun.emr.rss.common.network.client.TransportResponseHandler;
 import com.aliyun.emr.rss.common.network.protocol.*;
+import com.aliyun.emr.rss.common.network.util.JavaUtils;
 import com.aliyun.emr.rss.common.network.util.TransportFrameDecoder;
 
 public class TransportResponseHandlerSuiteJ {
@@ -62,6 +71,92 @@ public class TransportResponseHandlerSuiteJ {
     assertEquals(0, handler.numOutstandingRequests());
   }
 
+  @Test
+  public void handleSuccessfulBatchFetch() throws Exception {
+    StreamChunkId streamChunkId = new StreamChunkId(1, 3);
+    TransportResponseHandler handler = new TransportResponseHandler(new LocalChannel());
+    List<byte[]> chunks = new ArrayList<>();
+    ChunkReceivedCallback callback = new ChunkReceivedCallback() {
+      @Override
+      public void onSuccess(int chunkIndex, ManagedBuffer buffer) {
+        assertEquals(3 + chunks.size(), chunkIndex);
+        try {
+          chunks.add(JavaUtils.bufferToArray(buffer.nioByteBuffer()));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      public void onFailure(int chunkIndex, Throwable e) {
+        fail("Unexpected failure of chunk " + chunkIndex);
+      }
+    };
+    handler.addBatchFetchRequest(streamChunkId, 3, callback);
+    assertEquals(1, handler.numOutstandingRequests());
+
+    ByteBuf body = Unpooled.wrappedBuffer(new byte[] {1, 2, 3, 4, 5, 6});
+    handler.handle(new ChunkBatchFetchSuccess(streamChunkId, new int[] {1, 0, 5},
+      new NettyManagedBuffer(body)));
+    assertArrayEquals(new byte[] {1}, chunks.get(0));
+    assertArrayEquals(new byte[0], chunks.get(1));
+    assertArrayEquals(new byte[] {2, 3, 4, 5, 6}, chunks.get(2));
+    assertEquals(0, body.refCnt());
+    assertEquals(0, handler.numOutstandingRequests());
+  }
+
+  @Test
+  public void handleFailedBatchFetch() throws Exception {
+    StreamChunkId streamChunkId = new StreamChunkId(1, 3);
+    TransportResponseHandler handler = new TransportResponseHandler(new LocalChannel());
+    ChunkReceivedCallback callback = mock(ChunkReceivedCallback.class);
+    handler.addBatchFetchRequest(streamChunkId, 2, callback);
+
+    handler.handle(new ChunkBatchFetchFailure(streamChunkId, 2, "some error msg"));
+    verify(callback, times(1)).onFailure(eq(3), any());
+    verify(callback, times(1)).onFailure(eq(4), any());
+    assertEquals(0, handler.numOutstandingRequests());
+  }
+
+  @Test
+  public void failRemainingChunksWhenBatchCallbackThrows() throws Exception {
+    StreamChunkId streamChunkId = new StreamChunkId(1, 3);
+    TransportResponseHandler handler = new TransportResponseHandler(new LocalChannel());
+    ChunkReceivedCallback callback = mock(ChunkReceivedCallback.class);
+    doThrow(new RuntimeException("callback failed")).when(callback).onSuccess(eq(4), any());
+    handler.addBatchFetchRequest(streamChunkId, 3, callback);
+
+    ByteBuf body = Unpooled.wrappedBuffer(new byte[] {1, 2, 3});
+    try {
+      handler.handle(new ChunkBatchFetchSuccess(streamChunkId, new int[] {1, 1, 1},
+        new NettyManagedBuffer(body)));
+      fail("The exception of the callback should be thrown");
+    } catch (RuntimeException e) {
+      assertEquals("callback failed", e.getMessage());
+    }
+    verify(callback, times(1)).onSuccess(eq(3), any());
+    verify(callback, never()).onSuccess(eq(5), any());
+    verify(callback, times(1)).onFailure(eq(5), any());
+    assertEquals(0, body.refCnt());
+    assertEquals(0, handler.numOutstandingRequests());
+  }
+
+  @Test
+  public void failMissingChunksOfBatchFetch() throws Exception {
+    StreamChunkId streamChunkId = new StreamChunkId(1, 3);
+    TransportResponseHandler handler = new TransportResponseHandler(new LocalChannel());
+    ChunkReceivedCallback callback = mock(ChunkReceivedCallback.class);
+    handler.addBatchFetchRequest(streamChunkId, 3, callback);
+
+    ByteBuf body = Unpooled.wrappedBuffer(new byte[] {1});
+    handler.handle(new ChunkBatchFetchSuccess(streamChunkId, new int[] {1},
+      new NettyManagedBuffer(body)));
+    verify(callback, times(1)).onSuccess(eq(3), any());
+    verify(callback, times(1)).onFailure(eq(4), any());
+    verify(callback, times(1)).onFailure(eq(5), any());
+    assertEquals(0, body.refCnt());
+  }
+
   @Test
   public void clearAllOutstandingRequests() throws Exception {
     TransportResponseHandler handler = new TransportResponseHandler(new LocalChannel());
@@ -69,7 +164,8 @@ public class TransportResponseHandlerSuiteJ {
     handler.addFetchRequest(new StreamChunkId(1, 0), callback);
     handler.addFetchRequest(new StreamChunkId(1, 1), callback);
     handler.addFetchRequest(new StreamChunkId(1, 2), callback);
-    assertEquals(3, handler.numOutstandingRequests());
+    handler.addBatchFetchRequest(new StreamChunkId(1, 3), 2, callback);
+    assertEquals(4, handler.numOutstandingRequests());
 
     handler.handle(new ChunkFetchSuccess(new StreamChunkId(1, 0), new TestManagedBuffer(12)));
     handler.exceptionCaught(new Exception("duh duh duhhhh"));
@@ -78,6 +174,8 @@ public class TransportResponseHandlerSuiteJ {
     verify(callback, times(1)).onSuccess(eq(0), any());
     verify(callback, times(1)).onFailure(eq(1), any());
     verify(callback, times(1)).onFailure(eq(2), any());
+    verify(callback, times(1)).onFailure(eq(3), any());
+    verify(callback, times(1)).onFailure(eq(4), any());
     assertEquals(0, handler.numOutstandingRequests());
   }
 
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.common.network.buffer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.common.network.server.FileInfo;
+import com.aliyun.emr.rss.common.network.server.ManagedBufferIterator;
+import com.aliyun.emr.rss.common.network.util.MapConfigProvider;
+import com.aliyun.emr.rss.common.network.util.TransportConf;
+
+public class MappedFileSuiteJ {
+  private final TransportConf conf = new TransportConf("fetch", MapConfigProvider.EMPTY);
+  private File file;
+  private byte[] data;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("MappedFileSuiteJ", "data");
+    data = new byte[10000];
+    new Random().nextBytes(data);
+    Files.write(file.toPath(), data);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private byte[] toBytes(ManagedBuffer buffer) throws Exception {
+    ByteBuf buf = (ByteBuf) buffer.convertToNetty();
+    byte[] bytes = new byte[buf.readableBytes()];
+    buf.readBytes(bytes);
+    buf.release();
+    Assert.assertArrayEquals(bytes, buffer.nioByteBuffer().array());
+    return bytes;
+  }
+
+  @Test
+  public void testSegmentsAcrossRegions() throws Exception {
+    MappedFile mappedFile = MappedFile.map(file, 4096);
+    Assert.assertEquals(data.length, mappedFile.length());
+
+    Assert.assertTrue(mappedFile.tryRetain());
+    ManagedBuffer buffer = new MappedFileSegmentsManagedBuffer(mappedFile,
+      new long[] {100, 4000, 9000}, new long[] {50, 5000, 1000});
+    Assert.assertEquals(6050, buffer.size());
+    ByteBuffer expected = ByteBuffer.allocate(6050);
+    expected.put(data, 100, 50).put(data, 4000, 5000).put(data, 9000, 1000);
+    Assert.assertArrayEquals(expected.array(), toBytes(buffer));
+
+    buffer.release();
+    Assert.assertEquals(1, mappedFile.refCnt());
+    mappedFile.release();
+    Assert.assertFalse(mappedFile.tryRetain());
+  }
+
+  @Test
+  public void testIteratorServesChunksWhileMapped() throws Exception {
+    MappedFile mappedFile = MappedFile.map(file);
+    FileInfo fileInfo = new FileInfo(file, new ArrayList<>(Arrays.asList(0L, 3000L, 10000L)));
+    ManagedBufferIterator iterator = new ManagedBufferIterator(fileInfo, conf, mappedFile);
+
+    ManagedBuffer chunk = iterator.chunk(1);
+    Assert.assertTrue(chunk instanceof MappedFileSegmentsManagedBuffer);
+    Assert.assertEquals(2, mappedFile.refCnt());
+    Assert.assertArrayEquals(Arrays.copyOfRange(data, 3000, 10000), toBytes(chunk));
+
+    // unmapped while the chunk is still being sent
+    mappedFile.release();
+    Assert.assertEquals(1, mappedFile.refCnt());
+    chunk.release();
+    Assert.assertEquals(0, mappedFile.refCnt());
+
+    // falls back to reading the file
+    chunk = iterator.chunk(0);
+    Assert.assertTrue(chunk instanceof FileSegmentManagedBuffer);
+    Assert.assertArrayEquals(Arrays.copyOfRange(data, 0, 3000),
+      chunk.nioByteBuffer().array());
+  }
+}
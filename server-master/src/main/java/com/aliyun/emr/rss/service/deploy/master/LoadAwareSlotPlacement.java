@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.aliyun.emr.rss.common.meta.WorkerInfo;
+import com.aliyun.emr.rss.common.meta.WorkerLoad;
+
+/**
+ * Spreads locations over the workers in proportion to weights derived from the load they report
+ * with heartbeats, interleaved by smooth weighted round robin. A worker has less weight the longer
+ * its busiest disk needs to drain its flush queues and the more direct memory it uses, and none
+ * while it has paused receiving pushes. Workers are weighted equally if all of them are paused.
+ */
+public class LoadAwareSlotPlacement implements SlotPlacementStrategy {
+  private static final Random rand = new Random();
+
+  // flush backlog that halves the weight of a worker
+  private final double flushBacklogMs;
+
+  public LoadAwareSlotPlacement(long flushBacklogMs) {
+    this.flushBacklogMs = Math.max(1, flushBacklogMs);
+  }
+
+  double weight(WorkerLoad load) {
+    if (load.paused()) {
+      return 0;
+    }
+    return (1 - load.directMemoryRatio()) / (1 + load.flushBacklogMs() / flushBacklogMs);
+  }
+
+  @Override
+  public Selector newSelector(List<WorkerInfo> workers) {
+    int numWorkers = workers.size();
+    double[] weights = new double[numWorkers];
+    double total = 0;
+    for (int i = 0; i < numWorkers; i++) {
+      weights[i] = weight(workers.get(i).load());
+      total += weights[i];
+    }
+    if (total <= 0) {
+      Arrays.fill(weights, 1);
+      total = numWorkers;
+    }
+    final double totalWeight = total;
+    // random start so that small requests do not all begin on the same worker
+    double[] current = new double[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      current[i] = rand.nextDouble() * weights[i];
+    }
+    return exclude -> {
+      int selected = -1;
+      for (int i = 0; i < numWorkers; i++) {
+        current[i] += weights[i];
+        if (i != exclude && weights[i] > 0 &&
+            (selected < 0 || current[i] > current[selected])) {
+          selected = i;
+        }
+      }
+      if (selected < 0) {
+        // only workers without weight are left besides the excluded one
+        selected = (exclude + 1) % numWorkers;
+      }
+      current[selected] -= totalWeight;
+      return selected;
+    };
+  }
+}
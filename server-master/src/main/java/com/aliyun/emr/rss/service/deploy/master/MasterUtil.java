@@ -23,7 +23,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import scala.Tuple2;
 
@@ -31,7 +30,7 @@ import com.aliyun.emr.rss.common.meta.WorkerInfo;
 import com.aliyun.emr.rss.common.protocol.PartitionLocation;
 
 public class MasterUtil {
-  private static final Random rand = new Random();
+  private static final SlotPlacementStrategy defaultPlacement = new RoundRobinSlotPlacement();
 
   public static Map<WorkerInfo, Integer> workerToAllocatedSlots(
       Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>> slots) {
@@ -51,9 +50,19 @@ public class MasterUtil {
       List<WorkerInfo> workers,
       List<Integer> reduceIds,
       boolean shouldReplicate) {
+    return offerSlots(shuffleKey, workers, reduceIds, shouldReplicate, defaultPlacement);
+  }
+
+  public static Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>>
+    offerSlots(
+      String shuffleKey,
+      List<WorkerInfo> workers,
+      List<Integer> reduceIds,
+      boolean shouldReplicate,
+      SlotPlacementStrategy placement) {
     int[] oldEpochs = new int[reduceIds.size()];
     Arrays.fill(oldEpochs, -1);
-    return offerSlots(shuffleKey, workers, reduceIds, oldEpochs, shouldReplicate);
+    return offerSlots(shuffleKey, workers, reduceIds, oldEpochs, shouldReplicate, placement);
   }
 
   public static Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>>
@@ -62,72 +71,62 @@ public class MasterUtil {
       List<WorkerInfo> workers,
       List<Integer> reduceIds,
       int[] oldEpochs,
-      boolean shouldReplicate) {
-    if (workers.size() < 2 && shouldReplicate) {
+      boolean shouldReplicate,
+      SlotPlacementStrategy placement) {
+    List<WorkerInfo> availableWorkers = new ArrayList<>(workers.size());
+    for (WorkerInfo worker : workers) {
+      if (worker.slotAvailable()) {
+        availableWorkers.add(worker);
+      }
+    }
+    if (availableWorkers.isEmpty() || (availableWorkers.size() < 2 && shouldReplicate)) {
       return null;
     }
 
-    int masterInd = rand.nextInt(workers.size());
+    SlotPlacementStrategy.Selector selector = placement.newSelector(availableWorkers);
     Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>> slots =
         new HashMap<>();
     // foreach iteration, allocate both master and slave partitions
     for(int idx = 0; idx < reduceIds.size(); idx++) {
-      int nextMasterInd = masterInd;
-      // try to find slot for master partition
-      while (!workers.get(nextMasterInd).slotAvailable()) {
-        nextMasterInd = (nextMasterInd + 1) % workers.size();
-        if (nextMasterInd == masterInd) {
-          return null;
-        }
-      }
-      int nextSlaveInd = 0;
+      int masterInd = selector.next(-1);
+      WorkerInfo masterWorker = availableWorkers.get(masterInd);
+      WorkerInfo slaveWorker = null;
       if (shouldReplicate) {
-        // try to find slot for slave partition
-        nextSlaveInd = (nextMasterInd + 1) % workers.size();
-        while (!workers.get(nextSlaveInd).slotAvailable()) {
-          nextSlaveInd = (nextSlaveInd + 1) % workers.size();
-          if (nextSlaveInd == nextMasterInd) {
-            return null;
-          }
-        }
-        if (nextSlaveInd == nextMasterInd) {
-          return null;
-        }
+        slaveWorker = availableWorkers.get(selector.next(masterInd));
       }
-      // now nextMasterInd/nextSlaveInd point to
-      // available master/slave partition respectively
 
       int newEpoch = oldEpochs[idx] + 1;
       // new slave and master locations
-      slots.putIfAbsent(workers.get(nextMasterInd),
-          new Tuple2<>(new ArrayList<>(), new ArrayList<>()));
+      slots.putIfAbsent(masterWorker, new Tuple2<>(new ArrayList<>(), new ArrayList<>()));
       Tuple2<List<PartitionLocation>, List<PartitionLocation>> locations =
-          slots.get(workers.get(nextMasterInd));
+          slots.get(masterWorker);
       PartitionLocation slaveLocation = null;
       PartitionLocation masterLocation = null;
       if (shouldReplicate) {
         slaveLocation = new PartitionLocation(
             reduceIds.get(idx),
             newEpoch,
-            workers.get(nextSlaveInd).host(),
-            workers.get(nextSlaveInd).rpcPort(),
-            workers.get(nextSlaveInd).pushPort(),
-            workers.get(nextSlaveInd).fetchPort(),
-            workers.get(nextSlaveInd).replicatePort(),
+            slaveWorker.host(),
+            slaveWorker.rpcPort(),
+            slaveWorker.pushPort(),
+            slaveWorker.fetchPort(),
+            slaveWorker.replicatePort(),
             PartitionLocation.Mode.Slave
         );
+        slaveLocation.setDisk(slaveWorker.allocateDisk());
       }
       masterLocation = new PartitionLocation(
           reduceIds.get(idx),
           newEpoch,
-          workers.get(nextMasterInd).host(),
-          workers.get(nextMasterInd).rpcPort(),
-          workers.get(nextMasterInd).pushPort(),
-          workers.get(nextMasterInd).fetchPort(),
-          workers.get(nextMasterInd).replicatePort(),
+          masterWorker.host(),
+          masterWorker.rpcPort(),
+          masterWorker.pushPort(),
+          masterWorker.fetchPort(),
+          masterWorker.replicatePort(),
           PartitionLocation.Mode.Master,
           slaveLocation
       );
+      masterLocation.setDisk(masterWorker.allocateDisk());
       if (shouldReplicate) {
         slaveLocation.setPeer(masterLocation);
       }
@@ -137,14 +136,10 @@ public class MasterUtil {
 
       if (shouldReplicate) {
         // add slave location to WorkerInfo
-        slots.putIfAbsent(workers.get(nextSlaveInd),
-            new Tuple2<>(new ArrayList<>(), new ArrayList<>()));
-        locations = slots.get(workers.get(nextSlaveInd));
+        slots.putIfAbsent(slaveWorker, new Tuple2<>(new ArrayList<>(), new ArrayList<>()));
+        locations = slots.get(slaveWorker);
         locations._2.add(slaveLocation);
       }
-
-      // update index
-      masterInd = (nextMasterInd + 1) % workers.size();
     }
     return slots;
   }
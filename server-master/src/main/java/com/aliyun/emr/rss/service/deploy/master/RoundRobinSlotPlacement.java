@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master;
+
+import java.util.List;
+import java.util.Random;
+
+import com.aliyun.emr.rss.common.meta.WorkerInfo;
+
+/**
+ * Places master locations on the workers in turn from a random one, each slave location on the
+ * worker after its master.
+ */
+public class RoundRobinSlotPlacement implements SlotPlacementStrategy {
+  private static final Random rand = new Random();
+
+  @Override
+  public Selector newSelector(List<WorkerInfo> workers) {
+    int numWorkers = workers.size();
+    int[] masterInd = new int[] {rand.nextInt(numWorkers)};
+    return exclude -> {
+      if (exclude >= 0) {
+        return (exclude + 1) % numWorkers;
+      }
+      int ind = masterInd[0];
+      masterInd[0] = (ind + 1) % numWorkers;
+      return ind;
+    };
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master;
+
+import java.util.List;
+
+import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.meta.WorkerInfo;
+
+/**
+ * Decides which workers the partition locations of a slot request are placed on.
+ */
+public interface SlotPlacementStrategy {
+
+  /**
+   * Picks workers for the locations of one slot request, called once for every master location
+   * and once for every slave location right after its master.
+   */
+  interface Selector {
+    /**
+     * @param exclude index of the worker the location must not be placed on, or -1.
+     * @return index of the worker to place the next location on.
+     */
+    int next(int exclude);
+  }
+
+  /**
+   * @param workers workers that all have free slots, at least two if exclusion is needed.
+   */
+  Selector newSelector(List<WorkerInfo> workers);
+
+  static SlotPlacementStrategy create(RssConf conf) {
+    String strategy = RssConf.slotPlacementStrategy(conf);
+    switch (strategy) {
+      case "roundrobin":
+        return new RoundRobinSlotPlacement();
+      case "loadaware":
+        return new LoadAwareSlotPlacement(RssConf.slotPlacementFlushBacklogMs(conf));
+      default:
+        throw new IllegalArgumentException("Unknown slot placement strategy: " + strategy);
+    }
+  }
+}
@@ -19,11 +19,17 @@ package com.aliyun.emr.rss.service.deploy.master.clustermeta;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.google.protobuf.CodedInputStream;
 import io.netty.util.internal.ConcurrentSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +37,14 @@ import org.slf4j.LoggerFactory;
 import com.aliyun.emr.rss.common.RssConf;
 import com.aliyun.emr.rss.common.meta.WorkerInfo;
 import com.aliyun.emr.rss.common.rpc.RpcAddress;
+import com.aliyun.emr.rss.common.rpc.RpcEndpointAddress;
 import com.aliyun.emr.rss.common.rpc.RpcEnv;
+import com.aliyun.emr.rss.common.rpc.netty.NettyRpcEndpointRef;
+import com.aliyun.emr.rss.common.rpc.netty.NettyRpcEnv;
 import com.aliyun.emr.rss.common.util.Utils;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.MetaSnapshot;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.WorkerAddress;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.WorkerMeta;
 import static com.aliyun.emr.rss.common.protocol.RpcNameConstants.WORKER_EP;
 
 public abstract class AbstractMetaManager implements IMetadataHandler {
@@ -51,9 +63,61 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
   protected RpcEnv rpcEnv;
   protected RssConf conf;
 
+  // written ahead of snapshots in protobuf, older ones are Java serialized
+  private static final byte[] SNAPSHOT_MAGIC = {'R', 'S', 'S', 'M'};
+
+  private static final int MAX_APPLIED_REQUEST_IDS = 10000;
+
+  // Ids of the latest requests applied, eldest first. A request retried by its client may be
+  // committed again, e.g. batched after it has been committed, and the Raft retry cache only
+  // knows the batch. Stored in snapshots so that a restored master skips the same requests.
+  private final LinkedHashSet<String> appliedRequestIds = new LinkedHashSet<>();
+
+  // shuffles registered, released or unregistered since the last full snapshot
+  private final ConcurrentSet<String> changedShuffles = new ConcurrentSet<>();
+  private volatile boolean trackChangedShuffles = false;
+
+  /**
+   * Tracks the shuffles changed since the last full snapshot, which incremental snapshots hold.
+   */
+  public void setTrackChangedShuffles(boolean trackChangedShuffles) {
+    this.trackChangedShuffles = trackChangedShuffles;
+    changedShuffles.clear();
+  }
+
+  private void shuffleChanged(String shuffleKey) {
+    if (trackChangedShuffles) {
+      changedShuffles.add(shuffleKey);
+    }
+  }
+
+  /**
+   * Records that the request of requestId is applied to the meta.
+   *
+   * @return false if it has been applied before, in which case it is not to be applied again
+   */
+  public boolean markRequestApplied(String requestId) {
+    synchronized (appliedRequestIds) {
+      if (!appliedRequestIds.add(requestId)) {
+        return false;
+      }
+      if (appliedRequestIds.size() > MAX_APPLIED_REQUEST_IDS) {
+        appliedRequestIds.remove(appliedRequestIds.iterator().next());
+      }
+      return true;
+    }
+  }
+
+  public List<String> getAppliedRequestIds() {
+    synchronized (appliedRequestIds) {
+      return new ArrayList<>(appliedRequestIds);
+    }
+  }
+
   public void updateRequestSlotsMeta(
       String shuffleKey, String hostName, List<String> workerInfos) {
     registeredShuffle.add(shuffleKey);
+    shuffleChanged(shuffleKey);
 
     String appId = Utils.splitShuffleKey(shuffleKey)._1;
     appHeartbeatTime.compute(appId, (applicationId, oldTimestamp) -> {
@@ -85,6 +149,7 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
 
   public void updateReleaseSlotsMeta(String shuffleKey, List<String> workerIds,
                                      List<Integer> slots) {
+    shuffleChanged(shuffleKey);
     if (workerIds != null && !workerIds.isEmpty()) {
       for (int i = 0; i < workerIds.size(); i++) {
         WorkerInfo worker = WorkerInfo.fromUniqueId(workerIds.get(i));
@@ -102,6 +167,7 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
 
   public void updateUnregisterShuffleMeta(String shuffleKey) {
     registeredShuffle.remove(shuffleKey);
+    shuffleChanged(shuffleKey);
   }
 
   public void updateAppHeartBeatMeta(String appId, long time) {
@@ -123,7 +189,15 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
     workerLostEvents.add(worker);
     // remove worker from workers
     synchronized (workers) {
-      workers.remove(worker);
+      int index = workers.indexOf(worker);
+      if (index >= 0) {
+        WorkerInfo lostWorker = workers.remove(index);
+        if (trackChangedShuffles) {
+          synchronized (lostWorker) {
+            lostWorker.shuffleSlots().keySet().forEach(this::shuffleChanged);
+          }
+        }
+      }
     }
     // delete from blacklist
     blacklist.remove(worker);
@@ -150,6 +224,38 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
     }
   }
 
+  /**
+   * Refreshes the heartbeat time of a worker, which is soft state of this master.
+   *
+   * @return true if the heartbeat changes the replicated meta as well, that is the slots of the
+   *         worker or whether it is blacklisted.
+   */
+  public boolean updateWorkerHeartBeatTime(String host, int rpcPort, int pushPort, int fetchPort,
+    int replicatePort, int numSlots, long time) {
+    WorkerInfo worker = new WorkerInfo(host, rpcPort, pushPort, fetchPort, replicatePort, numSlots,
+      null);
+    boolean slotsChanged = true;
+    synchronized (workers) {
+      Optional<WorkerInfo> workerInfo = workers.stream().filter(w -> w.equals(worker)).findFirst();
+      if (workerInfo.isPresent()) {
+        workerInfo.get().lastHeartbeat_$eq(time);
+        slotsChanged = workerInfo.get().numSlots() != numSlots;
+      }
+    }
+    return slotsChanged || (numSlots == 0) != blacklist.contains(worker);
+  }
+
+  /**
+   * Heartbeat times are not replicated, so a master that becomes the leader gives every worker
+   * and application a whole timeout from now to send its next heartbeat.
+   */
+  public void refreshHeartBeatTime(long time) {
+    synchronized (workers) {
+      workers.forEach(workerInfo -> workerInfo.lastHeartbeat_$eq(time));
+    }
+    appHeartbeatTime.replaceAll((appId, oldTime) -> time);
+  }
+
   public void updateRegisterWorkerMeta(
       String host, int rpcPort, int pushPort, int fetchPort, int replicatePort, int numSlots) {
     WorkerInfo workerInfo = new WorkerInfo(host, rpcPort, pushPort, fetchPort, replicatePort,
@@ -173,56 +279,114 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
    * @param file
    * @throws IOException
    */
-  public void writeMetaInfoToFile(File file) throws IOException, RuntimeException {
-    ObjectOutputStream out = new ObjectOutputStream(
-        new BufferedOutputStream(new FileOutputStream(file)));
-
-    // write registeredShuffle
-    writeSetMetaToFile(registeredShuffle, out);
-
-    // write hostnameSet
-    writeSetMetaToFile(hostnameSet, out);
-
-    // write blacklist
-    writeSetMetaToFile(blacklist, out);
-
-    // write workerLost events
-    writeSetMetaToFile(workerLostEvents, out);
-
-    // write application heartbeat time
-    out.writeInt(appHeartbeatTime.size());
-    appHeartbeatTime.forEach((app, time) -> {
-      try {
-        out.writeObject(app);
-        out.writeLong(time);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    });
+  public void writeMetaInfoToFile(File file) throws IOException {
+    writeMetaInfoToFile(file, null);
+  }
 
-    // write workerInfo
-    out.writeInt(workers.size());
-    workers.forEach(workerInfo -> {
-      try {
-        out.writeObject(workerInfo);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+  /**
+   * Used for ratis state machine to take snapshot
+   * @param file
+   * @param baseSnapshot null to write all meta, otherwise name of the last full snapshot, and
+   *                     only the shuffles changed since are written
+   * @throws IOException
+   */
+  public void writeMetaInfoToFile(File file, String baseSnapshot) throws IOException {
+    MetaSnapshot.Builder builder = MetaSnapshot.newBuilder();
+    ShuffleTable table = new ShuffleTable(builder);
+    Set<String> shuffles = null;
+    if (baseSnapshot == null) {
+      changedShuffles.clear();
+    } else {
+      builder.setBaseSnapshot(baseSnapshot);
+      // removed ones included, so that they are removed from the base on restore
+      shuffles = new HashSet<>(changedShuffles);
+      shuffles.forEach(table::indexOf);
+    }
+
+    for (String shuffleKey : registeredShuffle) {
+      if (shuffles == null || shuffles.contains(shuffleKey)) {
+        builder.addRegisteredShuffles(table.indexOf(shuffleKey));
       }
+    }
+    appHeartbeatTime.forEach((appId, time) -> {
+      builder.addHeartbeatApps(table.indexOfApp(appId));
+      builder.addHeartbeatTimes(time);
     });
+    builder.addAllHostnames(hostnameSet);
+    blacklist.forEach(worker -> builder.addBlacklist(toWorkerAddress(worker)));
+    workerLostEvents.forEach(worker -> builder.addWorkerLostEvents(toWorkerAddress(worker)));
+    synchronized (workers) {
+      for (WorkerInfo worker : workers) {
+        WorkerMeta.Builder workerBuilder = WorkerMeta.newBuilder()
+          .setAddress(toWorkerAddress(worker))
+          .setNumSlots(worker.numSlots())
+          .setLastHeartbeat(worker.lastHeartbeat());
+        synchronized (worker) {
+          for (Map.Entry<String, Object> entry : worker.shuffleSlots().entrySet()) {
+            int slots = (Integer) entry.getValue();
+            if (slots > 0 && (shuffles == null || shuffles.contains(entry.getKey()))) {
+              workerBuilder.addShuffles(table.indexOf(entry.getKey()));
+              workerBuilder.addShuffleSlots(slots);
+            }
+          }
+        }
+        builder.addWorkers(workerBuilder);
+      }
+    }
+    builder.addAllAppliedRequestIds(getAppliedRequestIds());
 
-    out.flush();
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      out.write(SNAPSHOT_MAGIC);
+      builder.build().writeTo(out);
+    }
   }
 
-  private <T> void writeSetMetaToFile(
-      ConcurrentSet<T> metas, ObjectOutputStream out) throws IOException {
-    out.writeInt(metas.size());
-    metas.forEach(meta -> {
-      try {
-        out.writeObject(meta);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    });
+  private static class ShuffleTable {
+    private final MetaSnapshot.Builder builder;
+    private final Map<String, Integer> apps = new HashMap<>();
+    private final Map<String, Integer> shuffles = new HashMap<>();
+
+    ShuffleTable(MetaSnapshot.Builder builder) {
+      this.builder = builder;
+    }
+
+    int indexOfApp(String appId) {
+      return apps.computeIfAbsent(appId, id -> {
+        builder.addAppIds(id);
+        return apps.size();
+      });
+    }
+
+    int indexOf(String shuffleKey) {
+      return shuffles.computeIfAbsent(shuffleKey, key -> {
+        // same as Utils.splitShuffleKey, which is too slow for every shuffle
+        int split = key.lastIndexOf('-');
+        builder.addShuffleApps(indexOfApp(key.substring(0, split)));
+        builder.addShuffleIds(Integer.parseInt(key.substring(split + 1)));
+        return shuffles.size();
+      });
+    }
+  }
+
+  private static WorkerAddress toWorkerAddress(WorkerInfo worker) {
+    return WorkerAddress.newBuilder()
+      .setHost(worker.host())
+      .setRpcPort(worker.rpcPort())
+      .setPushPort(worker.pushPort())
+      .setFetchPort(worker.fetchPort())
+      .setReplicatePort(worker.replicatePort())
+      .build();
+  }
+
+  private WorkerInfo toWorkerInfo(WorkerAddress address, int numSlots) {
+    WorkerInfo worker = new WorkerInfo(address.getHost(), address.getRpcPort(),
+      address.getPushPort(), address.getFetchPort(), address.getReplicatePort(), numSlots, null);
+    if (rpcEnv instanceof NettyRpcEnv) {
+      // connected on first use, as a restored worker may be gone
+      worker.setupEndpoint(new NettyRpcEndpointRef(conf, RpcEndpointAddress.apply(
+        address.getHost(), address.getRpcPort(), WORKER_EP), (NettyRpcEnv) rpcEnv));
+    }
+    return worker;
   }
 
   /**
@@ -231,8 +395,117 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
    * @throws IOException
    */
   public void restoreMetaFromFile(File file) throws IOException {
-    try (ObjectInputStream in = new ObjectInputStream(
-      new BufferedInputStream(new FileInputStream(file)))) {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+      in.mark(magic.length);
+      int read = 0;
+      while (read < magic.length) {
+        int n = in.read(magic, read, magic.length - read);
+        if (n < 0) {
+          break;
+        }
+        read += n;
+      }
+      if (read == magic.length && Arrays.equals(magic, SNAPSHOT_MAGIC)) {
+        CodedInputStream codedIn = CodedInputStream.newInstance(in);
+        codedIn.setSizeLimit(Integer.MAX_VALUE);
+        MetaSnapshot snapshot = MetaSnapshot.parseFrom(codedIn);
+        if (snapshot.hasBaseSnapshot()) {
+          restoreMetaFromFile(new File(file.getParentFile(), snapshot.getBaseSnapshot()));
+        } else {
+          clearMeta();
+        }
+        restoreMetaFromSnapshot(snapshot);
+      } else {
+        in.reset();
+        clearMeta();
+        restoreMetaFromJavaSerialized(in);
+      }
+    }
+    LOG.info("Successfully restore meta info from snapshot " + file.getAbsolutePath());
+    LOG.info("Worker size: {}, Registered shuffle size: {}, Worker blacklist size: {}.",
+        workers.size(), registeredShuffle.size(), blacklist.size());
+  }
+
+  private void clearMeta() {
+    registeredShuffle.clear();
+    hostnameSet.clear();
+    blacklist.clear();
+    workerLostEvents.clear();
+    appHeartbeatTime.clear();
+    synchronized (workers) {
+      workers.clear();
+    }
+    changedShuffles.clear();
+    synchronized (appliedRequestIds) {
+      appliedRequestIds.clear();
+    }
+  }
+
+  /**
+   * Restores the meta of a full snapshot, or applies an incremental one to the meta restored
+   * from its base.
+   */
+  private void restoreMetaFromSnapshot(MetaSnapshot snapshot) {
+    List<String> shuffleKeys = new ArrayList<>(snapshot.getShuffleIdsCount());
+    for (int i = 0; i < snapshot.getShuffleIdsCount(); i++) {
+      shuffleKeys.add(snapshot.getAppIds(snapshot.getShuffleApps(i)) + "-" +
+        snapshot.getShuffleIds(i));
+    }
+    boolean incremental = snapshot.hasBaseSnapshot();
+    if (incremental) {
+      shuffleKeys.forEach(registeredShuffle::remove);
+      shuffleKeys.forEach(this::shuffleChanged);
+    }
+    appHeartbeatTime.clear();
+    for (int i = 0; i < snapshot.getHeartbeatAppsCount(); i++) {
+      appHeartbeatTime.put(snapshot.getAppIds(snapshot.getHeartbeatApps(i)),
+        snapshot.getHeartbeatTimes(i));
+    }
+    long now = System.currentTimeMillis();
+    for (int index : snapshot.getRegisteredShufflesList()) {
+      registeredShuffle.add(shuffleKeys.get(index));
+      appHeartbeatTime.putIfAbsent(snapshot.getAppIds(snapshot.getShuffleApps(index)), now);
+    }
+
+    hostnameSet.clear();
+    hostnameSet.addAll(snapshot.getHostnamesList());
+    blacklist.clear();
+    snapshot.getBlacklistList().forEach(address -> blacklist.add(toWorkerInfo(address, -1)));
+    workerLostEvents.clear();
+    snapshot.getWorkerLostEventsList()
+      .forEach(address -> workerLostEvents.add(toWorkerInfo(address, -1)));
+
+    synchronized (workers) {
+      Map<WorkerInfo, WorkerInfo> baseWorkers = new HashMap<>();
+      workers.forEach(worker -> baseWorkers.put(worker, worker));
+      workers.clear();
+      for (WorkerMeta workerMeta : snapshot.getWorkersList()) {
+        WorkerInfo worker = toWorkerInfo(workerMeta.getAddress(), workerMeta.getNumSlots());
+        if (incremental && baseWorkers.containsKey(worker)) {
+          // keeps the slots of the shuffles unchanged since the base
+          worker = baseWorkers.get(worker);
+          worker.setNumSlots(workerMeta.getNumSlots());
+          shuffleKeys.forEach(worker::releaseSlots);
+        }
+        worker.lastHeartbeat_$eq(workerMeta.getLastHeartbeat());
+        for (int i = 0; i < workerMeta.getShufflesCount(); i++) {
+          worker.allocateSlots(shuffleKeys.get(workerMeta.getShuffles(i)),
+            workerMeta.getShuffleSlots(i));
+        }
+        workers.add(worker);
+      }
+    }
+
+    // incremental snapshots hold all ids too, as they are few
+    synchronized (appliedRequestIds) {
+      appliedRequestIds.clear();
+      appliedRequestIds.addAll(snapshot.getAppliedRequestIdsList());
+    }
+  }
+
+  private void restoreMetaFromJavaSerialized(InputStream input) throws IOException {
+    try (ObjectInputStream in = new ObjectInputStream(input)) {
       // read registeredShuffle
       readSetMetaFromFile(registeredShuffle, in.readInt(), in);
 
@@ -265,11 +538,6 @@ public abstract class AbstractMetaManager implements IMetadataHandler {
     } catch (ClassNotFoundException e) {
       throw new IOException(e);
     }
-    LOG.info("Successfully restore meta info from snapshot " + file.getAbsolutePath());
-    LOG.info("Worker size: {}, Registered shuffle size: {}, Worker blacklist size: {}.",
-        workers.size(), registeredShuffle.size(), blacklist.size());
-    workers.forEach(workerInfo -> LOG.info(workerInfo.toString()));
-    registeredShuffle.forEach(shuffle -> LOG.info("RegisteredShuffle " + shuffle));
   }
 
   private <T> void readSetMetaFromFile(
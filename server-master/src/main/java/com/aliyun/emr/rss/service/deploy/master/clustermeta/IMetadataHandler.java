@@ -19,33 +19,38 @@ package com.aliyun.emr.rss.service.deploy.master.clustermeta;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.aliyun.emr.rss.common.meta.WorkerInfo;
 
+/**
+ * Updates of the cluster meta. The returned futures complete once an update has been applied on
+ * this master, after it has been committed in HA mode.
+ */
 public interface IMetadataHandler {
-  void handleRequestSlots(
+  CompletableFuture<Void> handleRequestSlots(
     String shuffleKey,
     String hostName,
     Map<WorkerInfo, Integer> workerToAllocatedSlots,
     String requestId);
 
-  void handleReleaseSlots(
+  CompletableFuture<Void> handleReleaseSlots(
     String shuffleKey, List<String> workerIds, List<Integer> slots, String requestId);
 
-  void handleUnRegisterShuffle(String shuffleKey, String requestId);
+  CompletableFuture<Void> handleUnRegisterShuffle(String shuffleKey, String requestId);
 
-  void handleAppHeartbeat(String appId, long time, String requestId);
+  CompletableFuture<Void> handleAppHeartbeat(String appId, long time, String requestId);
 
-  void handleAppLost(String appId, String requestId);
+  CompletableFuture<Void> handleAppLost(String appId, String requestId);
 
-  void handleWorkerLost(String host, int rpcPort, int pushPort, int fetchPort, int replicatePort,
-    String requestId);
+  CompletableFuture<Void> handleWorkerLost(String host, int rpcPort, int pushPort, int fetchPort,
+    int replicatePort, String requestId);
 
-  void handleWorkerHeartBeat(String host, int rpcPort, int pushPort, int fetchPort,
-    int replicatePort, int numSlots, long time, String requestId);
+  CompletableFuture<Void> handleWorkerHeartBeat(String host, int rpcPort, int pushPort,
+    int fetchPort, int replicatePort, int numSlots, long time, String requestId);
 
-  void handleRegisterWorker(String host, int rpcPort, int pushPort, int fetchPort,
-    int replicatePort, int numSlots, String requestId);
+  CompletableFuture<Void> handleRegisterWorker(String host, int rpcPort, int pushPort,
+    int fetchPort, int replicatePort, int numSlots, String requestId);
 
-  void handleReportWorkerFailure(List<WorkerInfo> failedNodes, String requestId);
+  CompletableFuture<Void> handleReportWorkerFailure(List<WorkerInfo> failedNodes, String requestId);
 }
@@ -19,6 +19,7 @@ package com.aliyun.emr.rss.service.deploy.master.clustermeta;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,7 +37,7 @@ public class SingleMasterMetaManager extends AbstractMetaManager {
   }
 
   @Override
-  public void handleRequestSlots(
+  public CompletableFuture<Void> handleRequestSlots(
       String shuffleKey,
       String hostName,
       Map<WorkerInfo, Integer> workerToAllocatedSlots,
@@ -47,49 +48,59 @@ public class SingleMasterMetaManager extends AbstractMetaManager {
         workerInfo.allocateSlots(shuffleKey, workerToAllocatedSlots.get(workerInfo));
       }
     }
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleReleaseSlots(String shuffleKey, List<String> workerIds,
-                                 List<Integer> slots, String requestId) {
+  public CompletableFuture<Void> handleReleaseSlots(String shuffleKey, List<String> workerIds,
+    List<Integer> slots, String requestId) {
     updateReleaseSlotsMeta(shuffleKey, workerIds, slots);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleUnRegisterShuffle(String shuffleKey, String requestId) {
+  public CompletableFuture<Void> handleUnRegisterShuffle(String shuffleKey, String requestId) {
     updateUnregisterShuffleMeta(shuffleKey);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleAppHeartbeat(String appId, long time, String requestId) {
+  public CompletableFuture<Void> handleAppHeartbeat(String appId, long time, String requestId) {
     updateAppHeartBeatMeta(appId, time);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleAppLost(String appId, String requestId) {
+  public CompletableFuture<Void> handleAppLost(String appId, String requestId) {
     updateAppLostMeta(appId);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleWorkerLost(String host, int rpcPort,
+  public CompletableFuture<Void> handleWorkerLost(String host, int rpcPort,
     int pushPort, int fetchPort, int replicatePort, String requestId) {
     updateWorkerLostMeta(host, rpcPort, pushPort, fetchPort, replicatePort);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleWorkerHeartBeat(String host, int rpcPort, int pushPort, int fetchPort,
-    int replicatePort, int numSlots, long time, String requestId) {
+  public CompletableFuture<Void> handleWorkerHeartBeat(String host, int rpcPort, int pushPort,
+    int fetchPort, int replicatePort, int numSlots, long time, String requestId) {
     updateWorkerHeartBeatMeta(host, rpcPort, pushPort, fetchPort, replicatePort, numSlots, time);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleRegisterWorker(String host, int rpcPort, int pushPort, int fetchPort,
-    int replicatePort, int numSlots, String requestId) {
+  public CompletableFuture<Void> handleRegisterWorker(String host, int rpcPort, int pushPort,
+    int fetchPort, int replicatePort, int numSlots, String requestId) {
     updateRegisterWorkerMeta(host, rpcPort, pushPort, fetchPort, replicatePort, numSlots);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleReportWorkerFailure(List<WorkerInfo> failedNodes, String requestId) {
+  public CompletableFuture<Void> handleReportWorkerFailure(List<WorkerInfo> failedNodes,
+    String requestId) {
     updateBlacklistByReportWorkerFailure(failedNodes);
+    return CompletableFuture.completedFuture(null);
   }
 }
@@ -17,11 +17,12 @@
 
 package com.aliyun.emr.rss.service.deploy.master.clustermeta.ha;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
-import com.google.protobuf.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +39,7 @@ public class HAMasterMetaManager extends AbstractMetaManager {
   private static final Logger LOG = LoggerFactory.getLogger(HAMasterMetaManager.class);
 
   protected HARaftServer ratisServer;
+  private RaftRequestBatcher requestBatcher;
 
   public HAMasterMetaManager(RpcEnv rpcEnv, RssConf conf) {
     this.rpcEnv = rpcEnv;
@@ -50,184 +52,182 @@ public class HAMasterMetaManager extends AbstractMetaManager {
 
   public void setRatisServer(HARaftServer ratisServer) {
     this.ratisServer = ratisServer;
+    if (requestBatcher != null) {
+      requestBatcher.stop();
+    }
+    this.requestBatcher = new RaftRequestBatcher(ratisServer, RssConf.haSubmitBatchSize(conf),
+      RssConf.haSubmitMaxInflight(conf));
+  }
+
+  /**
+   * @return future completed once the request is committed and applied, failed if it is not,
+   *         e.g. as this master is no longer the leader.
+   */
+  private CompletableFuture<Void> submit(ResourceRequest request, String errorFormat,
+      Object errorArg) {
+    CompletableFuture<Void> applied = new CompletableFuture<>();
+    requestBatcher.submit(request).whenComplete((response, e) -> {
+      Throwable error = e;
+      if (error == null && !response.getSuccess()) {
+        error = new IOException(response.getMessage());
+      }
+      if (error != null) {
+        LOG.error(errorFormat, errorArg, error);
+        applied.completeExceptionally(error);
+      } else {
+        applied.complete(null);
+      }
+    });
+    return applied;
   }
 
   @Override
-  public void handleRequestSlots(
+  public CompletableFuture<Void> handleRequestSlots(
       String shuffleKey,
       String hostName,
       Map<WorkerInfo, Integer> workerToAllocatedSlots,
       String requestId) {
-    try {
-      ResourceProtos.RequestSlotsRequest.Builder builder =
-        ResourceProtos.RequestSlotsRequest.newBuilder()
-              .setShuffleKey(shuffleKey)
-              .setHostName(hostName);
-      for (WorkerInfo workerInfo : workerToAllocatedSlots.keySet()) {
-        builder.addWorkerInfo(WorkerInfo.encodeToPbStr(workerInfo.host(), workerInfo.rpcPort(),
-          workerInfo.pushPort(), workerInfo.fetchPort(), workerInfo.replicatePort(),
-          workerToAllocatedSlots.get(workerInfo)));
-      }
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-          .setCmdType(Type.RequestSlots)
-          .setRequestId(requestId)
-          .setRequestSlotsRequest(builder.build())
-          .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle request slots for {} failed!", shuffleKey, e);
+    ResourceProtos.RequestSlotsRequest.Builder builder =
+      ResourceProtos.RequestSlotsRequest.newBuilder()
+            .setShuffleKey(shuffleKey)
+            .setHostName(hostName);
+    for (WorkerInfo workerInfo : workerToAllocatedSlots.keySet()) {
+      builder.addWorkerInfo(WorkerInfo.encodeToPbStr(workerInfo.host(), workerInfo.rpcPort(),
+        workerInfo.pushPort(), workerInfo.fetchPort(), workerInfo.replicatePort(),
+        workerToAllocatedSlots.get(workerInfo)));
     }
+    return submit(ResourceRequest.newBuilder()
+        .setCmdType(Type.RequestSlots)
+        .setRequestId(requestId)
+        .setRequestSlotsRequest(builder.build())
+        .build(),
+      "Handle request slots for {} failed!", shuffleKey);
   }
 
   @Override
-  public void handleReleaseSlots(String shuffleKey, List<String> workerIds,
-                                 List<Integer> slots, String requestId) {
-    try {
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-          .setCmdType(Type.ReleaseSlots)
-          .setRequestId(requestId)
-          .setReleaseSlotsRequest(
-            ResourceProtos.ReleaseSlotsRequest.newBuilder()
-                          .setShuffleKey(shuffleKey)
-                          .addAllWorkerIds(workerIds)
-                          .addAllSlots(slots)
-                          .build())
-              .build());
-
-    } catch (ServiceException e) {
-      LOG.error("Handle release slots for {} failed!", shuffleKey, e);
-    }
+  public CompletableFuture<Void> handleReleaseSlots(String shuffleKey, List<String> workerIds,
+      List<Integer> slots, String requestId) {
+    return submit(ResourceRequest.newBuilder()
+        .setCmdType(Type.ReleaseSlots)
+        .setRequestId(requestId)
+        .setReleaseSlotsRequest(
+          ResourceProtos.ReleaseSlotsRequest.newBuilder()
+                        .setShuffleKey(shuffleKey)
+                        .addAllWorkerIds(workerIds)
+                        .addAllSlots(slots)
+                        .build())
+            .build(),
+      "Handle release slots for {} failed!", shuffleKey);
   }
 
   @Override
-  public void handleUnRegisterShuffle(String shuffleKey, String requestId) {
-    try {
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-          .setCmdType(Type.UnRegisterShuffle)
-          .setRequestId(requestId)
-          .setUnregisterShuffleRequest(
-            ResourceProtos.UnregisterShuffleRequest.newBuilder()
-                  .setShuffleKey(shuffleKey)
-                  .build())
-          .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle unregister shuffle for {} failed!", shuffleKey, e);
-    }
+  public CompletableFuture<Void> handleUnRegisterShuffle(String shuffleKey, String requestId) {
+    return submit(ResourceRequest.newBuilder()
+        .setCmdType(Type.UnRegisterShuffle)
+        .setRequestId(requestId)
+        .setUnregisterShuffleRequest(
+          ResourceProtos.UnregisterShuffleRequest.newBuilder()
+                .setShuffleKey(shuffleKey)
+                .build())
+        .build(),
+      "Handle unregister shuffle for {} failed!", shuffleKey);
   }
 
   @Override
-  public void handleAppHeartbeat(String appId, long time, String requestId) {
-    try {
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-          .setCmdType(Type.AppHeartBeat)
-          .setRequestId(requestId)
-          .setAppHeartbeatRequest(
-            ResourceProtos.AppHeartbeatRequest.newBuilder()
-                  .setAppId(appId).setTime(time)
-                  .build())
-          .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle heart beat for {} failed!", appId, e);
-    }
+  public CompletableFuture<Void> handleAppHeartbeat(String appId, long time, String requestId) {
+    // heartbeat times are soft state of the leader, kept out of the raft log
+    updateAppHeartBeatMeta(appId, time);
+    return CompletableFuture.completedFuture(null);
   }
 
   @Override
-  public void handleAppLost(String appId, String requestId) {
-    try {
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-          .setCmdType(Type.AppLost)
-          .setRequestId(requestId)
-          .setAppLostRequest(
-            ResourceProtos.AppLostRequest.newBuilder()
-                  .setAppId(appId)
-                  .build())
-          .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle app lost for {} failed!", appId, e);
-    }
+  public CompletableFuture<Void> handleAppLost(String appId, String requestId) {
+    return submit(ResourceRequest.newBuilder()
+        .setCmdType(Type.AppLost)
+        .setRequestId(requestId)
+        .setAppLostRequest(
+          ResourceProtos.AppLostRequest.newBuilder()
+                .setAppId(appId)
+                .build())
+        .build(),
+      "Handle app lost for {} failed!", appId);
   }
 
   @Override
-  public void handleWorkerLost(String host, int rpcPort, int pushPort, int fetchPort,
-    int replicatePort, String requestId) {
-    try {
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-              .setCmdType(Type.WorkerLost)
-              .setRequestId(requestId)
-              .setWorkerLostRequest(
-                ResourceProtos.WorkerLostRequest.newBuilder()
-                              .setHost(host)
-                              .setRpcPort(rpcPort)
-                              .setPushPort(pushPort)
-                              .setFetchPort(fetchPort)
-                              .setReplicatePort(replicatePort)
-                              .build())
-              .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle worker lost for {} failed!", host, e);
-    }
+  public CompletableFuture<Void> handleWorkerLost(String host, int rpcPort, int pushPort,
+    int fetchPort, int replicatePort, String requestId) {
+    return submit(ResourceRequest.newBuilder()
+            .setCmdType(Type.WorkerLost)
+            .setRequestId(requestId)
+            .setWorkerLostRequest(
+              ResourceProtos.WorkerLostRequest.newBuilder()
+                            .setHost(host)
+                            .setRpcPort(rpcPort)
+                            .setPushPort(pushPort)
+                            .setFetchPort(fetchPort)
+                            .setReplicatePort(replicatePort)
+                            .build())
+            .build(),
+      "Handle worker lost for {} failed!", host);
   }
 
   @Override
-  public void handleWorkerHeartBeat(String host, int rpcPort, int pushPort, int fetchPort,
-    int replicatePort, int numSlots, long time, String requestId) {
-    try {
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-              .setCmdType(Type.WorkerHeartBeat)
-              .setRequestId(requestId)
-              .setWorkerHeartBeatRequest(
-                ResourceProtos.WorkerHeartBeatRequest.newBuilder()
-                              .setHost(host)
-                              .setRpcPort(rpcPort)
-                              .setPushPort(pushPort)
-                              .setFetchPort(fetchPort)
-                              .setReplicatePort(replicatePort)
-                              .setNumSlots(numSlots)
-                              .setTime(time)
-                              .build())
-              .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle worker heartbeat for {} failed!", host, e);
+  public CompletableFuture<Void> handleWorkerHeartBeat(String host, int rpcPort, int pushPort,
+    int fetchPort, int replicatePort, int numSlots, long time, String requestId) {
+    if (!updateWorkerHeartBeatTime(host, rpcPort, pushPort, fetchPort, replicatePort, numSlots,
+        time)) {
+      return CompletableFuture.completedFuture(null);
     }
+    return submit(ResourceRequest.newBuilder()
+            .setCmdType(Type.WorkerHeartBeat)
+            .setRequestId(requestId)
+            .setWorkerHeartBeatRequest(
+              ResourceProtos.WorkerHeartBeatRequest.newBuilder()
+                            .setHost(host)
+                            .setRpcPort(rpcPort)
+                            .setPushPort(pushPort)
+                            .setFetchPort(fetchPort)
+                            .setReplicatePort(replicatePort)
+                            .setNumSlots(numSlots)
+                            .setTime(time)
+                            .build())
+            .build(),
+      "Handle worker heartbeat for {} failed!", host);
   }
 
   @Override
-  public void handleRegisterWorker(String host, int rpcPort, int pushPort, int fetchPort,
-    int replicatePort, int numSlots, String requestId) {
-    try {
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-          .setCmdType(Type.RegisterWorker)
-          .setRequestId(requestId)
-          .setRegisterWorkerRequest(
-            ResourceProtos.RegisterWorkerRequest.newBuilder()
-                  .setHost(host)
-                  .setRpcPort(rpcPort)
-                  .setPushPort(pushPort)
-                  .setFetchPort(fetchPort)
-                  .setReplicatePort(replicatePort)
-                  .setNumSlots(numSlots)
-                  .build())
-          .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle worker register for {} failed!", host, e);
-    }
+  public CompletableFuture<Void> handleRegisterWorker(String host, int rpcPort, int pushPort,
+    int fetchPort, int replicatePort, int numSlots, String requestId) {
+    return submit(ResourceRequest.newBuilder()
+        .setCmdType(Type.RegisterWorker)
+        .setRequestId(requestId)
+        .setRegisterWorkerRequest(
+          ResourceProtos.RegisterWorkerRequest.newBuilder()
+                .setHost(host)
+                .setRpcPort(rpcPort)
+                .setPushPort(pushPort)
+                .setFetchPort(fetchPort)
+                .setReplicatePort(replicatePort)
+                .setNumSlots(numSlots)
+                .build())
+        .build(),
+      "Handle worker register for {} failed!", host);
   }
 
   @Override
-  public void handleReportWorkerFailure(List<WorkerInfo> failedNodes, String requestId) {
-    try {
-      List<ResourceProtos.WorkerAddress> addrs = failedNodes.stream()
-              .map(MetaUtil::infoToAddr).collect(Collectors.toList());
-      ratisServer.submitRequest(ResourceRequest.newBuilder()
-              .setCmdType(Type.ReportWorkerFailure)
-              .setRequestId(requestId)
-              .setReportWorkerFailureRequest(
-                ResourceProtos.ReportWorkerFailureRequest.newBuilder()
-                              .addAllFailedWorker(addrs)
-                              .build())
-              .build());
-    } catch (ServiceException e) {
-      LOG.error("Handle report node failure for {} failed !", failedNodes);
-    }
+  public CompletableFuture<Void> handleReportWorkerFailure(List<WorkerInfo> failedNodes,
+      String requestId) {
+    List<ResourceProtos.WorkerAddress> addrs = failedNodes.stream()
+            .map(MetaUtil::infoToAddr).collect(Collectors.toList());
+    return submit(ResourceRequest.newBuilder()
+            .setCmdType(Type.ReportWorkerFailure)
+            .setRequestId(requestId)
+            .setReportWorkerFailureRequest(
+              ResourceProtos.ReportWorkerFailureRequest.newBuilder()
+                            .addAllFailedWorker(addrs)
+                            .build())
+            .build(),
+      "Handle report node failure for {} failed !", failedNodes);
   }
 
 }
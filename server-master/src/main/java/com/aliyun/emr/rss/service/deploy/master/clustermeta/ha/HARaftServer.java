@@ -26,6 +26,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -130,7 +132,7 @@ public class HARaftServer {
       raftPeersStr.append(", ").append(peer.getAddress());
     }
 
-    this.masterStateMachine = getStateMachine();
+    this.masterStateMachine = getStateMachine(conf);
 
     this.server = RaftServer.newBuilder()
         .setServerId(this.raftPeerId)
@@ -201,10 +203,34 @@ public class HARaftServer {
 
   public ResourceResponse submitRequest(ResourceProtos.ResourceRequest request)
     throws ServiceException {
+    try {
+      return submitRequestAsync(request).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ServiceException) {
+        throw (ServiceException) e.getCause();
+      }
+      throw new ServiceException(e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Submits the request without waiting for it to be committed.
+   *
+   * @return future of the response once the request is committed and applied on this master,
+   *         failed with a {@link ServiceException} if it cannot be.
+   */
+  public CompletableFuture<ResourceResponse> submitRequestAsync(
+      ResourceProtos.ResourceRequest request) {
+    CompletableFuture<ResourceResponse> future = new CompletableFuture<>();
     String requestId = request.getRequestId();
     Tuple2<String, Long> decoded = RssHARetryClient.decodeRequestId(requestId);
     if (decoded == null) {
-      throw new ServiceException("RequestId:" + requestId + " invalid, should be: uuid#callId.");
+      future.completeExceptionally(new ServiceException(
+        "RequestId:" + requestId + " invalid, should be: uuid#callId."));
+      return future;
     }
     ClientId clientId = ClientId.valueOf(UUID.fromString(decoded._1));
     long callId = decoded._2;
@@ -217,13 +243,26 @@ public class HARaftServer {
         .setMessage(Message.valueOf(HAHelper.convertRequestToByteString(request)))
         .build();
 
-    RaftClientReply raftClientReply;
     try {
-      raftClientReply = server.submitClientRequestAsync(raftClientRequest).get();
+      server.submitClientRequestAsync(raftClientRequest).whenComplete((reply, ex) -> {
+        if (ex != null) {
+          future.completeExceptionally(new ServiceException(ex.getMessage(), ex));
+          return;
+        }
+        try {
+          future.complete(toResponse(request, reply));
+        } catch (ServiceException e) {
+          future.completeExceptionally(e);
+        }
+      });
     } catch (Exception ex) {
-      throw new ServiceException(ex.getMessage(), ex);
+      future.completeExceptionally(new ServiceException(ex.getMessage(), ex));
     }
+    return future;
+  }
 
+  private ResourceResponse toResponse(ResourceProtos.ResourceRequest request,
+      RaftClientReply raftClientReply) throws ServiceException {
     if (!raftClientReply.isSuccess()) {
       NotLeaderException notLeaderException = raftClientReply.getNotLeaderException();
       if (notLeaderException != null) {
@@ -410,9 +449,12 @@ public class HARaftServer {
     return UUID.nameUUIDFromBytes(serviceId.getBytes(StandardCharsets.UTF_8));
   }
 
-  private StateMachine getStateMachine() {
+  private StateMachine getStateMachine(RssConf conf) {
     StateMachine stateMachine = new StateMachine(this);
     stateMachine.setRaftGroupId(raftGroupId);
+    stateMachine.setIncrementalSnapshot(RssConf.haSnapshotIncrementalEnabled(conf),
+        conf.getInt(RssConf.HA_RATIS_SNAPSHOT_RETENTION_FILE_NUM_KEY(),
+            RssConf.HA_RATIS_SNAPSHOT_RETENTION_FILE_NUM_DEFAULT()));
     return stateMachine;
   }
 
@@ -519,13 +561,21 @@ public class HARaftServer {
    */
   private void setServerRole(RaftProtos.RaftPeerRole currentRole,
                              String leaderPeerAddress) {
+    boolean becomeLeader;
     this.roleCheckLock.writeLock().lock();
     try {
+      becomeLeader = currentRole == RaftProtos.RaftPeerRole.LEADER &&
+          !(cachedPeerRole.isPresent() &&
+              cachedPeerRole.get() == RaftProtos.RaftPeerRole.LEADER);
       this.cachedPeerRole = Optional.ofNullable(currentRole);
       this.cachedLeaderPeerAddress = Optional.ofNullable(leaderPeerAddress);
     } finally {
       this.roleCheckLock.writeLock().unlock();
     }
+    if (becomeLeader) {
+      LOG.info("{} becomes the leader.", raftPeerId);
+      metaHandler.onBecomeLeader();
+    }
   }
 
   private GroupInfoReply getGroupInfo() throws IOException {
@@ -40,6 +40,10 @@ public class MetaHandler {
     this.metaSystem = metaSystem;
   }
 
+  public void onBecomeLeader() {
+    metaSystem.refreshHeartBeatTime(System.currentTimeMillis());
+  }
+
   public void setUpMasterRatisServer(RssConf conf) throws IOException {
     HANodeDetails haNodeDetails = HANodeDetails.loadHAConfig(conf);
     metaSystem.setRatisServer(
@@ -91,6 +95,12 @@ public class MetaHandler {
     ResourceResponse.Builder responseBuilder =
         getMasterMetaResponseBuilder(request);
     responseBuilder.setCmdType(cmdType);
+    // requests are applied in log order on a single thread, so all masters skip the same ones
+    if (!request.getRequestId().isEmpty() &&
+        !metaSystem.markRequestApplied(request.getRequestId())) {
+      LOG.warn("Skip request {} that has been applied.", request.getRequestId());
+      return responseBuilder.build();
+    }
     try {
       String shuffleKey;
       String appId;
@@ -173,6 +183,13 @@ public class MetaHandler {
             numSlots);
           break;
 
+        case Batch:
+          for (ResourceProtos.ResourceRequest batched :
+              request.getBatchRequest().getRequestsList()) {
+            handleWriteRequest(batched);
+          }
+          break;
+
         case ReportWorkerFailure:
           List<ResourceProtos.WorkerAddress> failedAddress = request
                   .getReportWorkerFailureRequest().getFailedWorkerList();
@@ -197,13 +214,25 @@ public class MetaHandler {
   }
 
   public void writeToSnapShot(File file) throws IOException {
+    writeToSnapShot(file, null);
+  }
+
+  /**
+   * @param baseSnapshot null for a full snapshot, otherwise name of the last full snapshot,
+   *                     which the incremental one written is applied to on restore
+   */
+  public void writeToSnapShot(File file, String baseSnapshot) throws IOException {
     try {
-      metaSystem.writeMetaInfoToFile(file);
+      metaSystem.writeMetaInfoToFile(file, baseSnapshot);
     } catch (RuntimeException e) {
       throw new IOException(e.getCause());
     }
   }
 
+  public void setTrackChangedShuffles(boolean trackChangedShuffles) {
+    metaSystem.setTrackChangedShuffles(trackChangedShuffles);
+  }
+
   public void loadSnapShot(File file) throws IOException {
     try {
       metaSystem.restoreMetaFromFile(file);
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master.clustermeta.ha;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.emr.rss.common.haclient.RssHARetryClient;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.ResourceRequest;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.ResourceResponse;
+
+/**
+ * Submits requests to Raft from a single thread without waiting for them to be committed. The
+ * requests that queue up while maxInflight log entries are uncommitted are submitted together
+ * as one entry, so the more requests arrive the fewer round trips each of them costs.
+ */
+public class RaftRequestBatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(RaftRequestBatcher.class);
+
+  private static class PendingRequest {
+    final ResourceRequest request;
+    final CompletableFuture<ResourceResponse> future = new CompletableFuture<>();
+
+    PendingRequest(ResourceRequest request) {
+      this.request = request;
+    }
+  }
+
+  private final HARaftServer server;
+  private final int maxBatchSize;
+  private final Semaphore inflight;
+  private final LinkedBlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+  // batches are submitted as requests of this client
+  private final String clientId = UUID.randomUUID().toString();
+  private final AtomicLong callId = new AtomicLong();
+  private final Thread submitThread;
+  private volatile boolean stopped = false;
+
+  public RaftRequestBatcher(HARaftServer server, int maxBatchSize, int maxInflight) {
+    this.server = server;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.inflight = new Semaphore(Math.max(1, maxInflight));
+    submitThread = new Thread(this::submitLoop, "master-raft-batcher");
+    submitThread.setDaemon(true);
+    submitThread.start();
+  }
+
+  /**
+   * @return future of the response once the request is committed and applied on this master.
+   */
+  public CompletableFuture<ResourceResponse> submit(ResourceRequest request) {
+    PendingRequest pending = new PendingRequest(request);
+    queue.add(pending);
+    if (stopped) {
+      failPending(new IllegalStateException("Raft request batcher stopped"));
+    }
+    return pending.future;
+  }
+
+  private void submitLoop() {
+    List<PendingRequest> batch = new ArrayList<>();
+    while (!stopped) {
+      try {
+        batch.add(queue.take());
+        inflight.acquire();
+        // requests that arrived while waiting for an entry to commit join this one
+        queue.drainTo(batch, maxBatchSize - 1);
+        submitBatch(batch);
+      } catch (InterruptedException e) {
+        break;
+      }
+      batch = new ArrayList<>();
+    }
+    for (PendingRequest pending : batch) {
+      pending.future.completeExceptionally(
+        new IllegalStateException("Raft request batcher stopped"));
+    }
+  }
+
+  private void submitBatch(List<PendingRequest> batch) {
+    ResourceRequest request;
+    if (batch.size() == 1) {
+      // submitted as it is, so that the Raft retry cache recognizes retries of it
+      request = batch.get(0).request;
+    } else {
+      ResourceProtos.BatchRequest.Builder builder = ResourceProtos.BatchRequest.newBuilder();
+      for (PendingRequest pending : batch) {
+        builder.addRequests(pending.request);
+      }
+      request = ResourceRequest.newBuilder()
+        .setCmdType(ResourceProtos.Type.Batch)
+        .setRequestId(RssHARetryClient.encodeRequestId(clientId, callId.incrementAndGet()))
+        .setBatchRequest(builder.build())
+        .build();
+    }
+    LOG.debug("Submit {} requests in one log entry.", batch.size());
+    server.submitRequestAsync(request).whenComplete((response, ex) -> {
+      inflight.release();
+      for (PendingRequest pending : batch) {
+        if (ex != null) {
+          pending.future.completeExceptionally(ex);
+        } else {
+          pending.future.complete(response);
+        }
+      }
+    });
+  }
+
+  private void failPending(Throwable cause) {
+    PendingRequest pending;
+    while ((pending = queue.poll()) != null) {
+      pending.future.completeExceptionally(cause);
+    }
+  }
+
+  public void stop() {
+    stopped = true;
+    submitThread.interrupt();
+    failPending(new IllegalStateException("Raft request batcher stopped"));
+  }
+}
@@ -154,6 +154,11 @@ public class StateMachine extends BaseStateMachine {
 
   private final MetaHandler metaHandler;
 
+  // at most this many incremental snapshots follow a full one, which keeps the full one retained
+  private int maxIncrementalSnapshots = 0;
+  private File baseSnapshot;
+  private int numIncrementalSnapshots;
+
   public StateMachine(HARaftServer ratisServer) {
     this.masterRatisServer = ratisServer;
     this.metaHandler = ratisServer.getMetaHandler();
@@ -234,6 +239,8 @@ public class StateMachine extends BaseStateMachine {
       ResourceProtos.ResourceRequest request = HAHelper.convertByteStringToRequest(
           trx.getStateMachineLogEntry().getLogData());
       long trxLogIndex = trx.getLogEntry().getIndex();
+      // applied in log order, so snapshots taken once the pending ones are done match the index
+      updateLastAppliedTermIndex(trx.getLogEntry().getTerm(), trxLogIndex);
       // In the current approach we have one single global thread executor.
       // with single thread. Right now this is being done for correctness, as
       // applyTransaction will be run on multiple Master we want to execute the
@@ -314,17 +321,20 @@ public class StateMachine extends BaseStateMachine {
     }
     TermIndex lastTermIndex = getLastAppliedTermIndex();
     LOG.debug("Current Snapshot Index {}.", lastTermIndex);
+    final File snapshotFile = storage.getSnapshotFile(
+        lastTermIndex.getTerm(), lastTermIndex.getIndex());
+    boolean incremental = baseSnapshot != null && baseSnapshot.exists() &&
+        !baseSnapshot.equals(snapshotFile) && numIncrementalSnapshots < maxIncrementalSnapshots;
     File tempFile;
     try {
       tempFile = HAHelper.createTempSnapshotFile(storage);
-      metaHandler.writeToSnapShot(tempFile);
+      metaHandler.writeToSnapShot(tempFile, incremental ? baseSnapshot.getName() : null);
     } catch (IOException e) {
       LOG.warn("Failed to create temp snapshot file.", e);
+      snapshotFailed(incremental);
       return RaftLog.INVALID_LOG_INDEX;
     }
-    LOG.debug("Taking a snapshot to file {}.", tempFile);
-    final File snapshotFile = storage.getSnapshotFile(
-        lastTermIndex.getTerm(), lastTermIndex.getIndex());
+    LOG.debug("Taking a {} snapshot to file {}.", incremental ? "incremental" : "full", tempFile);
     try {
       final MD5Hash digest = MD5FileUtil.computeMd5ForFile(tempFile);
       LOG.info("Saving digest {} for snapshot file {}.", digest, snapshotFile);
@@ -333,16 +343,42 @@ public class StateMachine extends BaseStateMachine {
       if (!tempFile.renameTo(snapshotFile)) {
         tempFile.delete();
         LOG.warn("Failed to rename snapshot from {} to {}.", tempFile, snapshotFile);
+        snapshotFailed(incremental);
         return RaftLog.INVALID_LOG_INDEX;
       }
     } catch (Exception e) {
       tempFile.delete();
       LOG.warn("Failed to complete snapshot: {}.", snapshotFile, e);
+      snapshotFailed(incremental);
       return RaftLog.INVALID_LOG_INDEX;
     }
+    if (incremental) {
+      numIncrementalSnapshots++;
+    } else if (maxIncrementalSnapshots > 0) {
+      baseSnapshot = snapshotFile;
+      numIncrementalSnapshots = 0;
+    }
     return lastTermIndex.getIndex();
   }
 
+  private void snapshotFailed(boolean incremental) {
+    if (!incremental) {
+      // the changes since the last full snapshot are not tracked any more
+      baseSnapshot = null;
+    }
+  }
+
+  /**
+   * Enables snapshots holding only the shuffles changed since the last full one. They are
+   * restored on top of that full snapshot, so a full one is taken again before the retention
+   * policy could remove it.
+   */
+  public void setIncrementalSnapshot(boolean enabled, int numSnapshotsRetained) {
+    maxIncrementalSnapshots = enabled ? Math.max(0, numSnapshotsRetained - 1) : 0;
+    baseSnapshot = null;
+    metaHandler.setTrackChangedShuffles(maxIncrementalSnapshots > 0);
+  }
+
   /**
    * Notifies the state machine that the raft peer is no longer leader.
    */
@@ -17,18 +17,21 @@
 
 package com.aliyun.emr.rss.service.deploy.master
 
+import java.io.IOException
 import java.util
-import java.util.concurrent.{ScheduledFuture, TimeUnit}
+import java.util.concurrent.{CompletableFuture, ScheduledFuture, TimeUnit}
+import java.util.function.BiConsumer
 
 import scala.collection.JavaConverters._
 import scala.collection.mutable
 import scala.util.Random
+import scala.util.control.NonFatal
 
 import com.aliyun.emr.rss.common.RssConf
 import com.aliyun.emr.rss.common.RssConf.haEnabled
 import com.aliyun.emr.rss.common.haclient.RssHARetryClient
 import com.aliyun.emr.rss.common.internal.Logging
-import com.aliyun.emr.rss.common.meta.WorkerInfo
+import com.aliyun.emr.rss.common.meta.{WorkerInfo, WorkerLoad}
 import com.aliyun.emr.rss.common.metrics.MetricsSystem
 import com.aliyun.emr.rss.common.protocol.{PartitionLocation, RpcNameConstants}
 import com.aliyun.emr.rss.common.protocol.message.ControlMessages._
@@ -66,6 +69,7 @@ private[deploy] class Master(
   // Config constants
   private val WorkerTimeoutMs = RssConf.workerTimeoutMs(conf)
   private val ApplicationTimeoutMs = RssConf.applicationTimeoutMs(conf)
+  private val slotPlacement = SlotPlacementStrategy.create(conf)
 
   // States
   private def workersSnapShot: util.List[WorkerInfo] =
@@ -129,6 +133,35 @@ private[deploy] class Master(
   def executeWithLeaderChecker[T](context: RpcCallContext, f: => T): Unit =
     if (HAHelper.checkShouldProcess(context, statusSystem)) f
 
+  /**
+   * Runs f once the meta update has been applied, without blocking the rpc thread while it is
+   * being committed in HA mode. If the update is not applied, e.g. as this master is no longer
+   * the leader, or f throws, context is failed instead, so that its client retries.
+   */
+  private def whenApplied(context: RpcCallContext, update: CompletableFuture[Void])(
+      f: => Unit): Unit =
+    update.whenComplete(new BiConsumer[Void, Throwable] {
+      override def accept(v: Void, t: Throwable): Unit = {
+        if (t != null) {
+          logWarning("Meta update is not applied.", t)
+          // tells the client the leader to retry on, if this master is not the leader any more
+          if (context != null && HAHelper.checkShouldProcess(context, statusSystem)) {
+            context.sendFailure(new IOException("Meta update is not applied.", t))
+          }
+        } else {
+          try {
+            f
+          } catch {
+            case NonFatal(e) =>
+              logError("Reply after meta update failed.", e)
+              if (context != null) {
+                context.sendFailure(e)
+              }
+          }
+        }
+      }
+    })
+
   override def receive: PartialFunction[Any, Unit] = {
     case CheckForWorkerTimeOut =>
       logDebug("Received CheckForWorkerTimeOut request.")
@@ -177,10 +210,10 @@ private[deploy] class Master(
       executeWithLeaderChecker(context, handleApplicationLost(context, appId, requestId))
 
     case HeartbeatFromWorker(host, rpcPort, pushPort, fetchPort, replicatePort, numSlots,
-    shuffleKeys, requestId) =>
+    shuffleKeys, load, requestId) =>
       logDebug(s"Received heartbeat from worker $host:$rpcPort:$pushPort:$fetchPort.")
       executeWithLeaderChecker(context, handleHeartBeatFromWorker(context, host, rpcPort, pushPort,
-        fetchPort, replicatePort, numSlots, shuffleKeys, requestId))
+        fetchPort, replicatePort, numSlots, shuffleKeys, load, requestId))
 
     case GetWorkerInfos =>
       logDebug("Received GetWorkerInfos request")
@@ -217,10 +250,18 @@ private[deploy] class Master(
       if (statusSystem.appHeartbeatTime.get(key) < currentTime - ApplicationTimeoutMs) {
         logWarning(s"Application $key timeout, trigger applicationLost event.")
         val requestId = RssHARetryClient.genRequestId()
-        var res = self.askSync[ApplicationLostResponse](ApplicationLost(key, requestId))
+        def applicationLost(): StatusCode =
+          try {
+            self.askSync[ApplicationLostResponse](ApplicationLost(key, requestId)).status
+          } catch {
+            case NonFatal(e) =>
+              logWarning(s"Handle ApplicationLost event for $key failed.", e)
+              StatusCode.Failed
+          }
+        var status = applicationLost()
         var retry = 1
-        while (res.status != StatusCode.Success && retry <= 3) {
-          res = self.askSync[ApplicationLostResponse](ApplicationLost(key, requestId))
+        while (status != StatusCode.Success && retry <= 3) {
+          status = applicationLost()
           retry += 1
         }
         if (retry > 3) {
@@ -239,6 +280,7 @@ private[deploy] class Master(
       replicatePort: Int,
       numSlots: Int,
       shuffleKeys: util.HashSet[String],
+      load: WorkerLoad,
       requestId: String): Unit = {
     val targetWorker = new WorkerInfo(host, rpcPort, pushPort, fetchPort, replicatePort,
       -1, null)
@@ -253,17 +295,19 @@ private[deploy] class Master(
       return
     }
 
-    statusSystem.handleWorkerHeartBeat(host, rpcPort, pushPort, fetchPort, replicatePort, numSlots,
-      System.currentTimeMillis(), requestId)
-
-    val expiredShuffleKeys = new util.HashSet[String]
-    shuffleKeys.asScala.foreach { shuffleKey =>
-      if (!statusSystem.registeredShuffle.contains(shuffleKey)) {
-        logWarning(s"Shuffle $shuffleKey expired on $host:$rpcPort:$pushPort:$fetchPort.")
-        expiredShuffleKeys.add(shuffleKey)
+    // soft state of this master, not replicated
+    worker.updateLoad(load)
+    whenApplied(context, statusSystem.handleWorkerHeartBeat(host, rpcPort, pushPort,
+      fetchPort, replicatePort, numSlots, System.currentTimeMillis(), requestId)) {
+      val expiredShuffleKeys = new util.HashSet[String]
+      shuffleKeys.asScala.foreach { shuffleKey =>
+        if (!statusSystem.registeredShuffle.contains(shuffleKey)) {
+          logWarning(s"Shuffle $shuffleKey expired on $host:$rpcPort:$pushPort:$fetchPort.")
+          expiredShuffleKeys.add(shuffleKey)
+        }
       }
+      context.reply(HeartbeatResponse(expiredShuffleKeys))
     }
-    context.reply(HeartbeatResponse(expiredShuffleKeys))
   }
 
   private def handleWorkerLost(context: RpcCallContext, host: String, rpcPort: Int, pushPort: Int,
@@ -280,10 +324,11 @@ private[deploy] class Master(
       return
     }
 
-    statusSystem.handleWorkerLost(host, rpcPort, pushPort, fetchPort, replicatePort, requestId)
-
-    if (context != null) {
-      context.reply(WorkerLostResponse(true))
+    whenApplied(context, statusSystem.handleWorkerLost(host, rpcPort, pushPort, fetchPort,
+      replicatePort, requestId)) {
+      if (context != null) {
+        context.reply(WorkerLostResponse(true))
+      }
     }
   }
 
@@ -311,10 +356,11 @@ private[deploy] class Master(
       logWarning(s"Receive RegisterWorker while worker $hostPort in workerLostEvents.")
       context.reply(RegisterWorkerResponse(false, "Worker in workerLostEvents."))
     } else {
-      statusSystem.handleRegisterWorker(host, rpcPort, pushPort, fetchPort, replicatePort,
-        numSlots, requestId)
-      logInfo(s"Registered worker $workerToRegister.")
-      context.reply(RegisterWorkerResponse(true, ""))
+      whenApplied(context, statusSystem.handleRegisterWorker(host, rpcPort, pushPort, fetchPort,
+        replicatePort, numSlots, requestId)) {
+        logInfo(s"Registered worker $workerToRegister.")
+        context.reply(RegisterWorkerResponse(true, ""))
+      }
     }
   }
 
@@ -328,7 +374,8 @@ private[deploy] class Master(
         shuffleKey,
         workersNotBlacklisted(),
         requestSlots.reduceIdList,
-        requestSlots.shouldReplicate
+        requestSlots.shouldReplicate,
+        slotPlacement
       )
     }
 
@@ -340,7 +387,7 @@ private[deploy] class Master(
     }
 
     // register shuffle success, update status
-    statusSystem.handleRequestSlots(shuffleKey, requestSlots.hostname,
+    val registered = statusSystem.handleRequestSlots(shuffleKey, requestSlots.hostname,
       Utils.workerToAllocatedSlots(slots.asInstanceOf[WorkerResource]), requestSlots.requestId)
 
     logInfo(s"Offer slots successfully for $numReducers reducers of $shuffleKey" +
@@ -358,7 +405,9 @@ private[deploy] class Master(
       logInfo(s"Offered extra $extraSlotsSize slots for $shuffleKey")
     }
 
-    context.reply(RequestSlotsResponse(StatusCode.Success, slots.asInstanceOf[WorkerResource]))
+    whenApplied(context, registered) {
+      context.reply(RequestSlotsResponse(StatusCode.Success, slots.asInstanceOf[WorkerResource]))
+    }
   }
 
   def handleReleaseSlots(
@@ -369,9 +418,11 @@ private[deploy] class Master(
       slots: util.List[Integer],
       requestId: String): Unit = {
     val shuffleKey = Utils.makeShuffleKey(applicationId, shuffleId)
-    statusSystem.handleReleaseSlots(shuffleKey, workerIds, slots, requestId)
-    logInfo(s"[handleReleaseSlots] Release all slots of $shuffleKey")
-    context.reply(ReleaseSlotsResponse(StatusCode.Success))
+    whenApplied(context,
+      statusSystem.handleReleaseSlots(shuffleKey, workerIds, slots, requestId)) {
+      logInfo(s"[handleReleaseSlots] Release all slots of $shuffleKey")
+      context.reply(ReleaseSlotsResponse(StatusCode.Success))
+    }
   }
 
   def handleUnregisterShuffle(
@@ -380,9 +431,10 @@ private[deploy] class Master(
     shuffleId: Int,
     requestId: String): Unit = {
     val shuffleKey = Utils.makeShuffleKey(applicationId, shuffleId)
-    statusSystem.handleUnRegisterShuffle(shuffleKey, requestId)
-    logInfo(s"Unregister shuffle $shuffleKey")
-    context.reply(UnregisterShuffleResponse(StatusCode.Success))
+    whenApplied(context, statusSystem.handleUnRegisterShuffle(shuffleKey, requestId)) {
+      logInfo(s"Unregister shuffle $shuffleKey")
+      context.reply(UnregisterShuffleResponse(StatusCode.Success))
+    }
   }
 
   def handleGetBlacklist(context: RpcCallContext, msg: GetBlacklist): Unit = {
@@ -401,24 +453,28 @@ private[deploy] class Master(
                                       requestId: String): Unit = {
     logInfo(s"Receive ReportNodeFailure $failedWorkers, current blacklist" +
         s"${statusSystem.blacklist}")
-    statusSystem.handleReportWorkerFailure(failedWorkers, requestId)
-    context.reply(OneWayMessageResponse)
+    whenApplied(context, statusSystem.handleReportWorkerFailure(failedWorkers, requestId)) {
+      context.reply(OneWayMessageResponse)
+    }
   }
 
   def handleApplicationLost(context: RpcCallContext, appId: String, requestId: String): Unit = {
     nonEagerHandler.submit(new Runnable {
       override def run(): Unit = {
-        statusSystem.handleAppLost(appId, requestId)
-        logInfo(s"Removed application $appId")
-        context.reply(ApplicationLostResponse(StatusCode.Success))
+        whenApplied(context, statusSystem.handleAppLost(appId, requestId)) {
+          logInfo(s"Removed application $appId")
+          context.reply(ApplicationLostResponse(StatusCode.Success))
+        }
       }
     })
   }
 
   private def handleHeartBeatFromApplication(
       context: RpcCallContext, appId: String, requestId: String): Unit = {
-    statusSystem.handleAppHeartbeat(appId, System.currentTimeMillis(), requestId)
-    context.reply(OneWayMessageResponse)
+    whenApplied(context,
+      statusSystem.handleAppHeartbeat(appId, System.currentTimeMillis(), requestId)) {
+      context.reply(OneWayMessageResponse)
+    }
   }
 
   private def handleGetClusterLoadStatus(context: RpcCallContext, numPartitions: Int): Unit = {
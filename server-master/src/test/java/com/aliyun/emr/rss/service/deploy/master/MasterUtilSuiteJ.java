@@ -20,6 +20,7 @@ package com.aliyun.emr.rss.service.deploy.master;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,7 +28,9 @@ import scala.Tuple2;
 
 import org.junit.Test;
 
+import com.aliyun.emr.rss.common.meta.DiskLoad;
 import com.aliyun.emr.rss.common.meta.WorkerInfo;
+import com.aliyun.emr.rss.common.meta.WorkerLoad;
 import com.aliyun.emr.rss.common.protocol.PartitionLocation;
 
 public class MasterUtilSuiteJ {
@@ -90,6 +93,88 @@ public class MasterUtilSuiteJ {
     check(3, 0, workers, reduceIds, shouldReplicate, true);
   }
 
+  @Test
+  public void testLoadAwarePlacementSkipsPausedWorker() {
+    final List<WorkerInfo> workers = prepareWorkers(100);
+    workers.get(0).load_$eq(new WorkerLoad(new ArrayList<>(), 0, 1, true));
+    // the second worker has half the weight of the third one
+    DiskLoad disk = new DiskLoad("/mnt/disk1", 100, 0, 0, 0, 10, 100);
+    workers.get(1).load_$eq(new WorkerLoad(Collections.singletonList(disk), 0, 1, false));
+    final List<Integer> reduceIds = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      reduceIds.add(i);
+    }
+
+    Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>> slots =
+        MasterUtil.offerSlots("appId-1", workers, reduceIds, false,
+            new LoadAwareSlotPlacement(1000));
+    assert !slots.containsKey(workers.get(0));
+    int numOnSecond = slots.get(workers.get(1))._1.size();
+    assert numOnSecond >= 9 && numOnSecond <= 11 : numOnSecond + " locations on second worker";
+    assert slots.get(workers.get(2))._1.size() == 30 - numOnSecond;
+
+    // replicas still need a second worker
+    slots = MasterUtil.offerSlots("appId-1", workers.subList(0, 2), reduceIds, true,
+        new LoadAwareSlotPlacement(1000));
+    assert slots.get(workers.get(1))._1.size() == 30;
+    assert slots.get(workers.get(0))._2.size() == 30;
+  }
+
+  @Test
+  public void testAllocateDisksBySlotUsage() {
+    final List<WorkerInfo> workers = prepareWorkers(100).subList(0, 2);
+    // the first disk has fewer slots and more of them in use
+    workers.get(0).updateLoad(new WorkerLoad(Arrays.asList(
+        new DiskLoad("/mnt/disk1", 20, 10, 100, 0, 0, 0),
+        new DiskLoad("/mnt/disk2", 40, 0, 200, 0, 0, 0)), 0, 1, false));
+    final List<Integer> reduceIds = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      reduceIds.add(i);
+    }
+
+    Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>> slots =
+        MasterUtil.offerSlots("appId-1", workers, reduceIds, true);
+    Map<String, Integer> numPerDisk = new HashMap<>();
+    for (PartitionLocation location : slots.get(workers.get(0))._1) {
+      numPerDisk.merge(location.getDisk(), 1, Integer::sum);
+    }
+    for (PartitionLocation location : slots.get(workers.get(0))._2) {
+      numPerDisk.merge(location.getDisk(), 1, Integer::sum);
+    }
+    // the same share of slots ends up in use on both disks
+    assert numPerDisk.get("/mnt/disk1") == 10 : numPerDisk;
+    assert numPerDisk.get("/mnt/disk2") == 40 : numPerDisk;
+    // the second worker did not report its disks, so it picks them itself
+    for (PartitionLocation location : slots.get(workers.get(1))._1) {
+      assert location.getDisk().isEmpty();
+      assert location.getPeer().getDisk().startsWith("/mnt/disk");
+    }
+  }
+
+  @Test
+  public void testAllocateDisksByFlushThroughput() {
+    final List<WorkerInfo> workers = prepareWorkers(100).subList(0, 1);
+    // both disks have the same slots, the first one flushes at a quarter of the speed of the
+    // second and has flushes waiting
+    workers.get(0).updateLoad(new WorkerLoad(Arrays.asList(
+        new DiskLoad("/mnt/disk1", 40, 0, 100, 25, 8, 400),
+        new DiskLoad("/mnt/disk2", 40, 0, 100, 100, 0, 10)), 0, 1, false));
+    final List<Integer> reduceIds = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      reduceIds.add(i);
+    }
+
+    Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>> slots =
+        MasterUtil.offerSlots("appId-1", workers, reduceIds, false);
+    Map<String, Integer> numPerDisk = new HashMap<>();
+    for (PartitionLocation location : slots.get(workers.get(0))._1) {
+      numPerDisk.merge(location.getDisk(), 1, Integer::sum);
+    }
+    // the slow disk counts as 10 slots against the 40 of the fast one
+    assert numPerDisk.get("/mnt/disk1") == 10 : numPerDisk;
+    assert numPerDisk.get("/mnt/disk2") == 40 : numPerDisk;
+  }
+
   private void check(
       int usedWorkers,
       int expectAvailableSlots,
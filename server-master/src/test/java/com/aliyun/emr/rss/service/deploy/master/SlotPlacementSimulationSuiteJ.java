@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import scala.Tuple2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.common.meta.DiskLoad;
+import com.aliyun.emr.rss.common.meta.WorkerInfo;
+import com.aliyun.emr.rss.common.meta.WorkerLoad;
+import com.aliyun.emr.rss.common.protocol.PartitionLocation;
+
+/**
+ * Replays slot requests against workers with synthetic flush load. Every tick a shuffle asks for
+ * slots, each partition placed on a worker queues flushes on it, and each worker drains as many
+ * flushes as its disk can write in a tick before reporting its load.
+ */
+public class SlotPlacementSimulationSuiteJ {
+  private static final int NUM_TICKS = 200;
+  // up to 150 flushes a tick with or without replication, while the workers drain 170
+  private static final int PARTITIONS_PER_TICK = 15;
+  private static final int FLUSHES_PER_PARTITION = 10;
+  // time a tick stands for, in which a fast disk writes 40 flushes
+  private static final double TICK_MS = 40;
+
+  private static class SimulatedWorker {
+    final WorkerInfo info;
+    final int flushesPerTick;
+    int queueDepth = 0;
+    // time the oldest flush of a disk that completes none has been running
+    double stalledMs = 0;
+
+    SimulatedWorker(int index, int flushesPerTick) {
+      this.info = new WorkerInfo("host" + index, 9, 10 + index, 110 + index, 210 + index,
+        Integer.MAX_VALUE, null);
+      this.flushesPerTick = flushesPerTick;
+    }
+
+    void tick() {
+      if (flushesPerTick == 0 && queueDepth > 0) {
+        stalledMs += TICK_MS;
+      }
+      queueDepth = Math.max(0, queueDepth - flushesPerTick);
+      // as the worker does, report the age of the flush in progress when none completes
+      double flushLatencyMs = flushesPerTick > 0 ? TICK_MS / flushesPerTick : stalledMs;
+      List<DiskLoad> disks = Collections.singletonList(
+        new DiskLoad("/mnt/disk", Integer.MAX_VALUE, 0, 0, 0, queueDepth, flushLatencyMs));
+      info.load_$eq(new WorkerLoad(disks, 0, 1, false));
+    }
+  }
+
+  /**
+   * @param slowFlushesPerTick flushes the disk of the first worker writes in a tick, while the
+   *                           others write 40
+   * @return the deepest flush queue any worker had.
+   */
+  private int simulate(
+      SlotPlacementStrategy placement,
+      boolean shouldReplicate,
+      int slowFlushesPerTick) {
+    List<SimulatedWorker> simulatedWorkers = new ArrayList<>();
+    simulatedWorkers.add(new SimulatedWorker(0, slowFlushesPerTick));
+    for (int i = 1; i < 5; i++) {
+      simulatedWorkers.add(new SimulatedWorker(i, 40));
+    }
+    List<WorkerInfo> workers = new ArrayList<>();
+    simulatedWorkers.forEach(worker -> workers.add(worker.info));
+    List<Integer> reduceIds = new ArrayList<>();
+    int numPartitions = shouldReplicate ? PARTITIONS_PER_TICK / 2 : PARTITIONS_PER_TICK;
+    for (int i = 0; i < numPartitions; i++) {
+      reduceIds.add(i);
+    }
+
+    int peakQueueDepth = 0;
+    for (int tick = 0; tick < NUM_TICKS; tick++) {
+      Map<WorkerInfo, Tuple2<List<PartitionLocation>, List<PartitionLocation>>> slots =
+        MasterUtil.offerSlots("app-" + tick, workers, reduceIds, shouldReplicate, placement);
+      for (SimulatedWorker worker : simulatedWorkers) {
+        Tuple2<List<PartitionLocation>, List<PartitionLocation>> locations =
+          slots.get(worker.info);
+        if (locations != null) {
+          worker.queueDepth +=
+            (locations._1.size() + locations._2.size()) * FLUSHES_PER_PARTITION;
+        }
+        peakQueueDepth = Math.max(peakQueueDepth, worker.queueDepth);
+        worker.tick();
+      }
+    }
+    return peakQueueDepth;
+  }
+
+  @Test
+  public void testLoadAwarePlacementBoundsFlushBacklog() {
+    SlotPlacementStrategy loadAware = new LoadAwareSlotPlacement(100);
+    for (boolean shouldReplicate : new boolean[] {false, true}) {
+      // one worker's disk flushes at a quarter of the speed of the others
+      int roundRobinPeak = simulate(new RoundRobinSlotPlacement(), shouldReplicate, 10);
+      int loadAwarePeak = simulate(loadAware, shouldReplicate, 10);
+      // round robin overloads the slow disk, whose queue keeps growing
+      Assert.assertTrue(roundRobinPeak > NUM_TICKS * 10);
+      Assert.assertTrue("Peak flush queue depth " + loadAwarePeak + " of load aware placement, " +
+        roundRobinPeak + " of round robin", loadAwarePeak * 10 < roundRobinPeak);
+    }
+  }
+
+  @Test
+  public void testLoadAwarePlacementAvoidsStalledDisk() {
+    SlotPlacementStrategy loadAware = new LoadAwareSlotPlacement(100);
+    // one worker's disk completes no flush at all
+    int roundRobinPeak = simulate(new RoundRobinSlotPlacement(), false, 0);
+    int loadAwarePeak = simulate(loadAware, false, 0);
+    Assert.assertTrue(roundRobinPeak > NUM_TICKS * 10);
+    Assert.assertTrue("Peak flush queue depth " + loadAwarePeak + " of load aware placement, " +
+      roundRobinPeak + " of round robin", loadAwarePeak * 10 < roundRobinPeak);
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master.clustermeta;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.meta.WorkerInfo;
+import com.aliyun.emr.rss.common.network.util.JavaUtils;
+import com.aliyun.emr.rss.common.util.Utils;
+
+public class MetaSnapshotSuiteJ {
+  private static final Logger LOG = LoggerFactory.getLogger(MetaSnapshotSuiteJ.class);
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Utils.createTempDir(System.getProperty("java.io.tmpdir"), "meta-snapshot");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    JavaUtils.deleteRecursively(dir);
+  }
+
+  private static AbstractMetaManager newMetaManager() {
+    return new SingleMasterMetaManager(null, new RssConf());
+  }
+
+  private static WorkerInfo worker(int i) {
+    return new WorkerInfo("host" + i, 10000 + i, 20000 + i, 30000 + i, 40000 + i, 1 << 16, null);
+  }
+
+  private static String appId(int i) {
+    return String.format("application_1650000000000_%05d", i);
+  }
+
+  private static void requestSlots(AbstractMetaManager meta, String shuffleKey, int numWorkers,
+      int seed) {
+    List<String> workerInfos = new ArrayList<>();
+    for (int j = 0; j < 3; j++) {
+      WorkerInfo worker = worker((seed + j) % numWorkers);
+      workerInfos.add(WorkerInfo.encodeToPbStr(worker.host(), worker.rpcPort(),
+        worker.pushPort(), worker.fetchPort(), worker.replicatePort(), 1 + seed % 50));
+    }
+    meta.updateRequestSlotsMeta(shuffleKey, "client-" + seed % 100, workerInfos);
+  }
+
+  private static void populate(AbstractMetaManager meta, int numWorkers, int numApps,
+      int shufflesPerApp) {
+    for (int i = 0; i < numWorkers; i++) {
+      WorkerInfo worker = worker(i);
+      worker.lastHeartbeat_$eq(1000 + i);
+      meta.workers.add(worker);
+    }
+    meta.blacklist.add(worker(0));
+    meta.workerLostEvents.add(worker(1));
+    for (int i = 0; i < numApps; i++) {
+      for (int j = 0; j < shufflesPerApp; j++) {
+        requestSlots(meta, Utils.makeShuffleKey(appId(i), j), numWorkers, i + j);
+      }
+      meta.appHeartbeatTime.put(appId(i), 2000L + i);
+    }
+    for (int i = 0; i < 100; i++) {
+      meta.markRequestApplied("client-" + i % 10 + "#" + i);
+    }
+  }
+
+  // the format snapshots were written in before
+  private static void writeJavaSerialized(AbstractMetaManager meta, File file)
+      throws IOException {
+    try (ObjectOutputStream out = new ObjectOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)))) {
+      Set<?>[] sets = {meta.registeredShuffle, meta.hostnameSet, meta.blacklist,
+        meta.workerLostEvents};
+      for (Set<?> set : sets) {
+        out.writeInt(set.size());
+        for (Object o : set) {
+          out.writeObject(o);
+        }
+      }
+      out.writeInt(meta.appHeartbeatTime.size());
+      for (Map.Entry<String, Long> entry : meta.appHeartbeatTime.entrySet()) {
+        out.writeObject(entry.getKey());
+        out.writeLong(entry.getValue());
+      }
+      out.writeInt(meta.workers.size());
+      for (WorkerInfo worker : meta.workers) {
+        out.writeObject(worker);
+      }
+    }
+  }
+
+  private static Map<String, Object> slots(WorkerInfo worker) {
+    Map<String, Object> slots = new HashMap<>(worker.shuffleSlots());
+    slots.values().removeIf(n -> (Integer) n == 0);
+    return slots;
+  }
+
+  private static void assertSameMeta(AbstractMetaManager expected, AbstractMetaManager actual) {
+    Assert.assertEquals(expected.registeredShuffle, actual.registeredShuffle);
+    Assert.assertEquals(expected.hostnameSet, actual.hostnameSet);
+    Assert.assertEquals(expected.blacklist, actual.blacklist);
+    Assert.assertEquals(expected.workerLostEvents, actual.workerLostEvents);
+    Assert.assertEquals(expected.appHeartbeatTime, actual.appHeartbeatTime);
+    Assert.assertEquals(expected.workers, actual.workers);
+    Assert.assertEquals(expected.getAppliedRequestIds(), actual.getAppliedRequestIds());
+    for (int i = 0; i < expected.workers.size(); i++) {
+      WorkerInfo expectedWorker = expected.workers.get(i);
+      WorkerInfo actualWorker = actual.workers.get(i);
+      Assert.assertEquals(expectedWorker.numSlots(), actualWorker.numSlots());
+      Assert.assertEquals(expectedWorker.usedSlots(), actualWorker.usedSlots());
+      Assert.assertEquals(expectedWorker.lastHeartbeat(), actualWorker.lastHeartbeat());
+      Assert.assertEquals(slots(expectedWorker), slots(actualWorker));
+    }
+  }
+
+  @Test
+  public void testSnapshotSizeAndRestoreTime() throws IOException {
+    AbstractMetaManager meta = newMetaManager();
+    populate(meta, 100, 20000, 10);
+
+    File javaFile = new File(dir, "java");
+    File protoFile = new File(dir, "proto");
+    writeJavaSerialized(meta, javaFile);
+    long start = System.nanoTime();
+    meta.writeMetaInfoToFile(protoFile);
+    long writeNanos = System.nanoTime() - start;
+
+    AbstractMetaManager fromJava = newMetaManager();
+    start = System.nanoTime();
+    fromJava.restoreMetaFromFile(javaFile);
+    long javaRestoreNanos = System.nanoTime() - start;
+    AbstractMetaManager fromProto = newMetaManager();
+    start = System.nanoTime();
+    fromProto.restoreMetaFromFile(protoFile);
+    long protoRestoreNanos = System.nanoTime() - start;
+
+    LOG.info("{} shuffles: Java serialized {} bytes restored in {} ms, protobuf {} bytes " +
+        "written in {} ms and restored in {} ms.", meta.registeredShuffle.size(),
+      javaFile.length(), javaRestoreNanos / 1000000, protoFile.length(), writeNanos / 1000000,
+      protoRestoreNanos / 1000000);
+    assertSameMeta(meta, fromProto);
+    // Java serialized snapshots did not hold the applied requests
+    Assert.assertTrue(fromJava.getAppliedRequestIds().isEmpty());
+    meta.getAppliedRequestIds().forEach(fromJava::markRequestApplied);
+    assertSameMeta(meta, fromJava);
+    Assert.assertTrue(protoFile.length() * 3 < javaFile.length());
+  }
+
+  @Test
+  public void testIncrementalSnapshot() throws IOException {
+    AbstractMetaManager meta = newMetaManager();
+    meta.setTrackChangedShuffles(true);
+    populate(meta, 50, 1000, 20);
+    File fullFile = new File(dir, "full");
+    meta.writeMetaInfoToFile(fullFile);
+
+    // unregistered, released, added and moved by a worker lost
+    meta.updateUnregisterShuffleMeta(Utils.makeShuffleKey(appId(0), 0));
+    meta.updateAppLostMeta(appId(1));
+    meta.updateReleaseSlotsMeta(Utils.makeShuffleKey(appId(2), 1));
+    requestSlots(meta, Utils.makeShuffleKey(appId(1000), 0), 10, 7);
+    WorkerInfo lost = worker(3);
+    meta.updateWorkerLostMeta(lost.host(), lost.rpcPort(), lost.pushPort(), lost.fetchPort(),
+      lost.replicatePort());
+    meta.workers.add(lost);
+    meta.blacklist.add(worker(5));
+    meta.appHeartbeatTime.put(appId(3), 5000L);
+    meta.markRequestApplied("client-0#1000");
+
+    File incrementalFile = new File(dir, "incremental");
+    meta.writeMetaInfoToFile(incrementalFile, fullFile.getName());
+    Assert.assertTrue(incrementalFile.length() * 4 < fullFile.length());
+
+    AbstractMetaManager restored = newMetaManager();
+    restored.restoreMetaFromFile(incrementalFile);
+    assertSameMeta(meta, restored);
+
+    // the changes accumulate until the next full snapshot
+    meta.updateUnregisterShuffleMeta(Utils.makeShuffleKey(appId(4), 2));
+    meta.writeMetaInfoToFile(incrementalFile, fullFile.getName());
+    restored.restoreMetaFromFile(incrementalFile);
+    assertSameMeta(meta, restored);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master.clustermeta.ha;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.haclient.RssHARetryClient;
+import com.aliyun.emr.rss.common.util.Utils;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.ResourceRequest;
+
+/**
+ * A group of masters on free local ports, each with its own meta.
+ */
+class LocalRaftGroup {
+  final HARaftServer[] servers;
+  final HAMasterMetaManager[] metaSystems;
+
+  LocalRaftGroup(int numMasters, String serviceId) throws IOException {
+    servers = new HARaftServer[numMasters];
+    metaSystems = new HAMasterMetaManager[numMasters];
+    String localHost = Utils.localHostName();
+    List<NodeDetails> nodes = new ArrayList<>();
+    for (int i = 0; i < numMasters; i++) {
+      int port = freePort();
+      nodes.add(new NodeDetails.Builder()
+        .setRpcAddress(new InetSocketAddress(localHost, port))
+        .setRatisPort(port)
+        .setNodeId(UUID.randomUUID().toString())
+        .setServiceId(serviceId)
+        .build());
+    }
+    for (int i = 0; i < numMasters; i++) {
+      RssConf conf = new RssConf();
+      File tmpDir = File.createTempFile("rss-ratis-group" + i, "for-test-only");
+      tmpDir.delete();
+      tmpDir.mkdirs();
+      conf.set("rss.ha.storage.dir", tmpDir.getAbsolutePath());
+      List<NodeDetails> peers = new ArrayList<>(nodes);
+      NodeDetails local = peers.remove(i);
+      metaSystems[i] = new HAMasterMetaManager(null, conf);
+      servers[i] = HARaftServer.newMasterRatisServer(new MetaHandler(metaSystems[i]), conf,
+        local, peers);
+      metaSystems[i].setRatisServer(servers[i]);
+      servers[i].start();
+    }
+  }
+
+  static ResourceRequest heartbeat(String clientId, long callId, String appId) {
+    return ResourceRequest.newBuilder()
+      .setCmdType(ResourceProtos.Type.AppHeartBeat)
+      .setRequestId(RssHARetryClient.encodeRequestId(clientId, callId))
+      .setAppHeartbeatRequest(ResourceProtos.AppHeartbeatRequest.newBuilder()
+        .setAppId(appId)
+        .setTime(System.currentTimeMillis())
+        .build())
+      .build();
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * @return the leader once elected and able to commit requests, or null if none is within
+   *         timeoutMs.
+   */
+  HARaftServer waitForLeader(long timeoutMs) throws InterruptedException {
+    String clientId = UUID.randomUUID().toString();
+    long callId = 0;
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (System.currentTimeMillis() < deadline) {
+      for (HARaftServer server : servers) {
+        if (server.isLeader()) {
+          try {
+            server.submitRequestAsync(heartbeat(clientId, callId++, "leader-probe")).get();
+            return server;
+          } catch (ExecutionException e) {
+            // elected but not ready yet
+          }
+        }
+      }
+      Thread.sleep(100);
+    }
+    return null;
+  }
+
+  void stop() {
+    for (HARaftServer server : servers) {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+}
@@ -35,6 +35,9 @@ import org.junit.Test;
 
 import com.aliyun.emr.rss.common.meta.WorkerInfo;
 import com.aliyun.emr.rss.common.util.Utils;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.AppHeartbeatRequest;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.AppLostRequest;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.BatchRequest;
 import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.RequestSlotsRequest;
 import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.ResourceRequest;
 import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.ResourceResponse;
@@ -64,6 +67,68 @@ public class MasterStateMachineSuiteJ extends RatisBaseSuiteJ {
     Assert.assertEquals(response.getSuccess(), true);
   }
 
+  private ResourceRequest appRequest(Type type, String appId, String requestId) {
+    ResourceRequest.Builder builder = ResourceRequest.newBuilder()
+      .setCmdType(type)
+      .setRequestId(requestId);
+    if (type == Type.AppHeartBeat) {
+      builder.setAppHeartbeatRequest(
+        AppHeartbeatRequest.newBuilder().setAppId(appId).setTime(1).build());
+    } else {
+      builder.setAppLostRequest(AppLostRequest.newBuilder().setAppId(appId).build());
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testRunBatchCommand() {
+    StateMachine stateMachine = ratisServer.getMasterStateMachine();
+    String heartbeatId = UUID.randomUUID() + "#1";
+
+    stateMachine.runCommand(appRequest(Type.AppHeartBeat, "app1", heartbeatId), -1);
+    stateMachine.runCommand(appRequest(Type.AppLost, "app1", UUID.randomUUID() + "#2"), -1);
+
+    // the heartbeat is retried after app1 has been lost
+    ResourceRequest batch = ResourceRequest.newBuilder()
+      .setCmdType(Type.Batch)
+      .setRequestId(UUID.randomUUID() + "#1")
+      .setBatchRequest(BatchRequest.newBuilder()
+        .addRequests(appRequest(Type.AppHeartBeat, "app1", heartbeatId))
+        .addRequests(appRequest(Type.AppHeartBeat, "app2", UUID.randomUUID() + "#3"))
+        .addRequests(appRequest(Type.AppHeartBeat, "app3", UUID.randomUUID() + "#4"))
+        .build())
+      .build();
+    ResourceResponse response = stateMachine.runCommand(batch, -1);
+
+    Assert.assertTrue(response.getSuccess());
+    Assert.assertFalse(metaSystem.appHeartbeatTime.containsKey("app1"));
+    Assert.assertTrue(metaSystem.appHeartbeatTime.containsKey("app2"));
+    Assert.assertTrue(metaSystem.appHeartbeatTime.containsKey("app3"));
+  }
+
+  @Test
+  public void testSkipAppliedRequestsAfterRestore() throws IOException {
+    String heartbeatId = UUID.randomUUID() + "#1";
+    MetaHandler handler = new MetaHandler(metaSystem);
+    handler.handleWriteRequest(appRequest(Type.AppHeartBeat, "app1", heartbeatId));
+    handler.handleWriteRequest(appRequest(Type.AppLost, "app1", UUID.randomUUID() + "#2"));
+    File snapshot = File.createTempFile("meta", "snapshot");
+    snapshot.deleteOnExit();
+    handler.writeToSnapShot(snapshot);
+
+    HAMasterMetaManager restoredMeta = new HAMasterMetaManager(null, null);
+    MetaHandler restored = new MetaHandler(restoredMeta);
+    restored.loadSnapShot(snapshot);
+    // the heartbeat is retried on its own after app1 has been lost
+    ResourceResponse response =
+      restored.handleWriteRequest(appRequest(Type.AppHeartBeat, "app1", heartbeatId));
+
+    Assert.assertTrue(response.getSuccess());
+    Assert.assertFalse(restoredMeta.appHeartbeatTime.containsKey("app1"));
+    restored.handleWriteRequest(appRequest(Type.AppHeartBeat, "app2", UUID.randomUUID() + "#3"));
+    Assert.assertTrue(restoredMeta.appHeartbeatTime.containsKey("app2"));
+  }
+
   @Test
   public void testSnapshotCleanup() throws IOException {
     StateMachine stateMachine = ratisServer.getMasterStateMachine();
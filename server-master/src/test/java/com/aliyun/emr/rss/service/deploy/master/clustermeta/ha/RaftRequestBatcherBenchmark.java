@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master.clustermeta.ha;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.ResourceResponse;
+
+/**
+ * Throughput of app heartbeats submitted to a local group of three masters, one by one and
+ * batched, with as many log entries in flight in both runs.
+ *
+ * Run with: java -cp ...
+ *   com.aliyun.emr.rss.service.deploy.master.clustermeta.ha.RaftRequestBatcherBenchmark
+ *   [numRequests] [batchSize]
+ */
+public class RaftRequestBatcherBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int numRequests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+
+    LocalRaftGroup group = new LocalRaftGroup(3, "RSS_BATCH_BENCHMARK_ID");
+    try {
+      HARaftServer leader = group.waitForLeader(60000);
+      if (leader == null) {
+        throw new IllegalStateException("No leader elected");
+      }
+      for (int i = 0; i < 3; i++) {
+        run("unbatched", new RaftRequestBatcher(leader, 1, 8), numRequests);
+        run("batched", new RaftRequestBatcher(leader, batchSize, 8), numRequests);
+      }
+    } finally {
+      group.stop();
+    }
+    // threads of the Ratis servers outlive their stop
+    System.exit(0);
+  }
+
+  private static void run(String name, RaftRequestBatcher batcher, int numRequests)
+      throws Exception {
+    String clientId = UUID.randomUUID().toString();
+    List<CompletableFuture<ResourceResponse>> futures = new ArrayList<>(numRequests);
+    long start = System.nanoTime();
+    for (int i = 0; i < numRequests; i++) {
+      futures.add(batcher.submit(
+        LocalRaftGroup.heartbeat(clientId, i, name + "-" + clientId + "-" + i)));
+    }
+    for (CompletableFuture<ResourceResponse> future : futures) {
+      if (!future.get().getSuccess()) {
+        throw new IllegalStateException("Request failed: " + future.get().getMessage());
+      }
+    }
+    long elapsedNs = System.nanoTime() - start;
+    batcher.stop();
+    System.out.printf("%-10s %10.0f requests/s%n", name, numRequests * 1e9 / elapsedNs);
+  }
+}
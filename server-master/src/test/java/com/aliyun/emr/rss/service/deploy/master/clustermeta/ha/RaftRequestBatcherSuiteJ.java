@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.master.clustermeta.ha;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.aliyun.emr.rss.common.haclient.RssHARetryClient;
+import com.aliyun.emr.rss.service.deploy.master.clustermeta.ResourceProtos.ResourceResponse;
+
+public class RaftRequestBatcherSuiteJ {
+  private static final int NUM_REQUESTS = 1000;
+
+  private static LocalRaftGroup group;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    group = new LocalRaftGroup(3, "RSS_BATCH_SERVICE_ID");
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    if (group != null) {
+      group.stop();
+    }
+  }
+
+  private static int numApps(HAMasterMetaManager metaSystem, String prefix) {
+    return (int) metaSystem.appHeartbeatTime.keySet().stream()
+      .filter(appId -> appId.startsWith(prefix)).count();
+  }
+
+  private static void waitForApps(String prefix) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30000;
+    for (HAMasterMetaManager metaSystem : group.metaSystems) {
+      while (numApps(metaSystem, prefix) < NUM_REQUESTS &&
+          System.currentTimeMillis() < deadline) {
+        Thread.sleep(100);
+      }
+      Assert.assertEquals(NUM_REQUESTS, numApps(metaSystem, prefix));
+    }
+  }
+
+  private void submitAndCheck(int batchSize, String prefix) throws Exception {
+    HARaftServer leader = group.waitForLeader(30000);
+    Assert.assertNotNull(leader);
+    RaftRequestBatcher batcher = new RaftRequestBatcher(leader, batchSize, 8);
+    String clientId = UUID.randomUUID().toString();
+    List<CompletableFuture<ResourceResponse>> futures = new ArrayList<>(NUM_REQUESTS);
+    for (int i = 0; i < NUM_REQUESTS; i++) {
+      futures.add(batcher.submit(LocalRaftGroup.heartbeat(clientId, i, prefix + i)));
+    }
+    for (CompletableFuture<ResourceResponse> future : futures) {
+      Assert.assertTrue(future.get().getSuccess());
+    }
+    batcher.stop();
+
+    // followers apply the requests as well
+    waitForApps(prefix);
+  }
+
+  @Test
+  public void testUnbatchedRequestsApplied() throws Exception {
+    submitAndCheck(1, "unbatched-");
+  }
+
+  @Test
+  public void testBatchedRequestsApplied() throws Exception {
+    submitAndCheck(512, "batched-");
+  }
+
+  @Test
+  public void testRequestNotCommittedOnFollowerFails() throws Exception {
+    HARaftServer leader = group.waitForLeader(30000);
+    Assert.assertNotNull(leader);
+    for (int i = 0; i < group.servers.length; i++) {
+      if (group.servers[i] != leader) {
+        CompletableFuture<Void> applied = group.metaSystems[i].handleAppLost(
+          "follower-app", RssHARetryClient.encodeRequestId(UUID.randomUUID().toString(), 1));
+        try {
+          applied.get();
+          Assert.fail("A request submitted to a follower should fail");
+        } catch (ExecutionException e) {
+          // not the leader
+        }
+      }
+    }
+  }
+}
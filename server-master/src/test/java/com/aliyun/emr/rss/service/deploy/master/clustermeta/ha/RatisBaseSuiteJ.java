@@ -30,12 +30,13 @@ import com.aliyun.emr.rss.common.RssConf;
 
 public class RatisBaseSuiteJ {
   HARaftServer ratisServer;
+  HAMasterMetaManager metaSystem;
 
   protected final String DEFAULT_SERVICE_ID = "ServiceIdDefault";
 
   @Before
   public void init() throws Exception {
-    HAMasterMetaManager metaSystem = new HAMasterMetaManager(null, null);
+    metaSystem = new HAMasterMetaManager(null, null);
     MetaHandler handler = new MetaHandler(metaSystem);
     RssConf conf = new RssConf();
     File tmpDir1 = File.createTempFile("rss-ratis-tmp", "for-test-only");
@@ -248,16 +248,16 @@ public class RatisMasterStatusSystemSuiteJ {
   }
 
   @Test
-  public void testHandleRequestSlots() {
+  public void testHandleRequestSlots() throws Exception {
     AbstractMetaManager statusSystem = pickLeaderStatusSystem();
     Assert.assertNotNull(statusSystem);
 
     statusSystem.handleRegisterWorker(HOSTNAME1, RPCPORT1, PUSHPORT1, FETCHPORT1, REPLICATEPORT1,
-      NUMSLOTS1, getNewReqeustId());
+      NUMSLOTS1, getNewReqeustId()).get();
     statusSystem.handleRegisterWorker(HOSTNAME2, RPCPORT2, PUSHPORT2, FETCHPORT2, REPLICATEPORT2,
-      NUMSLOTS2, getNewReqeustId());
+      NUMSLOTS2, getNewReqeustId()).get();
     statusSystem.handleRegisterWorker(HOSTNAME3, RPCPORT3, PUSHPORT3, FETCHPORT3, REPLICATEPORT3,
-      NUMSLOTS3, getNewReqeustId());
+      NUMSLOTS3, getNewReqeustId()).get();
 
     WorkerInfo workerInfo1 = new WorkerInfo(HOSTNAME1, RPCPORT1, PUSHPORT1, FETCHPORT1,
       REPLICATEPORT1, NUMSLOTS1, dummyRef);
@@ -271,7 +271,8 @@ public class RatisMasterStatusSystemSuiteJ {
     workersToAllocate.put(workerInfo2, 5);
     workersToAllocate.put(workerInfo3, 5);
 
-    statusSystem.handleRequestSlots(SHUFFLEKEY1, HOSTNAME1, workersToAllocate, getNewReqeustId());
+    statusSystem.handleRequestSlots(SHUFFLEKEY1, HOSTNAME1, workersToAllocate, getNewReqeustId())
+      .get();
 
     Assert.assertEquals(5,
       statusSystem.workers.stream().filter(w -> w.host().equals(HOSTNAME1)).findFirst()
@@ -408,22 +409,57 @@ public class RatisMasterStatusSystemSuiteJ {
 
     long dummy = 1235L;
     statusSystem.handleAppHeartbeat(APPID1, dummy, getNewReqeustId());
-    Thread.sleep(3000L);
-    Assert.assertEquals(new Long(dummy), STATUSSYSTEM1.appHeartbeatTime.get(APPID1));
-    Assert.assertEquals(new Long(dummy), STATUSSYSTEM2.appHeartbeatTime.get(APPID1));
-    Assert.assertEquals(new Long(dummy), STATUSSYSTEM3.appHeartbeatTime.get(APPID1));
-
     String appId2 = "app02";
     statusSystem.handleAppHeartbeat(appId2, dummy, getNewReqeustId());
     Thread.sleep(3000L);
 
-    Assert.assertEquals(new Long(dummy), STATUSSYSTEM1.appHeartbeatTime.get(appId2));
-    Assert.assertEquals(new Long(dummy), STATUSSYSTEM2.appHeartbeatTime.get(appId2));
-    Assert.assertEquals(new Long(dummy), STATUSSYSTEM3.appHeartbeatTime.get(appId2));
+    // only known to the leader
+    for (AbstractMetaManager system : Arrays.asList(STATUSSYSTEM1, STATUSSYSTEM2,
+        STATUSSYSTEM3)) {
+      if (system == statusSystem) {
+        Assert.assertEquals(new Long(dummy), system.appHeartbeatTime.get(APPID1));
+        Assert.assertEquals(new Long(dummy), system.appHeartbeatTime.get(appId2));
+        Assert.assertEquals(2, system.appHeartbeatTime.size());
+      } else {
+        Assert.assertTrue(system.appHeartbeatTime.isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void testHeartbeatsKeptOutOfRaftLog() throws Exception {
+    HAMasterMetaManager statusSystem = pickLeaderStatusSystem();
+    Assert.assertNotNull(statusSystem);
+
+    statusSystem.handleRegisterWorker(HOSTNAME1, RPCPORT1, PUSHPORT1, FETCHPORT1, REPLICATEPORT1,
+      NUMSLOTS1, getNewReqeustId()).get();
+    for (int i = 1; i <= 100; i++) {
+      statusSystem.handleWorkerHeartBeat(HOSTNAME1, RPCPORT1, PUSHPORT1, FETCHPORT1,
+        REPLICATEPORT1, NUMSLOTS1, i, getNewReqeustId()).get();
+      statusSystem.handleAppHeartbeat(APPID1, i, getNewReqeustId()).get();
+    }
+    // slots changes are replicated
+    statusSystem.handleWorkerHeartBeat(HOSTNAME1, RPCPORT1, PUSHPORT1, FETCHPORT1,
+      REPLICATEPORT1, NUMSLOTS1 + 1, 101, getNewReqeustId()).get();
+    Thread.sleep(3000L);
+
+    for (AbstractMetaManager system : Arrays.asList(STATUSSYSTEM1, STATUSSYSTEM2,
+        STATUSSYSTEM3)) {
+      Assert.assertEquals(NUMSLOTS1 + 1, system.workers.get(0).numSlots());
+      if (system == statusSystem) {
+        Assert.assertEquals(101, system.workers.get(0).lastHeartbeat());
+        Assert.assertEquals(new Long(100), system.appHeartbeatTime.get(APPID1));
+      } else {
+        // the heartbeats with unchanged slots never reached the followers
+        Assert.assertNotEquals(100, system.workers.get(0).lastHeartbeat());
+        Assert.assertNull(system.appHeartbeatTime.get(APPID1));
+      }
+    }
 
-    Assert.assertEquals(2, STATUSSYSTEM1.appHeartbeatTime.size());
-    Assert.assertEquals(2, STATUSSYSTEM2.appHeartbeatTime.size());
-    Assert.assertEquals(2, STATUSSYSTEM3.appHeartbeatTime.size());
+    // a new leader waits for the next heartbeats
+    statusSystem.refreshHeartBeatTime(200);
+    Assert.assertEquals(200, statusSystem.workers.get(0).lastHeartbeat());
+    Assert.assertEquals(new Long(200), statusSystem.appHeartbeatTime.get(APPID1));
   }
 
   @Test
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.worker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * MapId, offset and length of every batch in a partition file, in file order. Kept in
+ * primitive arrays since a large partition holds many thousands of batches.
+ */
+public final class BatchIndex implements FileIndexCache.Index {
+  public static final int BATCH_HEADER_SIZE = 16;
+  // mapId, offset and length of a batch in the persisted index
+  private static final int ENTRY_SIZE = 4 + 8 + 4;
+
+  // array headers and fields, roughly
+  private static final long OBJECT_OVERHEAD = 80;
+
+  private static final boolean NATIVE_LITTLE_ENDIAN =
+    ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  private int[] mapIds;
+  private long[] offsets;
+  private int[] lengths;
+  private int size;
+
+  public BatchIndex() {
+    this(16);
+  }
+
+  public BatchIndex(int initialCapacity) {
+    mapIds = new int[initialCapacity];
+    offsets = new long[initialCapacity];
+    lengths = new int[initialCapacity];
+  }
+
+  public void add(int mapId, long offset, int length) {
+    if (size == mapIds.length) {
+      int newCapacity = Math.max(16, size * 2);
+      mapIds = Arrays.copyOf(mapIds, newCapacity);
+      offsets = Arrays.copyOf(offsets, newCapacity);
+      lengths = Arrays.copyOf(lengths, newCapacity);
+    }
+    mapIds[size] = mapId;
+    offsets[size] = offset;
+    lengths[size] = length;
+    size++;
+  }
+
+  /**
+   * Adds the batches in the readable bytes of data, which start at fileOffset in the file.
+   *
+   * @return false if data does not hold whole batches, in which case nothing is added.
+   */
+  public boolean addBatches(ByteBuf data, long fileOffset) {
+    int start = data.readerIndex();
+    int end = data.writerIndex();
+    long next = start;
+    while (next + BATCH_HEADER_SIZE <= end) {
+      int bodySize = readInt(data, (int) next + 12);
+      if (bodySize < 0) {
+        return false;
+      }
+      next += BATCH_HEADER_SIZE + bodySize;
+    }
+    if (next != end) {
+      return false;
+    }
+    int position = start;
+    while (position < end) {
+      int length = BATCH_HEADER_SIZE + readInt(data, position + 12);
+      add(readInt(data, position), fileOffset + position - start, length);
+      position += length;
+    }
+    return true;
+  }
+
+  // batch headers are written with Platform.putInt, i.e. in native byte order
+  private static int readInt(ByteBuf data, int index) {
+    return NATIVE_LITTLE_ENDIAN ? data.getIntLE(index) : data.getInt(index);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getMapId(int i) {
+    return mapIds[i];
+  }
+
+  public long getOffset(int i) {
+    return offsets[i];
+  }
+
+  public int getLength(int i) {
+    return lengths[i];
+  }
+
+  @Override
+  public long sizeInBytes() {
+    return OBJECT_OVERHEAD + (long) mapIds.length * (4 + 8 + 4);
+  }
+
+  public void writeTo(File indexFile) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size * ENTRY_SIZE);
+    for (int i = 0; i < size; i++) {
+      buffer.putInt(mapIds[i]);
+      buffer.putLong(offsets[i]);
+      buffer.putInt(lengths[i]);
+    }
+    buffer.flip();
+    try (FileChannel channel = new FileOutputStream(indexFile).getChannel()) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  public static BatchIndex readFrom(File indexFile) throws IOException {
+    try (FileChannel channel = new FileInputStream(indexFile).getChannel()) {
+      long fileSize = channel.size();
+      if (fileSize % ENTRY_SIZE != 0 || fileSize / ENTRY_SIZE > Integer.MAX_VALUE) {
+        throw new IOException("Invalid batch index file " + indexFile + " of size " + fileSize);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) == -1) {
+          throw new IOException("Unexpected EOF of batch index file " + indexFile);
+        }
+      }
+      buffer.flip();
+      int numEntries = (int) (fileSize / ENTRY_SIZE);
+      BatchIndex batchIndex = new BatchIndex(numEntries);
+      for (int i = 0; i < numEntries; i++) {
+        batchIndex.add(buffer.getInt(), buffer.getLong(), buffer.getInt());
+      }
+      return batchIndex;
+    }
+  }
+}
@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import com.aliyun.emr.rss.common.exception.RssException;
 import com.aliyun.emr.rss.common.metrics.source.AbstractSource;
+import com.aliyun.emr.rss.common.network.buffer.MappedFile;
 import com.aliyun.emr.rss.common.network.client.RpcResponseCallback;
 import com.aliyun.emr.rss.common.network.client.TransportClient;
 import com.aliyun.emr.rss.common.network.server.FileInfo;
@@ -44,10 +45,18 @@ public final class ChunkFetchRpcHandler extends RpcHandler {
   private final OpenStreamHandler handler;
   private final OneForOneStreamManager streamManager;
   private final AbstractSource source; // metrics
+  // null unless chunks are served from memory mapped files
+  private final MappedFileRegistry mappedFileRegistry;
 
   public ChunkFetchRpcHandler(TransportConf conf, AbstractSource source, OpenStreamHandler handler
   ) {
+    this(conf, source, handler, null);
+  }
+
+  public ChunkFetchRpcHandler(TransportConf conf, AbstractSource source,
+    OpenStreamHandler handler, MappedFileRegistry mappedFileRegistry) {
     this.conf = conf;
+    this.mappedFileRegistry = mappedFileRegistry;
     this.handler = handler;
     this.streamManager = new OneForOneStreamManager();
     this.source = source;
@@ -69,37 +78,58 @@ public final class ChunkFetchRpcHandler extends RpcHandler {
 
     // metrics start
     source.startTimer(WorkerSource.OpenStreamTime(), shuffleKey);
-    FileInfo fileInfo = handler.handleOpenStream(shuffleKey, fileName, startMapIndex, endMapIndex);
-
-    if (fileInfo != null) {
-      logger.debug("Received chunk fetch request {} {} {} {} get file info {}", shuffleKey,
-        fileName, startMapIndex, endMapIndex, fileInfo);
-      try {
-        ManagedBufferIterator iterator = new ManagedBufferIterator(fileInfo, conf);
-        long streamId = streamManager.registerStream(
-            client.getClientId(), iterator, client.getChannel());
-
-        ByteBuffer response = ByteBuffer.allocate(8 + 4);
-        response.putLong(streamId);
-        response.putInt(fileInfo.numChunks);
-        if (fileInfo.numChunks == 0) {
-          logger.debug("StreamId {} fileName {} startMapIndex {} endMapIndex {} is empty.",
-            streamId, fileName, startMapIndex, endMapIndex);
+    // replied when the file info is ready, so that waiting for a sort holds no thread
+    handler.handleOpenStream(shuffleKey, fileName, startMapIndex, endMapIndex)
+      .whenComplete((fileInfo, e) -> {
+        if (e != null) {
+          // metrics end
+          source.stopTimer(WorkerSource.OpenStreamTime(), shuffleKey);
+          logger.error("Open stream {} {} {} {} failed", shuffleKey, fileName, startMapIndex,
+            endMapIndex, e);
+          callback.onFailure(new RssException("Open stream failed", e));
+        } else if (fileInfo != null) {
+          replyStream(client, callback, shuffleKey, fileName, startMapIndex, endMapIndex,
+            fileInfo);
+        } else {
+          // metrics end
+          source.stopTimer(WorkerSource.OpenStreamTime(), shuffleKey);
+
+          callback.onFailure(new FileNotFoundException());
         }
-        response.flip();
-        callback.onSuccess(response);
-      } catch (IOException e) {
-        callback.onFailure(
-            new RssException("Chunk offsets meta exception ", e));
-      } finally {
-        // metrics end
-        source.stopTimer(WorkerSource.OpenStreamTime(), shuffleKey);
+      });
+  }
+
+  private void replyStream(TransportClient client, RpcResponseCallback callback,
+    String shuffleKey, String fileName, int startMapIndex, int endMapIndex, FileInfo fileInfo) {
+    logger.debug("Received chunk fetch request {} {} {} {} get file info {}", shuffleKey,
+      fileName, startMapIndex, endMapIndex, fileInfo);
+    try {
+      MappedFile mappedFile = null;
+      if (mappedFileRegistry != null && fileInfo.numChunks > 0) {
+        mappedFile = mappedFileRegistry.get(shuffleKey, fileInfo.file);
+      }
+      ManagedBufferIterator iterator = new ManagedBufferIterator(fileInfo, conf, mappedFile);
+      long streamId = streamManager.registerStream(
+          client.getClientId(), iterator, client.getChannel());
+
+      // the trailing byte tells the client that chunks can be fetched in batches, older
+      // clients only read the stream id and the number of chunks
+      ByteBuffer response = ByteBuffer.allocate(8 + 4 + 1);
+      response.putLong(streamId);
+      response.putInt(fileInfo.numChunks);
+      response.put((byte) 1);
+      if (fileInfo.numChunks == 0) {
+        logger.debug("StreamId {} fileName {} startMapIndex {} endMapIndex {} is empty.",
+          streamId, fileName, startMapIndex, endMapIndex);
       }
-    } else {
+      response.flip();
+      callback.onSuccess(response);
+    } catch (IOException e) {
+      callback.onFailure(
+          new RssException("Chunk offsets meta exception ", e));
+    } finally {
       // metrics end
       source.stopTimer(WorkerSource.OpenStreamTime(), shuffleKey);
-
-      callback.onFailure(new FileNotFoundException());
     }
   }
 
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.worker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Indexes of partition files, bounded by the bytes they hold. The least recently used indexes
+ * are evicted first and read again from their index file when needed.
+ */
+final class FileIndexCache<T extends FileIndexCache.Index> {
+  interface Index {
+    /**
+     * @return approximate heap bytes held by this index.
+     */
+    long sizeInBytes();
+  }
+
+  private final long capacity;
+  // in access order
+  private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long residentBytes;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+
+  FileIndexCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  synchronized T get(String fileId) {
+    Entry<T> entry = entries.get(fileId);
+    if (entry == null) {
+      missCount.increment();
+      return null;
+    }
+    hitCount.increment();
+    return entry.index;
+  }
+
+  /**
+   * Caches the index of fileId unless it alone exceeds the capacity, evicting the least
+   * recently used indexes to make room for it.
+   */
+  synchronized void put(String shuffleKey, String fileId, T index) {
+    long size = index.sizeInBytes();
+    if (size > capacity) {
+      return;
+    }
+    Entry<T> previous = entries.put(fileId, new Entry<>(shuffleKey, index));
+    if (previous != null) {
+      residentBytes -= previous.index.sizeInBytes();
+    }
+    residentBytes += size;
+    Iterator<Entry<T>> iterator = entries.values().iterator();
+    while (residentBytes > capacity) {
+      residentBytes -= iterator.next().index.sizeInBytes();
+      iterator.remove();
+    }
+  }
+
+  synchronized void removeShuffle(String shuffleKey) {
+    Iterator<Map.Entry<String, Entry<T>>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<T> entry = iterator.next().getValue();
+      if (entry.shuffleKey.equals(shuffleKey)) {
+        residentBytes -= entry.index.sizeInBytes();
+        iterator.remove();
+      }
+    }
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    residentBytes = 0;
+  }
+
+  synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  long getHitCount() {
+    return hitCount.sum();
+  }
+
+  long getMissCount() {
+    return missCount.sum();
+  }
+
+  private static final class Entry<T> {
+    final String shuffleKey;
+    final T index;
+
+    Entry(String shuffleKey, T index) {
+      this.shuffleKey = shuffleKey;
+      this.index = index;
+    }
+  }
+}
@@ -58,9 +58,14 @@ public final class FileWriter extends DeviceObserver {
   private final ArrayList<Long> chunkOffsets = new ArrayList<>();
   private long nextBoundary;
   private long bytesFlushed;
+  // null if disabled, or once data that is not made of whole batches has been written
+  private BatchIndex batchIndex;
+  // where batchIndex is persisted on close, null if it is not
+  private volatile File batchIndexFile;
 
   private final DiskFlusher flusher;
-  private CompositeByteBuf flushBuffer;
+  // CompositeByteBuf, or FlushBuffer when the flusher copies into its off-heap arena
+  private ByteBuf flushBuffer;
 
   private final long chunkSize;
   private final long timeoutMs;
@@ -128,6 +133,9 @@ public final class FileWriter extends DeviceObserver {
     this.flushBufferSize = flushBufferSize;
     this.deviceMonitor = deviceMonitor;
     this.splitMode = splitMode;
+    if (RssConf.workerBatchIndexEnabled(rssConf)) {
+      this.batchIndex = new BatchIndex();
+    }
     channel = new FileOutputStream(file).getChannel();
     source = workerSource;
     logger.debug("FileWriter {} split threshold {} mode {}", this, splitThreshold, splitMode);
@@ -138,6 +146,10 @@ public final class FileWriter extends DeviceObserver {
     return file;
   }
 
+  public boolean isClosed() {
+    return closed;
+  }
+
   public ArrayList<Long> getChunkOffsets() {
     return chunkOffsets;
   }
@@ -146,6 +158,21 @@ public final class FileWriter extends DeviceObserver {
     return bytesFlushed;
   }
 
+  /**
+   * @return index of the batches written so far, or null if not available. Once the writer
+   * is closed the index is only kept in {@link #getBatchIndexFile()}.
+   */
+  public BatchIndex getBatchIndex() {
+    return batchIndex;
+  }
+
+  /**
+   * @return file the index of all batches was persisted to on close, or null if there is none.
+   */
+  public File getBatchIndexFile() {
+    return batchIndexFile;
+  }
+
   public void incrementPendingWrites() {
     numPendingWrites.incrementAndGet();
   }
@@ -155,6 +182,14 @@ public final class FileWriter extends DeviceObserver {
   }
 
   private void flush(boolean finalFlush) throws IOException {
+    flush(finalFlush, true);
+  }
+
+  /**
+   * @param atBatchBoundary false if the buffer ends in the middle of a batch, in which case
+   *                        no chunk offset may be set since chunks must hold whole batches.
+   */
+  private void flush(boolean finalFlush, boolean atBatchBoundary) throws IOException {
     int numBytes = flushBuffer.readableBytes();
     notifier.checkException();
     notifier.numPendingFlushes.incrementAndGet();
@@ -162,7 +197,9 @@ public final class FileWriter extends DeviceObserver {
     addTask(task);
     flushBuffer = null;
     bytesFlushed += numBytes;
-    maybeSetChunkOffsets(finalFlush);
+    if (atBatchBoundary) {
+      maybeSetChunkOffsets(finalFlush);
+    }
   }
 
   private void maybeSetChunkOffsets(boolean forceSet) {
@@ -209,13 +246,45 @@ public final class FileWriter extends DeviceObserver {
         takeBuffer();
       }
 
-      data.retain();
-      flushBuffer.addComponent(true, data);
+      if (batchIndex != null &&
+        !batchIndex.addBatches(data, bytesFlushed + flushBuffer.readableBytes())) {
+        logger.warn("Data written to {} is not made of whole batches, drop its batch index.",
+          file);
+        batchIndex = null;
+      }
+
+      if (flushBuffer instanceof FlushBuffer) {
+        copyToFlushBuffer(data);
+      } else {
+        data.retain();
+        ((CompositeByteBuf) flushBuffer).addComponent(true, data);
+      }
 
       numPendingWrites.decrementAndGet();
     }
   }
 
+  /**
+   * Copies data into off-heap flush buffers so the caller's netty buffer need not be retained.
+   * A batch larger than a whole flush buffer is spread over consecutive buffers.
+   */
+  private void copyToFlushBuffer(ByteBuf data) throws IOException {
+    FlushBuffer buffer = (FlushBuffer) flushBuffer;
+    int index = data.readerIndex();
+    int remaining = data.readableBytes();
+    while (remaining > buffer.remaining()) {
+      int length = buffer.remaining();
+      buffer.append(data, index, length);
+      index += length;
+      remaining -= length;
+      flush(false, false);
+      takeBuffer();
+      notifier.checkException();
+      buffer = (FlushBuffer) flushBuffer;
+    }
+    buffer.append(data, index, remaining);
+  }
+
   public long close() throws IOException {
     if (closed) {
       String msg = "FileWriter has already closed! fileName " + file.getAbsolutePath();
@@ -237,6 +306,7 @@ public final class FileWriter extends DeviceObserver {
       }
 
       waitOnNoPending(notifier.numPendingFlushes);
+      persistBatchIndex();
     } finally {
       returnBuffer();
       channel.close();
@@ -249,6 +319,22 @@ public final class FileWriter extends DeviceObserver {
     return bytesFlushed;
   }
 
+  private synchronized void persistBatchIndex() {
+    if (batchIndex == null) {
+      return;
+    }
+    File indexFile = new File(file.getAbsolutePath() + PartitionFilesSorter.BATCH_INDEX_SUFFIX);
+    try {
+      batchIndex.writeTo(indexFile);
+      batchIndexFile = indexFile;
+    } catch (IOException e) {
+      // range reads fall back to sorting the file
+      logger.warn("Persist batch index of {} failed.", file, e);
+      indexFile.delete();
+    }
+    batchIndex = null;
+  }
+
   public void destroy() {
     if (!closed) {
       closed = true;
@@ -261,6 +347,7 @@ public final class FileWriter extends DeviceObserver {
       }
     }
     file.delete();
+    new File(file.getAbsolutePath() + PartitionFilesSorter.BATCH_INDEX_SUFFIX).delete();
 
     if (splitted.get()) {
       String indexFileStr = file.getAbsolutePath() + PartitionFilesSorter.INDEX_SUFFIX;
@@ -17,24 +17,35 @@
 
 package com.aliyun.emr.rss.service.deploy.worker;
 
+import java.nio.ByteBuffer;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.aliyun.emr.rss.common.unsafe.Platform;
 
+/**
+ * A fixed-size region of an off-heap arena owned by a {@link DiskFlusher}. Push bodies are
+ * copied into the region so that the netty buffers they arrived in can be released right away,
+ * and the region is written out by a single {@link java.nio.channels.FileChannel#write}.
+ */
 public final class FlushBuffer extends MinimalByteBuf {
   private static final Logger logger = LoggerFactory.getLogger(FlushBuffer.class);
 
   private final int id;
+  private final ByteBuffer region;
   private final long startAddress;
   private final long endAddress;
   private long currentAddress;
 
-  public FlushBuffer(int id, long startAddress, long endAddress) {
+  public FlushBuffer(int id, ByteBuffer region) {
+    assert region.isDirect();
     this.id = id;
-    this.startAddress = startAddress;
-    this.endAddress = endAddress;
+    this.region = region;
+    this.startAddress = PlatformDependent.directBufferAddress(region);
+    this.endAddress = startAddress + region.capacity();
     this.currentAddress = startAddress;
   }
 
@@ -43,9 +54,12 @@ public final class FlushBuffer extends MinimalByteBuf {
   }
 
   public void append(ByteBuf data) {
-    final int length = data.readableBytes();
+    append(data, data.readerIndex(), data.readableBytes());
+  }
+
+  public void append(ByteBuf data, int index, int length) {
     final int dstIndex = (int) (currentAddress - startAddress);
-    data.getBytes(data.readerIndex(), this, dstIndex, length);
+    data.getBytes(index, this, dstIndex, length);
     currentAddress += length;
   }
 
@@ -78,6 +92,16 @@ public final class FlushBuffer extends MinimalByteBuf {
     return (int) (endAddress - startAddress);
   }
 
+  @Override
+  public int readableBytes() {
+    return (int) (currentAddress - startAddress);
+  }
+
+  @Override
+  public boolean isDirect() {
+    return true;
+  }
+
   @Override
   public boolean hasMemoryAddress() {
     return true;
@@ -88,12 +112,33 @@ public final class FlushBuffer extends MinimalByteBuf {
     return startAddress;
   }
 
+  @Override
+  public boolean hasArray() {
+    return false;
+  }
+
+  @Override
+  public int nioBufferCount() {
+    return 1;
+  }
+
+  /**
+   * @return a view of the bytes appended so far, sharing memory with the arena.
+   */
+  @Override
+  public ByteBuffer nioBuffer() {
+    ByteBuffer view = region.duplicate();
+    view.position(0);
+    view.limit(readableBytes());
+    return view;
+  }
+
   @Override
   public ByteBuf setBytes(int index, ByteBuf src, int srcIndex, int length) {
     if (src.hasMemoryAddress()) {
       Platform.copyMemory(null, src.memoryAddress() + srcIndex,
           null, startAddress + index, length);
-    } if (src.hasArray()) {
+    } else if (src.hasArray()) {
       Platform.copyMemory(
           src.array(), Platform.BYTE_ARRAY_OFFSET + src.arrayOffset() + srcIndex,
           null, startAddress + index, length);
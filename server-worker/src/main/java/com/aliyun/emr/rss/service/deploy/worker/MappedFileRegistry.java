@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.emr.rss.common.network.buffer.MappedFile;
+
+/**
+ * Memory mappings of committed shuffle files, shared by all streams that read the same file.
+ * The registry holds one reference to every mapping and gives it up when the shuffle expires;
+ * a mapping is unmapped once the chunks still being sent from it are released as well.
+ */
+public class MappedFileRegistry {
+  private static final Logger logger = LoggerFactory.getLogger(MappedFileRegistry.class);
+
+  private final ConcurrentHashMap<String, Map<String, MappedFile>> mappedFiles =
+    new ConcurrentHashMap<>();
+
+  /**
+   * @return the mapping of file, mapped on first use, or null if it cannot be mapped.
+   */
+  public MappedFile get(String shuffleKey, File file) {
+    Map<String, MappedFile> shuffleFiles =
+      mappedFiles.computeIfAbsent(shuffleKey, v -> new ConcurrentHashMap<>());
+    return shuffleFiles.computeIfAbsent(file.getAbsolutePath(), path -> {
+      try {
+        return MappedFile.map(file);
+      } catch (IOException e) {
+        logger.warn("Map file {} failed, read it from disk instead.", path, e);
+        return null;
+      }
+    });
+  }
+
+  public void cleanup(Set<String> expiredShuffleKeys) {
+    for (String expiredShuffleKey : expiredShuffleKeys) {
+      Map<String, MappedFile> shuffleFiles = mappedFiles.remove(expiredShuffleKey);
+      if (shuffleFiles != null) {
+        shuffleFiles.values().forEach(MappedFile::release);
+      }
+    }
+  }
+
+  public int numMappedFiles() {
+    int count = 0;
+    for (Map<String, MappedFile> shuffleFiles : mappedFiles.values()) {
+      count += shuffleFiles.size();
+    }
+    return count;
+  }
+
+  public void close() {
+    cleanup(mappedFiles.keySet());
+  }
+}
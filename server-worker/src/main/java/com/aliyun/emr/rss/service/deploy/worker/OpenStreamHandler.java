@@ -17,9 +17,14 @@
 
 package com.aliyun.emr.rss.service.deploy.worker;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.aliyun.emr.rss.common.network.server.FileInfo;
 
 public interface OpenStreamHandler {
-  FileInfo handleOpenStream(String shuffleKey, String partitionId, int startMapIndex,
-    int endMapIndex);
+  /**
+   * @return a future of the file info to serve, completed with null if the file is not found.
+   */
+  CompletableFuture<FileInfo> handleOpenStream(String shuffleKey, String partitionId,
+    int startMapIndex, int endMapIndex);
 }
@@ -22,17 +22,26 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,32 +50,54 @@ import sun.nio.ch.DirectBuffer;
 import com.aliyun.emr.rss.common.metrics.source.AbstractSource;
 import com.aliyun.emr.rss.common.network.server.FileInfo;
 import com.aliyun.emr.rss.common.network.server.MemoryTracker;
-import com.aliyun.emr.rss.common.unsafe.Platform;
 import com.aliyun.emr.rss.common.util.ThreadUtils;
 
 public class PartitionFilesSorter {
   private static final Logger logger = LoggerFactory.getLogger(PartitionFilesSorter.class);
   public static final String SORTED_SUFFIX = ".sorted";
   public static final String INDEX_SUFFIX = ".index";
+  public static final String BATCH_INDEX_SUFFIX = ".batchindex";
   private final ConcurrentHashMap<String, Set<String>> sortedShuffleFiles =
     new ConcurrentHashMap<>();
-  private final ConcurrentHashMap<String, Set<String>> sortingShuffleFiles =
-    new ConcurrentHashMap<>();
-  private final ConcurrentHashMap<String, Map<String, Map<Integer, List<ShuffleBlockInfo>>>>
-    cachedIndexMaps = new ConcurrentHashMap<>();
+  // completed when the sort of the file finishes
+  private final ConcurrentHashMap<String, Map<String, CompletableFuture<Void>>>
+    sortingShuffleFiles = new ConcurrentHashMap<>();
+  private final FileIndexCache<SortedFileIndex> sortedFileIndexCache;
+  private final FileIndexCache<BatchIndex> batchIndexCache;
   private final LinkedBlockingQueue<FileSorter> shuffleSortTaskDeque = new LinkedBlockingQueue<>();
   protected final long sortTimeout;
   protected final long fetchChunkSize;
   protected final long reserveMemoryForSingleSort;
   protected final AbstractSource source;
+  // serve map range reads from the unsorted file when its batch index is available
+  protected final boolean rangeReadFromBatchIndex;
 
   private final ExecutorService fileSorterExecutors = ThreadUtils.newDaemonCachedThreadPool(
     "worker-file-sorter-execute", Math.max(Runtime.getRuntime().availableProcessors(), 8), 120);
   private final Thread fileSorterSchedulerThread;
+  private final ScheduledExecutorService sortTimeoutScheduler =
+    ThreadUtils.newDaemonSingleThreadScheduledExecutor("worker-file-sorter-timeout");
 
   PartitionFilesSorter(MemoryTracker memoryTracker, long sortTimeOut, long fetchChunkSize,
     long reserveMemoryForSingleSort, AbstractSource source) {
+    this(memoryTracker, sortTimeOut, fetchChunkSize, reserveMemoryForSingleSort, source, false,
+      Long.MAX_VALUE);
+  }
+
+  PartitionFilesSorter(MemoryTracker memoryTracker, long sortTimeOut, long fetchChunkSize,
+    long reserveMemoryForSingleSort, AbstractSource source, boolean rangeReadFromBatchIndex,
+    long indexCacheCapacity) {
+    this(memoryTracker, sortTimeOut, fetchChunkSize, reserveMemoryForSingleSort, source,
+      rangeReadFromBatchIndex, indexCacheCapacity, Long.MAX_VALUE);
+  }
+
+  PartitionFilesSorter(MemoryTracker memoryTracker, long sortTimeOut, long fetchChunkSize,
+    long reserveMemoryForSingleSort, AbstractSource source, boolean rangeReadFromBatchIndex,
+    long indexCacheCapacity, long batchIndexCacheCapacity) {
     this.sortTimeout = sortTimeOut;
+    this.sortedFileIndexCache = new FileIndexCache<>(indexCacheCapacity);
+    this.batchIndexCache = new FileIndexCache<>(batchIndexCacheCapacity);
+    this.rangeReadFromBatchIndex = rangeReadFromBatchIndex;
     this.fetchChunkSize = fetchChunkSize;
     this.reserveMemoryForSingleSort = reserveMemoryForSingleSort;
     this.source = source;
@@ -76,9 +107,7 @@ public class PartitionFilesSorter {
         while (true) {
           FileSorter task = shuffleSortTaskDeque.take();
           memoryTracker.reserveSortMemory(reserveMemoryForSingleSort);
-          while (!memoryTracker.sortMemoryReady()) {
-            Thread.sleep(20);
-          }
+          memoryTracker.awaitSortMemoryReady();
           fileSorterExecutors.submit(() -> {
             source.startTimer(WorkerSource.SortTime(), task.fileId);
             task.sort();
@@ -97,61 +126,98 @@ public class PartitionFilesSorter {
     return shuffleSortTaskDeque.size();
   }
 
-  public FileInfo openStream(String shuffleKey, String fileName, FileWriter fileWriter,
-    int startMapIndex, int endMapIndex) {
+  public long getIndexCacheResidentBytes() {
+    return sortedFileIndexCache.getResidentBytes();
+  }
+
+  public long getIndexCacheHitCount() {
+    return sortedFileIndexCache.getHitCount();
+  }
+
+  public long getIndexCacheMissCount() {
+    return sortedFileIndexCache.getMissCount();
+  }
+
+  public long getBatchIndexCacheResidentBytes() {
+    return batchIndexCache.getResidentBytes();
+  }
+
+  public long getBatchIndexCacheHitCount() {
+    return batchIndexCache.getHitCount();
+  }
+
+  public long getBatchIndexCacheMissCount() {
+    return batchIndexCache.getMissCount();
+  }
+
+  /**
+   * @return a future of the file info of the given map range, completed when the file has been
+   * sorted if the range needs the sorted file. It completes exceptionally if the sort fails or
+   * does not finish within the sort timeout.
+   */
+  public CompletableFuture<FileInfo> openStream(String shuffleKey, String fileName,
+    FileWriter fileWriter, int startMapIndex, int endMapIndex) {
     if (endMapIndex == Integer.MAX_VALUE) {
-      return new FileInfo(fileWriter.getFile(), fileWriter.getChunkOffsets());
+      return CompletableFuture.completedFuture(
+        new FileInfo(fileWriter.getFile(), fileWriter.getChunkOffsets()));
     } else {
       String fileId = shuffleKey + "-" + fileName;
 
+      if (rangeReadFromBatchIndex) {
+        BatchIndex batchIndex = getBatchIndex(shuffleKey, fileId, fileWriter);
+        if (batchIndex != null) {
+          return CompletableFuture.completedFuture(
+            getBatchSegments(fileWriter.getFile(), batchIndex, startMapIndex, endMapIndex));
+        }
+      }
+
       Set<String> sorted =
         sortedShuffleFiles.computeIfAbsent(shuffleKey, v -> ConcurrentHashMap.newKeySet());
-      Set<String> sorting =
-        sortingShuffleFiles.computeIfAbsent(shuffleKey, v -> ConcurrentHashMap.newKeySet());
+      Map<String, CompletableFuture<Void>> sorting =
+        sortingShuffleFiles.computeIfAbsent(shuffleKey, v -> new ConcurrentHashMap<>());
 
       String sortedFileName = fileWriter.getFile().getAbsolutePath() + SORTED_SUFFIX;
       String indexFileName = fileWriter.getFile().getAbsolutePath() + INDEX_SUFFIX;
 
-      if (sorted.contains(fileId)) {
-        return resolve(shuffleKey, fileId, sortedFileName, indexFileName,
-          startMapIndex, endMapIndex);
-      }
-
+      CompletableFuture<Void> sortFuture;
       synchronized (sorting) {
-        if (!sorting.contains(fileId)) {
-          FileSorter fileSorter = new FileSorter(fileWriter.getFile(), fileWriter.getFileLength(),
-            fileId, shuffleKey);
-          sorting.add(fileId);
-          try {
-            shuffleSortTaskDeque.put(fileSorter);
-          } catch (InterruptedException e) {
-            logger.info("scheduler thread is interrupted means worker is shutting down.");
-            return null;
+        if (sorted.contains(fileId)) {
+          sortFuture = CompletableFuture.completedFuture(null);
+        } else {
+          sortFuture = sorting.get(fileId);
+          if (sortFuture == null) {
+            BatchIndex batchIndex = fileWriter.getBatchIndex();
+            if (batchIndex == null) {
+              batchIndex = getBatchIndex(shuffleKey, fileId, fileWriter);
+            }
+            FileSorter fileSorter = new FileSorter(fileWriter.getFile(),
+              fileWriter.getFileLength(), fileId, shuffleKey, batchIndex);
+            sortFuture = fileSorter.future;
+            sorting.put(fileId, sortFuture);
+            shuffleSortTaskDeque.offer(fileSorter);
           }
         }
       }
 
-      long sortStartTime = System.currentTimeMillis();
-      while (!sorted.contains(fileId)) {
-        if (sorting.contains(fileId)) {
-          try {
-            Thread.sleep(50);
-            if (System.currentTimeMillis() - sortStartTime > sortTimeout) {
-              logger.error("sort file {} timeout", fileId);
-              return null;
-            }
-          } catch (InterruptedException e) {
-            logger.error("sort scheduler thread is interrupted means worker is shutting down.", e);
-            return null;
-          }
-        } else {
-          logger.error("file {} sort failed", fileId);
-          return null;
+      CompletableFuture<FileInfo> result = sortFuture.thenApply(v -> {
+        FileInfo fileInfo = resolve(shuffleKey, fileId, sortedFileName, indexFileName,
+          startMapIndex, endMapIndex);
+        if (fileInfo == null) {
+          throw new CompletionException(
+            new IOException("Read index of sorted file " + sortedFileName + " failed"));
         }
+        return fileInfo;
+      });
+      if (!result.isDone()) {
+        ScheduledFuture<?> timeout = sortTimeoutScheduler.schedule(() -> {
+          if (result.completeExceptionally(
+            new TimeoutException("Sort file " + fileId + " timeout"))) {
+            logger.error("sort file {} timeout", fileId);
+          }
+        }, sortTimeout, TimeUnit.MILLISECONDS);
+        result.whenComplete((fileInfo, e) -> timeout.cancel(false));
       }
-
-      return resolve(shuffleKey, fileId, sortedFileName, indexFileName,
-        startMapIndex, endMapIndex);
+      return result;
     }
   }
 
@@ -159,14 +225,88 @@ public class PartitionFilesSorter {
     for (String expiredShuffleKey : expiredShuffleKeys) {
       sortingShuffleFiles.remove(expiredShuffleKey);
       sortedShuffleFiles.remove(expiredShuffleKey);
-      cachedIndexMaps.remove(expiredShuffleKey);
+      sortedFileIndexCache.removeShuffle(expiredShuffleKey);
+      batchIndexCache.removeShuffle(expiredShuffleKey);
     }
   }
 
   public void close() {
     fileSorterSchedulerThread.interrupt();
     fileSorterExecutors.shutdownNow();
-    cachedIndexMaps.clear();
+    sortTimeoutScheduler.shutdownNow();
+    sortedFileIndexCache.clear();
+    batchIndexCache.clear();
+  }
+
+  /**
+   * @return batch index of the file written by fileWriter, or null if it has none.
+   */
+  private BatchIndex getBatchIndex(String shuffleKey, String fileId, FileWriter fileWriter) {
+    BatchIndex batchIndex = batchIndexCache.get(fileId);
+    if (batchIndex != null) {
+      return batchIndex;
+    }
+    File batchIndexFile = fileWriter.getBatchIndexFile();
+    if (batchIndexFile == null) {
+      return null;
+    }
+    try {
+      batchIndex = BatchIndex.readFrom(batchIndexFile);
+    } catch (IOException e) {
+      logger.warn("Read batch index {} failed, sort the file instead.", batchIndexFile, e);
+      return null;
+    }
+    batchIndexCache.put(shuffleKey, fileId, batchIndex);
+    return batchIndex;
+  }
+
+  /**
+   * Chunks of the unsorted file that hold exactly the batches of maps in
+   * [startMapIndex, endMapIndex). Adjacent matching batches are merged into one segment and a
+   * chunk is closed before it would exceed fetchChunkSize.
+   */
+  FileInfo getBatchSegments(File file, BatchIndex batchIndex, int startMapIndex,
+    int endMapIndex) {
+    int numMatches = 0;
+    for (int i = 0; i < batchIndex.size(); i++) {
+      int mapId = batchIndex.getMapId(i);
+      if (mapId >= startMapIndex && mapId < endMapIndex) {
+        numMatches++;
+      }
+    }
+
+    long[] segmentOffsets = new long[numMatches];
+    long[] segmentLengths = new long[numMatches];
+    int[] chunkSegments = new int[numMatches + 1];
+    int numSegments = 0;
+    int numChunks = 0;
+    long chunkLength = 0;
+    for (int i = 0; i < batchIndex.size(); i++) {
+      int mapId = batchIndex.getMapId(i);
+      if (mapId < startMapIndex || mapId >= endMapIndex) {
+        continue;
+      }
+      long offset = batchIndex.getOffset(i);
+      int length = batchIndex.getLength(i);
+      if (chunkLength > 0 && chunkLength + length > fetchChunkSize) {
+        chunkSegments[++numChunks] = numSegments;
+        chunkLength = 0;
+      }
+      if (chunkLength > 0 &&
+        segmentOffsets[numSegments - 1] + segmentLengths[numSegments - 1] == offset) {
+        segmentLengths[numSegments - 1] += length;
+      } else {
+        segmentOffsets[numSegments] = offset;
+        segmentLengths[numSegments] = length;
+        numSegments++;
+      }
+      chunkLength += length;
+    }
+    if (chunkLength > 0) {
+      chunkSegments[++numChunks] = numSegments;
+    }
+    return new FileInfo(file, Arrays.copyOf(segmentOffsets, numSegments),
+      Arrays.copyOf(segmentLengths, numSegments), Arrays.copyOf(chunkSegments, numChunks + 1));
   }
 
   protected void writeIndex(Map<Integer, List<ShuffleBlockInfo>> indexMap, String indexFileName)
@@ -198,32 +338,26 @@ public class PartitionFilesSorter {
     ((DirectBuffer) indexBuf).cleaner().clean();
   }
 
-  protected Map<Integer, List<ShuffleBlockInfo>> readIndex(ByteBuffer indexBuf) {
-    Map<Integer, List<ShuffleBlockInfo>> indexMap = new HashMap<>();
-    while (indexBuf.hasRemaining()) {
-      int mapId = indexBuf.getInt();
-      int count = indexBuf.getInt();
-      List<ShuffleBlockInfo> blockInfos = new ArrayList<>();
-      for (int i = 0; i < count; i++) {
-        long offset = indexBuf.getLong();
-        long length = indexBuf.getLong();
-        ShuffleBlockInfo info = new ShuffleBlockInfo();
-        info.offset = offset;
-        info.length = length;
-        blockInfos.add(info);
+  protected void readFully(FileChannel channel, ByteBuffer buffer, String filePath)
+    throws IOException {
+    while (buffer.hasRemaining()) {
+      if (-1 == channel.read(buffer)) {
+        throw new IOException("Unexpected EOF, file name : " + filePath +
+          " position :" + channel.position() + " buffer size :" + buffer.limit());
       }
-      indexMap.put(mapId, blockInfos);
     }
-    return indexMap;
   }
 
-  protected void readFully(FileChannel channel, ByteBuffer buffer, String filePath)
+  private void readFully(FileChannel channel, ByteBuffer buffer, long position, String filePath)
     throws IOException {
+    long offset = position;
     while (buffer.hasRemaining()) {
-      if (-1 == channel.read(buffer)) {
+      int read = channel.read(buffer, offset);
+      if (read == -1) {
         throw new IOException("Unexpected EOF, file name : " + filePath +
-          " position :" + channel.position() + " buffer size :" + buffer.limit());
+          " position :" + offset + " buffer size :" + buffer.limit());
       }
+      offset += read;
     }
   }
 
@@ -237,60 +371,28 @@ public class PartitionFilesSorter {
     return transferedSize;
   }
 
-  ArrayList<Long> getChunkOffsets(int startMapIndex, int endMapIndex, String sortedFileName,
-    Map<Integer, List<ShuffleBlockInfo>> indexMap) {
-    ArrayList<Long> sortedChunkOffset = new ArrayList<>();
-    ShuffleBlockInfo lastBlock = null;
-    logger.debug("Refresh offsets for file {} , startMapIndex {} endMapIndex {}",
-      sortedFileName, startMapIndex, endMapIndex);
-    for (int i = startMapIndex; i < endMapIndex; i++) {
-      List<ShuffleBlockInfo> blockInfos = indexMap.get(i);
-      if (blockInfos != null) {
-        for (ShuffleBlockInfo info : blockInfos) {
-          if (sortedChunkOffset.size() == 0) {
-            sortedChunkOffset.add(info.offset);
-          }
-          if (info.offset - sortedChunkOffset.get(sortedChunkOffset.size() - 1) > fetchChunkSize) {
-            sortedChunkOffset.add(info.offset);
-          }
-          lastBlock = info;
-        }
-      }
-    }
-    if (lastBlock != null) {
-      long endChunkOffset = lastBlock.length + lastBlock.offset;
-      if (!sortedChunkOffset.contains(endChunkOffset)) {
-        sortedChunkOffset.add(endChunkOffset);
-      }
-    }
-    return sortedChunkOffset;
-  }
-
   public FileInfo resolve(String shuffleKey, String fileId, String sortedFileName,
     String indexFileName, int startMapIndex, int endMapIndex) {
-    Map<Integer, List<ShuffleBlockInfo>> indexMap;
-    if (cachedIndexMaps.containsKey(shuffleKey) &&
-          cachedIndexMaps.get(shuffleKey).containsKey(fileId)) {
-      indexMap = cachedIndexMaps.get(shuffleKey).get(fileId);
-    } else {
+    SortedFileIndex index = sortedFileIndexCache.get(fileId);
+    if (index == null) {
       try (FileInputStream indexStream = new FileInputStream(indexFileName)) {
         File indexFile = new File(indexFileName);
         int indexSize = (int) indexFile.length();
         ByteBuffer indexBuf = ByteBuffer.allocateDirect(indexSize);
         readFully(indexStream.getChannel(), indexBuf, indexFileName);
         indexBuf.rewind();
-        indexMap = readIndex(indexBuf);
+        index = SortedFileIndex.read(indexBuf);
         ((DirectBuffer) indexBuf).cleaner().clean();
-        Map<String, Map<Integer, List<ShuffleBlockInfo>>> cacheMap =
-          cachedIndexMaps.computeIfAbsent(shuffleKey, v -> new ConcurrentHashMap<>());
-        cacheMap.put(fileId, indexMap);
+        sortedFileIndexCache.put(shuffleKey, fileId, index);
       } catch (Exception e) {
         logger.error("Read sorted shuffle file error , detail : ", e);
         return null;
       }
     }
+    logger.debug("Refresh offsets for file {} , startMapIndex {} endMapIndex {}",
+      sortedFileName, startMapIndex, endMapIndex);
     return new FileInfo(new File(sortedFileName),
-      getChunkOffsets(startMapIndex, endMapIndex, sortedFileName, indexMap));
+      index.getChunkOffsets(startMapIndex, endMapIndex, fetchChunkSize));
   }
 
   class ShuffleBlockInfo {
@@ -305,71 +407,36 @@ public class PartitionFilesSorter {
     private final long originFileLen;
     private final String fileId;
     private final String shuffleKey;
+    // batches recorded by FileWriter, null if they have to be scanned from the file
+    private final BatchIndex batchIndex;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
 
-    FileSorter(File originFile, long originFileLen, String fileId, String shuffleKey) {
+    FileSorter(File originFile, long originFileLen, String fileId, String shuffleKey,
+      BatchIndex batchIndex) {
       this.originFile = originFile;
       this.sortedFileName = originFile.getAbsolutePath() + SORTED_SUFFIX;
       this.indexFileName = originFile.getAbsolutePath() + INDEX_SUFFIX;
       this.originFileLen = originFileLen;
       this.fileId = fileId;
       this.shuffleKey = shuffleKey;
+      this.batchIndex = batchIndex;
     }
 
     public void sort() {
+      ByteBuffer window = ByteBuffer.allocateDirect((int) reserveMemoryForSingleSort);
+      // batch headers are written in native byte order
+      window.order(ByteOrder.nativeOrder());
       try (FileChannel originFileChannel = new FileInputStream(originFile).getChannel();
            FileChannel sortedFileChannel = new FileOutputStream(sortedFileName).getChannel()) {
-        int batchHeaderLen = 16;
-
-        Map<Integer, List<ShuffleBlockInfo>> originShuffleBlockInfos = new TreeMap<>();
-        Map<Integer, List<ShuffleBlockInfo>> sortedBlockInfoMap = new HashMap<>();
-
-        ByteBuffer headerBuf = ByteBuffer.allocate(batchHeaderLen);
-        ByteBuffer paddingBuf = ByteBuffer.allocateDirect((int) reserveMemoryForSingleSort);
-
-        long index = 0;
-        while (index != originFileLen) {
-          final long blockStartIndex = index;
-          readFully(originFileChannel, headerBuf, originFile.getAbsolutePath());
-          byte[] batchHeader = headerBuf.array();
-          headerBuf.rewind();
-
-          int mapId = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET);
-          final int compressedSize = Platform.getInt(batchHeader,
-            Platform.BYTE_ARRAY_OFFSET + 12);
-
-          List<ShuffleBlockInfo> singleMapIdShuffleBlockList =
-            originShuffleBlockInfos.computeIfAbsent(mapId,
-              v -> new ArrayList<>());
-          ShuffleBlockInfo blockInfo = new ShuffleBlockInfo();
-          blockInfo.offset = blockStartIndex;
-          blockInfo.length = compressedSize + 16;
-          singleMapIdShuffleBlockList.add(blockInfo);
-
-          index += batchHeaderLen + compressedSize;
-          paddingBuf.clear();
-          paddingBuf.limit(compressedSize);
-          readFully(originFileChannel, paddingBuf, originFile.getAbsolutePath());
+        BatchIndex batches = batchIndex;
+        if (batches == null || !coversOriginFile(batches)) {
+          batches = scanBatches(originFileChannel, window);
         }
 
-        long fileIndex = 0;
-        for (Map.Entry<Integer, List<ShuffleBlockInfo>>
-               originBlockInfoEntry : originShuffleBlockInfos.entrySet()) {
-          int mapId = originBlockInfoEntry.getKey();
-          List<ShuffleBlockInfo> originShuffleBlocks = originBlockInfoEntry.getValue();
-          List<ShuffleBlockInfo> sortedShuffleBlocks = new ArrayList<>();
-          for (ShuffleBlockInfo blockInfo : originShuffleBlocks) {
-            long offset = blockInfo.offset;
-            long length = blockInfo.length;
-            ShuffleBlockInfo sortedBlock = new ShuffleBlockInfo();
-            sortedBlock.offset = fileIndex;
-            sortedBlock.length = length;
-            sortedShuffleBlocks.add(sortedBlock);
-            fileIndex += transferFully(originFileChannel, sortedFileChannel, offset, length);
-          }
-          sortedBlockInfoMap.put(mapId, sortedShuffleBlocks);
-        }
-
-        ((DirectBuffer) paddingBuf).cleaner().clean();
+        long[] sortedOffsets = new long[batches.size()];
+        Map<Integer, List<ShuffleBlockInfo>> sortedBlockInfoMap =
+          layoutSortedFile(batches, sortedOffsets);
+        rewrite(originFileChannel, sortedFileChannel, window, batches, sortedOffsets);
 
         writeIndex(sortedBlockInfoMap, indexFileName);
         sortedShuffleFiles.get(shuffleKey).add(fileId);
@@ -377,11 +444,156 @@ public class PartitionFilesSorter {
           logger.warn("clean origin file failed, origin file is : {}",
             originFile.getAbsolutePath());
         }
+        new File(originFile.getAbsolutePath() + BATCH_INDEX_SUFFIX).delete();
         logger.debug("sort complete for {} {}", shuffleKey, originFile.getName());
+        removeSorting();
+        future.complete(null);
       } catch (Exception e) {
         logger.error("sort shuffle file {} error", originFile.getName(), e);
+        removeSorting();
+        future.completeExceptionally(e);
       } finally {
-        sortingShuffleFiles.get(shuffleKey).remove(fileId);
+        ((DirectBuffer) window).cleaner().clean();
+      }
+    }
+
+    private void removeSorting() {
+      Map<String, CompletableFuture<Void>> sorting = sortingShuffleFiles.get(shuffleKey);
+      if (sorting != null) {
+        sorting.remove(fileId);
+      }
+    }
+
+    private boolean coversOriginFile(BatchIndex batches) {
+      int last = batches.size() - 1;
+      long indexedLen = last < 0 ? 0 : batches.getOffset(last) + batches.getLength(last);
+      if (indexedLen != originFileLen) {
+        logger.warn("Batch index of {} covers {} bytes but the file has {}, scan the file.",
+          originFile.getName(), indexedLen, originFileLen);
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Reads the file in sequential windows and collects the batch headers. Bodies that reach
+     * past the end of a window are skipped without being read.
+     */
+    private BatchIndex scanBatches(FileChannel originFileChannel, ByteBuffer window)
+      throws IOException {
+      BatchIndex batches = new BatchIndex();
+      long position = 0;
+      while (position < originFileLen) {
+        window.clear();
+        window.limit((int) Math.min(window.capacity(), originFileLen - position));
+        readFully(originFileChannel, window, position, originFile.getAbsolutePath());
+        long next = 0;
+        while (next + BatchIndex.BATCH_HEADER_SIZE <= window.limit()) {
+          int mapId = window.getInt((int) next);
+          int bodySize = window.getInt((int) next + 12);
+          if (bodySize < 0) {
+            throw new IOException("Invalid batch size " + bodySize + " at " +
+              (position + next) + " of " + originFile.getAbsolutePath());
+          }
+          int length = BatchIndex.BATCH_HEADER_SIZE + bodySize;
+          batches.add(mapId, position + next, length);
+          next += length;
+        }
+        if (next == 0) {
+          throw new IOException("Truncated batch header at " + position + " of " +
+            originFile.getAbsolutePath());
+        }
+        position += next;
+      }
+      if (position != originFileLen) {
+        throw new IOException("Last batch of " + originFile.getAbsolutePath() + " ends at " +
+          position + " beyond file length " + originFileLen);
+      }
+      return batches;
+    }
+
+    /**
+     * Assigns every batch its offset in the sorted file, where batches are grouped by mapId in
+     * ascending order and keep their original order within a mapId.
+     */
+    private Map<Integer, List<ShuffleBlockInfo>> layoutSortedFile(BatchIndex batches,
+      long[] sortedOffsets) {
+      TreeMap<Integer, Long> mapIdLengths = new TreeMap<>();
+      for (int i = 0; i < batches.size(); i++) {
+        mapIdLengths.merge(batches.getMapId(i), (long) batches.getLength(i), Long::sum);
+      }
+      Map<Integer, long[]> cursors = new HashMap<>();
+      long offset = 0;
+      for (Map.Entry<Integer, Long> entry : mapIdLengths.entrySet()) {
+        cursors.put(entry.getKey(), new long[] {offset});
+        offset += entry.getValue();
+      }
+
+      Map<Integer, List<ShuffleBlockInfo>> sortedBlockInfoMap = new HashMap<>();
+      for (int i = 0; i < batches.size(); i++) {
+        int mapId = batches.getMapId(i);
+        long[] cursor = cursors.get(mapId);
+        ShuffleBlockInfo sortedBlock = new ShuffleBlockInfo();
+        sortedBlock.offset = cursor[0];
+        sortedBlock.length = batches.getLength(i);
+        sortedBlockInfoMap.computeIfAbsent(mapId, v -> new ArrayList<>()).add(sortedBlock);
+        sortedOffsets[i] = cursor[0];
+        cursor[0] += sortedBlock.length;
+      }
+      return sortedBlockInfoMap;
+    }
+
+    /**
+     * Reads the origin file once in sequential windows. Batches of one mapId within a window
+     * are adjacent in the sorted file, so each of them is written as a single run.
+     */
+    private void rewrite(FileChannel originFileChannel, FileChannel sortedFileChannel,
+      ByteBuffer window, BatchIndex batches, long[] sortedOffsets) throws IOException {
+      int numBatches = batches.size();
+      int i = 0;
+      while (i < numBatches) {
+        long windowStart = batches.getOffset(i);
+        int end = i;
+        while (end < numBatches && batches.getOffset(end) + batches.getLength(end) -
+          windowStart <= window.capacity()) {
+          end++;
+        }
+        if (end == i) {
+          // batch larger than the window
+          sortedFileChannel.position(sortedOffsets[i]);
+          transferFully(originFileChannel, sortedFileChannel, batches.getOffset(i),
+            batches.getLength(i));
+          i++;
+          continue;
+        }
+
+        window.clear();
+        window.limit((int) (batches.getOffset(end - 1) + batches.getLength(end - 1) -
+          windowStart));
+        readFully(originFileChannel, window, windowStart, originFile.getAbsolutePath());
+
+        Map<Integer, List<ByteBuffer>> runs = new LinkedHashMap<>();
+        Map<Integer, Long> runOffsets = new HashMap<>();
+        for (int k = i; k < end; k++) {
+          int start = (int) (batches.getOffset(k) - windowStart);
+          ByteBuffer batch = window.duplicate();
+          batch.limit(start + batches.getLength(k));
+          batch.position(start);
+          runs.computeIfAbsent(batches.getMapId(k), v -> new ArrayList<>()).add(batch);
+          runOffsets.putIfAbsent(batches.getMapId(k), sortedOffsets[k]);
+        }
+        for (Map.Entry<Integer, List<ByteBuffer>> run : runs.entrySet()) {
+          ByteBuffer[] buffers = run.getValue().toArray(new ByteBuffer[0]);
+          long remaining = 0;
+          for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+          }
+          sortedFileChannel.position(runOffsets.get(run.getKey()));
+          while (remaining > 0) {
+            remaining -= sortedFileChannel.write(buffers);
+          }
+        }
+        i = end;
       }
     }
   }
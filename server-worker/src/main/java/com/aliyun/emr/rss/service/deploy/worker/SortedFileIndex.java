@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.worker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Index of a sorted partition file. The blocks of mapIds[i] are blocks
+ * mapBlockStarts[i] until mapBlockStarts[i + 1], so the whole index is held in four primitive
+ * arrays however many maps and blocks the file has.
+ */
+final class SortedFileIndex implements FileIndexCache.Index {
+  // array headers and fields, roughly
+  private static final long OBJECT_OVERHEAD = 96;
+
+  // ascending
+  private final int[] mapIds;
+  private final int[] mapBlockStarts;
+  private final long[] blockOffsets;
+  private final long[] blockLengths;
+
+  private SortedFileIndex(int[] mapIds, int[] mapBlockStarts, long[] blockOffsets,
+    long[] blockLengths) {
+    this.mapIds = mapIds;
+    this.mapBlockStarts = mapBlockStarts;
+    this.blockOffsets = blockOffsets;
+    this.blockLengths = blockLengths;
+  }
+
+  /**
+   * Parses an index written by {@link PartitionFilesSorter#writeIndex}, where every mapId is
+   * followed by its block count and the offset and length of each block.
+   */
+  static SortedFileIndex read(ByteBuffer indexBuf) {
+    int start = indexBuf.position();
+    int numMaps = 0;
+    int numBlocks = 0;
+    while (indexBuf.hasRemaining()) {
+      indexBuf.getInt();
+      int count = indexBuf.getInt();
+      indexBuf.position(indexBuf.position() + count * 16);
+      numMaps++;
+      numBlocks += count;
+    }
+
+    // maps are not ordered in the index file, sort them by mapId and keep their position
+    long[] mapsInFile = new long[numMaps];
+    int[] fileBlockStarts = new int[numMaps];
+    long[] fileBlockOffsets = new long[numBlocks];
+    long[] fileBlockLengths = new long[numBlocks];
+    indexBuf.position(start);
+    int block = 0;
+    for (int i = 0; i < numMaps; i++) {
+      int mapId = indexBuf.getInt();
+      int count = indexBuf.getInt();
+      mapsInFile[i] = ((long) mapId << 32) | i;
+      fileBlockStarts[i] = block;
+      for (int j = 0; j < count; j++) {
+        fileBlockOffsets[block] = indexBuf.getLong();
+        fileBlockLengths[block] = indexBuf.getLong();
+        block++;
+      }
+    }
+    Arrays.sort(mapsInFile);
+
+    int[] mapIds = new int[numMaps];
+    int[] mapBlockStarts = new int[numMaps + 1];
+    long[] blockOffsets = new long[numBlocks];
+    long[] blockLengths = new long[numBlocks];
+    block = 0;
+    for (int i = 0; i < numMaps; i++) {
+      int fileIndex = (int) mapsInFile[i];
+      int from = fileBlockStarts[fileIndex];
+      int to = fileIndex + 1 < numMaps ? fileBlockStarts[fileIndex + 1] : numBlocks;
+      mapIds[i] = (int) (mapsInFile[i] >> 32);
+      mapBlockStarts[i] = block;
+      System.arraycopy(fileBlockOffsets, from, blockOffsets, block, to - from);
+      System.arraycopy(fileBlockLengths, from, blockLengths, block, to - from);
+      block += to - from;
+    }
+    mapBlockStarts[numMaps] = numBlocks;
+    return new SortedFileIndex(mapIds, mapBlockStarts, blockOffsets, blockLengths);
+  }
+
+  @Override
+  public long sizeInBytes() {
+    return OBJECT_OVERHEAD + (long) mapIds.length * 4 + (long) mapBlockStarts.length * 4 +
+      (long) blockOffsets.length * 8 + (long) blockLengths.length * 8;
+  }
+
+  /**
+   * @return offsets in the sorted file that split the blocks of maps in
+   * [startMapIndex, endMapIndex) into chunks of about fetchChunkSize.
+   */
+  ArrayList<Long> getChunkOffsets(int startMapIndex, int endMapIndex, long fetchChunkSize) {
+    ArrayList<Long> sortedChunkOffset = new ArrayList<>();
+    int from = Arrays.binarySearch(mapIds, startMapIndex);
+    if (from < 0) {
+      from = -from - 1;
+    }
+    int lastBlock = -1;
+    for (int i = from; i < mapIds.length && mapIds[i] < endMapIndex; i++) {
+      for (int block = mapBlockStarts[i]; block < mapBlockStarts[i + 1]; block++) {
+        long offset = blockOffsets[block];
+        if (sortedChunkOffset.isEmpty()) {
+          sortedChunkOffset.add(offset);
+        }
+        if (offset - sortedChunkOffset.get(sortedChunkOffset.size() - 1) > fetchChunkSize) {
+          sortedChunkOffset.add(offset);
+        }
+        lastBlock = block;
+      }
+    }
+    if (lastBlock >= 0) {
+      long endChunkOffset = blockOffsets[lastBlock] + blockLengths[lastBlock];
+      if (!sortedChunkOffset.contains(endChunkOffset)) {
+        sortedChunkOffset.add(endChunkOffset);
+      }
+    }
+    return sortedChunkOffset;
+  }
+}
@@ -41,6 +41,8 @@ trait DeviceMonitor {
   def unregisterFileWriter(fileWriter: FileWriter): Unit = {}
   def registerDiskFlusher(diskFlusher: DiskFlusher): Unit = {}
   def unregisterDiskFlusher(diskFlusher: DiskFlusher): Unit = {}
+  // unknown devices are assumed to be rotational
+  def isRotational(workingDir: File): Boolean = true
   def reportDeviceError(workingDir: File, e: IOException,
     deviceErrorType: DeviceErrorType): Unit = {}
   def close() {}
@@ -59,6 +61,23 @@ class LocalDeviceMonitor(essConf: RssConf, observer: DeviceObserver,
     val sysBlockDir = RssConf.sysBlockDir(essConf)
     val statFile = new File(s"$sysBlockDir/${deviceInfo.name}/stat")
     val inFlightFile = new File(s"$sysBlockDir/${deviceInfo.name}/inflight")
+    val rotationalFile = new File(s"$sysBlockDir/${deviceInfo.name}/queue/rotational")
+
+    lazy val rotational: Boolean = {
+      var source: Source = null
+      try {
+        source = Source.fromFile(rotationalFile)
+        source.getLines().next().trim != "0"
+      } catch {
+        case e: Exception =>
+          logger.warn(s"Read $rotationalFile failed, assume ${deviceInfo.name} is rotational.", e)
+          true
+      } finally {
+        if (source != null) {
+          source.close()
+        }
+      }
+    }
 
     var lastReadComplete: Long = -1
     var lastWriteComplete: Long = -1
@@ -237,6 +256,15 @@ class LocalDeviceMonitor(essConf: RssConf, observer: DeviceObserver,
     observedDevices.get(mountInfos.get(mountPoint).deviceInfo).removeObserver(diskFlusher)
   }
 
+  override def isRotational(workingDir: File): Boolean = {
+    val mountPoint = DeviceInfo.getMountPoint(workingDir.getAbsolutePath, mountInfos)
+    if (mountInfos.containsKey(mountPoint)) {
+      observedDevices.get(mountInfos.get(mountPoint).deviceInfo).rotational
+    } else {
+      true
+    }
+  }
+
   override def reportDeviceError(workingDir: File, e: IOException,
     deviceErrorType: DeviceErrorType): Unit = {
     logger.error(s"Receive report exception, $workingDir, $e")
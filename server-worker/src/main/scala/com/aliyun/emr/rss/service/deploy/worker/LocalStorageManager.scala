@@ -21,7 +21,7 @@ import java.io.{File, IOException}
 import java.nio.channels.{ClosedByInterruptException, FileChannel}
 import java.util
 import java.util.concurrent.{ConcurrentHashMap, Executors, LinkedBlockingQueue, ThreadPoolExecutor, TimeUnit}
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong, AtomicLongArray}
 import java.util.function.IntUnaryOperator
 
 import scala.collection.JavaConverters._
@@ -29,111 +29,226 @@ import scala.collection.mutable
 import scala.collection.mutable.ListBuffer
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder
-import io.netty.buffer.{CompositeByteBuf, Unpooled}
+import io.netty.buffer.{ByteBuf, CompositeByteBuf, Unpooled}
 
 import com.aliyun.emr.rss.common.RssConf
 import com.aliyun.emr.rss.common.exception.RssException
 import com.aliyun.emr.rss.common.internal.Logging
+import com.aliyun.emr.rss.common.meta.DiskLoad
 import com.aliyun.emr.rss.common.metrics.source.AbstractSource
 import com.aliyun.emr.rss.common.network.server.MemoryTracker
 import com.aliyun.emr.rss.common.network.server.MemoryTracker.MemoryTrackerListener
 import com.aliyun.emr.rss.common.protocol.{PartitionLocation, PartitionSplitMode}
+import com.aliyun.emr.rss.common.unsafe.Platform
 import com.aliyun.emr.rss.common.util.{ThreadUtils, Utils}
 
+/**
+ * @param buffer either a [[CompositeByteBuf]] holding retained push bodies, or a
+ *               [[FlushBuffer]] region the push bodies have been copied into.
+ */
 private[worker] case class FlushTask(
-  buffer: CompositeByteBuf,
+  buffer: ByteBuf,
   fileChannel: FileChannel,
   notifier: FileWriter.FlushNotifier)
 
+/**
+ * Flushes the buffers of all FileWriters in one working directory with `numThreads` threads.
+ * Each thread owns a working queue and the tasks of a FileWriter always go to the same queue,
+ * so the data of a file is still written in order.
+ */
 private[worker] final class DiskFlusher(
   val workingDir: File,
   queueCapacity: Int,
   workerSource: AbstractSource,
-  val deviceMonitor: DeviceMonitor) extends DeviceObserver with Logging {
+  val deviceMonitor: DeviceMonitor,
+  flushBufferSize: Long,
+  val offHeapEnabled: Boolean,
+  val numThreads: Int) extends DeviceObserver with Logging {
+
+  def this(workingDir: File, queueCapacity: Int, workerSource: AbstractSource,
+    deviceMonitor: DeviceMonitor, flushBufferSize: Long, offHeapEnabled: Boolean) =
+    this(workingDir, queueCapacity, workerSource, deviceMonitor, flushBufferSize,
+      offHeapEnabled, 1)
+
+  def this(workingDir: File, queueCapacity: Int, workerSource: AbstractSource,
+    deviceMonitor: DeviceMonitor) = this(workingDir, queueCapacity, workerSource, deviceMonitor,
+    0, false)
+
+  require(numThreads > 0, s"Invalid flush thread count $numThreads for $workingDir.")
+
   private lazy val diskFlusherId = System.identityHashCode(this)
-  private val workingQueue = new LinkedBlockingQueue[FlushTask](queueCapacity)
-  private val bufferQueue = new LinkedBlockingQueue[CompositeByteBuf](queueCapacity)
-  for (_ <- 0 until queueCapacity) {
-    bufferQueue.put(Unpooled.compositeBuffer(256))
+  // Buffers are shared by all threads, so one queue can hold every task of this flusher.
+  private val workingQueues =
+    Array.fill(numThreads)(new LinkedBlockingQueue[FlushTask](queueCapacity))
+  private val bufferQueue = new LinkedBlockingQueue[ByteBuf](queueCapacity)
+  if (offHeapEnabled) {
+    val arenaSize = queueCapacity * flushBufferSize
+    if (flushBufferSize <= 0 || arenaSize > Int.MaxValue) {
+      throw new IllegalArgumentException(s"Invalid off-heap flush arena size $arenaSize " +
+        s"($queueCapacity * $flushBufferSize) for $workingDir.")
+    }
+    // Freed by its cleaner once this flusher and all its regions become unreachable.
+    val arena = Platform.allocateDirectBuffer(arenaSize.toInt)
+    for (i <- 0 until queueCapacity) {
+      arena.limit(((i + 1) * flushBufferSize).toInt)
+      arena.position((i * flushBufferSize).toInt)
+      bufferQueue.put(new FlushBuffer(i, arena.slice()))
+    }
+  } else {
+    for (_ <- 0 until queueCapacity) {
+      bufferQueue.put(Unpooled.compositeBuffer(256))
+    }
   }
 
-  @volatile
-  private var lastBeginFlushTime: Long = -1
-  def getLastFlushTime: Long = lastBeginFlushTime
+  // Begin time of the flush each thread is doing, -1 if the thread is idle.
+  private val lastBeginFlushTimes = new AtomicLongArray(numThreads)
+  (0 until numThreads).foreach(lastBeginFlushTimes.set(_, -1))
+
+  /**
+   * @return begin time of the longest running flush, or -1 if no flush is in progress.
+   */
+  def getLastFlushTime: Long = {
+    var oldest = -1L
+    for (i <- 0 until numThreads) {
+      val beginTime = lastBeginFlushTimes.get(i)
+      if (beginTime != -1 && (oldest == -1 || beginTime < oldest)) {
+        oldest = beginTime
+      }
+    }
+    oldest
+  }
+
+  // Flushes done, their total time and bytes since the last call of flushLoad.
+  private val numFlushes = new AtomicLong()
+  private val flushTimeNanos = new AtomicLong()
+  private val flushedBytes = new AtomicLong()
+  private val lastLoadTime = new AtomicLong(System.nanoTime())
+
+  /**
+   * @return load of the dir, with flush throughput and latency of the flushes done since the
+   *         previous call. A flush still in progress for longer than that counts with its age,
+   *         so that a stalled disk that completes no flush does not look idle.
+   */
+  def flushLoad(numSlots: Int, usedSlots: Int): DiskLoad = {
+    val now = System.nanoTime()
+    val elapsedNanos = Math.max(1, now - lastLoadTime.getAndSet(now))
+    val count = numFlushes.getAndSet(0)
+    val time = flushTimeNanos.getAndSet(0)
+    val oldestBeginTime = getLastFlushTime
+    val inProgressMs = if (oldestBeginTime == -1) 0 else (now - oldestBeginTime).toDouble / 1000000
+    val latencyMs = Math.max(if (count == 0) 0 else time.toDouble / count / 1000000, inProgressMs)
+    val throughput = flushedBytes.getAndSet(0) * 1000000000L / elapsedNanos
+    DiskLoad(workingDir.getPath, numSlots, usedSlots, workingDir.getUsableSpace, throughput,
+      workingQueues.map(_.size()).sum, latencyMs)
+  }
 
   @volatile
   var stopFlag = false
 
-  private val worker = new Thread(s"$this") {
-    override def run(): Unit = {
-      while (!stopFlag) {
-        val task = workingQueue.take()
-
-        val key = s"DiskFlusher-$workingDir"
-        workerSource.sample(WorkerSource.FlushDataTime, key) {
-          if (!task.notifier.hasException) {
-            try {
-              lastBeginFlushTime = System.nanoTime()
-              task.fileChannel.write(task.buffer.nioBuffers())
-            } catch {
-              // InterruptedIOException when notifyError
-              case _: ClosedByInterruptException =>
-              case e: IOException =>
-                task.notifier.setException(e)
-                stopFlag = true
-                logError(s"$this write failed, report to DeviceMonitor, exeption: $e")
-                reportError(workingDir, e, DeviceErrorType.ReadOrWriteFailure)
+  private val workers = (0 until numThreads).map { index =>
+    val timerName = DiskFlusher.flushTimeMetricsName(workingDir, index)
+    workerSource.addTimer(timerName)
+    val worker = new Thread(s"$this-$index") {
+      override def run(): Unit = {
+        val workingQueue = workingQueues(index)
+        val key = s"DiskFlusher-$workingDir-$index"
+        while (!stopFlag) {
+          val task = workingQueue.take()
+
+          // the aggregate timer of all flushers, and the one of this thread
+          workerSource.sample(WorkerSource.FlushDataTime, key) {
+            workerSource.sample(timerName, key) {
+              if (!task.notifier.hasException) {
+                val beginTime = System.nanoTime()
+                val numBytes = task.buffer.readableBytes()
+                try {
+                  lastBeginFlushTimes.set(index, beginTime)
+                  task.buffer match {
+                    case flushBuffer: FlushBuffer =>
+                      val region = flushBuffer.nioBuffer()
+                      while (region.hasRemaining) {
+                        task.fileChannel.write(region)
+                      }
+                    case buffer =>
+                      task.fileChannel.write(buffer.nioBuffers())
+                  }
+                } catch {
+                  // InterruptedIOException when notifyError
+                  case _: ClosedByInterruptException =>
+                  case e: IOException =>
+                    task.notifier.setException(e)
+                    stopFlag = true
+                    logError(s"$this write failed, report to DeviceMonitor, exeption: $e")
+                    reportError(workingDir, e, DeviceErrorType.ReadOrWriteFailure)
+                }
+                lastBeginFlushTimes.set(index, -1)
+                flushTimeNanos.addAndGet(System.nanoTime() - beginTime)
+                flushedBytes.addAndGet(numBytes)
+                numFlushes.incrementAndGet()
+              }
+
+              returnBuffer(task.buffer)
+
+              task.notifier.numPendingFlushes.decrementAndGet()
             }
-            lastBeginFlushTime = -1
           }
-
-          returnBuffer(task.buffer)
-
-          task.notifier.numPendingFlushes.decrementAndGet()
         }
       }
     }
+    worker.setDaemon(true)
+    worker.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler {
+      override def uncaughtException(t: Thread, e: Throwable): Unit = {
+        logError(s"${t.getName} thread terminated.", e)
+      }
+    })
+    worker.start()
+    worker
   }
-  worker.setDaemon(true)
-  worker.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler {
-    override def uncaughtException(t: Thread, e: Throwable): Unit = {
-      logError(s"$this thread terminated.", e)
-    }
-  })
-  worker.start()
 
   deviceMonitor.registerDiskFlusher(this)
 
-  def takeBuffer(timeoutMs: Long): CompositeByteBuf = {
+  def takeBuffer(timeoutMs: Long): ByteBuf = {
     bufferQueue.poll(timeoutMs, TimeUnit.MILLISECONDS)
   }
 
-  def returnBuffer(buffer: CompositeByteBuf): Unit = {
+  def returnBuffer(buffer: ByteBuf): Unit = {
     MemoryTracker.instance().releaseDiskBuffer(buffer.readableBytes())
-    buffer.removeComponents(0, buffer.numComponents())
-    buffer.clear()
+    clearBuffer(buffer)
 
     bufferQueue.put(buffer)
   }
 
+  private def clearBuffer(buffer: ByteBuf): Unit = buffer match {
+    case flushBuffer: FlushBuffer =>
+      flushBuffer.reset()
+    case composite: CompositeByteBuf =>
+      composite.removeComponents(0, composite.numComponents())
+      composite.clear()
+  }
+
+  /**
+   * The notifier identifies the FileWriter, so all tasks of a file go to the same thread.
+   */
   def addTask(task: FlushTask, timeoutMs: Long): Boolean = {
-    workingQueue.offer(task, timeoutMs, TimeUnit.MILLISECONDS)
+    val index = Math.floorMod(System.identityHashCode(task.notifier), numThreads)
+    workingQueues(index).offer(task, timeoutMs, TimeUnit.MILLISECONDS)
   }
 
+  def workingQueueSize(index: Int): Int = workingQueues(index).size()
+
   override def notifyError(deviceName: String, dirs: ListBuffer[File] = null,
     deviceErrorType: DeviceErrorType): Unit = {
     logError(s"$this is notified Device $deviceName Error $deviceErrorType! Stop Flusher.")
     stopFlag = true
-    try {
-      worker.interrupt()
-    } catch {
-      case e: Exception =>
-        logError(s"Exception when interrupt worker: $worker, $e")
+    workers.foreach { worker =>
+      try {
+        worker.interrupt()
+      } catch {
+        case e: Exception =>
+          logError(s"Exception when interrupt worker: $worker, $e")
+      }
     }
-    workingQueue.asScala.foreach(task => {
-      task.buffer.removeComponents(0, task.buffer.numComponents())
-      task.buffer.clear()
-    })
+    workingQueues.foreach(_.asScala.foreach(task => clearBuffer(task.buffer)))
     deviceMonitor.unregisterDiskFlusher(this)
   }
 
@@ -158,6 +273,14 @@ private[worker] final class DiskFlusher(
   }
 }
 
+private[worker] object DiskFlusher {
+  def flushTimeMetricsName(workingDir: File, index: Int): String =
+    s"${WorkerSource.FlushDataTime}-$workingDir-$index"
+
+  def workingQueueSizeMetricsName(workingDir: File, index: Int): String =
+    s"${WorkerSource.FlushWorkingQueueSize}-$workingDir-$index"
+}
+
 private[worker] final class LocalStorageManager(
   conf: RssConf,
   workerSource: AbstractSource,
@@ -189,6 +312,7 @@ private[worker] final class LocalStorageManager(
   def hasAvailableWorkingDirs(): Boolean = workingDirsSnapshot().size() > 0
 
   val writerFlushBufferSize: Long = RssConf.workerFlushBufferSize(conf)
+  private val flushOffHeapEnabled = RssConf.workerFlushOffHeapEnabled(conf)
 
   private val dirOperators: ConcurrentHashMap[File, ThreadPoolExecutor] = {
     val cleaners = new ConcurrentHashMap[File, ThreadPoolExecutor]()
@@ -201,14 +325,34 @@ private[worker] final class LocalStorageManager(
 
   private val deviceMonitor = DeviceMonitor.createDeviceMonitor(conf, this, workingDirsSnapshot())
 
-  private val diskFlushers: ConcurrentHashMap[File, DiskFlusher] = {
-    val queueCapacity = RssConf.workerFlushQueueCapacity(conf)
-    val flushers = new ConcurrentHashMap[File, DiskFlusher]()
-    workingDirsSnapshot().asScala.foreach {
-      dir => flushers.put(dir, new DiskFlusher(dir, queueCapacity, workerSource, deviceMonitor))
+  private val diskFlushers = new ConcurrentHashMap[File, DiskFlusher]()
+  // names of the per flush thread gauges registered in workerSource
+  private val registeredFlusherGauges = ConcurrentHashMap.newKeySet[String]()
+
+  private def newDiskFlusher(dir: File): DiskFlusher = {
+    val numThreads = if (deviceMonitor.isRotational(dir)) {
+      RssConf.workerFlushThreadCountHdd(conf)
+    } else {
+      RssConf.workerFlushThreadCountSsd(conf)
+    }
+    logInfo(s"Create DiskFlusher for $dir with $numThreads threads.")
+    val flusher = new DiskFlusher(dir, RssConf.workerFlushQueueCapacity(conf), workerSource,
+      deviceMonitor, writerFlushBufferSize, flushOffHeapEnabled, numThreads)
+    // Gauges look the flusher up by dir, so they keep working after the flusher is recreated.
+    (0 until numThreads).foreach { index =>
+      val name = DiskFlusher.workingQueueSizeMetricsName(dir, index)
+      if (registeredFlusherGauges.add(name)) {
+        workerSource.addGauge(name, _ => {
+          val current = diskFlushers.get(dir)
+          if (current != null && index < current.numThreads) current.workingQueueSize(index)
+          else 0
+        })
+      }
     }
-    flushers
+    flusher
   }
+
+  workingDirsSnapshot().asScala.foreach(dir => diskFlushers.put(dir, newDiskFlusher(dir)))
   private val actionService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
     .setNameFormat("StorageManager-action-thread").build)
 
@@ -242,11 +386,10 @@ private[worker] final class LocalStorageManager(
 
   override def notifyHealthy(dirs: ListBuffer[File]): Unit = this.synchronized {
     val availableDisks = numDisks()
-    val queueCapacity = RssConf.workerFlushQueueCapacity(conf)
     dirs.foreach(dir => {
       isolatedWorkingDirs.remove(dir)
       if (!diskFlushers.containsKey(dir)) {
-        diskFlushers.put(dir, new DiskFlusher(dir, queueCapacity, workerSource, deviceMonitor))
+        diskFlushers.put(dir, newDiskFlusher(dir))
       }
       if (!dirOperators.containsKey(dir)) {
         dirOperators.put(dir,
@@ -319,6 +462,27 @@ private[worker] final class LocalStorageManager(
     workingDirs.size()
   }
 
+  def diskLoads(): util.List[DiskLoad] = {
+    val dirs = workingDirsSnapshot()
+    val numSlotsPerDir = if (dirs.isEmpty) 0 else {
+      (RssConf.workerNumSlots(conf, dirs.size()) + dirs.size() - 1) / dirs.size()
+    }
+    val usedSlots = new mutable.HashMap[File, Int]()
+    writers.values().asScala.foreach(_.values().asScala.foreach { writer =>
+      if (!writer.isClosed) {
+        usedSlots(writer.dataRootDir) = usedSlots.getOrElse(writer.dataRootDir, 0) + 1
+      }
+    })
+    val loads = new util.ArrayList[DiskLoad]()
+    dirs.asScala.foreach { dir =>
+      val flusher = diskFlushers.get(dir)
+      if (flusher != null) {
+        loads.add(flusher.flushLoad(numSlotsPerDir, usedSlots.getOrElse(dir, 0)))
+      }
+    }
+    loads
+  }
+
   @throws[IOException]
   def createWriter(appId: String, shuffleId: Int, location: PartitionLocation,
     splitThreshold: Long, splitMode: PartitionSplitMode): FileWriter = {
@@ -326,7 +490,7 @@ private[worker] final class LocalStorageManager(
       throw new IOException("No available working dirs!")
     }
     createWriter(appId, shuffleId, location.getReduceId, location.getEpoch,
-      location.getMode, splitThreshold, splitMode)
+      location.getMode, location.getDisk, splitThreshold, splitMode)
   }
 
   @throws[IOException]
@@ -336,6 +500,7 @@ private[worker] final class LocalStorageManager(
     reduceId: Int,
     epoch: Int,
     mode: PartitionLocation.Mode,
+    disk: String,
     splitThreshold: Long,
     splitMode: PartitionSplitMode): FileWriter = {
     val fileName = s"$reduceId-$epoch-${mode.mode()}"
@@ -343,9 +508,18 @@ private[worker] final class LocalStorageManager(
     var retryCount = 0
     var exception: IOException = null
     while (retryCount < RssConf.createFileWriterRetryCount(conf)) {
-      val index = getNextIndex()
       val dirs = workingDirsSnapshot()
-      val dir = dirs.get(index % dirs.size())
+      // the dir assigned by the master is tried first, unless it has been isolated since
+      val assignedDir = if (retryCount == 0 && disk != null && disk.nonEmpty) {
+        new File(disk)
+      } else {
+        null
+      }
+      val dir = if (assignedDir != null && dirs.contains(assignedDir)) {
+        assignedDir
+      } else {
+        dirs.get(getNextIndex() % dirs.size())
+      }
       val shuffleDir = new File(dir, s"$appId/$shuffleId")
       val file = new File(shuffleDir, fileName)
 
@@ -37,7 +37,7 @@ import com.aliyun.emr.rss.common.RssConf.{memoryTrimActionThreshold, partitionSo
 import com.aliyun.emr.rss.common.exception.{AlreadyClosedException, RssException}
 import com.aliyun.emr.rss.common.haclient.RssHARetryClient
 import com.aliyun.emr.rss.common.internal.Logging
-import com.aliyun.emr.rss.common.meta.{PartitionLocationInfo, WorkerInfo}
+import com.aliyun.emr.rss.common.meta.{PartitionLocationInfo, WorkerInfo, WorkerLoad}
 import com.aliyun.emr.rss.common.metrics.MetricsSystem
 import com.aliyun.emr.rss.common.metrics.source.NetWorkSource
 import com.aliyun.emr.rss.common.network.TransportContext
@@ -83,7 +83,10 @@ private[deploy] class Worker(
     partitionSortTimeout(conf),
     RssConf.workerFetchChunkSize(conf),
     RssConf.memoryReservedForSingleSort(conf),
-    workerSource)
+    workerSource,
+    RssConf.workerRangeReadBatchIndexEnabled(conf),
+    RssConf.workerSortedFileIndexCacheSize(conf),
+    RssConf.workerBatchIndexCacheSize(conf))
 
   private val (pushServer, pushClientFactory) = {
     val closeIdleConnections = RssConf.closeIdleConnections(conf)
@@ -114,11 +117,15 @@ private[deploy] class Worker(
     transportContext.createServer(RssConf.pushServerPort(conf), serverBootstraps)
   }
 
+  private val mappedFileRegistry =
+    if (RssConf.workerFetchMmapEnabled(conf)) new MappedFileRegistry() else null
+
   private val fetchServer = {
     val closeIdleConnections = RssConf.closeIdleConnections(conf)
     val numThreads = conf.getInt("rss.fetch.io.threads", localStorageManager.numDisks * 2)
     val transportConf = Utils.fromRssConf(conf, TransportModuleConstants.FETCH_MODULE, numThreads)
-    val rpcHandler = new ChunkFetchRpcHandler(transportConf, workerSource, this)
+    val rpcHandler =
+      new ChunkFetchRpcHandler(transportConf, workerSource, this, mappedFileRegistry)
     val transportContext: TransportContext =
       new TransportContext(transportConf, rpcHandler, closeIdleConnections, workerSource)
     val serverBootstraps = new jArrayList[TransportServerBootstrap]()
@@ -160,6 +167,21 @@ private[deploy] class Worker(
   workerSource.addGauge(WorkerSource.SlotsAvailable, _ => workerInfo.freeSlots())
   workerSource.addGauge(WorkerSource.SortMemory, _ => memoryTracker.getSortMemoryCounter.get())
   workerSource.addGauge(WorkerSource.SortingFiles, _ => partitionsSorter.getSortingCount)
+  workerSource.addGauge(WorkerSource.SortedFileIndexCacheSize,
+    _ => partitionsSorter.getIndexCacheResidentBytes)
+  workerSource.addGauge(WorkerSource.SortedFileIndexCacheHitCount,
+    _ => partitionsSorter.getIndexCacheHitCount)
+  workerSource.addGauge(WorkerSource.SortedFileIndexCacheMissCount,
+    _ => partitionsSorter.getIndexCacheMissCount)
+  workerSource.addGauge(WorkerSource.BatchIndexCacheSize,
+    _ => partitionsSorter.getBatchIndexCacheResidentBytes)
+  workerSource.addGauge(WorkerSource.BatchIndexCacheHitCount,
+    _ => partitionsSorter.getBatchIndexCacheHitCount)
+  workerSource.addGauge(WorkerSource.BatchIndexCacheMissCount,
+    _ => partitionsSorter.getBatchIndexCacheMissCount)
+  if (mappedFileRegistry != null) {
+    workerSource.addGauge(WorkerSource.MappedFiles, _ => mappedFileRegistry.numMappedFiles())
+  }
   workerSource.addGauge(WorkerSource.DiskBuffer, _ => memoryTracker.getDiskBufferCounter.get())
   workerSource.addGauge(WorkerSource.NettyMemory, _ => memoryTracker.getNettyMemoryCounter.get())
   workerSource.addGauge(WorkerSource.PausePushDataCount, _ => memoryTracker.getPausePushDataCounter)
@@ -194,9 +216,11 @@ private[deploy] class Worker(
     val shuffleKeys = new jHashSet[String]
     shuffleKeys.addAll(partitionLocationInfo.shuffleKeySet)
     shuffleKeys.addAll(localStorageManager.shuffleKeySet())
+    val load = WorkerLoad(localStorageManager.diskLoads(), memoryTracker.getDirectMemoryUsed,
+      memoryTracker.getMaxDirectMemory, memoryTracker.isPushDataPaused)
     val response = rssHARetryClient.askSync[HeartbeatResponse](
       HeartbeatFromWorker(host, rpcPort, pushPort, fetchPort, replicatePort, workerInfo.numSlots,
-        shuffleKeys)
+        shuffleKeys, load)
       , classOf[HeartbeatResponse])
     cleanTaskQueue.put(response.expiredShuffleKeys)
   }
@@ -246,6 +270,9 @@ private[deploy] class Worker(
     commitThreadPool.shutdownNow()
     asyncReplyPool.shutdownNow()
     partitionsSorter.close()
+    if (mappedFileRegistry != null) {
+      mappedFileRegistry.close()
+    }
 
     if (null != localStorageManager) {
       localStorageManager.close()
@@ -886,12 +913,12 @@ private[deploy] class Worker(
   }
 
   override def handleOpenStream(shuffleKey: String, fileName: String, startMapIndex: Int,
-    endMapIndex: Int): FileInfo = {
+    endMapIndex: Int): CompletableFuture[FileInfo] = {
     // find FileWriter responsible for the data
     val fileWriter = localStorageManager.getWriter(shuffleKey, fileName)
     if (fileWriter eq null) {
       logWarning(s"File $fileName for $shuffleKey was not found!")
-      return null
+      return CompletableFuture.completedFuture(null)
     }
     partitionsSorter.openStream(shuffleKey, fileName, fileWriter, startMapIndex, endMapIndex);
   }
@@ -955,6 +982,9 @@ private[deploy] class Worker(
       partitionLocationInfo.removeSlavePartitions(shuffleKey)
       shuffleMapperAttempts.remove(shuffleKey)
       partitionsSorter.cleanup(expiredShuffleKeys)
+      if (mappedFileRegistry != null) {
+        mappedFileRegistry.cleanup(expiredShuffleKeys)
+      }
       logInfo(s"Cleaned up expired shuffle $shuffleKey")
     }
 
@@ -58,6 +58,8 @@ object WorkerSource {
   val OpenStreamTime = "OpenStreamTime"
 
   val FetchChunkTime = "FetchChunkTime"
+  // files memory mapped for fetching
+  val MappedFiles = "MappedFiles"
 
 
   // push data
@@ -67,6 +69,8 @@ object WorkerSource {
 
   // flush
   val TakeBufferTime = "TakeBufferTime"
+  // per flush thread, suffixed with working dir and thread index
+  val FlushWorkingQueueSize = "FlushWorkingQueueSize"
 
   val RegisteredShuffleCount = "RegisteredShuffleCount"
 
@@ -80,6 +84,13 @@ object WorkerSource {
   val SortTime = "SortTime"
   val SortMemory = "SortMemory"
   val SortingFiles = "SortingFiles"
+  // bytes held by cached indexes of sorted files, and lookups that found or missed them
+  val SortedFileIndexCacheSize = "SortedFileIndexCacheSize"
+  val SortedFileIndexCacheHitCount = "SortedFileIndexCacheHitCount"
+  val SortedFileIndexCacheMissCount = "SortedFileIndexCacheMissCount"
+  val BatchIndexCacheSize = "BatchIndexCacheSize"
+  val BatchIndexCacheHitCount = "BatchIndexCacheHitCount"
+  val BatchIndexCacheMissCount = "BatchIndexCacheMissCount"
   val DiskBuffer = "DiskBuffer"
   val PausePushDataCount = "PausePushData"
   val PausePushDataAndReplicateCount = "PausePushDataAndReplicate"
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.worker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import scala.Function0;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+import org.mockito.Mockito;
+
+import com.aliyun.emr.rss.common.RssConf;
+import com.aliyun.emr.rss.common.metrics.source.AbstractSource;
+import com.aliyun.emr.rss.common.network.server.MemoryTracker;
+import com.aliyun.emr.rss.common.network.util.JavaUtils;
+import com.aliyun.emr.rss.common.protocol.PartitionSplitMode;
+import com.aliyun.emr.rss.common.util.ThreadUtils;
+import com.aliyun.emr.rss.common.util.Utils;
+
+/**
+ * Compares the composite (retain netty buffers) and off-heap copy flush paths of
+ * {@link FileWriter}. Push bodies are sliced out of larger pooled direct buffers, like the
+ * frames netty hands to the push handler, and released right after {@link FileWriter#write}.
+ *
+ * Run with: java -cp ... com.aliyun.emr.rss.service.deploy.worker.FileWriterBenchmark
+ *   [numThreads] [numWritesPerThread] [receiveBufferSize] [pushBodySize]
+ */
+public class FileWriterBenchmark {
+
+  private static final int QUEUE_CAPACITY = 512;
+  private static final long FLUSH_BUFFER_SIZE = 256 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int numWrites = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+    int receiveBufferSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024 * 1024;
+    int pushBodySize = args.length > 3 ? Integer.parseInt(args[3]) : 64 * 1024;
+
+    MemoryTracker.initialize(0.8, 0.9, 0.5, 0.6, 10, 10, 10);
+    AbstractSource source = Mockito.mock(AbstractSource.class);
+    Mockito.doAnswer(invocationOnMock -> {
+      Function0<?> function = (Function0<?>) invocationOnMock.getArguments()[2];
+      return function.apply();
+    }).when(source)
+      .sample(Mockito.anyString(), Mockito.anyString(), Mockito.any(Function0.class));
+
+    File tempDir = Utils.createTempDir(System.getProperty("java.io.tmpdir"), "rss-bench");
+    try {
+      for (boolean offHeap : new boolean[] {false, true, false, true}) {
+        run(tempDir, source, offHeap, numThreads, numWrites, receiveBufferSize, pushBodySize);
+      }
+    } finally {
+      JavaUtils.deleteRecursively(tempDir);
+    }
+    // MemoryTracker threads are not daemons
+    System.exit(0);
+  }
+
+  private static void run(
+      File dir,
+      AbstractSource source,
+      boolean offHeap,
+      int numThreads,
+      int numWrites,
+      int receiveBufferSize,
+      int pushBodySize) throws Exception {
+    DiskFlusher flusher = new DiskFlusher(dir, QUEUE_CAPACITY, source,
+      DeviceMonitor$.MODULE$.EmptyMonitor(), FLUSH_BUFFER_SIZE, offHeap);
+    File file = new File(dir, UUID.randomUUID().toString());
+    file.createNewFile();
+    FileWriter writer = new FileWriter(file, flusher, dir, 8 * 1024 * 1024, FLUSH_BUFFER_SIZE,
+      source, new RssConf(), DeviceMonitor$.MODULE$.EmptyMonitor(), Long.MAX_VALUE,
+      PartitionSplitMode.soft);
+
+    long baseDirectMemory = PlatformDependent.usedDirectMemory();
+    long[] peakDirectMemory = new long[] {0};
+    ExecutorService es = ThreadUtils.newDaemonFixedThreadPool(numThreads, "FileWriter-bench");
+    List<Future<?>> futures = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int t = 0; t < numThreads; t++) {
+      futures.add(es.submit(() -> {
+        byte[] payload = new byte[pushBodySize];
+        ThreadLocalRandom.current().nextBytes(payload);
+        for (int i = 0; i < numWrites; i++) {
+          ByteBuf frame = PooledByteBufAllocator.DEFAULT.directBuffer(receiveBufferSize);
+          frame.writeBytes(payload);
+          frame.writerIndex(receiveBufferSize);
+          ByteBuf body = frame.slice(0, pushBodySize);
+          try {
+            writer.incrementPendingWrites();
+            writer.write(body);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          } finally {
+            frame.release();
+          }
+          long used = PlatformDependent.usedDirectMemory() - baseDirectMemory;
+          synchronized (peakDirectMemory) {
+            peakDirectMemory[0] = Math.max(peakDirectMemory[0], used);
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    long bytes = writer.close();
+    long elapsedNs = System.nanoTime() - start;
+    es.shutdownNow();
+
+    System.out.printf("%-10s written %6d MB in %6d ms, %8.1f MB/s, peak netty direct %6d MB%n",
+      offHeap ? "off-heap" : "composite",
+      bytes >> 20,
+      elapsedNs / 1000000,
+      (bytes / 1024.0 / 1024.0) / (elapsedNs / 1e9),
+      peakDirectMemory[0] >> 20);
+    file.delete();
+  }
+}
@@ -17,11 +17,13 @@
 
 package com.aliyun.emr.rss.service.deploy.worker;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
@@ -37,8 +39,10 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import com.aliyun.emr.rss.common.RssConf;
@@ -55,6 +59,7 @@ import com.aliyun.emr.rss.common.network.util.JavaUtils;
 import com.aliyun.emr.rss.common.network.util.MapConfigProvider;
 import com.aliyun.emr.rss.common.network.util.TransportConf;
 import com.aliyun.emr.rss.common.protocol.PartitionSplitMode;
+import com.aliyun.emr.rss.common.unsafe.Platform;
 import com.aliyun.emr.rss.common.util.ThreadUtils;
 import com.aliyun.emr.rss.common.util.Utils;
 
@@ -96,8 +101,13 @@ public class FileWriterSuiteJ {
   }
 
   public static void setupChunkServer(FileInfo info) throws Exception {
+    setupChunkServer(info, null);
+  }
+
+  public static void setupChunkServer(FileInfo info, MappedFileRegistry mappedFileRegistry)
+    throws Exception {
     ChunkFetchRpcHandler handler = new ChunkFetchRpcHandler(transConf, source,
-      new OpenStreamer(info));
+      new OpenStreamer(info), mappedFileRegistry);
     TransportContext context = new TransportContext(transConf, handler);
     server = context.createServer();
 
@@ -147,9 +157,9 @@ public class FileWriterSuiteJ {
     }
 
     @Override
-    public FileInfo handleOpenStream(String shuffleKey, String partitionId, int startMapIndex,
-      int endMapIndex) {
-      return fileInfo;
+    public CompletableFuture<FileInfo> handleOpenStream(String shuffleKey, String partitionId,
+      int startMapIndex, int endMapIndex) {
+      return CompletableFuture.completedFuture(fileInfo);
     }
   }
 
@@ -345,6 +355,154 @@ public class FileWriterSuiteJ {
     closeChunkServer();
   }
 
+  @Test
+  public void testMappedChunkRead() throws Exception {
+    File file = getTemporaryFile();
+    FileWriter writer = new FileWriter(file, flusher, file.getParentFile(), CHUNK_SIZE,
+      FLUSH_BUFFER_SIZE_LIMIT, source, new RssConf(),
+      DeviceMonitor$.MODULE$.EmptyMonitor(), SPLIT_THRESHOLD, splitMode);
+    for (int i = 0; i < 100; ++i) {
+      writer.incrementPendingWrites();
+      writer.write(Unpooled.wrappedBuffer(generateData()));
+    }
+    writer.close();
+
+    MappedFileRegistry mappedFileRegistry = new MappedFileRegistry();
+    setupChunkServer(new FileInfo(writer.getFile(), writer.getChunkOffsets()),
+      mappedFileRegistry);
+    TransportClient client = clientFactory.createClient(InetAddress
+      .getLocalHost().getHostAddress(), server.getPort());
+    setUpConn(client);
+    assertEquals(1, mappedFileRegistry.numMappedFiles());
+
+    List<Integer> indices = new ArrayList<>();
+    for (int i = 0; i < numChunks; i++) {
+      indices.add(i);
+    }
+    FetchResult result = fetchChunks(client, indices);
+    assertEquals(numChunks, result.successChunks.size());
+
+    // responses on one connection arrive in request order
+    ByteArrayOutputStream fetched = new ByteArrayOutputStream();
+    for (ManagedBuffer buffer : result.buffers) {
+      ByteBuffer chunk = buffer.nioByteBuffer();
+      byte[] bytes = new byte[chunk.remaining()];
+      chunk.get(bytes);
+      fetched.write(bytes);
+    }
+    assertArrayEquals(Files.readAllBytes(writer.getFile().toPath()), fetched.toByteArray());
+
+    result.releaseBuffers();
+    closeChunkServer();
+    mappedFileRegistry.cleanup(Collections.singleton("shuffleKey"));
+    assertEquals(0, mappedFileRegistry.numMappedFiles());
+  }
+
+  @Test
+  public void testOffHeapFlushBufferWrite() throws IOException {
+    File file = getTemporaryFile();
+    DiskFlusher offHeapFlusher = new DiskFlusher(file.getParentFile(), 16, source,
+      DeviceMonitor$.MODULE$.EmptyMonitor(), FLUSH_BUFFER_SIZE_LIMIT, true);
+    FileWriter writer = new FileWriter(file, offHeapFlusher, file.getParentFile(), CHUNK_SIZE,
+      FLUSH_BUFFER_SIZE_LIMIT, source, new RssConf(),
+      DeviceMonitor$.MODULE$.EmptyMonitor(), SPLIT_THRESHOLD, splitMode);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 64; ++i) {
+      byte[] bytes = generateData();
+      // a batch larger than a whole flush buffer has to span several regions
+      if (i % 16 == 0) {
+        bytes = Arrays.copyOf(bytes, FLUSH_BUFFER_SIZE_LIMIT * 2 + 17);
+      }
+      bytes[0] = (byte) i;
+      expected.write(bytes);
+      ByteBuf buf = Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+      writer.incrementPendingWrites();
+      writer.write(buf);
+      // the writer must not hold on to the incoming buffer
+      assertEquals(1, buf.refCnt());
+      buf.release();
+    }
+
+    long bytesWritten = writer.close();
+    assertEquals(expected.size(), bytesWritten);
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file.toPath()));
+  }
+
+  @Test
+  public void testBatchIndex() throws IOException {
+    File file = getTemporaryFile();
+    RssConf conf = new RssConf();
+    conf.set("rss.worker.batch.index.enabled", "true");
+    FileWriter writer = new FileWriter(file, flusher, file.getParentFile(), CHUNK_SIZE,
+      FLUSH_BUFFER_SIZE_LIMIT, source, conf,
+      DeviceMonitor$.MODULE$.EmptyMonitor(), SPLIT_THRESHOLD, splitMode);
+
+    List<long[]> expected = new ArrayList<>();
+    long offset = 0;
+    for (int i = 0; i < 100; ++i) {
+      // two batches in one write, like a merged push
+      ByteBuf buf = Unpooled.buffer();
+      for (int mapId : new int[] {i % 7, i % 3}) {
+        int bodySize = ThreadLocalRandom.current().nextInt(64 * 1024);
+        byte[] header = new byte[16];
+        Platform.putInt(header, Platform.BYTE_ARRAY_OFFSET, mapId);
+        Platform.putInt(header, Platform.BYTE_ARRAY_OFFSET + 12, bodySize);
+        buf.writeBytes(header).writeBytes(new byte[bodySize]);
+        expected.add(new long[] {mapId, offset, 16 + bodySize});
+        offset += 16 + bodySize;
+      }
+      writer.incrementPendingWrites();
+      writer.write(buf);
+    }
+    assertEquals(offset, writer.close());
+
+    assertNull(writer.getBatchIndex());
+    assertEquals(writer.getFile().getAbsolutePath() + PartitionFilesSorter.BATCH_INDEX_SUFFIX,
+      writer.getBatchIndexFile().getAbsolutePath());
+    BatchIndex batchIndex = BatchIndex.readFrom(writer.getBatchIndexFile());
+    assertEquals(expected.size(), batchIndex.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i)[0], batchIndex.getMapId(i));
+      assertEquals(expected.get(i)[1], batchIndex.getOffset(i));
+      assertEquals(expected.get(i)[2], batchIndex.getLength(i));
+    }
+  }
+
+  @Test
+  public void testMultiThreadFlusherKeepsFileOrder() throws Exception {
+    final int numWriters = 8;
+    DiskFlusher multiThreadFlusher = new DiskFlusher(getTemporaryFile().getParentFile(), 32,
+      source, DeviceMonitor$.MODULE$.EmptyMonitor(), FLUSH_BUFFER_SIZE_LIMIT, false, 4);
+    ExecutorService es = ThreadUtils.newDaemonFixedThreadPool(numWriters, "flusher-test");
+    List<Future<byte[]>> futures = new ArrayList<>();
+    List<File> files = new ArrayList<>();
+    for (int w = 0; w < numWriters; ++w) {
+      File file = getTemporaryFile();
+      files.add(file);
+      FileWriter writer = new FileWriter(file, multiThreadFlusher, file.getParentFile(),
+        CHUNK_SIZE, FLUSH_BUFFER_SIZE_LIMIT, source, new RssConf(),
+        DeviceMonitor$.MODULE$.EmptyMonitor(), SPLIT_THRESHOLD, splitMode);
+      futures.add(es.submit(() -> {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 128; ++i) {
+          byte[] bytes = generateData();
+          bytes[0] = (byte) i;
+          expected.write(bytes);
+          writer.incrementPendingWrites();
+          writer.write(Unpooled.wrappedBuffer(bytes));
+        }
+        assertEquals(expected.size(), writer.close());
+        return expected.toByteArray();
+      }));
+    }
+
+    for (int w = 0; w < numWriters; ++w) {
+      assertArrayEquals(futures.get(w).get(), Files.readAllBytes(files.get(w).toPath()));
+    }
+    es.shutdown();
+  }
+
   @Test
   public void testCompositeBufClear() {
     ByteBuf buf = Unpooled.wrappedBuffer("hello world".getBytes(StandardCharsets.UTF_8));
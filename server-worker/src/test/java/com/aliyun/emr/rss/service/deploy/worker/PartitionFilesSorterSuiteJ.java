@@ -17,15 +17,22 @@
 
 package com.aliyun.emr.rss.service.deploy.worker;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -45,8 +52,15 @@ public class PartitionFilesSorterSuiteJ {
   private long originFileLen;
   private FileWriter fileWriter;
   private long sortTimeout = 16 * 1000;
+  private Map<Integer, ByteArrayOutputStream> mapIdData;
+  private BatchIndex batchIndex;
+  private File batchIndexFile;
 
   public void prepare(boolean largefile) throws IOException {
+    prepare(largefile, false);
+  }
+
+  public void prepare(boolean largefile, boolean withBatchIndex) throws IOException {
     byte[] batchHeader = new byte[16];
     Random random = new Random();
     shuffleFile = File.createTempFile("RSS", "sort-suite");
@@ -55,6 +69,9 @@ public class PartitionFilesSorterSuiteJ {
     FileOutputStream fileOutputStream = new FileOutputStream(shuffleFile);
     FileChannel channel = fileOutputStream.getChannel();
     Map<Integer, Integer> batchIds = new HashMap<>();
+    mapIdData = new HashMap<>();
+    batchIndex = new BatchIndex();
+    batchIndexFile = null;
 
     int maxMapId = 50;
     int mapCount = 1000;
@@ -78,9 +95,14 @@ public class PartitionFilesSorterSuiteJ {
       Platform.putInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 4, currentAttemptId);
       Platform.putInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 8, batchId);
       Platform.putInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 12, dataSize);
+      batchIndex.add(mapId, channel.position(), batchHeader.length + dataSize);
       channel.write(ByteBuffer.wrap(batchHeader));
       random.nextBytes(mockedData);
       channel.write(ByteBuffer.wrap(mockedData));
+      ByteArrayOutputStream data =
+        mapIdData.computeIfAbsent(mapId, v -> new ByteArrayOutputStream());
+      data.write(batchHeader);
+      data.write(mockedData);
     }
     originFileLen = channel.size();
     System.out.println(shuffleFile.getAbsolutePath() +
@@ -91,6 +113,8 @@ public class PartitionFilesSorterSuiteJ {
     when(fileWriter.getFile()).thenAnswer(i -> shuffleFile);
     when(fileWriter.getFileLength()).thenAnswer(i -> originFileLen);
     when(fileWriter.getChunkOffsets()).thenAnswer(i -> new ArrayList<Integer>());
+    when(fileWriter.getBatchIndex()).thenAnswer(i -> withBatchIndex ? batchIndex : null);
+    when(fileWriter.getBatchIndexFile()).thenAnswer(i -> batchIndexFile);
   }
 
   public void clean() {
@@ -98,28 +122,202 @@ public class PartitionFilesSorterSuiteJ {
   }
 
   @Test
-  public void testSmallFile() throws InterruptedException, IOException {
+  public void testSmallFile() throws Exception {
     prepare(false);
     RssConf conf = new RssConf();
     PartitionFilesSorter partitionFilesSorter = new PartitionFilesSorter(MemoryTracker.instance(),
       sortTimeout, CHUNK_SIZE, 1024 * 1024, new WorkerSource(conf));
     FileInfo info = partitionFilesSorter.openStream("application-1", originFileName,
-      fileWriter, 5, 10);
+      fileWriter, 5, 10).get();
     Thread.sleep(1000);
     System.out.println(info.toString());
     Assert.assertTrue(info.numChunks > 0);
     clean();
   }
 
+  @Test
+  public void testSortedFileContent() throws Exception {
+    for (boolean withBatchIndex : new boolean[] {false, true}) {
+      prepare(false, withBatchIndex);
+      // smaller than some batches, so both the windowed and the direct copy are used
+      PartitionFilesSorter partitionFilesSorter = new PartitionFilesSorter(
+        MemoryTracker.instance(), sortTimeout, CHUNK_SIZE, 200 * 1024,
+        new WorkerSource(new RssConf()));
+      FileInfo info = partitionFilesSorter.openStream("application-1", originFileName,
+        fileWriter, 5, 10).get();
+
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      for (int mapId = 5; mapId < 10; mapId++) {
+        if (mapIdData.containsKey(mapId)) {
+          expected.write(mapIdData.get(mapId).toByteArray());
+        }
+      }
+      byte[] sorted = Files.readAllBytes(info.file.toPath());
+      int start = info.chunkOffsets.get(0).intValue();
+      int end = info.chunkOffsets.get(info.chunkOffsets.size() - 1).intValue();
+      Assert.assertArrayEquals(expected.toByteArray(), Arrays.copyOfRange(sorted, start, end));
+      Assert.assertFalse(shuffleFile.exists());
+      partitionFilesSorter.close();
+      info.file.delete();
+      new File(originFileName + PartitionFilesSorter.INDEX_SUFFIX).delete();
+    }
+  }
+
+  @Test
+  public void testConcurrentOpenStreamSortsOnce() throws Exception {
+    prepare(false);
+    // too small to cache any index, so that every read loads the index file
+    PartitionFilesSorter partitionFilesSorter = new PartitionFilesSorter(
+      MemoryTracker.instance(), sortTimeout, CHUNK_SIZE, 1024 * 1024,
+      new WorkerSource(new RssConf()), false, 1);
+    List<CompletableFuture<FileInfo>> futures = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      futures.add(partitionFilesSorter.openStream("application-1", originFileName,
+        fileWriter, i * 5, i * 5 + 5));
+    }
+
+    long totalLength = 0;
+    for (CompletableFuture<FileInfo> future : futures) {
+      FileInfo info = future.get();
+      Assert.assertEquals(originFileName + PartitionFilesSorter.SORTED_SUFFIX,
+        info.file.getAbsolutePath());
+      if (info.numChunks > 0) {
+        totalLength += info.chunkOffsets.get(info.numChunks) - info.chunkOffsets.get(0);
+      }
+    }
+    Assert.assertEquals(originFileLen, totalLength);
+    Assert.assertEquals(0, partitionFilesSorter.getIndexCacheResidentBytes());
+    Assert.assertEquals(10, partitionFilesSorter.getIndexCacheMissCount());
+    Assert.assertEquals(originFileLen, new File(originFileName +
+      PartitionFilesSorter.SORTED_SUFFIX).length());
+
+    partitionFilesSorter.close();
+    new File(originFileName + PartitionFilesSorter.SORTED_SUFFIX).delete();
+    new File(originFileName + PartitionFilesSorter.INDEX_SUFFIX).delete();
+  }
+
+  @Test
+  public void testOpenStreamFailsWhenSortFails() throws Exception {
+    prepare(false);
+    // the last batch seems to reach past the end of the file
+    originFileLen -= 1;
+    PartitionFilesSorter partitionFilesSorter = new PartitionFilesSorter(
+      MemoryTracker.instance(), sortTimeout, CHUNK_SIZE, 1024 * 1024,
+      new WorkerSource(new RssConf()));
+    CompletableFuture<FileInfo> future = partitionFilesSorter.openStream("application-1",
+      originFileName, fileWriter, 5, 10);
+    try {
+      future.get();
+      Assert.fail("sort should fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+
+    partitionFilesSorter.close();
+    new File(originFileName + PartitionFilesSorter.SORTED_SUFFIX).delete();
+    clean();
+  }
+
+  @Test
+  public void testRangeReadFromBatchIndex() throws Exception {
+    prepare(false);
+    batchIndexFile = new File(originFileName + PartitionFilesSorter.BATCH_INDEX_SUFFIX);
+    batchIndex.writeTo(batchIndexFile);
+    int chunkSize = 1024 * 1024;
+    PartitionFilesSorter partitionFilesSorter = new PartitionFilesSorter(
+      MemoryTracker.instance(), sortTimeout, chunkSize, 1024 * 1024,
+      new WorkerSource(new RssConf()), true, Long.MAX_VALUE);
+    FileInfo info = partitionFilesSorter.openStream("application-1", originFileName,
+      fileWriter, 5, 10).get();
+
+    Assert.assertTrue(info.isSegmented());
+    Assert.assertEquals(shuffleFile, info.file);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int mapId = 5; mapId < 10; mapId++) {
+      if (mapIdData.containsKey(mapId)) {
+        expected.write(mapIdData.get(mapId).toByteArray());
+      }
+    }
+    // batches of a map keep their order within the map but maps are interleaved, so compare
+    // the bytes of each map
+    byte[] origin = Files.readAllBytes(shuffleFile.toPath());
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    for (int chunk = 0; chunk < info.numChunks; chunk++) {
+      long chunkLength = 0;
+      for (int i = info.chunkSegments[chunk]; i < info.chunkSegments[chunk + 1]; i++) {
+        int offset = (int) info.segmentOffsets[i];
+        read.write(origin, offset, (int) info.segmentLengths[i]);
+        chunkLength += info.segmentLengths[i];
+      }
+      Assert.assertTrue(chunkLength > 0);
+      Assert.assertTrue(chunkLength <= chunkSize ||
+        info.chunkSegments[chunk + 1] - info.chunkSegments[chunk] == 1);
+    }
+    Assert.assertEquals(expected.size(), read.size());
+    Assert.assertEquals(groupByMapId(expected.toByteArray()), groupByMapId(read.toByteArray()));
+    // the file is not sorted
+    Assert.assertTrue(shuffleFile.exists());
+    Assert.assertFalse(new File(originFileName + PartitionFilesSorter.SORTED_SUFFIX).exists());
+
+    partitionFilesSorter.close();
+    batchIndexFile.delete();
+    clean();
+  }
+
+  @Test
+  public void testBatchIndexCacheIsBounded() throws Exception {
+    prepare(false);
+    batchIndexFile = new File(originFileName + PartitionFilesSorter.BATCH_INDEX_SUFFIX);
+    batchIndex.writeTo(batchIndexFile);
+    long indexSize = BatchIndex.readFrom(batchIndexFile).sizeInBytes();
+    for (long capacity : new long[] {indexSize - 1, indexSize}) {
+      PartitionFilesSorter partitionFilesSorter = new PartitionFilesSorter(
+        MemoryTracker.instance(), sortTimeout, CHUNK_SIZE, 1024 * 1024,
+        new WorkerSource(new RssConf()), true, Long.MAX_VALUE, capacity);
+      for (int i = 0; i < 3; i++) {
+        Assert.assertTrue(partitionFilesSorter.openStream("application-1", originFileName,
+          fileWriter, i * 5, i * 5 + 5).get().isSegmented());
+      }
+      if (capacity < indexSize) {
+        // read from the batch index file every time
+        Assert.assertEquals(0, partitionFilesSorter.getBatchIndexCacheResidentBytes());
+        Assert.assertEquals(3, partitionFilesSorter.getBatchIndexCacheMissCount());
+      } else {
+        Assert.assertEquals(indexSize, partitionFilesSorter.getBatchIndexCacheResidentBytes());
+        Assert.assertEquals(2, partitionFilesSorter.getBatchIndexCacheHitCount());
+      }
+      partitionFilesSorter.cleanup(new HashSet<>(Arrays.asList("application-1")));
+      Assert.assertEquals(0, partitionFilesSorter.getBatchIndexCacheResidentBytes());
+      partitionFilesSorter.close();
+    }
+    batchIndexFile.delete();
+    clean();
+  }
+
+  private Map<Integer, ByteBuffer> groupByMapId(byte[] data) {
+    Map<Integer, ByteArrayOutputStream> maps = new HashMap<>();
+    int position = 0;
+    while (position < data.length) {
+      int mapId = Platform.getInt(data, Platform.BYTE_ARRAY_OFFSET + position);
+      int length = 16 + Platform.getInt(data, Platform.BYTE_ARRAY_OFFSET + position + 12);
+      maps.computeIfAbsent(mapId, v -> new ByteArrayOutputStream())
+        .write(data, position, length);
+      position += length;
+    }
+    Map<Integer, ByteBuffer> result = new HashMap<>();
+    maps.forEach((mapId, bytes) -> result.put(mapId, ByteBuffer.wrap(bytes.toByteArray())));
+    return result;
+  }
+
   @Test
   @Ignore
-  public void testLargeFile() throws InterruptedException, IOException {
+  public void testLargeFile() throws Exception {
     prepare(true);
     RssConf conf = new RssConf();
     PartitionFilesSorter partitionFilesSorter = new PartitionFilesSorter(MemoryTracker.instance(),
       sortTimeout, CHUNK_SIZE, 1024 * 1024, new WorkerSource(conf));
     FileInfo info = partitionFilesSorter.openStream("application-1", originFileName,
-      fileWriter, 5, 10);
+      fileWriter, 5, 10).get();
     Thread.sleep(30000);
     System.out.println(info.toString());
     Assert.assertTrue(info.numChunks > 0);
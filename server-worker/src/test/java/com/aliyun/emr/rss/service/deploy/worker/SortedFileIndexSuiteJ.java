@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.emr.rss.service.deploy.worker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SortedFileIndexSuiteJ {
+
+  // maps 7, 2 and 4 in index file order, blocks of 100 bytes laid out by ascending mapId
+  private ByteBuffer createIndex() {
+    ByteBuffer indexBuf = ByteBuffer.allocate(3 * 8 + 6 * 16);
+    indexBuf.putInt(7).putInt(1);
+    indexBuf.putLong(500).putLong(100);
+    indexBuf.putInt(2).putInt(2);
+    indexBuf.putLong(0).putLong(100);
+    indexBuf.putLong(100).putLong(100);
+    indexBuf.putInt(4).putInt(3);
+    indexBuf.putLong(200).putLong(100);
+    indexBuf.putLong(300).putLong(100);
+    indexBuf.putLong(400).putLong(100);
+    indexBuf.flip();
+    return indexBuf;
+  }
+
+  @Test
+  public void testChunkOffsets() {
+    SortedFileIndex index = SortedFileIndex.read(createIndex());
+
+    Assert.assertEquals(Arrays.asList(0L, 600L), index.getChunkOffsets(0, 10, 1000));
+    Assert.assertEquals(Arrays.asList(200L, 500L), index.getChunkOffsets(3, 5, 1000));
+    Assert.assertEquals(Arrays.asList(500L, 600L), index.getChunkOffsets(5, 8, 1000));
+    Assert.assertEquals(new ArrayList<Long>(), index.getChunkOffsets(8, 10, 1000));
+    // a new chunk starts at the first block more than 150 bytes after the chunk start
+    Assert.assertEquals(Arrays.asList(0L, 200L, 400L, 600L), index.getChunkOffsets(0, 10, 150));
+  }
+
+  @Test
+  public void testCacheEvictsLeastRecentlyUsed() {
+    SortedFileIndex index = SortedFileIndex.read(createIndex());
+    long size = index.sizeInBytes();
+    FileIndexCache<SortedFileIndex> cache = new FileIndexCache<>(size * 2);
+
+    cache.put("shuffle-1", "file-1", index);
+    cache.put("shuffle-1", "file-2", index);
+    Assert.assertSame(index, cache.get("file-1"));
+    cache.put("shuffle-2", "file-3", index);
+
+    // file-2 was used least recently
+    Assert.assertNull(cache.get("file-2"));
+    Assert.assertSame(index, cache.get("file-1"));
+    Assert.assertSame(index, cache.get("file-3"));
+    Assert.assertEquals(size * 2, cache.getResidentBytes());
+    Assert.assertEquals(3, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+
+    cache.removeShuffle("shuffle-1");
+    Assert.assertNull(cache.get("file-1"));
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals(size, cache.getResidentBytes());
+
+    // larger than the whole cache
+    FileIndexCache<SortedFileIndex> small = new FileIndexCache<>(size - 1);
+    small.put("shuffle-1", "file-1", index);
+    Assert.assertEquals(0, small.size());
+  }
+}
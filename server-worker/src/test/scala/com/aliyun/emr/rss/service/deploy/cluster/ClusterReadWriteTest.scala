@@ -21,67 +21,85 @@ import com.aliyun.emr.rss.client.ShuffleClientImpl
 
 import java.io.ByteArrayOutputStream
 import java.nio.charset.StandardCharsets
+import java.util.concurrent.{Callable, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.util.Try
+
 import io.netty.channel.ChannelFuture
 import org.apache.commons.lang3.RandomStringUtils
-import org.junit.{Assert, Test}
+import org.junit.{Assert, BeforeClass, Test}
+import com.aliyun.emr.rss.client.read.RssInputStream
 import com.aliyun.emr.rss.client.write.LifecycleManager
 import com.aliyun.emr.rss.common.RssConf
-import com.aliyun.emr.rss.common.rpc.RpcEnv
+import com.aliyun.emr.rss.common.protocol.message.ControlMessages._
+import com.aliyun.emr.rss.common.protocol.message.StatusCode
+import com.aliyun.emr.rss.common.rpc.{RpcEnv, RpcTimeout}
+import com.aliyun.emr.rss.common.util.ThreadUtils
 import com.aliyun.emr.rss.service.deploy.MiniClusterFeature
 
 class ClusterReadWriteTest extends MiniClusterFeature {
-  @Test
-  def testMiniCluster(): Unit = {
-    setUpMiniCluster()
-
-    val APP = "app-1"
-
+  private val STR1 = RandomStringUtils.random(1024)
+  private val DATA1 = STR1.getBytes(StandardCharsets.UTF_8)
+  private val LENGTH1 = DATA1.length
+  private val STR2 = RandomStringUtils.random(32 * 1024)
+  private val DATA2 = STR2.getBytes(StandardCharsets.UTF_8)
+  private val LENGTH2 = DATA2.length
+  private val STR3 = RandomStringUtils.random(32 * 1024)
+  private val DATA3 = STR3.getBytes(StandardCharsets.UTF_8)
+  private val LENGTH3 = DATA3.length
+  private val STR4 = RandomStringUtils.random(16 * 1024)
+  private val DATA4 = STR4.getBytes(StandardCharsets.UTF_8)
+  private val LENGTH4 = DATA4.length
+
+  private def newClientConf(): RssConf = {
     val clientConf = new RssConf()
     clientConf.set("rss.push.data.replicate", "true")
     clientConf.set("rss.push.data.buffer.size", "256K")
-    val metaSystem = new LifecycleManager(APP, clientConf)
-    val shuffleClient = new ShuffleClientImpl(clientConf)
-    shuffleClient.setupMetaServiceRef(metaSystem.self)
+    // the other suites push with the default lz4 codec
+    clientConf.set("rss.client.compression.codec", "zstd")
+    clientConf
+  }
 
-    val STR1 = RandomStringUtils.random(1024)
-    val DATA1 = STR1.getBytes(StandardCharsets.UTF_8)
-    val OFFSET1 = 0
-    val LENGTH1 = DATA1.length
+  private def readAll(inputStream: RssInputStream): Array[Byte] = {
+    val outputStream = new ByteArrayOutputStream()
+    var b = inputStream.read()
+    while (b != -1) {
+      outputStream.write(b)
+      b = inputStream.read()
+    }
+    outputStream.toByteArray
+  }
 
-    val dataSize1 = shuffleClient.pushData(APP, 1, 0, 0, 0, DATA1, OFFSET1, LENGTH1, 1, 1)
+  /**
+   * Pushes and merges the four blocks of data to partition 0 of shuffle 1 from a single mapper.
+   */
+  private def writeShuffle(app: String, shuffleClient: ShuffleClientImpl): Unit = {
+    val dataSize1 = shuffleClient.pushData(app, 1, 0, 0, 0, DATA1, 0, LENGTH1, 1, 1)
     logInfo(s"push data data size ${dataSize1}")
-
-    val STR2 = RandomStringUtils.random(32 * 1024)
-    val DATA2 = STR2.getBytes(StandardCharsets.UTF_8)
-    val OFFSET2 = 0
-    val LENGTH2 = DATA2.length
-    val dataSize2 = shuffleClient.pushData(APP, 1, 0, 0, 0, DATA2, OFFSET2, LENGTH2, 1, 1)
+    val dataSize2 = shuffleClient.pushData(app, 1, 0, 0, 0, DATA2, 0, LENGTH2, 1, 1)
     logInfo(s"push data data size ${dataSize2}")
-
-    val STR3 = RandomStringUtils.random(32 * 1024)
-    val DATA3 = STR3.getBytes(StandardCharsets.UTF_8)
-    val LENGTH3 = DATA3.length
-    val dataSize3 = shuffleClient.mergeData(APP, 1, 0, 0, 0, DATA3, 0, LENGTH3, 1, 1);
-
-    val STR4 = RandomStringUtils.random(16 * 1024)
-    val DATA4 = STR4.getBytes(StandardCharsets.UTF_8)
-    val LENGTH4 = DATA4.length
-    val dataSize4 = shuffleClient.mergeData(APP, 1, 0, 0, 0, DATA4, 0, LENGTH4, 1, 1);
-    shuffleClient.pushMergedData(APP, 1, 0, 0)
+    shuffleClient.mergeData(app, 1, 0, 0, 0, DATA3, 0, LENGTH3, 1, 1)
+    shuffleClient.mergeData(app, 1, 0, 0, 0, DATA4, 0, LENGTH4, 1, 1)
+    shuffleClient.pushMergedData(app, 1, 0, 0)
     Thread.sleep(1000)
 
-    shuffleClient.mapperEnd(APP, 1, 0, 0, 1)
+    shuffleClient.mapperEnd(app, 1, 0, 0, 1)
+  }
 
-    val inputStream = shuffleClient.readPartition(APP, 1, 0, 0)
-    val outputStream = new ByteArrayOutputStream()
+  @Test
+  def testMiniCluster(): Unit = {
+    val APP = "app-1"
 
-    var b = inputStream.read()
-    while (b != -1) {
-      outputStream.write(b)
-      b = inputStream.read()
-    }
+    val clientConf = newClientConf()
+    val metaSystem = new LifecycleManager(APP, clientConf)
+    val shuffleClient = new ShuffleClientImpl(clientConf)
+    shuffleClient.setupMetaServiceRef(metaSystem.self)
 
-    val readBytes = outputStream.toByteArray
+    writeShuffle(APP, shuffleClient)
+
+    val readBytes = readAll(shuffleClient.readPartition(APP, 1, 0, 0))
 
     assert(readBytes.length == LENGTH1 + LENGTH2 + LENGTH3 + LENGTH4)
     val targetArr = Array.concat(DATA1, DATA2, DATA3, DATA4)
@@ -90,6 +108,128 @@ class ClusterReadWriteTest extends MiniClusterFeature {
     Thread.sleep(5000L)
     shuffleClient.shutDown()
     metaSystem.rpcEnv.shutdown()
+  }
+
+  @Test
+  def testAsyncDecompression(): Unit = {
+    val APP = "app-2"
 
+    val clientConf = newClientConf()
+    val metaSystem = new LifecycleManager(APP, clientConf)
+    val shuffleClient = new ShuffleClientImpl(clientConf)
+    shuffleClient.setupMetaServiceRef(metaSystem.self)
+    writeShuffle(APP, shuffleClient)
+    val targetArr = Array.concat(DATA1, DATA2, DATA3, DATA4)
+
+    // read decompressing in the background
+    val asyncClientConf = clientConf.clone
+    asyncClientConf.set("rss.fetch.decompress.async.enabled", "true")
+    asyncClientConf.set("rss.fetch.decompress.async.buffers", "2")
+    val asyncShuffleClient = new ShuffleClientImpl(asyncClientConf)
+    asyncShuffleClient.setupMetaServiceRef(metaSystem.self)
+    val asyncInputStream = asyncShuffleClient.readPartition(APP, 1, 0, 0)
+    val asyncReadBytes = new Array[Byte](targetArr.length)
+    var offset = 0
+    var n = asyncInputStream.read(asyncReadBytes, 0, asyncReadBytes.length)
+    while (n > 0) {
+      offset += n
+      n = asyncInputStream.read(asyncReadBytes, offset, asyncReadBytes.length - offset)
+    }
+    assert(offset == targetArr.length)
+    assert(asyncInputStream.read() == -1)
+    Assert.assertArrayEquals(targetArr, asyncReadBytes)
+    asyncInputStream.close()
+    asyncShuffleClient.shutDown()
+
+    shuffleClient.shutDown()
+    metaSystem.rpcEnv.shutdown()
+  }
+
+  @Test
+  def testCoalescedPush(): Unit = {
+    val APP = "app-3"
+
+    val metaSystem = new LifecycleManager(APP, newClientConf())
+    // batches of two maps coalesced into the same merged push
+    val coalesceClientConf = newClientConf()
+    coalesceClientConf.set("rss.push.data.coalesce.enabled", "true")
+    coalesceClientConf.set("rss.push.data.coalesce.size", "10m")
+    coalesceClientConf.set("rss.push.data.coalesce.delay", "10s")
+    val coalesceShuffleClient = new ShuffleClientImpl(coalesceClientConf)
+    coalesceShuffleClient.setupMetaServiceRef(metaSystem.self)
+    coalesceShuffleClient.pushData(APP, 2, 0, 0, 0, DATA1, 0, LENGTH1, 2, 1)
+    coalesceShuffleClient.pushData(APP, 2, 1, 0, 0, DATA2, 0, LENGTH2, 2, 1)
+    coalesceShuffleClient.mergeData(APP, 2, 0, 0, 0, DATA3, 0, LENGTH3, 2, 1)
+    coalesceShuffleClient.pushMergedData(APP, 2, 0, 0)
+    coalesceShuffleClient.mapperEnd(APP, 2, 0, 0, 2)
+    coalesceShuffleClient.mapperEnd(APP, 2, 1, 0, 2)
+
+    val coalescedBytes = readAll(coalesceShuffleClient.readPartition(APP, 2, 0, 0))
+    Assert.assertArrayEquals(Array.concat(DATA1, DATA2, DATA3), coalescedBytes)
+    coalesceShuffleClient.shutDown()
+    metaSystem.rpcEnv.shutdown()
+  }
+
+  @Test
+  def testConcurrentRevivesAndMapperEnds(): Unit = {
+    val APP = "app-4"
+
+    val metaSystem = new LifecycleManager(APP, newClientConf())
+    // thousands of mappers reviving and ending at the same time
+    val numMappers = 2000
+    val registered = metaSystem.self.askSync[RegisterShuffleResponse](
+      RegisterShuffle(APP, 3, numMappers, 100))
+    assert(registered.status == StatusCode.Success)
+    val locations = registered.partitionLocations.asScala.toArray
+    val mappers = ThreadUtils.newDaemonFixedThreadPool(200, "mapper")
+    // a revive whose context is lost times out instead of waiting for the default ask timeout
+    val reviveTimeout = new RpcTimeout(30.seconds, "rss.test.revive.timeout")
+    val reviveStartTime = System.nanoTime()
+    val replies = (0 until numMappers).map { mapId =>
+      val location = locations(mapId % locations.length)
+      mappers.submit(new Callable[ChangeLocationResponse] {
+        override def call(): ChangeLocationResponse = {
+          metaSystem.self.askSync[ChangeLocationResponse](Revive(APP, 3, mapId, 0,
+            location.getReduceId, location.getEpoch, location,
+            StatusCode.PushDataFailNonCriticalCause), reviveTimeout)
+        }
+      })
+    }.map(future => Try(future.get(120, TimeUnit.SECONDS)))
+    logInfo(s"$numMappers revives took " +
+      s"${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reviveStartTime)} ms")
+    // every revive is replied, also those registered while the relocation completes
+    val unreplied = replies.count(_.isFailure)
+    assert(unreplied == 0, s"$unreplied of $numMappers revives got no reply")
+    val revived = replies.map(_.get)
+    assert(revived.forall(_.status == StatusCode.Success))
+    // a single new location for every partition, shared by all mappers reviving it
+    val newLocations = revived.map(_.partition).groupBy(_.getReduceId)
+    assert(newLocations.size == locations.length)
+    newLocations.values.foreach { partitionLocations =>
+      assert(partitionLocations.map(l => (l.getUniqueId, l.hostAndPorts)).distinct.size == 1)
+      assert(partitionLocations.head.getEpoch == 1)
+    }
+
+    val ended = (0 until numMappers).map { mapId =>
+      mappers.submit(new Callable[MapperEndResponse] {
+        override def call(): MapperEndResponse = {
+          metaSystem.self.askSync[MapperEndResponse](MapperEnd(APP, 3, mapId, 0, numMappers))
+        }
+      })
+    }.map(_.get(120, TimeUnit.SECONDS))
+    assert(ended.forall(_.status == StatusCode.Success))
+    val fileGroup = metaSystem.self.askSync[GetReducerFileGroupResponse](
+      GetReducerFileGroup(APP, 3))
+    assert(fileGroup.status == StatusCode.Success)
+    assert(fileGroup.attempts.forall(_ == 0))
+    mappers.shutdown()
+    metaSystem.rpcEnv.shutdown()
+  }
+}
+
+object ClusterReadWriteTest extends MiniClusterFeature {
+  @BeforeClass
+  def beforeAll(): Unit = {
+    setUpMiniCluster()
   }
 }